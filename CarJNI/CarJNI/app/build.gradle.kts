@@ -25,6 +25,14 @@ android {
             )
         }
     }
+    sourceSets {
+        getByName("main") {
+            // 客户端与服务端共用的代码，位于仓库根目录的common模块
+            java.srcDir("../../../common/src/main/java")
+            // common中依赖Android的部分，common模块自身不编译
+            java.srcDir("../../../common/src/android/java")
+        }
+    }
     compileOptions {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
@@ -35,6 +43,10 @@ android {
             version = "3.22.1"
         }
     }
+    testOptions {
+        // 本地单元测试中android.util.Log等方法返回默认值，便于直接测试网络层
+        unitTests.isReturnDefaultValues = true
+    }
     buildFeatures {
         viewBinding = true
     }
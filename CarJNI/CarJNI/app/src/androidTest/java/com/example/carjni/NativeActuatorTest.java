@@ -0,0 +1,89 @@
+package com.example.carjni;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * native执行器后端：open/ioctl的返回值交给Java，模拟设备按设置的耗时执行并记录每条指令
+ */
+@RunWith(AndroidJUnit4.class)
+public class NativeActuatorTest {
+    private static final int ENOENT = 2;
+    private static final int EBADF = 9;
+
+    static {
+        System.loadLibrary("carjni");
+    }
+
+    @Test
+    public void openMissingDeviceReturnsErrno() {
+        NativeActuator actuator = new NativeActuator(NativeActuator.BACKEND_IOCTL, "/dev/no-such-device", 0);
+        assertEquals(-ENOENT, actuator.open());
+        assertFalse(actuator.isOpen());
+        assertEquals(-EBADF, actuator.control(0, 0));
+
+        actuator.controlCar(90, 50);
+        assertEquals(1, actuator.getErrorCount());
+        assertEquals(-EBADF, actuator.getLastError());
+    }
+
+    @Test
+    public void simulatedDeviceModelsLatencyAndKeepsLog() {
+        NativeActuator actuator = new NativeActuator(NativeActuator.BACKEND_SIMULATED, null, 500);
+        assertEquals(0, actuator.open());
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < 10; i++) {
+                assertEquals(0, actuator.control(i * 10, i));
+            }
+            assertTrue(System.nanoTime() - start >= TimeUnit.MICROSECONDS.toNanos(10 * 500));
+
+            // 只取最近的4条，按时间先后排列
+            int[] records = new int[8];
+            assertEquals(4, actuator.readLog(records));
+            assertArrayEquals(new int[]{60, 6, 70, 7, 80, 8, 90, 9}, records);
+            assertEquals(0, actuator.getErrorCount());
+        } finally {
+            assertEquals(0, actuator.close());
+        }
+        assertEquals(0, actuator.readLog(new int[2]));
+    }
+
+    @Test
+    public void simulatedDeviceWritesRecordsToFile() throws Exception {
+        File dir = InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir();
+        File log = File.createTempFile("actuator", ".bin", dir);
+        try {
+            NativeActuator actuator = new NativeActuator(NativeActuator.BACKEND_SIMULATED, log.getPath(), 0);
+            assertEquals(0, actuator.open());
+            actuator.controlCar(270, 85);
+            actuator.controlCar(-1, -100);
+            assertEquals(0, actuator.close());
+
+            byte[] bytes = new byte[16];
+            try (DataInputStream in = new DataInputStream(new FileInputStream(log))) {
+                in.readFully(bytes);
+                assertEquals(-1, in.read());
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder());
+            assertEquals(270, buffer.getInt());
+            assertEquals(85, buffer.getInt());
+            assertEquals(-1, buffer.getInt());
+            assertEquals(-100, buffer.getInt());
+        } finally {
+            log.delete();
+        }
+    }
+}
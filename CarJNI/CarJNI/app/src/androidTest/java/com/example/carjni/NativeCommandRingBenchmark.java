@@ -0,0 +1,104 @@
+package com.example.carjni;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * 对比每条指令一次JNI调用与共享内存指令环的开销
+ * 设备节点换成缓存目录下的普通文件：ioctl失败后native改为写入记录，两种方式走的是同一个ioctl后端；
+ * 后端的control只允许单个线程调用，两种方式分两个阶段测量，不交替调用
+ * 结果输出到logcat，标签为NativeCommandRing
+ */
+@RunWith(AndroidJUnit4.class)
+public class NativeCommandRingBenchmark {
+    private static final String TAG = "NativeCommandRing";
+    private static final int WARMUP = 10_000;
+    private static final int ITERATIONS = 200_000;
+
+    static {
+        System.loadLibrary("carjni");
+    }
+
+    private NativeCommandRing ring;
+    private File device;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        device = File.createTempFile("mydevice", ".bin", context.getCacheDir());
+        ring = new NativeCommandRing(64);
+        assertEquals(0, ring.start(device.getPath(), 500));
+    }
+
+    @After
+    public void tearDown() {
+        ring.stop();
+        device.delete();
+    }
+
+    @Test
+    public void ringAppliesNewestCommand() throws Exception {
+        ring.controlCar(30, 40);
+        ring.controlCar(60, 80);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (ring.getReadSequence() != ring.getWriteSequence()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(ring.getWriteSequence(), ring.getReadSequence());
+        assertEquals(0, ring.getErrorCount());
+    }
+
+    @Test
+    public void compareDirectJniWithRing() throws Exception {
+        // 第一阶段：每条指令一次JNI调用，由本线程直接调用ioctl后端；指令环此时没有指令
+        NativeActuator direct = new NativeActuator(NativeActuator.BACKEND_IOCTL, device.getPath(), 0);
+        assertEquals(0, direct.open());
+        long directNanos;
+        try {
+            for (int i = 0; i < WARMUP; i++) {
+                assertEquals(0, direct.control(i % 360, 50));
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                direct.control(i % 360, 50);
+            }
+            directNanos = System.nanoTime() - start;
+        } finally {
+            direct.close();
+        }
+
+        // 第二阶段：指令写入共享内存，只有native工作线程调用ioctl后端
+        for (int i = 0; i < WARMUP; i++) {
+            ring.controlCar(i % 360, 50);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            ring.controlCar(i % 360, 50);
+        }
+        long ringNanos = System.nanoTime() - start;
+        long deadline = System.currentTimeMillis() + 2000;
+        while (ring.getReadSequence() != ring.getWriteSequence()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        Log.i(TAG, String.format("direct JNI: %.1f ns/op, ring: %.1f ns/op, applied=%d, coalesced=%d",
+                (double) directNanos / ITERATIONS, (double) ringNanos / ITERATIONS,
+                ring.getAppliedCount(), ring.getCoalescedCount()));
+        assertEquals(0, ring.getErrorCount());
+        assertTrue(ringNanos < directNanos);
+    }
+}
@@ -0,0 +1,125 @@
+#include "actuator_backend.h"
+#include "native_log.h"
+
+#include <cerrno>
+#include <ctime>
+#include <fcntl.h>
+#include <sys/ioctl.h>
+#include <unistd.h>
+
+namespace {
+
+long nowNanos() {
+    timespec ts{};
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec * 1000000000L + ts.tv_nsec;
+}
+
+// 写入一条角度和速度记录，失败返回负的errno
+int writeRecord(int fd, int angle, int speed) {
+    int32_t record[2] = {angle, speed};
+    if (write(fd, record, sizeof(record)) == sizeof(record)) {
+        return 0;
+    }
+    return errno != 0 ? -errno : -EIO;
+}
+
+}  // namespace
+
+int IoctlBackend::open() {
+    if (fd_ >= 0) {
+        return 0;
+    }
+    fd_ = ::open(path_.c_str(), O_RDWR | O_NDELAY | O_NOCTTY);
+    if (fd_ < 0) {
+        int openErrno = errno;
+        LOGI("serial", "open %s error errno=%d", path_.c_str(), openErrno);
+        return -openErrno;
+    }
+    LOGI("serial", "open %s success fd=%d", path_.c_str(), fd_);
+    return 0;
+}
+
+int IoctlBackend::control(int angle, int speed) {
+    if (fd_ < 0) {
+        return -EBADF;
+    }
+    if (ioctl(fd_, speed, angle) == 0) {
+        return 0;
+    }
+    if (errno == ENOTTY) {
+        return writeRecord(fd_, angle, speed);
+    }
+    return -errno;
+}
+
+int IoctlBackend::close() {
+    if (fd_ < 0) {
+        return 0;
+    }
+    int result = ::close(fd_) == 0 ? 0 : -errno;
+    fd_ = -1;
+    return result;
+}
+
+int SimulatedBackend::open() {
+    if (fd_ >= 0 || path_.empty()) {
+        return 0;
+    }
+    // FIFO以读写方式打开，没有读者时也不会阻塞或失败；写满时返回-EAGAIN
+    fd_ = ::open(path_.c_str(), O_RDWR | O_CREAT | O_NONBLOCK, 0644);
+    if (fd_ < 0) {
+        return -errno;
+    }
+    LOGI("serial", "simulated device %s latency=%ldns", path_.c_str(), latencyNanos_);
+    return 0;
+}
+
+int SimulatedBackend::control(int angle, int speed) {
+    if (latencyNanos_ > 0) {
+        // 忙等而不是睡眠：ioctl的耗时通常只有几十到几百微秒，nanosleep的误差与之相当
+        long deadline = nowNanos() + latencyNanos_;
+        while (nowNanos() < deadline) {
+        }
+    }
+    uint64_t count = count_.load(std::memory_order_relaxed);
+    uint64_t entry = (static_cast<uint64_t>(static_cast<uint32_t>(angle)) << 32)
+            | static_cast<uint32_t>(speed);
+    __atomic_store_n(&log_[count % kLogCapacity], entry, __ATOMIC_RELAXED);
+    count_.store(count + 1, std::memory_order_release);
+    return fd_ >= 0 ? writeRecord(fd_, angle, speed) : 0;
+}
+
+int SimulatedBackend::close() {
+    if (fd_ < 0) {
+        return 0;
+    }
+    int result = ::close(fd_) == 0 ? 0 : -errno;
+    fd_ = -1;
+    return result;
+}
+
+int SimulatedBackend::readLog(int32_t *dst, int maxRecords) {
+    uint64_t count = count_.load(std::memory_order_acquire);
+    uint64_t available = count < kLogCapacity ? count : kLogCapacity;
+    int n = static_cast<int>(available < static_cast<uint64_t>(maxRecords) ? available : maxRecords);
+    // 读取期间写入线程可能覆盖最旧的记录，调用方应在写入停止后读取
+    for (int i = 0; i < n; i++) {
+        uint64_t entry = __atomic_load_n(&log_[(count - n + i) % kLogCapacity], __ATOMIC_RELAXED);
+        dst[i * 2] = static_cast<int32_t>(entry >> 32);
+        dst[i * 2 + 1] = static_cast<int32_t>(entry);
+    }
+    return n;
+}
+
+std::unique_ptr<ActuatorBackend> createBackend(int type, const char *path, long latencyNanos) {
+    switch (type) {
+        case kBackendIoctl:
+            return std::unique_ptr<ActuatorBackend>(new IoctlBackend(path != nullptr ? path : ""));
+        case kBackendSimulated:
+            return std::unique_ptr<ActuatorBackend>(
+                    new SimulatedBackend(path != nullptr ? path : "", latencyNanos));
+        default:
+            return nullptr;
+    }
+}
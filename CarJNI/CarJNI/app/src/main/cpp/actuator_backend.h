@@ -0,0 +1,85 @@
+#ifndef CARJNI_ACTUATOR_BACKEND_H
+#define CARJNI_ACTUATOR_BACKEND_H
+
+#include <atomic>
+#include <cstdint>
+#include <memory>
+#include <string>
+
+// 执行器后端：把一条指令下发到驱动，或在没有设备的主机上模拟下发
+// 所有方法成功返回0，失败返回负的errno，由JNI层原样交给Java
+// control只允许单个线程调用；open和close需要在该线程启动之前和退出之后调用
+
+// 后端类型，与NativeActuator.BACKEND_*保持一致
+enum BackendType {
+    kBackendIoctl = 0,
+    kBackendSimulated = 1,
+};
+
+class ActuatorBackend {
+public:
+    virtual ~ActuatorBackend() = default;
+
+    virtual int open() = 0;
+
+    virtual int control(int angle, int speed) = 0;
+
+    virtual int close() = 0;
+
+    // 复制最近的指令记录，每条记录占两个int（角度、速度），按时间先后排列；不保留记录的后端返回0
+    virtual int readLog(int32_t * /* dst */, int /* maxRecords */) {
+        return 0;
+    }
+};
+
+// 真实设备：ioctl(fd, speed, angle)
+// 设备是FIFO或普通文件时ioctl失败（ENOTTY），改为写入角度和速度，便于在Linux上验证同一段代码
+class IoctlBackend : public ActuatorBackend {
+public:
+    explicit IoctlBackend(std::string path) : path_(std::move(path)) {}
+
+    ~IoctlBackend() override { close(); }
+
+    int open() override;
+
+    int control(int angle, int speed) override;
+
+    int close() override;
+
+private:
+    std::string path_;
+    int fd_ = -1;
+};
+
+// 模拟设备：每条指令忙等latencyNanos模拟ioctl的耗时，然后写入内存中的记录环；
+// 指定了路径时同时把角度和速度写入该文件或FIFO，供其他进程观察
+class SimulatedBackend : public ActuatorBackend {
+public:
+    static constexpr int kLogCapacity = 4096;
+
+    SimulatedBackend(std::string path, long latencyNanos)
+            : path_(std::move(path)), latencyNanos_(latencyNanos) {}
+
+    ~SimulatedBackend() override { close(); }
+
+    int open() override;
+
+    int control(int angle, int speed) override;
+
+    int close() override;
+
+    int readLog(int32_t *dst, int maxRecords) override;
+
+private:
+    std::string path_;
+    long latencyNanos_;
+    int fd_ = -1;
+    // 每条记录为 角度(高32位) | 速度(低32位)，count_为累计写入数，读者按count_取最近的记录
+    uint64_t log_[kLogCapacity] = {};
+    std::atomic<uint64_t> count_{0};
+};
+
+// 按类型创建后端，类型未知时返回nullptr
+std::unique_ptr<ActuatorBackend> createBackend(int type, const char *path, long latencyNanos);
+
+#endif // CARJNI_ACTUATOR_BACKEND_H
@@ -1,40 +1,188 @@
 #include <jni.h>
 #include <string>
-#include <android/log.h>
-#include <asm-generic/fcntl.h>
-#include <fcntl.h>
-#include <unistd.h>
+#include <atomic>
+#include <cerrno>
+#include <cstdint>
+#include <ctime>
+#include <memory>
+#include <thread>
 
-int fd = 0;
+#include "actuator_backend.h"
+
+// ---------------------------------------------------------------------------
+// 执行器后端，对应NativeActuator.java
+// Java对象持有后端指针，open/control/close的返回值（0或-errno）原样交给Java
+// 未知的后端类型创建失败时句柄为0，之后的调用都返回-EINVAL
+// ---------------------------------------------------------------------------
+
+namespace {
+
+ActuatorBackend *backendOf(jlong handle) {
+    return reinterpret_cast<ActuatorBackend *>(handle);
+}
+
+}  // namespace
+
+extern "C" JNIEXPORT jlong JNICALL
+Java_com_example_carjni_NativeActuator_nativeCreate(JNIEnv *env, jclass, jint type, jstring devicePath,
+                                                    jint latencyMicros) {
+    const char *path = devicePath != nullptr ? env->GetStringUTFChars(devicePath, nullptr) : nullptr;
+    std::unique_ptr<ActuatorBackend> backend =
+            createBackend(type, path, static_cast<long>(latencyMicros) * 1000);
+    if (path != nullptr) {
+        env->ReleaseStringUTFChars(devicePath, path);
+    }
+    return reinterpret_cast<jlong>(backend.release());
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_example_carjni_NativeActuator_nativeOpen(JNIEnv *, jclass, jlong handle) {
+    ActuatorBackend *backend = backendOf(handle);
+    return backend != nullptr ? backend->open() : -EINVAL;
+}
 
 extern "C" JNIEXPORT jint JNICALL
-Java_com_example_carjni_MainActivity_MyDeviceOpen(
-        JNIEnv* env,
-        jobject /* this */) {
-    fd = open("/dev/mydevice", O_RDWR | O_NDELAY | O_NOCTTY);
+Java_com_example_carjni_NativeActuator_nativeControl(JNIEnv *, jclass, jlong handle, jint angle,
+                                                     jint speed) {
+    ActuatorBackend *backend = backendOf(handle);
+    return backend != nullptr ? backend->control(angle, speed) : -EINVAL;
+}
 
-    if (fd < 0) {
-        __android_log_print(ANDROID_LOG_INFO, "serial", "open error");
-    }else {
-        __android_log_print(ANDROID_LOG_INFO, "serial", "open success fd=%d",fd);
+extern "C" JNIEXPORT jint JNICALL
+Java_com_example_carjni_NativeActuator_nativeReadLog(JNIEnv *env, jclass, jlong handle, jintArray dst) {
+    ActuatorBackend *backend = backendOf(handle);
+    if (backend == nullptr) {
+        return -EINVAL;
     }
-    return 0;
+    jsize maxRecords = env->GetArrayLength(dst) / 2;
+    jint *records = env->GetIntArrayElements(dst, nullptr);
+    int count = backend->readLog(reinterpret_cast<int32_t *>(records), maxRecords);
+    env->ReleaseIntArrayElements(dst, records, 0);
+    return count;
 }
 
 extern "C" JNIEXPORT jint JNICALL
-Java_com_example_carjni_MainActivity_MyDeviceClose(
-        JNIEnv* env,
-        jobject /* this */) {
-    if (fd > 0) {
-        close(fd);
+Java_com_example_carjni_NativeActuator_nativeDestroy(JNIEnv *, jclass, jlong handle) {
+    ActuatorBackend *backend = backendOf(handle);
+    if (backend == nullptr) {
+        return -EINVAL;
     }
-    return 0;
+    int result = backend->close();
+    delete backend;
+    return result;
 }
 
 
-extern "C" JNIEXPORT void JNICALL
-Java_com_example_carjni_MainActivity_controlCar(JNIEnv *env, jobject, jint angle, jint speed) {
+// ---------------------------------------------------------------------------
+// 共享内存指令环，内存布局与NativeCommandRing.java保持一致
+// Java写入槽位和writeSeq，工作线程只取最新的一条指令交给ioctl后端，每条指令不再需要一次JNI调用
+// 后端只由工作线程调用control，nativeStop在工作线程退出后才释放后端
+// 停止时工作线程先执行完已写入的最新指令再退出，关闭前下发的停止指令不会丢失
+// ---------------------------------------------------------------------------
+
+namespace {
+
+enum HeaderWord {
+    kWriteSeq = 0,
+    kReadSeq = 1,
+    kApplied = 2,
+    kCoalesced = 3,
+    kErrors = 4,
+};
+constexpr int kHeaderBytes = 64;
 
+struct CommandRing {
+    int64_t *header = nullptr;
+    int64_t *slots = nullptr;
+    int capacity = 0;
+    std::unique_ptr<ActuatorBackend> backend;
+    long pollNanos = 0;
+    std::atomic<bool> running{false};
+    std::thread worker;
+};
 
-    ioctl(fd, speed, angle);
-}
\ No newline at end of file
+CommandRing ring;
+
+// 只有工作线程写这些计数，用relaxed原子写保证Java读到的是完整的值
+void addCounter(HeaderWord word, int64_t delta) {
+    __atomic_store_n(&ring.header[word], ring.header[word] + delta, __ATOMIC_RELAXED);
+}
+
+void ringLoop() {
+    uint64_t lastSeq = 0;
+    timespec pollInterval = {0, ring.pollNanos};
+    while (true) {
+        // 先读running再读writeSeq：停止请求之前写入的指令一定能被看到
+        bool running = ring.running.load(std::memory_order_acquire);
+        auto seq = static_cast<uint64_t>(__atomic_load_n(&ring.header[kWriteSeq], __ATOMIC_ACQUIRE));
+        if (seq == lastSeq) {
+            if (!running) {
+                break;
+            }
+            nanosleep(&pollInterval, nullptr);
+            continue;
+        }
+
+        auto entry = static_cast<uint64_t>(
+                __atomic_load_n(&ring.slots[seq % ring.capacity], __ATOMIC_ACQUIRE));
+        if (static_cast<uint32_t>(entry >> 32) != static_cast<uint32_t>(seq)) {
+            // 槽位的写入尚未可见，重新读取
+            continue;
+        }
+
+        int angle = static_cast<int16_t>(entry >> 16);
+        int speed = static_cast<int16_t>(entry);
+        if (ring.backend->control(angle, speed) != 0) {
+            addCounter(kErrors, 1);
+        }
+        if (seq - lastSeq > 1) {
+            addCounter(kCoalesced, static_cast<int64_t>(seq - lastSeq - 1));
+        }
+        addCounter(kApplied, 1);
+        lastSeq = seq;
+        __atomic_store_n(&ring.header[kReadSeq], static_cast<int64_t>(seq), __ATOMIC_RELEASE);
+    }
+}
+
+}  // namespace
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_example_carjni_NativeCommandRing_nativeStart(JNIEnv *env, jclass, jobject buffer,
+                                                      jint capacity, jstring devicePath,
+                                                      jint pollMicros) {
+    if (ring.running.load()) {
+        return -EBUSY;
+    }
+    auto *base = static_cast<uint8_t *>(env->GetDirectBufferAddress(buffer));
+    if (base == nullptr || capacity <= 0) {
+        return -EINVAL;
+    }
+
+    const char *path = env->GetStringUTFChars(devicePath, nullptr);
+    std::unique_ptr<ActuatorBackend> backend = createBackend(kBackendIoctl, path, 0);
+    env->ReleaseStringUTFChars(devicePath, path);
+    int result = backend->open();
+    if (result < 0) {
+        return result;
+    }
+
+    ring.header = reinterpret_cast<int64_t *>(base);
+    ring.slots = reinterpret_cast<int64_t *>(base + kHeaderBytes);
+    ring.capacity = capacity;
+    ring.backend = std::move(backend);
+    ring.pollNanos = static_cast<long>(pollMicros) * 1000;
+    ring.running.store(true, std::memory_order_release);
+    ring.worker = std::thread(ringLoop);
+    return 0;
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_example_carjni_NativeCommandRing_nativeStop(JNIEnv *, jclass) {
+    if (!ring.running.exchange(false)) {
+        return;
+    }
+    ring.worker.join();
+    ring.backend.reset();
+    ring.header = nullptr;
+    ring.slots = nullptr;
+}
@@ -0,0 +1,14 @@
+#ifndef CARJNI_NATIVE_LOG_H
+#define CARJNI_NATIVE_LOG_H
+
+// 日志输出：Android上写入logcat，在Linux主机上构建时写入stderr
+#ifdef __ANDROID__
+#include <android/log.h>
+#define LOGI(tag, ...) __android_log_print(ANDROID_LOG_INFO, tag, __VA_ARGS__)
+#else
+#include <cstdio>
+#define LOGI(tag, ...) (std::fprintf(stderr, "%s: ", tag), std::fprintf(stderr, __VA_ARGS__), \
+                        std::fputc('\n', stderr))
+#endif
+
+#endif // CARJNI_NATIVE_LOG_H
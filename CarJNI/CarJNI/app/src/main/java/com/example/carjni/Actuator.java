@@ -0,0 +1,15 @@
+package com.example.carjni;
+
+/**
+ * 执行器，负责把控制指令下发到驱动
+ * 正式运行时由NativeActuator通过JNI调用ioctl或模拟设备实现，测试时可以替换为桩实现
+ */
+public interface Actuator {
+    /**
+     * 控制小车
+     *
+     * @param angle 角度，0-360
+     * @param speed 速度，0-100
+     */
+    void controlCar(int angle, int speed);
+}
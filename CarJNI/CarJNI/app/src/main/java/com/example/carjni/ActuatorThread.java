@@ -0,0 +1,273 @@
+package com.example.carjni;
+
+import com.example.carcommon.TraceEvent;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 专用的执行器线程
+ * 网络线程把解析出的指令写入单槽位信箱后立即返回，由本线程以高优先级调用controlCar，
+ * 电机控制不再排在主线程的布局、绘制和GC之后
+ *
+ * 信箱只保存最新的一条指令：执行器忙时到达的多条指令只执行最后一条
+ * 槽位是一个long：高32位为版本号，中间16位为角度，低16位为速度
+ *
+ * 设置了LatencyTracker时，每条携带接收时间的指令在controlCar返回后记录接收到执行完成的延迟；
+ * 接收时间与槽位分开写入，两次写入之间被覆盖时记录的是更新指令的接收时间
+ *
+ * 看门狗通过submitStop提交停止指令，controlCar(0, 0)返回后回调StopListener，
+ * 停车延迟因此包括信箱排队和ioctl的耗时；停止指令在执行前被更新的指令覆盖时不回调
+ */
+public class ActuatorThread implements Runnable {
+    /**
+     * 看门狗的停止指令执行完成，在执行器线程中回调
+     */
+    public interface StopListener {
+        /**
+         * @param deadlineNanos 看门狗的截止时间（System.nanoTime）
+         * @param appliedNanos  controlCar(0, 0)返回的时间（System.nanoTime）
+         */
+        void onStopApplied(long deadlineNanos, long appliedNanos);
+    }
+
+    private final Actuator actuator;
+    private final LatencyTracker tracker;
+    private BlackBox blackBox;
+    private StopListener stopListener;
+
+    private final AtomicLong slot = new AtomicLong();
+    private final AtomicInteger writeVersion = new AtomicInteger();
+    // 最新指令的提交时间和接收时间，在写入槽位之前更新；
+    // 接收时间为0表示不统计延迟（如看门狗的停车指令）
+    private volatile long submittedNanos;
+    private volatile long receivedNanos;
+    // 看门狗停止指令的截止时间，普通指令为0
+    private volatile long stopDeadlineNanos;
+
+    private volatile boolean running;
+    private volatile Thread thread;
+
+    // 最近一次执行的指令，供界面刷新读取
+    private volatile int lastAngle;
+    private volatile int lastSpeed;
+
+    // 统计数据，只由执行器线程修改
+    private volatile long appliedCount;
+    private volatile long coalescedCount;
+    private volatile long lastQueueDelayNanos;
+    private volatile long maxQueueDelayNanos;
+    private volatile long totalQueueDelayNanos;
+    private volatile long maxActuateNanos;
+
+    /**
+     * @param actuator 实际下发指令的执行器
+     */
+    public ActuatorThread(Actuator actuator) {
+        this(actuator, null);
+    }
+
+    /**
+     * @param actuator 实际下发指令的执行器
+     * @param tracker  延迟统计，为null时不统计
+     */
+    public ActuatorThread(Actuator actuator, LatencyTracker tracker) {
+        this.actuator = actuator;
+        this.tracker = tracker;
+    }
+
+    /**
+     * 设置黑匣子，记录每条取出执行的指令，需要在start之前调用
+     *
+     * @param blackBox 黑匣子，为null时不记录
+     */
+    public void setBlackBox(BlackBox blackBox) {
+        this.blackBox = blackBox;
+    }
+
+    /**
+     * 设置停止指令执行完成的回调，需要在start之前调用
+     *
+     * @param stopListener 回调，为null时不回调
+     */
+    public void setStopListener(StopListener stopListener) {
+        this.stopListener = stopListener;
+    }
+
+    /**
+     * 启动执行器线程
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "actuator");
+        // ART把MAX_PRIORITY映射为THREAD_PRIORITY_URGENT_DISPLAY
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * 停止执行器线程
+     */
+    public synchronized void stop() {
+        running = false;
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    /**
+     * 提交一条指令，只覆盖信箱，不会阻塞调用线程
+     * 速度为0时角度也置为0
+     *
+     * @param angle 角度
+     * @param speed 速度
+     */
+    public void submit(int angle, int speed) {
+        submit(angle, speed, 0);
+    }
+
+    /**
+     * 提交一条来自网络的指令，执行后按接收时间统计延迟
+     *
+     * @param angle         角度
+     * @param speed         速度
+     * @param receivedNanos 接收时间（LatencyTracker的时钟），0表示不统计
+     */
+    public void submit(int angle, int speed, long receivedNanos) {
+        post(angle, speed, receivedNanos, 0);
+    }
+
+    /**
+     * 提交看门狗的停止指令，执行完成后回调StopListener
+     *
+     * @param deadlineNanos 看门狗的截止时间（System.nanoTime）
+     */
+    public void submitStop(long deadlineNanos) {
+        post(0, 0, 0, deadlineNanos);
+    }
+
+    private void post(int angle, int speed, long receivedNanos, long stopDeadlineNanos) {
+        if (speed == 0) {
+            angle = 0;
+        }
+        submittedNanos = System.nanoTime();
+        this.receivedNanos = receivedNanos;
+        this.stopDeadlineNanos = stopDeadlineNanos;
+        slot.set(((long) writeVersion.incrementAndGet() << 32)
+                | ((angle & 0xFFFFL) << 16)
+                | (speed & 0xFFFFL));
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    @Override
+    public void run() {
+        int appliedVersion = 0;
+        while (running) {
+            long value = slot.get();
+            int version = (int) (value >>> 32);
+            if (version == appliedVersion) {
+                // unpark先于park发生时park会立即返回，不会丢失唤醒
+                LockSupport.park(this);
+                continue;
+            }
+            long submitted = submittedNanos;
+            long received = receivedNanos;
+            long stopDeadline = stopDeadlineNanos;
+            int coalesced = version - appliedVersion - 1;
+            if (coalesced > 0) {
+                coalescedCount += coalesced;
+            }
+            appliedVersion = version;
+
+            int angle = (short) (value >>> 16);
+            int speed = (short) value;
+            if (blackBox != null) {
+                blackBox.record(TraceEvent.DECISION, BlackBox.DECISION_APPLY, coalesced, 0, angle, speed);
+            }
+            long start = System.nanoTime();
+            actuator.controlCar(angle, speed);
+            long end = System.nanoTime();
+
+            lastAngle = angle;
+            lastSpeed = speed;
+            recordDelay(start - submitted, end - start);
+            if (tracker != null && received != 0) {
+                tracker.onActuated(received);
+            }
+            if (stopDeadline != 0 && stopListener != null) {
+                stopListener.onStopApplied(stopDeadline, end);
+            }
+        }
+    }
+
+    private void recordDelay(long queueDelay, long actuateNanos) {
+        // 读取时间戳与槽位之间可能被更新的指令覆盖，得到的负值按0处理
+        if (queueDelay < 0) {
+            queueDelay = 0;
+        }
+        appliedCount++;
+        lastQueueDelayNanos = queueDelay;
+        totalQueueDelayNanos += queueDelay;
+        if (queueDelay > maxQueueDelayNanos) {
+            maxQueueDelayNanos = queueDelay;
+        }
+        if (actuateNanos > maxActuateNanos) {
+            maxActuateNanos = actuateNanos;
+        }
+    }
+
+    /** @return 最近一次执行的角度 */
+    public int getLastAngle() {
+        return lastAngle;
+    }
+
+    /** @return 最近一次执行的速度 */
+    public int getLastSpeed() {
+        return lastSpeed;
+    }
+
+    /** @return 已执行的指令数 */
+    public long getAppliedCount() {
+        return appliedCount;
+    }
+
+    /** @return 执行前被更新指令覆盖的指令数 */
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /** @return 最近一次从接收到开始执行的排队延迟（纳秒） */
+    public long getLastQueueDelayNanos() {
+        return lastQueueDelayNanos;
+    }
+
+    /** @return 最大排队延迟（纳秒） */
+    public long getMaxQueueDelayNanos() {
+        return maxQueueDelayNanos;
+    }
+
+    /** @return 平均排队延迟（纳秒） */
+    public long getMeanQueueDelayNanos() {
+        long count = appliedCount;
+        return count == 0 ? 0 : totalQueueDelayNanos / count;
+    }
+
+    /** @return controlCar单次调用的最长耗时（纳秒） */
+    public long getMaxActuateNanos() {
+        return maxActuateNanos;
+    }
+}
@@ -0,0 +1,360 @@
+package com.example.carjni;
+
+import com.example.carcommon.TraceEvent;
+import com.example.carcommon.TraceRing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 黑匣子：定长的内存映射环形文件，持续记录收到的帧、执行决定和controlCar调用
+ * 记录只是对映射内存的几次写入，不经过系统调用；写入的页面属于内核的页缓存，
+ * 应用被杀或崩溃后仍由内核写回文件，下次启动时接着已有的记录继续写
+ *
+ * 文件格式（小端）：
+ * <pre>
+ * 文件头 64字节：
+ *   0  int    魔数 "CBBX"
+ *   4  short  版本
+ *   6  short  记录长度
+ *   8  int    记录数（2的幂）
+ *  12  保留
+ * 之后是capacity条32字节的记录，序号为n的记录位于第 n % capacity 条：
+ *   0  long   序号，从1开始，0表示从未写入
+ *   8  long   时间（系统时间的纳秒数，由启动时的System.currentTimeMillis加上System.nanoTime的增量得到）
+ *  16  byte   事件类型，TraceEvent常量
+ *  17  byte   附加类型：收到的帧为帧类型，执行决定为DECISION_*，其余为0
+ *  18  short  校验，覆盖本条记录的所有字段，写到一半的记录读取时被跳过
+ *  20  int    参数a
+ *  24  int    参数b
+ *  28  short  角度
+ *  30  short  速度
+ * </pre>
+ * 各事件的参数：
+ * <ul>
+ *   <li>FRAME_RECEIVED：附加类型为帧类型，a=连接编号（UDP为0），b=帧序号</li>
+ *   <li>MALFORMED：a=连接编号（UDP为0），b=解码结果</li>
+ *   <li>DECISION：附加类型为DECISION_*，a=执行前被覆盖的指令数（只用于DECISION_APPLY）</li>
+ *   <li>ACTUATE：调用controlCar，a、b为0</li>
+ *   <li>WATCHDOG_TRIP：a=停车延迟（微秒）</li>
+ * </ul>
+ *
+ * 多个线程可以同时记录，环满后覆盖最旧的记录
+ */
+public class BlackBox {
+    /** 魔数 "CBBX" */
+    static final int MAGIC = 0x43424258;
+    /** 格式版本 */
+    static final int VERSION = 1;
+    /** 文件头长度 */
+    static final int HEADER_SIZE = 64;
+    /** 记录长度 */
+    static final int RECORD_SIZE = 32;
+    /** 默认记录数，文件8MB，每秒100帧时约保留15分钟 */
+    public static final int DEFAULT_CAPACITY = 1 << 18;
+
+    /** 执行决定：执行器线程取出一条指令交给过滤器 */
+    public static final int DECISION_APPLY = 1;
+    /** 执行决定：驱动输出不变，不调用controlCar */
+    public static final int DECISION_SUPPRESS = 2;
+    /** 执行决定：驱动输出不变，但到了保活时间仍然调用controlCar */
+    public static final int DECISION_KEEPALIVE = 3;
+
+    private static final int PAGE_SIZE = 4096;
+
+    private final MappedByteBuffer buffer;
+    private final int mask;
+    private final long baseEpochNanos;
+    private final long baseNanos;
+    private final AtomicLong cursor;
+
+    /**
+     * 一条记录，读取时复用
+     */
+    public static final class Entry {
+        public long sequence;
+        /** 系统时间（纳秒） */
+        public long epochNanos;
+        /** 事件类型，TraceEvent常量 */
+        public int event;
+        /** 附加类型 */
+        public int detail;
+        public int a;
+        public int b;
+        public int angle;
+        public int speed;
+    }
+
+    /**
+     * 读取记录的回调
+     */
+    public interface Visitor {
+        /**
+         * @param entry 一条记录，只在回调期间有效
+         */
+        void onEntry(Entry entry);
+    }
+
+    /**
+     * 打开黑匣子文件，文件已存在且容量相同时保留其中的记录，否则重新创建
+     *
+     * @param file     黑匣子文件
+     * @param capacity 记录数，向上取整为2的幂
+     * @throws IOException 创建或映射失败
+     */
+    public BlackBox(File file, int capacity) throws IOException {
+        if (capacity <= 0 || capacity > (1 << 24)) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        long length = HEADER_SIZE + (long) size * RECORD_SIZE;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            boolean reuse = channel.size() == length && channel.read(header, 0) == HEADER_SIZE
+                    && header.getInt(0) == MAGIC && header.getShort(4) == VERSION
+                    && header.getShort(6) == RECORD_SIZE && header.getInt(8) == size;
+            if (!reuse) {
+                channel.truncate(0);
+            }
+            // 映射超出文件长度的部分时文件自动扩展，映射在通道关闭后仍然有效
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (reuse) {
+                buffer.load();
+            } else {
+                // 预先写入每一页，记录时不再发生分配页面的缺页
+                for (int offset = 0; offset < length; offset += PAGE_SIZE) {
+                    buffer.put(offset, (byte) 0);
+                }
+                buffer.putInt(0, MAGIC);
+                buffer.putShort(4, (short) VERSION);
+                buffer.putShort(6, (short) RECORD_SIZE);
+                buffer.putInt(8, size);
+            }
+        }
+        cursor = new AtomicLong(newestSequence(buffer, mask));
+        baseNanos = System.nanoTime();
+        baseEpochNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    }
+
+    /**
+     * 记录一个事件，可以在任意线程调用
+     *
+     * @param event  事件类型，TraceEvent常量
+     * @param detail 附加类型
+     * @param a      参数a
+     * @param b      参数b
+     * @param angle  角度
+     * @param speed  速度
+     */
+    public void record(int event, int detail, int a, int b, int angle, int speed) {
+        long seq = cursor.incrementAndGet();
+        long time = baseEpochNanos + (System.nanoTime() - baseNanos);
+        int offset = HEADER_SIZE + (int) (seq & mask) * RECORD_SIZE;
+        MappedByteBuffer r = buffer;
+        r.putLong(offset + 8, time);
+        r.put(offset + 16, (byte) event);
+        r.put(offset + 17, (byte) detail);
+        r.putShort(offset + 18, check(seq, time, event, detail, a, b, angle, speed));
+        r.putInt(offset + 20, a);
+        r.putInt(offset + 24, b);
+        r.putShort(offset + 28, (short) angle);
+        r.putShort(offset + 30, (short) speed);
+        r.putLong(offset, seq);
+    }
+
+    /**
+     * 把映射的内容写回存储，涉及系统调用，不要在热路径上调用
+     * 应用被杀时不需要调用，内核仍会写回；只用于防止断电丢失最近的记录
+     */
+    public void flush() {
+        buffer.force();
+    }
+
+    /** @return 记录过的事件总数，包括之前的进程写入的和已被覆盖的 */
+    public long getRecordedCount() {
+        return cursor.get();
+    }
+
+    /** @return 能够保留的记录数 */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    private static short check(long seq, long time, int event, int detail, int a, int b, int angle, int speed) {
+        long h = seq * 0x9E3779B97F4A7C15L;
+        h ^= time;
+        h = (h ^ ((long) a << 32 | (b & 0xFFFFFFFFL))) * 0xC2B2AE3D27D4EB4FL;
+        h ^= (long) ((event & 0xFF) << 8 | (detail & 0xFF)) << 32 | ((angle & 0xFFFFL) << 16 | (speed & 0xFFFFL));
+        h *= 0x9E3779B97F4A7C15L;
+        return (short) (h >>> 48);
+    }
+
+    /**
+     * 读取一条记录并校验
+     *
+     * @return 记录完整且确实是该槽位的记录返回true
+     */
+    private static boolean readSlot(MappedByteBuffer buffer, int mask, int slot, Entry entry) {
+        int offset = HEADER_SIZE + slot * RECORD_SIZE;
+        long seq = buffer.getLong(offset);
+        if (seq == 0 || (int) (seq & mask) != slot) {
+            return false;
+        }
+        entry.sequence = seq;
+        entry.epochNanos = buffer.getLong(offset + 8);
+        entry.event = buffer.get(offset + 16) & 0xFF;
+        entry.detail = buffer.get(offset + 17) & 0xFF;
+        short stored = buffer.getShort(offset + 18);
+        entry.a = buffer.getInt(offset + 20);
+        entry.b = buffer.getInt(offset + 24);
+        entry.angle = buffer.getShort(offset + 28);
+        entry.speed = buffer.getShort(offset + 30);
+        return buffer.getLong(offset) == seq && stored == check(seq, entry.epochNanos, entry.event,
+                entry.detail, entry.a, entry.b, entry.angle, entry.speed);
+    }
+
+    private static long newestSequence(MappedByteBuffer buffer, int mask) {
+        Entry entry = new Entry();
+        long newest = 0;
+        for (int slot = 0; slot <= mask; slot++) {
+            if (readSlot(buffer, mask, slot, entry) && entry.sequence > newest) {
+                newest = entry.sequence;
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * 读取黑匣子文件，可以在记录的同时读取（如应用内导出），正在被覆盖的记录会被跳过
+     */
+    public static final class Reader {
+        private final MappedByteBuffer buffer;
+        private final int mask;
+
+        /**
+         * @param file 黑匣子文件
+         * @throws IOException 打开失败或不是黑匣子文件
+         */
+        public Reader(File file) throws IOException {
+            long length;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                length = channel.size();
+                if (length < HEADER_SIZE) {
+                    throw new IOException("文件过短: " + file);
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            }
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("不是黑匣子文件: " + file);
+            }
+            if (buffer.getShort(4) != VERSION || buffer.getShort(6) != RECORD_SIZE) {
+                throw new IOException("不支持的黑匣子版本: " + buffer.getShort(4));
+            }
+            int capacity = buffer.getInt(8);
+            if (Integer.bitCount(capacity) != 1 || HEADER_SIZE + (long) capacity * RECORD_SIZE != length) {
+                throw new IOException("黑匣子文件长度不符: " + file);
+            }
+            mask = capacity - 1;
+        }
+
+        /** @return 最新一条记录的系统时间（毫秒），没有记录时为0 */
+        public long getNewestEpochMillis() {
+            Entry entry = new Entry();
+            long newestSeq = 0;
+            long newestNanos = 0;
+            for (int slot = 0; slot <= mask; slot++) {
+                if (readSlot(buffer, mask, slot, entry) && entry.sequence > newestSeq) {
+                    newestSeq = entry.sequence;
+                    newestNanos = entry.epochNanos;
+                }
+            }
+            return TimeUnit.NANOSECONDS.toMillis(newestNanos);
+        }
+
+        /**
+         * 按记录顺序读取一个时间段内的记录
+         *
+         * @param fromEpochMillis 开始时间（系统时间，毫秒，包含）
+         * @param toEpochMillis   结束时间（系统时间，毫秒，不包含）
+         * @param visitor         回调
+         * @return 读取的记录数
+         */
+        public int read(long fromEpochMillis, long toEpochMillis, Visitor visitor) {
+            long from = TimeUnit.MILLISECONDS.toNanos(fromEpochMillis);
+            long to = TimeUnit.MILLISECONDS.toNanos(toEpochMillis);
+            Entry entry = new Entry();
+            long[] sequences = new long[64];
+            int count = 0;
+            for (int slot = 0; slot <= mask; slot++) {
+                if (readSlot(buffer, mask, slot, entry) && entry.epochNanos >= from && entry.epochNanos < to) {
+                    if (count == sequences.length) {
+                        sequences = Arrays.copyOf(sequences, count * 2);
+                    }
+                    sequences[count++] = entry.sequence;
+                }
+            }
+            Arrays.sort(sequences, 0, count);
+            int visited = 0;
+            for (int i = 0; i < count; i++) {
+                // 扫描之后可能已被新的记录覆盖
+                if (readSlot(buffer, mask, (int) (sequences[i] & mask), entry) && entry.sequence == sequences[i]) {
+                    visitor.onEntry(entry);
+                    visited++;
+                }
+            }
+            return visited;
+        }
+
+        /**
+         * 把一个时间段内的记录格式化输出，每条一行
+         *
+         * @param fromEpochMillis 开始时间（系统时间，毫秒，包含）
+         * @param toEpochMillis   结束时间（系统时间，毫秒，不包含）
+         * @param printer         输出
+         * @return 输出的记录数
+         */
+        public int dump(long fromEpochMillis, long toEpochMillis, TraceRing.Printer printer) {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.ROOT);
+            Date date = new Date();
+            StringBuilder line = new StringBuilder(96);
+            return read(fromEpochMillis, toEpochMillis, entry -> {
+                date.setTime(TimeUnit.NANOSECONDS.toMillis(entry.epochNanos));
+                long micros = TimeUnit.NANOSECONDS.toMicros(entry.epochNanos) % 1000;
+                line.setLength(0);
+                line.append(format.format(date));
+                if (micros < 100) {
+                    line.append('0');
+                }
+                if (micros < 10) {
+                    line.append('0');
+                }
+                line.append(micros).append(' ').append(TraceEvent.name(entry.event))
+                        .append(" d=").append(entry.detail)
+                        .append(" a=").append(entry.a)
+                        .append(" b=").append(entry.b)
+                        .append(" angle=").append(entry.angle)
+                        .append(" speed=").append(entry.speed);
+                printer.println(line.toString());
+            });
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.carjni;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * TCP控制服务器中的一个客户端连接
+ * 保存该连接的读缓冲区、协议类型、控制权信息以及统计数据
+ * UDP控制服务器的发送端也以本类参与控制权仲裁，此时channel为null，编号为负数
+ * 除统计字段外，其余字段只在服务器的Selector线程中访问
+ */
+public class ClientConnection {
+    /** 协议类型：尚未收到数据 */
+    static final int MODE_UNKNOWN = 0;
+    /** 协议类型：二进制控制帧 */
+    static final int MODE_BINARY = 1;
+    /** 协议类型：旧版文本协议 */
+    static final int MODE_LEGACY = 2;
+
+    /** 旧版文本协议单行最大长度，超过则视为格式错误 */
+    static final int MAX_LINE_LENGTH = 128;
+
+    final int id;
+    final SocketChannel channel;
+    final InetAddress host;
+    final ByteBuffer rxBuffer;
+    final StringBuilder line = new StringBuilder(MAX_LINE_LENGTH);
+    int mode = MODE_UNKNOWN;
+    // 控制权优先级，通过TYPE_CLAIM帧申请，旧版客户端始终为0
+    int priority;
+    // 进入等待队列的顺序，优先级相同时先到先得
+    long waitingSince;
+    // 客户端通过TYPE_CLOCK帧上报的时钟偏差（服务端时间减客户端时间）和往返时间
+    volatile long clockOffsetNanos;
+    volatile long clockRttNanos;
+    volatile boolean clockSynced;
+    // 确认状态：累计收到的控制帧数，以及本次读取中最后交给执行器、尚未确认的控制帧
+    int controlFramesReceived;
+    boolean ackPending;
+    int ackSequence;
+    long ackEchoNanos;
+
+    // 统计数据，Selector线程写，其他线程只读
+    final long connectedAtNanos;
+    volatile long bytesReceived;
+    volatile long framesReceived;
+    volatile long framesApplied;
+    volatile long framesRejected;
+    volatile long malformedFrames;
+    volatile long acksSent;
+    volatile long lastFrameNanos;
+    volatile boolean driver;
+
+    ClientConnection(int id, SocketChannel channel, InetAddress host, int bufferSize) {
+        this.id = id;
+        this.channel = channel;
+        this.host = host;
+        this.rxBuffer = ByteBuffer.allocate(bufferSize);
+        this.connectedAtNanos = System.nanoTime();
+    }
+
+    /** @return 连接编号，服务器内唯一 */
+    public int getId() {
+        return id;
+    }
+
+    /** @return 客户端地址 */
+    public InetAddress getHost() {
+        return host;
+    }
+
+    /** @return 当前是否持有控制权 */
+    public boolean isDriver() {
+        return driver;
+    }
+
+    /** @return 连接建立的时间（System.nanoTime） */
+    public long getConnectedAtNanos() {
+        return connectedAtNanos;
+    }
+
+    /** @return 收到的字节数 */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /** @return 收到的有效帧数 */
+    public long getFramesReceived() {
+        return framesReceived;
+    }
+
+    /** @return 作为驾驶者被执行的帧数 */
+    public long getFramesApplied() {
+        return framesApplied;
+    }
+
+    /** @return 因没有控制权而被忽略的帧数 */
+    public long getFramesRejected() {
+        return framesRejected;
+    }
+
+    /** @return 格式错误的帧数 */
+    public long getMalformedFrames() {
+        return malformedFrames;
+    }
+
+    /** @return 发送的确认帧数 */
+    public long getAcksSent() {
+        return acksSent;
+    }
+
+    /** @return 客户端是否已上报时钟偏差 */
+    public boolean isClockSynced() {
+        return clockSynced;
+    }
+
+    /** @return 客户端上报的时钟偏差（纳秒），服务端时间减客户端时间 */
+    public long getClockOffsetNanos() {
+        return clockOffsetNanos;
+    }
+
+    /** @return 客户端测得的往返时间（纳秒） */
+    public long getClockRttNanos() {
+        return clockRttNanos;
+    }
+
+    /** @return 最后一次收到有效帧的时间（System.nanoTime），没有收到过为0 */
+    public long getLastFrameNanos() {
+        return lastFrameNanos;
+    }
+}
@@ -0,0 +1,344 @@
+package com.example.carjni;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * 插值执行：以固定的较高频率下发指令，不再只在收到帧时下发
+ * 网络线程收到的(角度, 速度)作为带时间的采样写入，本类的线程每个周期计算一次输出：
+ * <pre>
+ *  渲染时间 = 当前时间 - 回放延迟
+ *  渲染时间落在两个采样之间   按时间线性插值（角度沿较短的方向）
+ *  渲染时间晚于最新采样       按最近两个采样的变化率外推，最多外推horizon（变化率按不小于一个周期的间隔计算）
+ *  超过horizon               速度在decay内线性衰减到0，之后停车
+ *  最新采样的速度为0           立即停车，不插值也不外推
+ * </pre>
+ * 回放延迟为0时只外推，输出跟随最新的采样，延迟最低；设置为一个发送间隔左右时输出更平滑
+ *
+ * 收到新采样时立即计算一次输出，不等下一个周期；停车后线程挂起，直到收到新的采样
+ * horizon与decay之和应小于失联停车看门狗的期限，否则看门狗停车后本类仍会下发衰减中的速度
+ */
+public class CommandInterpolator implements Runnable {
+    /**
+     * 输出，在插值线程中调用，不能阻塞（如ActuatorThread::submit）
+     */
+    public interface Sink {
+        /**
+         * @param angle         角度
+         * @param speed         速度
+         * @param receivedNanos 本次输出包含新采样时为该采样的接收时间，否则为0
+         */
+        void submit(int angle, int speed, long receivedNanos);
+    }
+
+    /** 允许的最高频率 */
+    public static final int MAX_RATE_HZ = 1000;
+
+    private static final int HISTORY = 4;
+
+    private final Sink sink;
+    private final LongSupplier clock;
+    private final long periodNanos;
+    private final long delayNanos;
+    private final long horizonNanos;
+    private final long decayNanos;
+
+    // 最近HISTORY个采样，由this保护；第n个采样保存在n % HISTORY
+    private final long[] sampleTimes = new long[HISTORY];
+    private final int[] sampleAngles = new int[HISTORY];
+    private final int[] sampleSpeeds = new int[HISTORY];
+    private long sampleCount;
+    private long pendingReceivedNanos;
+    private volatile boolean fresh;
+
+    // 上一次的输出，只在插值线程中访问
+    private int lastAngle = -1;
+    private int lastSpeed = -1;
+
+    private volatile boolean running;
+    private volatile Thread thread;
+
+    // 统计数据，只由插值线程修改
+    private volatile long tickCount;
+    private volatile long submittedCount;
+    private volatile long interpolatedCount;
+    private volatile long extrapolatedCount;
+    private volatile long decayedCount;
+    private volatile long timeoutCount;
+    private volatile long lateCount;
+
+    /**
+     * @param rateHz        输出频率
+     * @param delayMillis   回放延迟（毫秒），0表示只外推
+     * @param horizonMillis 最新采样之后最多外推的时间（毫秒）
+     * @param decayMillis   外推结束后速度衰减到0的时间（毫秒）
+     * @param sink          输出
+     */
+    public CommandInterpolator(int rateHz, long delayMillis, long horizonMillis, long decayMillis, Sink sink) {
+        this(rateHz, delayMillis, horizonMillis, decayMillis, sink, System::nanoTime);
+    }
+
+    CommandInterpolator(int rateHz, long delayMillis, long horizonMillis, long decayMillis, Sink sink,
+                        LongSupplier clock) {
+        if (rateHz <= 0 || rateHz > MAX_RATE_HZ) {
+            throw new IllegalArgumentException("rateHz: " + rateHz);
+        }
+        if (delayMillis < 0 || horizonMillis < 0 || decayMillis < 0) {
+            throw new IllegalArgumentException("delay/horizon/decay: "
+                    + delayMillis + ", " + horizonMillis + ", " + decayMillis);
+        }
+        this.periodNanos = TimeUnit.SECONDS.toNanos(1) / rateHz;
+        this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        this.horizonNanos = TimeUnit.MILLISECONDS.toNanos(horizonMillis);
+        this.decayNanos = TimeUnit.MILLISECONDS.toNanos(decayMillis);
+        this.sink = sink;
+        this.clock = clock;
+    }
+
+    /**
+     * 启动插值线程
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "interpolator");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * 停止插值线程
+     */
+    public synchronized void stop() {
+        running = false;
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    /**
+     * 写入一个采样，在网络线程中调用，不会阻塞
+     * 速度为0时角度也置为0
+     *
+     * @param angle         角度
+     * @param speed         速度
+     * @param receivedNanos 接收时间（LatencyTracker的时钟），原样交给输出，0表示不统计
+     */
+    public void onSample(int angle, int speed, long receivedNanos) {
+        synchronized (this) {
+            int index = (int) (sampleCount % HISTORY);
+            sampleTimes[index] = clock.getAsLong();
+            sampleAngles[index] = speed == 0 ? 0 : normalize(angle);
+            sampleSpeeds[index] = speed;
+            sampleCount++;
+            pendingReceivedNanos = receivedNanos;
+        }
+        fresh = true;
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    @Override
+    public void run() {
+        long deadline = clock.getAsLong();
+        while (running) {
+            if (!tick()) {
+                // 已经停车：挂起到收到新的采样，unpark先于park发生时park会立即返回
+                while (running && !fresh) {
+                    LockSupport.park(this);
+                }
+                deadline = clock.getAsLong();
+                continue;
+            }
+            long now = clock.getAsLong();
+            long next = nextDeadline(deadline, periodNanos, now);
+            if (next - deadline > periodNanos) {
+                lateCount++;
+            }
+            deadline = next;
+            // 收到新采样时提前结束等待，并从当前时间重新对齐周期
+            while (running && !fresh && (now = clock.getAsLong()) - deadline < 0) {
+                LockSupport.parkNanos(this, deadline - now);
+            }
+            if (fresh) {
+                deadline = clock.getAsLong();
+            }
+        }
+    }
+
+    /**
+     * 计算下一个周期的截止时间，按绝对时间点排列；落后超过一个周期时跳过错过的周期，不补发
+     *
+     * @param deadline 本周期的截止时间
+     * @param period   周期
+     * @param now      当前时间
+     * @return 晚于now的第一个截止时间
+     */
+    static long nextDeadline(long deadline, long period, long now) {
+        long next = deadline + period;
+        if (next - now <= 0) {
+            next += ((now - next) / period + 1) * period;
+        }
+        return next;
+    }
+
+    /**
+     * 计算一次输出，输出与上一次相同且没有新采样时不下发
+     *
+     * @return 输出不是停车时返回true，需要继续按周期计算
+     */
+    boolean tick() {
+        int angle;
+        int speed;
+        long received;
+        synchronized (this) {
+            fresh = false;
+            if (sampleCount == 0) {
+                return false;
+            }
+            long render = clock.getAsLong() - delayNanos;
+            int newest = (int) ((sampleCount - 1) % HISTORY);
+            long newestTime = sampleTimes[newest];
+            if (sampleSpeeds[newest] == 0) {
+                angle = 0;
+                speed = 0;
+            } else if (render - newestTime <= 0) {
+                // 找到渲染时间前后的两个采样，早于保留的最旧采样时使用最旧的采样
+                int newer = newest;
+                int older = -1;
+                int available = (int) Math.min(sampleCount, HISTORY);
+                for (int i = 1; i < available; i++) {
+                    int candidate = (int) ((sampleCount - 1 - i) % HISTORY);
+                    if (sampleTimes[candidate] - render <= 0) {
+                        older = candidate;
+                        break;
+                    }
+                    newer = candidate;
+                }
+                if (older < 0) {
+                    angle = sampleAngles[newer];
+                    speed = sampleSpeeds[newer];
+                } else {
+                    double t = (double) (render - sampleTimes[older]) / (sampleTimes[newer] - sampleTimes[older]);
+                    angle = interpolateAngle(older, newer, t);
+                    speed = (int) Math.round(sampleSpeeds[older] + (sampleSpeeds[newer] - sampleSpeeds[older]) * t);
+                    if (speed == 0) {
+                        angle = 0;
+                    }
+                }
+                interpolatedCount++;
+            } else {
+                long gap = render - newestTime;
+                double extra = Math.min(gap, horizonNanos);
+                angle = sampleAngles[newest];
+                double s = sampleSpeeds[newest];
+                if (sampleCount >= 2) {
+                    int previous = (int) ((sampleCount - 2) % HISTORY);
+                    // 同一次读取到的多个帧几乎同时到达，间隔不小于一个周期，避免估计出过大的变化率
+                    long interval = Math.max(newestTime - sampleTimes[previous], periodNanos);
+                    if (sampleSpeeds[previous] != 0) {
+                        double t = extra / interval;
+                        angle = interpolateAngle(previous, newest, 1 + t);
+                        s += (sampleSpeeds[newest] - sampleSpeeds[previous]) * t;
+                    }
+                }
+                if (gap <= horizonNanos) {
+                    extrapolatedCount++;
+                } else if (gap < horizonNanos + decayNanos) {
+                    s *= 1 - (double) (gap - horizonNanos) / decayNanos;
+                    decayedCount++;
+                } else {
+                    s = 0;
+                    if (lastSpeed != 0) {
+                        timeoutCount++;
+                    }
+                }
+                speed = (int) Math.round(Math.max(0, Math.min(DifferentialDriveMixer.MAX_SPEED, s)));
+                if (speed == 0) {
+                    angle = 0;
+                }
+            }
+            received = pendingReceivedNanos;
+            pendingReceivedNanos = 0;
+        }
+
+        tickCount++;
+        if (angle != lastAngle || speed != lastSpeed || received != 0) {
+            lastAngle = angle;
+            lastSpeed = speed;
+            sink.submit(angle, speed, received);
+            submittedCount++;
+        }
+        return speed != 0;
+    }
+
+    /**
+     * 两个采样之间的角度，沿较短的方向插值，t大于1时为外推
+     */
+    private int interpolateAngle(int from, int to, double t) {
+        int start = sampleAngles[from];
+        if (sampleSpeeds[from] == 0) {
+            // 停车采样的角度没有意义
+            return sampleAngles[to];
+        }
+        int delta = sampleAngles[to] - start;
+        if (delta > 180) {
+            delta -= 360;
+        } else if (delta < -180) {
+            delta += 360;
+        }
+        return normalize((int) Math.round(start + delta * t));
+    }
+
+    private static int normalize(int angle) {
+        int a = angle % 360;
+        return a < 0 ? a + 360 : a;
+    }
+
+    /** @return 计算输出的次数 */
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    /** @return 实际下发的次数 */
+    public long getSubmittedCount() {
+        return submittedCount;
+    }
+
+    /** @return 插值得到的输出次数 */
+    public long getInterpolatedCount() {
+        return interpolatedCount;
+    }
+
+    /** @return 外推得到的输出次数 */
+    public long getExtrapolatedCount() {
+        return extrapolatedCount;
+    }
+
+    /** @return 超过外推时间后衰减的输出次数 */
+    public long getDecayedCount() {
+        return decayedCount;
+    }
+
+    /** @return 采样中断超过外推和衰减时间而停车的次数 */
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /** @return 落后超过一个周期的次数 */
+    public long getLateCount() {
+        return lateCount;
+    }
+}
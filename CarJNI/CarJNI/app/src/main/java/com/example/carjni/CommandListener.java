@@ -0,0 +1,17 @@
+package com.example.carjni;
+
+import com.example.carcommon.ControlFrame;
+
+/**
+ * 控制指令监听器
+ * 网络层解码出一条有效的控制指令后回调
+ */
+public interface CommandListener {
+    /**
+     * 收到一条有效的控制指令
+     * frame是网络层复用的对象，只在回调期间有效，需要保留的字段请自行拷贝
+     *
+     * @param frame 解码后的控制帧
+     */
+    void onCommand(ControlFrame frame);
+}
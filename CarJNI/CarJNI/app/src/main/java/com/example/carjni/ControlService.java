@@ -0,0 +1,615 @@
+package com.example.carjni;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.os.Binder;
+import android.os.Build;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.util.Log;
+
+import com.example.carcommon.AndroidTrace;
+import com.example.carcommon.ControlFrame;
+import com.example.carcommon.DiscoveryMessage;
+import com.example.carcommon.LatencyHistogram;
+import com.example.carcommon.TraceEvent;
+import com.example.carcommon.TraceRing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 控制服务：常驻的前台服务，持有设备节点、执行器线程和各个控制服务器
+ * 活动只绑定本服务读取显示用的数据，活动重建或切到后台时端口和设备都不释放，指令照常以全速执行
+ * 网络层可以单独热重启（restartNetwork），执行器线程、看门狗和设备节点不受影响
+ */
+public class ControlService extends Service {
+    private static final String TAG = "ControlService";
+
+    private static final String CHANNEL_ID = "control";
+    private static final int NOTIFICATION_ID = 1;
+    private static final String ACTION_STOP = "com.example.carjni.action.STOP";
+
+    /**
+     * 绑定本服务的活动通过它获取服务实例，同一进程内直接调用
+     */
+    public class LocalBinder extends Binder {
+        /** @return 控制服务 */
+        public ControlService getService() {
+            return ControlService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+
+    // 等待控制权的客户端数量上限
+    private static final int MAX_WAITING_CLIENTS = 8;
+
+    // TCP控制服务器，以及监听同一端口号的UDP控制服务器
+    static final int CONTROL_PORT = 8888;
+    private volatile TcpControlServer tcpServer;
+    private volatile UdpControlServer udpServer;
+
+    // 发现服务：回复客户端广播的探测，客户端据此列出小车并自动连接，不再需要手工输入IP
+    private static final int DISCOVERY_CAPABILITIES = DiscoveryMessage.CAP_TCP | DiscoveryMessage.CAP_UDP
+            | DiscoveryMessage.CAP_ACK | DiscoveryMessage.CAP_CLAIM | DiscoveryMessage.CAP_LEGACY_TEXT;
+    private volatile DiscoveryResponder discoveryResponder;
+
+    // 分阶段启动：加载native库、打开黑匣子、打开设备、绑定端口在启动线程中依次执行，不阻塞主线程；
+    // 全部阶段完成前收到的指令直接拒绝而不缓存：客户端按固定频率重发最新的指令，缓存的旧指令没有意义
+    private final StartupPipeline startup = new StartupPipeline(new StartupPipeline.Listener() {
+        @Override
+        public void onStageCompleted(int index) {
+            Log.i(AndroidTrace.TAG, "启动阶段完成: " + startup.getStageName(index) + " "
+                    + TimeUnit.NANOSECONDS.toMicros(startup.getStageNanos(index)) + "us");
+        }
+
+        @Override
+        public void onStageFailed(int index, Throwable cause) {
+            Log.e(AndroidTrace.TAG, "启动阶段失败: " + startup.getStageName(index), cause);
+        }
+    });
+    private volatile boolean accepting;
+    private final AtomicLong rejectedBeforeReady = new AtomicLong();
+
+    // 网络层热重启的次数和最近一次的耗时，只在restartNetwork中修改
+    private volatile int networkRestartCount;
+    private volatile long lastNetworkRestartNanos;
+    // 最近一次热重启失败的原因，失败后网络层没有运行，再次重启成功时清除
+    private volatile String networkError;
+
+    // 左右轮输出不变的指令不再下发，每隔COMMAND_KEEPALIVE_MS仍然下发一次
+    private static final long COMMAND_KEEPALIVE_MS = 500;
+    private final RedundantCommandFilter commandFilter =
+            new RedundantCommandFilter(this::actuate, COMMAND_KEEPALIVE_MS);
+
+    // 端到端延迟统计：触摸→发送、发送→接收、接收→执行三个阶段的直方图
+    private final LatencyTracker latencyTracker = new LatencyTracker();
+
+    // 执行器线程，网络线程收到的指令由它经过过滤后调用controlCar
+    private final ActuatorThread actuatorThread = new ActuatorThread(commandFilter, latencyTracker);
+
+    // 执行器后端，由启动服务的Intent参数选择，默认打开设备节点调用ioctl；
+    // 模拟设备不需要驱动，每条指令忙等actuatorLatencyUs微秒，并写入actuatorLog指定的文件或FIFO：
+    // adb shell am start -n com.example.carjni/.MainActivity --es actuator sim --ei actuatorLatencyUs 200
+    private static final String EXTRA_ACTUATOR = "actuator";
+    private static final String EXTRA_ACTUATOR_LATENCY_US = "actuatorLatencyUs";
+    private static final String EXTRA_ACTUATOR_LOG = "actuatorLog";
+    private static final String ACTUATOR_SIMULATED = "sim";
+    private static final String DEVICE_PATH = "/dev/mydevice";
+    private NativeActuator actuator;
+
+    // 共享内存指令环：开启后执行器线程把指令写入直接缓冲区，由native工作线程调用ioctl，
+    // 不再每条指令经过一次JNI；只用于ioctl后端，关闭或启动失败时仍然直接调用controlCar
+    // 由启动Intent的参数打开：adb shell am start -n com.example.carjni/.MainActivity --ez commandRing true
+    private static final String EXTRA_COMMAND_RING = "commandRing";
+    private boolean useCommandRing;
+    private static final int COMMAND_RING_CAPACITY = 64;
+    private static final int COMMAND_RING_POLL_MICROS = 500;
+    private final NativeCommandRing commandRing = new NativeCommandRing(COMMAND_RING_CAPACITY);
+    private volatile boolean commandRingActive;
+
+    // 失联停车看门狗：超过该时间没有收到驾驶者的指令就停车
+    private final DeadmanWatchdog watchdog =
+            new DeadmanWatchdog(ControlFrame.DEADMAN_DEADLINE_MS, actuatorThread);
+
+    // 黑匣子：收到的帧、执行决定和controlCar调用写入内部存储的环形文件，应用被杀后仍然保留；
+    // 导出事件环时同时导出最近BLACK_BOX_EXPORT_MINUTES分钟的记录
+    private static final String BLACK_BOX_FILE = "blackbox.bin";
+    private static final int BLACK_BOX_EXPORT_MINUTES = 5;
+    private BlackBox blackBox;
+
+    // 插值执行：开启后以INTERPOLATION_RATE_HZ下发在收到的采样之间插值、在短暂中断时外推的指令，
+    // 客户端可以降低发送频率；外推和衰减的总时长小于看门狗的期限，看门狗停车后不会再下发衰减中的速度
+    // 由启动Intent的参数打开：adb shell am start -n com.example.carjni/.MainActivity --ez interpolate true
+    // 启动线程开始前确定，网络线程在accepting为true之后才读取
+    private static final String EXTRA_INTERPOLATE = "interpolate";
+    private boolean interpolating;
+    private static final int INTERPOLATION_RATE_HZ = 100;
+    private static final long INTERPOLATION_DELAY_MS = 0;
+    private static final long EXTRAPOLATION_HORIZON_MS = 60;
+    private static final long EXTRAPOLATION_DECAY_MS = 80;
+    private final CommandInterpolator interpolator = new CommandInterpolator(INTERPOLATION_RATE_HZ,
+            INTERPOLATION_DELAY_MS, EXTRAPOLATION_HORIZON_MS, EXTRAPOLATION_DECAY_MS, actuatorThread::submit);
+
+    // 屏幕关闭后CPU仍然保持运行，执行器线程和看门狗的节拍不被系统休眠打断
+    private PowerManager.WakeLock wakeLock;
+
+    // 通知中的停止操作已经关闭了控制，只在主线程中访问；活动看到后结束并解除绑定，服务随之销毁
+    private boolean stopped;
+
+    /**
+     * 启动控制服务，已经在运行时只是再投递一次启动命令
+     * 启动Intent中的参数（执行器后端等）只在第一次启动时生效
+     *
+     * @param context 上下文
+     * @param launch  启动活动的Intent，其参数原样交给服务
+     */
+    public static void start(Context context, Intent launch) {
+        Intent intent = new Intent(context, ControlService.class);
+        if (launch.getExtras() != null) {
+            intent.putExtras(launch.getExtras());
+        }
+        context.startForegroundService(intent);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // 按系统属性设置事件环的记录级别
+        AndroidTrace.install(TraceRing.GLOBAL);
+        startForeground();
+        PowerManager powerManager = getSystemService(PowerManager.class);
+        wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "carjni:control");
+        wakeLock.acquire();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_STOP.equals(intent.getAction())) {
+            // 活动仍然绑定时服务不会销毁，先在前台状态下关闭端口、线程和设备，再退出前台
+            shutdown();
+            stopForeground(STOP_FOREGROUND_REMOVE);
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        if (stopped) {
+            // 停止后尚未销毁时又收到启动命令，控制已经关闭，不能在同一个实例上重新启动
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        // 第一次启动命令选择执行器后端并开始启动；进程被系统回收后重新创建服务时intent为null，
+        // 使用默认的ioctl后端重新打开设备并绑定端口
+        if (actuator == null) {
+            actuator = createActuator(intent);
+            useCommandRing = intent != null && intent.getBooleanExtra(EXTRA_COMMAND_RING, false);
+            interpolating = intent != null && intent.getBooleanExtra(EXTRA_INTERPOLATE, false);
+            startStartup();
+        }
+        return START_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    /**
+     * 进入前台，通知中提供停止服务的操作
+     * Android 13以上未授予通知权限时通知不显示，但服务仍然是前台服务
+     */
+    private void startForeground() {
+        NotificationManager manager = getSystemService(NotificationManager.class);
+        manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                getString(R.string.control_channel_name), NotificationManager.IMPORTANCE_LOW));
+        PendingIntent open = PendingIntent.getActivity(this, 0, new Intent(this, MainActivity.class),
+                PendingIntent.FLAG_IMMUTABLE);
+        PendingIntent stop = PendingIntent.getService(this, 0,
+                new Intent(this, ControlService.class).setAction(ACTION_STOP), PendingIntent.FLAG_IMMUTABLE);
+        Notification notification = new Notification.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.control_notification_title))
+                .setContentText(getString(R.string.control_notification_text, CONTROL_PORT))
+                .setContentIntent(open)
+                .addAction(new Notification.Action.Builder(null, getString(R.string.control_stop), stop).build())
+                .setOngoing(true)
+                .build();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_SPECIAL_USE);
+        } else {
+            startForeground(NOTIFICATION_ID, notification);
+        }
+    }
+
+    /**
+     * 按启动Intent的参数创建执行器后端，尚未打开
+     *
+     * @param intent 启动命令，可以为null
+     * @return 执行器
+     */
+    private static NativeActuator createActuator(Intent intent) {
+        if (intent != null && ACTUATOR_SIMULATED.equals(intent.getStringExtra(EXTRA_ACTUATOR))) {
+            return new NativeActuator(NativeActuator.BACKEND_SIMULATED, intent.getStringExtra(EXTRA_ACTUATOR_LOG),
+                    intent.getIntExtra(EXTRA_ACTUATOR_LATENCY_US, 0));
+        }
+        return new NativeActuator(NativeActuator.BACKEND_IOCTL, DEVICE_PATH, 0);
+    }
+
+    /**
+     * 添加启动阶段并启动启动线程
+     * 黑匣子在执行器线程和服务器之前打开；设备打开后才启动执行器线程，先启动执行器线程再启动服务器；
+     * 端口绑定后仍然拒绝指令，直到最后一个阶段把accepting置为true
+     */
+    private void startStartup() {
+        startup.addStage("native库", () -> System.loadLibrary("carjni"));
+        startup.addStage("黑匣子", this::openBlackBox);
+        startup.addStage("设备", this::openDevice);
+        startup.addStage("端口", this::startNetwork);
+        startup.addStage("就绪", () -> accepting = true);
+        startup.start();
+    }
+
+    /**
+     * 打开执行器后端并启动执行器线程、插值线程和看门狗，在启动线程中调用
+     *
+     * @throws IOException 设备打开失败，消息中带有-errno
+     */
+    private void openDevice() throws IOException {
+        int result = actuator.open();
+        if (result < 0) {
+            throw new IOException("打开执行器失败: " + result);
+        }
+        if (useCommandRing && actuator.getBackend() == NativeActuator.BACKEND_IOCTL) {
+            startCommandRing();
+        }
+        // 下发失败后驱动状态未知，过滤器不再按记录的输出过滤下一条指令
+        commandFilter.setFailureCount(() -> actuator.getErrorCount() + commandRing.getErrorCount());
+        actuatorThread.start();
+        if (interpolating) {
+            interpolator.start();
+        }
+        watchdog.start();
+    }
+
+    /**
+     * 启动TCP、UDP控制服务器和发现服务
+     *
+     * @throws IOException TCP端口绑定失败
+     */
+    private void startNetwork() throws IOException {
+        startServer();
+        startUdpServer();
+        startDiscovery();
+    }
+
+    /**
+     * 停止发现服务和控制服务器，关闭所有连接并释放端口
+     */
+    private void stopNetwork() {
+        if (discoveryResponder != null) {
+            discoveryResponder.stop();
+        }
+        if (tcpServer != null) {
+            tcpServer.stop();
+        }
+        if (udpServer != null) {
+            udpServer.stop();
+        }
+    }
+
+    /**
+     * 热重启网络层：关闭所有连接和端口后重新绑定，设备节点、执行器线程和看门狗保持运行
+     * 重启期间没有指令到达，看门狗照常在期限后停车；客户端按重连策略立即重连
+     * 重新绑定失败时不保留已停止的服务器，失败原因显示在统计中，可以再次调用重试
+     * 会阻塞到重新绑定完成，不能在主线程中调用
+     *
+     * @return 重启耗时（纳秒）
+     * @throws IOException 启动尚未完成，或TCP端口重新绑定失败
+     */
+    public synchronized long restartNetwork() throws IOException {
+        if (!accepting) {
+            throw new IOException("启动尚未完成");
+        }
+        long begin = System.nanoTime();
+        stopNetwork();
+        tcpServer = null;
+        udpServer = null;
+        discoveryResponder = null;
+        try {
+            startNetwork();
+        } catch (IOException e) {
+            networkError = e.getMessage();
+            TraceRing.GLOBAL.record(TraceRing.LEVEL_INFO, TraceEvent.NETWORK_RESTART, -1,
+                    (int) TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin));
+            throw e;
+        }
+        networkError = null;
+        long elapsed = System.nanoTime() - begin;
+        lastNetworkRestartNanos = elapsed;
+        networkRestartCount++;
+        TraceRing.GLOBAL.record(TraceRing.LEVEL_INFO, TraceEvent.NETWORK_RESTART, networkRestartCount,
+                (int) TimeUnit.NANOSECONDS.toMicros(elapsed));
+        Log.i(TAG, "网络层重启完成: " + TimeUnit.NANOSECONDS.toMicros(elapsed) + "us");
+        return elapsed;
+    }
+
+    /**
+     * 启动TCP控制服务器
+     * 服务器在独立的线程中通过Selector同时服务多个客户端连接，不会阻塞主线程
+     * 监听CONTROL_PORT端口，这是服务器与客户端通信的入口；同一时刻只有一个客户端持有控制权，
+     * 其余最多MAX_WAITING_CLIENTS个连接排队等待
+     *
+     * @throws IOException 端口绑定失败
+     */
+    private void startServer() throws IOException {
+        TcpControlServer server =
+                new TcpControlServer(CONTROL_PORT, MAX_WAITING_CLIENTS, this::onCommand, latencyTracker);
+        server.setBlackBox(blackBox);
+        server.start();
+        tcpServer = server;
+    }
+
+    /**
+     * 启动UDP控制服务器，需要在TCP控制服务器之后启动
+     * 低延迟模式的客户端通过UDP发送控制帧，服务器只执行最新的指令，丢弃乱序和重复的数据报
+     */
+    private void startUdpServer() {
+        UdpControlServer server = new UdpControlServer(CONTROL_PORT, this::onCommand, latencyTracker);
+        server.setBlackBox(blackBox);
+        // UDP发送端与TCP连接由同一个仲裁器决定控制权，两者不会同时驾驶
+        server.setArbiter(tcpServer.getArbiter());
+        try {
+            server.start();
+            udpServer = server;
+        } catch (IOException e) {
+            Log.e("Network", "UDP服务启动失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 启动发现服务，回复中的负载取自TCP控制服务器的连接
+     * 启动失败时客户端仍然可以手工输入IP连接
+     */
+    private void startDiscovery() {
+        DiscoveryResponder responder = new DiscoveryResponder(DiscoveryMessage.DEFAULT_PORT, CONTROL_PORT,
+                DISCOVERY_CAPABILITIES, Build.MODEL, tcpServer);
+        try {
+            responder.start();
+            discoveryResponder = responder;
+        } catch (IOException e) {
+            Log.e("Network", "发现服务启动失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 打开黑匣子并交给各个记录点，失败时不记录，不影响驾驶
+     * 需要在执行器线程、看门狗和服务器启动之前调用
+     */
+    private void openBlackBox() {
+        try {
+            blackBox = new BlackBox(new File(getFilesDir(), BLACK_BOX_FILE), BlackBox.DEFAULT_CAPACITY);
+        } catch (IOException e) {
+            Log.e(AndroidTrace.TAG, "黑匣子打开失败: " + e.getMessage());
+            return;
+        }
+        commandFilter.setBlackBox(blackBox);
+        actuatorThread.setBlackBox(blackBox);
+        watchdog.setBlackBox(blackBox);
+    }
+
+    /**
+     * 启动共享内存指令环，失败时保持直接调用controlCar
+     */
+    private void startCommandRing() {
+        int result = commandRing.start(DEVICE_PATH, COMMAND_RING_POLL_MICROS);
+        if (result == 0) {
+            commandRingActive = true;
+        } else {
+            Log.e("serial", "指令环启动失败: " + result);
+        }
+    }
+
+    /**
+     * 下发一条指令，在执行器线程中调用；关闭时执行器线程退出后由shutdown调用一次
+     *
+     * @param angle 角度
+     * @param speed 速度
+     */
+    private void actuate(int angle, int speed) {
+        TraceRing.GLOBAL.record(TraceRing.LEVEL_DEBUG, TraceEvent.ACTUATE, angle, speed);
+        BlackBox box = blackBox;
+        if (box != null) {
+            box.record(TraceEvent.ACTUATE, 0, 0, 0, angle, speed);
+        }
+        TraceRing.GLOBAL.beginSection(TraceEvent.ACTUATE);
+        try {
+            if (commandRingActive) {
+                commandRing.controlCar(angle, speed);
+            } else {
+                actuator.controlCar(angle, speed);
+            }
+        } finally {
+            TraceRing.GLOBAL.endSection();
+        }
+    }
+
+    /**
+     * 收到驾驶者的一条有效指令，在网络线程中回调
+     * 喂看门狗后交给执行器线程（插值模式下交给插值线程），不在网络线程中做任何耗时操作；
+     * 启动完成前的指令直接丢弃并计数
+     *
+     * @param frame 解码后的控制帧
+     */
+    private void onCommand(ControlFrame frame) {
+        if (!accepting) {
+            rejectedBeforeReady.incrementAndGet();
+            return;
+        }
+        watchdog.feed(frame.speed);
+        if (interpolating) {
+            interpolator.onSample(frame.angle, frame.speed, frame.receivedNanos);
+        } else {
+            actuatorThread.submit(frame.angle, frame.speed, frame.receivedNanos);
+        }
+    }
+
+    /** @return 是否已经通过通知停止，在主线程中调用 */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /** @return 启动是否已经完成，开始接受指令 */
+    public boolean isAccepting() {
+        return accepting;
+    }
+
+    /** @return 执行器线程最近执行的角度 */
+    public int getLastAngle() {
+        return actuatorThread.getLastAngle();
+    }
+
+    /** @return 执行器线程最近执行的速度 */
+    public int getLastSpeed() {
+        return actuatorThread.getLastSpeed();
+    }
+
+    /** @return 网络层热重启的次数 */
+    public int getNetworkRestartCount() {
+        return networkRestartCount;
+    }
+
+    /** @return 最近一次网络层热重启的耗时（纳秒），没有重启过时为0 */
+    public long getLastNetworkRestartNanos() {
+        return lastNetworkRestartNanos;
+    }
+
+    /**
+     * 写入启动进度和各阶段耗时，启动完成前有被拒绝的指令时同时写入拒绝数
+     *
+     * @param out 输出
+     * @return out
+     */
+    public StringBuilder appendStartup(StringBuilder out) {
+        startup.appendSummary(out);
+        long rejected = rejectedBeforeReady.get();
+        if (rejected > 0) {
+            out.append(" 就绪前拒绝").append(rejected);
+        }
+        return out;
+    }
+
+    /**
+     * 写入延迟统计、启动耗时、网络层重启耗时或失败原因，以及直接调用和指令环的下发失败次数
+     *
+     * @param out 输出
+     * @return out
+     */
+    public StringBuilder appendSummary(StringBuilder out) {
+        latencyTracker.appendSummary(out);
+        appendStartup(out.append('\n'));
+        int restarts = networkRestartCount;
+        if (restarts > 0) {
+            LatencyHistogram.appendMillis(out.append("\n网络重启 ").append(restarts).append("次 最近 "),
+                    lastNetworkRestartNanos);
+        }
+        String error = networkError;
+        if (error != null) {
+            out.append("\n网络层未运行 ").append(error).append("，长按重试");
+        }
+        long actuateErrors = actuator.getErrorCount();
+        if (actuateErrors > 0) {
+            out.append("\n下发失败 ").append(actuateErrors).append("次 最近 ").append(actuator.getLastError());
+        }
+        // 指令环模式下ioctl由native工作线程调用，失败只计入共享缓冲区
+        long ringErrors = commandRing.getErrorCount();
+        if (ringErrors > 0) {
+            out.append("\n指令环下发失败 ").append(ringErrors).append("次");
+        }
+        return out;
+    }
+
+    /**
+     * 把事件环中保留的事件和延迟直方图输出到logcat，
+     * 并分别写入应用外部存储目录下的trace.txt和latency.txt；
+     * 黑匣子最近几分钟的记录写入blackbox.txt
+     */
+    public void dumpTrace() {
+        AndroidTrace.dumpToLogcat(TraceRing.GLOBAL);
+        latencyTracker.export(line -> Log.i(AndroidTrace.TAG, line));
+        File dir = getExternalFilesDir(null);
+        File blackBoxFile = new File(getFilesDir(), BLACK_BOX_FILE);
+        new Thread(() -> {
+            try {
+                File file = new File(dir, "trace.txt");
+                int count = AndroidTrace.dumpToFile(TraceRing.GLOBAL, file);
+                Log.i(AndroidTrace.TAG, "已导出" + count + "条事件: " + file.getPath());
+                File latencyFile = new File(dir, "latency.txt");
+                AndroidTrace.writeToFile(latencyTracker::export, latencyFile);
+                Log.i(AndroidTrace.TAG, "已导出延迟统计: " + latencyFile.getPath());
+                if (blackBox != null) {
+                    BlackBox.Reader reader = new BlackBox.Reader(blackBoxFile);
+                    long now = System.currentTimeMillis();
+                    long from = now - TimeUnit.MINUTES.toMillis(BLACK_BOX_EXPORT_MINUTES);
+                    File blackBoxText = new File(dir, "blackbox.txt");
+                    int[] records = new int[1];
+                    AndroidTrace.writeToFile(printer -> records[0] = reader.dump(from, now + 1, printer),
+                            blackBoxText);
+                    Log.i(AndroidTrace.TAG, "已导出黑匣子" + records[0] + "条记录: " + blackBoxText.getPath());
+                }
+            } catch (IOException e) {
+                Log.e(AndroidTrace.TAG, "导出失败: " + e.getMessage());
+            }
+        }, "trace-dump").start();
+    }
+
+    @Override
+    public void onDestroy() {
+        shutdown();
+        super.onDestroy();
+    }
+
+    /**
+     * 关闭控制：释放端口，停止看门狗、插值线程和执行器线程，下发停止指令后关闭设备并释放唤醒锁
+     * 通知中的停止操作和onDestroy都会调用，只执行一次；在主线程中调用
+     */
+    private void shutdown() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        // 先等待启动线程结束，之后不会再有阶段创建服务器或启动线程
+        startup.cancel();
+        accepting = false;
+        // 释放端口，服务重新创建时可以立即重新绑定
+        synchronized (this) {
+            stopNetwork();
+        }
+        watchdog.stop();
+        interpolator.stop();
+        actuatorThread.stop();
+        // 执行器线程已经退出，由本线程下发最后一条停止指令，小车不会保持最后的速度
+        if (actuator != null && actuator.isOpen()) {
+            actuate(0, 0);
+        }
+        if (blackBox != null) {
+            blackBox.flush();
+        }
+        // 执行器线程退出后才能停止指令环，保证不再有写入；工作线程执行完上面的停止指令才退出
+        commandRingActive = false;
+        commandRing.stop();
+        if (actuator != null) {
+            actuator.close();
+        }
+        if (wakeLock != null && wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+    }
+}
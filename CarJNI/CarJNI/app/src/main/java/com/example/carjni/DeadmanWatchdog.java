@@ -0,0 +1,215 @@
+package com.example.carjni;
+
+import com.example.carcommon.TraceEvent;
+import com.example.carcommon.TraceRing;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 失联停车看门狗（deadman）
+ * 记录驾驶者最后一条有效指令的时间，超过期限没有新指令时下发controlCar(0, 0)
+ * 手机掉出Wi-Fi后TCP连接可能长时间不报错，没有看门狗时小车会一直执行最后一条非零指令
+ *
+ * 看门狗线程按截止时间精确休眠而不是周期轮询，
+ * 从截止时间到下发停止指令的延迟只取决于线程唤醒延迟，不会额外增加一个轮询周期
+ * 只有最后一条指令速度非0时才需要停车，停止状态下失联不计入触发次数
+ *
+ * 停车延迟从截止时间算到controlCar(0, 0)返回：直接使用执行器时在看门狗线程中同步下发；
+ * 使用执行器线程时停止指令经信箱交给执行器线程，执行完成后由其回调，延迟包括排队和ioctl的耗时
+ */
+public class DeadmanWatchdog implements Runnable {
+    private final long deadlineNanos;
+    private final Actuator actuator;
+    private final ActuatorThread actuatorThread;
+    private BlackBox blackBox;
+
+    // 以下两个字段由this保护，保证“检查超时”和“下发停止”之间不会插入新的指令
+    private long lastFeedNanos;
+    private boolean armed;
+
+    private volatile boolean running;
+    private volatile Thread thread;
+
+    // 统计数据
+    private volatile long tripCount;
+    // 以下由下发停止指令的线程写入：看门狗线程，或使用执行器线程时的执行器线程
+    private volatile long stopAppliedCount;
+    private volatile long lastStopLatencyNanos;
+    private volatile long maxStopLatencyNanos;
+
+    /**
+     * @param deadlineMillis 允许的最长指令间隔（毫秒）
+     * @param actuator       超时后用来同步下发停止指令的执行器
+     */
+    public DeadmanWatchdog(long deadlineMillis, Actuator actuator) {
+        this(deadlineMillis, actuator, null);
+    }
+
+    /**
+     * 超时后把停止指令交给执行器线程，停车延迟按执行器线程实际执行完成的时间统计
+     * 会设置执行器线程的StopListener，需要在执行器线程启动之前创建
+     *
+     * @param deadlineMillis 允许的最长指令间隔（毫秒）
+     * @param actuatorThread 执行器线程
+     */
+    public DeadmanWatchdog(long deadlineMillis, ActuatorThread actuatorThread) {
+        this(deadlineMillis, null, actuatorThread);
+    }
+
+    private DeadmanWatchdog(long deadlineMillis, Actuator actuator, ActuatorThread actuatorThread) {
+        if (deadlineMillis <= 0) {
+            throw new IllegalArgumentException("deadlineMillis: " + deadlineMillis);
+        }
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        this.actuator = actuator;
+        this.actuatorThread = actuatorThread;
+        if (actuatorThread != null) {
+            actuatorThread.setStopListener(this::onStopApplied);
+        }
+    }
+
+    /**
+     * 设置黑匣子，记录每次超时停车，需要在start之前调用
+     *
+     * @param blackBox 黑匣子，为null时不记录
+     */
+    public void setBlackBox(BlackBox blackBox) {
+        this.blackBox = blackBox;
+    }
+
+    /**
+     * 启动看门狗线程
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "deadman-watchdog");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * 停止看门狗线程
+     */
+    public void stop() {
+        running = false;
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    /**
+     * 收到驾驶者的一条有效指令时调用
+     *
+     * @param speed 指令中的速度，为0表示小车已经停下，无需看守
+     */
+    public void feed(int speed) {
+        boolean wake;
+        synchronized (this) {
+            lastFeedNanos = System.nanoTime();
+            wake = !armed && speed != 0;
+            armed = speed != 0;
+        }
+        // 从未武装变为武装时唤醒看门狗线程开始计时
+        Thread t = thread;
+        if (wake && t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            long waitNanos;
+            synchronized (this) {
+                if (!armed) {
+                    waitNanos = -1;
+                } else {
+                    long expiry = lastFeedNanos + deadlineNanos;
+                    long now = System.nanoTime();
+                    waitNanos = expiry - now;
+                    if (waitNanos <= 0) {
+                        trip(expiry);
+                        continue;
+                    }
+                }
+            }
+            if (waitNanos < 0) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, waitNanos);
+            }
+        }
+    }
+
+    /**
+     * 超时，下发停止指令，调用时持有this锁
+     *
+     * @param expiry 截止时间
+     */
+    private void trip(long expiry) {
+        armed = false;
+        tripCount++;
+        if (actuatorThread != null) {
+            actuatorThread.submitStop(expiry);
+        } else {
+            actuator.controlCar(0, 0);
+            onStopApplied(expiry, System.nanoTime());
+        }
+    }
+
+    /**
+     * 停止指令执行完成，记录从截止时间起的停车延迟
+     *
+     * @param expiry       截止时间
+     * @param appliedNanos controlCar(0, 0)返回的时间
+     */
+    private void onStopApplied(long expiry, long appliedNanos) {
+        long latency = appliedNanos - expiry;
+        TraceRing.GLOBAL.record(TraceRing.LEVEL_INFO, TraceEvent.WATCHDOG_TRIP,
+                (int) TimeUnit.NANOSECONDS.toMicros(latency), 0);
+        if (blackBox != null) {
+            blackBox.record(TraceEvent.WATCHDOG_TRIP, 0, (int) TimeUnit.NANOSECONDS.toMicros(latency), 0, 0, 0);
+        }
+        stopAppliedCount++;
+        lastStopLatencyNanos = latency;
+        if (latency > maxStopLatencyNanos) {
+            maxStopLatencyNanos = latency;
+        }
+    }
+
+    /** @return 允许的最长指令间隔（纳秒） */
+    public long getDeadlineNanos() {
+        return deadlineNanos;
+    }
+
+    /** @return 超时停车的次数 */
+    public long getTripCount() {
+        return tripCount;
+    }
+
+    /** @return 已执行完成的停止指令数，停止指令被更新的指令覆盖时少于超时次数 */
+    public long getStopAppliedCount() {
+        return stopAppliedCount;
+    }
+
+    /** @return 最近一次从截止时间到停止指令下发完成的延迟（纳秒） */
+    public long getLastStopLatencyNanos() {
+        return lastStopLatencyNanos;
+    }
+
+    /** @return 从截止时间到停止指令下发完成的最大延迟（纳秒） */
+    public long getMaxStopLatencyNanos() {
+        return maxStopLatencyNanos;
+    }
+}
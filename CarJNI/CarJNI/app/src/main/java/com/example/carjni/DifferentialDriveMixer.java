@@ -0,0 +1,127 @@
+package com.example.carjni;
+
+/**
+ * 差速混控，在Java侧复现驱动mydriver_ioctl中由(angle, speed)到左右轮占空比和方向的计算
+ * 所有取值预先计算成361×101的查找表，每条指令只需一次数组访问
+ *
+ * 驱动的计算规则（整数运算，与C语言一致向零取整）：
+ * <pre>
+ *  speed == 0          停止（关闭PWM）
+ *  0   <= angle <= 90  前进，rotation = (90 - angle) * 1000 / (90 + angle)，左轮 = speed * rotation / 1000，右轮 = speed
+ *  270 <= angle <= 360 前进，rotation = (angle - 270) * 1000 / (450 - angle)，左轮 = speed，右轮 = speed * rotation / 1000
+ *  90  <  angle <= 180 后退，rotation = (angle - 90) * 1000 / (270 - angle)，左轮 = speed * rotation / 1000，右轮 = speed
+ *  180 <  angle <  270 后退，rotation = (270 - angle) * 1000 / (angle - 90)，左轮 = speed，右轮 = speed * rotation / 1000
+ * </pre>
+ * 占空比即PWM高电平时间 DIV_ROUND_CLOSEST(duty * 20000000, 100) 纳秒，周期20ms
+ *
+ * 输出状态打包为一个int：bit16为PWM使能，bit15为前进方向，bit8-14为左轮占空比，bit0-6为右轮占空比
+ * 停止状态为0，与角度无关；两条指令的输出状态相同说明驱动的输出不会发生任何变化
+ */
+public final class DifferentialDriveMixer {
+    /** 角度取值范围 0-360 */
+    public static final int MAX_ANGLE = 360;
+    /** 速度取值范围 0-100 */
+    public static final int MAX_SPEED = 100;
+    /** PWM周期（纳秒） */
+    public static final int PWM_PERIOD_NANOS = 20000000;
+
+    /** 输出状态：停止 */
+    public static final int OUTPUT_STOPPED = 0;
+    /**
+     * 输出状态：超出查找表范围，驱动对这类指令只做部分处理（如只使能PWM），
+     * 无法判断输出是否变化，调用方应始终下发
+     */
+    public static final int OUTPUT_UNDEFINED = -1;
+
+    private static final int ENABLED_BIT = 1 << 16;
+    private static final int FORWARD_BIT = 1 << 15;
+    private static final int LEFT_SHIFT = 8;
+    private static final int DUTY_MASK = 0x7F;
+
+    private static final int[] TABLE = buildTable();
+
+    private DifferentialDriveMixer() {
+    }
+
+    /**
+     * 查表得到指令对应的输出状态
+     *
+     * @param angle 角度
+     * @param speed 速度
+     * @return 打包后的输出状态，超出范围时返回OUTPUT_UNDEFINED
+     */
+    public static int mix(int angle, int speed) {
+        if (angle < 0 || angle > MAX_ANGLE || speed < 0 || speed > MAX_SPEED) {
+            return OUTPUT_UNDEFINED;
+        }
+        return TABLE[angle * (MAX_SPEED + 1) + speed];
+    }
+
+    /**
+     * 按驱动的公式计算输出状态，只用于生成查找表
+     */
+    static int compute(int angle, int speed) {
+        if (speed == 0) {
+            return OUTPUT_STOPPED;
+        }
+        int rotation;
+        if (angle >= 0 && angle <= 90) {
+            rotation = (90 - angle) * 1000 / (90 + angle);
+            return pack(true, speed * rotation / 1000, speed);
+        } else if (angle >= 270 && angle <= 360) {
+            rotation = (angle - 270) * 1000 / (450 - angle);
+            return pack(true, speed, speed * rotation / 1000);
+        } else if (angle > 90 && angle <= 180) {
+            rotation = (angle - 90) * 1000 / (270 - angle);
+            return pack(false, speed * rotation / 1000, speed);
+        } else {
+            rotation = (270 - angle) * 1000 / (angle - 90);
+            return pack(false, speed, speed * rotation / 1000);
+        }
+    }
+
+    private static int pack(boolean forward, int leftDuty, int rightDuty) {
+        return ENABLED_BIT | (forward ? FORWARD_BIT : 0) | (leftDuty << LEFT_SHIFT) | rightDuty;
+    }
+
+    private static int[] buildTable() {
+        int[] table = new int[(MAX_ANGLE + 1) * (MAX_SPEED + 1)];
+        for (int angle = 0; angle <= MAX_ANGLE; angle++) {
+            for (int speed = 0; speed <= MAX_SPEED; speed++) {
+                table[angle * (MAX_SPEED + 1) + speed] = compute(angle, speed);
+            }
+        }
+        return table;
+    }
+
+    /** @return 输出状态中PWM是否使能 */
+    public static boolean isEnabled(int output) {
+        return output != OUTPUT_UNDEFINED && (output & ENABLED_BIT) != 0;
+    }
+
+    /** @return 输出状态中是否为前进方向 */
+    public static boolean isForward(int output) {
+        return (output & FORWARD_BIT) != 0;
+    }
+
+    /** @return 输出状态中左轮的占空比 0-100 */
+    public static int leftDuty(int output) {
+        return (output >> LEFT_SHIFT) & DUTY_MASK;
+    }
+
+    /** @return 输出状态中右轮的占空比 0-100 */
+    public static int rightDuty(int output) {
+        return output & DUTY_MASK;
+    }
+
+    /**
+     * 与驱动contrl_speed相同的高电平时间计算
+     *
+     * @param duty 占空比 0-100
+     * @return PWM高电平时间（纳秒）
+     */
+    public static int highTimeNanos(int duty) {
+        // DIV_ROUND_CLOSEST(duty * 20000000, 100)，被除数非负
+        return (duty * PWM_PERIOD_NANOS + 50) / 100;
+    }
+}
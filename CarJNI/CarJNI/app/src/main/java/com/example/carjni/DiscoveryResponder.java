@@ -0,0 +1,172 @@
+package com.example.carjni;
+
+import android.util.Log;
+
+import com.example.carcommon.DiscoveryMessage;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * 小车发现协议的服务端
+ * 在DiscoveryMessage.DEFAULT_PORT上接收客户端广播的探测，立即向发送端单播回复控制端口、支持的功能和当前负载，
+ * 客户端不再需要手工输入IP和端口
+ * 服务线程独立于控制服务器，探测只在客户端启动时发送，负载可以忽略
+ */
+public class DiscoveryResponder implements Runnable {
+    private static final String TAG = "Network";
+
+    private final int port;
+    private final int controlPort;
+    private final int capabilities;
+    private final String name;
+    private final TcpControlServer server;
+
+    private volatile DatagramChannel channel;
+    private volatile boolean running;
+    private Thread thread;
+
+    // 统计计数，只由服务线程修改
+    private volatile long probeCount;
+    private volatile long replyCount;
+    private volatile long ignoredCount;
+
+    /**
+     * @param port         发现协议的监听端口，0表示由系统分配（用于测试）
+     * @param controlPort  回复中的控制端口
+     * @param capabilities 回复中的功能，DiscoveryMessage.CAP_*的组合
+     * @param name         回复中的名称
+     * @param server       TCP控制服务器，用于回复当前的连接数和是否已有驾驶者，为null时回复0
+     */
+    public DiscoveryResponder(int port, int controlPort, int capabilities, String name, TcpControlServer server) {
+        this.port = port;
+        this.controlPort = controlPort;
+        this.capabilities = capabilities;
+        this.name = name;
+        this.server = server;
+    }
+
+    /**
+     * 绑定端口并启动服务线程
+     *
+     * @throws IOException 端口绑定失败
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        DatagramChannel opened = DatagramChannel.open();
+        try {
+            opened.bind(new InetSocketAddress(port));
+        } catch (IOException | RuntimeException e) {
+            // 绑定失败时关闭通道，不占用文件描述符，也不替换上一次的通道
+            opened.close();
+            throw e;
+        }
+        channel = opened;
+        running = true;
+        thread = new Thread(this, "discovery");
+        thread.start();
+    }
+
+    /**
+     * 停止服务线程并释放端口
+     */
+    public synchronized void stop() {
+        running = false;
+        try {
+            if (channel != null) {
+                // 关闭通道使阻塞在receive中的服务线程退出
+                channel.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "关闭发现服务失败", e);
+        }
+        if (thread != null) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    /**
+     * 获取实际监听的端口
+     *
+     * @return 本地端口号
+     */
+    public int getLocalPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer rxBuffer = ByteBuffer.allocate(DiscoveryMessage.SIZE * 2);
+        ByteBuffer txBuffer = ByteBuffer.allocate(DiscoveryMessage.SIZE);
+        DiscoveryMessage probe = new DiscoveryMessage();
+        while (running) {
+            try {
+                rxBuffer.clear();
+                SocketAddress sender = channel.receive(rxBuffer);
+                rxBuffer.flip();
+                if (rxBuffer.remaining() != DiscoveryMessage.SIZE || !probe.decode(rxBuffer)
+                        || probe.type != DiscoveryMessage.TYPE_PROBE) {
+                    ignoredCount++;
+                    continue;
+                }
+                probeCount++;
+                txBuffer.clear();
+                DiscoveryMessage.encodeReply(txBuffer, probe, capabilities, controlPort,
+                        getClientCount(), hasDriver() ? DiscoveryMessage.FLAG_DRIVER : 0, name);
+                txBuffer.flip();
+                if (channel.send(txBuffer, sender) > 0) {
+                    replyCount++;
+                }
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                // 单个数据报的发送失败（如对端不可达）不影响后续的探测
+                if (running) {
+                    Log.w(TAG, "发现服务应答失败: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private int getClientCount() {
+        return server != null ? server.getConnections().size() : 0;
+    }
+
+    private boolean hasDriver() {
+        if (server == null) {
+            return false;
+        }
+        for (ClientConnection connection : server.getConnections()) {
+            if (connection.isDriver()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return 收到的有效探测数 */
+    public long getProbeCount() {
+        return probeCount;
+    }
+
+    /** @return 已发送的回复数 */
+    public long getReplyCount() {
+        return replyCount;
+    }
+
+    /** @return 无法识别而忽略的数据报数 */
+    public long getIgnoredCount() {
+        return ignoredCount;
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.carjni;
+
+import java.util.ArrayList;
+
+/**
+ * 控制权仲裁
+ * 任意时刻只有一个连接（驾驶者）的指令会被执行，其他连接进入等待队列，队列满时拒绝新连接
+ * TCP控制服务器和UDP控制服务器共用同一个仲裁器，UDP的每个发送端作为一个没有通道的连接参与仲裁
+ *
+ * 规则：
+ * 1. 没有驾驶者时，新连接直接成为驾驶者
+ * 2. 与驾驶者来自同一地址的新连接直接接管，旧连接被替换（手机重连时旧连接往往已经半开）
+ * 3. 通过TYPE_CLAIM帧申请的优先级高于驾驶者时抢占控制权，原驾驶者回到等待队列；
+ *    等待队列已满时原驾驶者被逐出，调用方通过takeEvicted取出并关闭它
+ * 4. 驾驶者断开后，等待队列中优先级最高的连接接任，优先级相同时先到先得
+ *
+ * TCP和UDP服务线程都会调用，所有方法都是同步的；需要连续调用多个方法时在仲裁器上加锁
+ */
+public class DriverArbiter {
+    /** 加入结果：成为驾驶者 */
+    public static final int JOIN_DRIVER = 0;
+    /** 加入结果：接管了同一地址的旧驾驶者连接，调用方应关闭旧连接 */
+    public static final int JOIN_REPLACED = 1;
+    /** 加入结果：进入等待队列 */
+    public static final int JOIN_QUEUED = 2;
+    /** 加入结果：等待队列已满，调用方应关闭该连接 */
+    public static final int JOIN_REJECTED = 3;
+
+    private final int maxWaiting;
+    private final ArrayList<ClientConnection> waiting = new ArrayList<>();
+    private ClientConnection driver;
+    private ClientConnection evicted;
+    private long joinCounter;
+
+    /**
+     * @param maxWaiting 等待队列的最大长度
+     */
+    public DriverArbiter(int maxWaiting) {
+        this.maxWaiting = maxWaiting;
+    }
+
+    /**
+     * 新连接加入
+     *
+     * @param connection 新连接
+     * @return 加入结果，JOIN_*常量之一
+     */
+    public synchronized int join(ClientConnection connection) {
+        connection.waitingSince = ++joinCounter;
+        if (driver == null) {
+            setDriver(connection);
+            return JOIN_DRIVER;
+        }
+        if (connection.host != null && connection.host.equals(driver.host)) {
+            setDriver(connection);
+            return JOIN_REPLACED;
+        }
+        if (waiting.size() >= maxWaiting) {
+            return JOIN_REJECTED;
+        }
+        waiting.add(connection);
+        return JOIN_QUEUED;
+    }
+
+    /**
+     * 连接申请控制权
+     *
+     * @param connection 申请的连接
+     * @param priority   优先级
+     * @return 驾驶者发生变化返回true
+     */
+    public synchronized boolean claim(ClientConnection connection, int priority) {
+        connection.priority = priority;
+        if (connection == driver || !waiting.contains(connection)) {
+            return false;
+        }
+        if (driver != null && priority <= driver.priority) {
+            return false;
+        }
+        waiting.remove(connection);
+        ClientConnection displaced = driver;
+        setDriver(connection);
+        if (displaced != null) {
+            // 与join相同的上限：队列已满时不再排队
+            if (waiting.size() >= maxWaiting) {
+                evicted = displaced;
+            } else {
+                displaced.waitingSince = ++joinCounter;
+                waiting.add(displaced);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 取出最近一次抢占时因等待队列已满而被逐出的原驾驶者，取出后清空
+     *
+     * @return 被逐出的连接，没有则为null
+     */
+    public synchronized ClientConnection takeEvicted() {
+        ClientConnection connection = evicted;
+        evicted = null;
+        return connection;
+    }
+
+    /**
+     * 连接断开
+     *
+     * @param connection 断开的连接
+     * @return 驾驶者发生变化返回true
+     */
+    public synchronized boolean leave(ClientConnection connection) {
+        if (connection != driver) {
+            waiting.remove(connection);
+            return false;
+        }
+        connection.driver = false;
+        driver = null;
+        ClientConnection next = pollBestWaiting();
+        if (next != null) {
+            setDriver(next);
+        }
+        return true;
+    }
+
+    /**
+     * @param connection 连接
+     * @return 该连接是否为当前驾驶者
+     */
+    public synchronized boolean isDriver(ClientConnection connection) {
+        return connection == driver;
+    }
+
+    /** @return 当前驾驶者，没有则为null */
+    public synchronized ClientConnection getDriver() {
+        return driver;
+    }
+
+    /** @return 等待队列中的连接数 */
+    public synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    private void setDriver(ClientConnection connection) {
+        if (driver != null) {
+            driver.driver = false;
+        }
+        driver = connection;
+        connection.driver = true;
+    }
+
+    private ClientConnection pollBestWaiting() {
+        int best = -1;
+        for (int i = 0; i < waiting.size(); i++) {
+            ClientConnection candidate = waiting.get(i);
+            if (best < 0) {
+                best = i;
+                continue;
+            }
+            ClientConnection current = waiting.get(best);
+            if (candidate.priority > current.priority
+                    || (candidate.priority == current.priority
+                    && candidate.waitingSince < current.waitingSince)) {
+                best = i;
+            }
+        }
+        return best < 0 ? null : waiting.remove(best);
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.carjni;
+
+import com.example.carcommon.ControlFrame;
+import com.example.carcommon.LatencyHistogram;
+import com.example.carcommon.TraceRing;
+
+import java.util.function.LongSupplier;
+
+/**
+ * 控制指令端到端延迟统计，按阶段分别记录直方图：
+ * <pre>
+ *  触摸→发送  帧的timestamp - origin，两者都是客户端时钟，不需要时钟同步
+ *  发送→接收  服务端接收时间 - (timestamp + 时钟偏差)，只统计已上报偏差（TYPE_CLOCK）的客户端
+ *  接收→执行  controlCar返回时间 - 服务端接收时间，两者都是服务端时钟
+ * </pre>
+ * 发送→接收阶段的误差取决于偏差估计，不超过客户端测得的往返时间的一半
+ *
+ * 前两个阶段由TCP和UDP服务线程记录（加锁保证直方图只有一个写入者），
+ * 第三个阶段只由执行器线程记录；读取分位数可以在任意线程进行
+ */
+public class LatencyTracker {
+    /** 阶段：触摸到发送 */
+    public static final int STAGE_TOUCH_TO_SEND = 0;
+    /** 阶段：发送到接收 */
+    public static final int STAGE_SEND_TO_RECEIVE = 1;
+    /** 阶段：接收到执行完成 */
+    public static final int STAGE_RECEIVE_TO_ACTUATE = 2;
+    /** 阶段数量 */
+    public static final int STAGE_COUNT = 3;
+
+    private final LongSupplier clock;
+    private final LatencyHistogram[] stages = {
+            new LatencyHistogram("touch→send"),
+            new LatencyHistogram("send→receive"),
+            new LatencyHistogram("receive→ioctl"),
+    };
+
+    public LatencyTracker() {
+        this(System::nanoTime);
+    }
+
+    /**
+     * @param clock 服务端时钟（纳秒），测试时可以注入与客户端存在偏差的时钟
+     */
+    LatencyTracker(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @return 服务端当前时间（纳秒），服务器用它标记帧的接收时间
+     */
+    public long now() {
+        return clock.getAsLong();
+    }
+
+    /**
+     * 记录一条驾驶者控制帧的前两个阶段，在服务线程中调用
+     *
+     * @param frame       已填写receivedNanos的控制帧
+     * @param synced      发送端是否已上报时钟偏差
+     * @param offsetNanos 发送端上报的时钟偏差（服务端时间减客户端时间）
+     */
+    public synchronized void onFrameReceived(ControlFrame frame, boolean synced, long offsetNanos) {
+        // 旧版文本协议和没有触摸事件的帧不携带时间戳
+        if (frame.timestamp == 0) {
+            return;
+        }
+        if (frame.origin != 0) {
+            stages[STAGE_TOUCH_TO_SEND].record(frame.timestamp - frame.origin);
+        }
+        if (synced) {
+            stages[STAGE_SEND_TO_RECEIVE].record(frame.receivedNanos - (frame.timestamp + offsetNanos));
+        }
+    }
+
+    /**
+     * 记录接收到执行完成的阶段，在执行器线程中调用
+     *
+     * @param receivedNanos 指令的接收时间（本实例的时钟）
+     */
+    public void onActuated(long receivedNanos) {
+        stages[STAGE_RECEIVE_TO_ACTUATE].record(clock.getAsLong() - receivedNanos);
+    }
+
+    /**
+     * @param stage STAGE_*常量之一
+     * @return 该阶段的直方图
+     */
+    public LatencyHistogram getStage(int stage) {
+        return stages[stage];
+    }
+
+    /**
+     * 每个阶段一行摘要，用于界面显示
+     *
+     * @param out 输出
+     * @return out
+     */
+    public StringBuilder appendSummary(StringBuilder out) {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            if (i > 0) {
+                out.append('\n');
+            }
+            stages[i].appendSummary(out);
+        }
+        return out;
+    }
+
+    /**
+     * 导出所有阶段的摘要和分桶数据
+     *
+     * @param printer 输出
+     */
+    public void export(TraceRing.Printer printer) {
+        for (LatencyHistogram stage : stages) {
+            stage.export(printer);
+        }
+    }
+}
@@ -2,30 +2,66 @@ package com.example.carjni;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
 import android.util.Log;
-import android.widget.Button;
-import android.widget.EditText;
 import android.widget.TextView;
 
 import com.example.carjni.databinding.ActivityMainBinding;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * 只负责显示：端口、设备和执行器线程都由ControlService持有，活动绑定服务后定时读取最近的指令和统计
+ * 活动重建或切到后台不影响指令的执行
+ */
 public class MainActivity extends AppCompatActivity {
 
-    // Used to load the 'carjni' library on application startup.
-    static {
-        System.loadLibrary("carjni");
-    }
-
     private ActivityMainBinding binding;
     private TextView speedTextView;
     private TextView angleTextView;
+    private TextView latencyTextView;
+
+    // 绑定的控制服务，未连接时为null
+    private ControlService service;
+    private final ServiceConnection connection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            service = ((ControlService.LocalBinder) binder).getService();
+            // 活动重建后立即显示当前的数值
+            shownAngle = -1;
+            shownSpeed = -1;
+            latencyRefreshTick = LATENCY_REFRESH_TICKS;
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            service = null;
+        }
+    };
+
+    // 界面刷新：与指令执行解耦，按固定间隔读取最近执行的指令，有变化才更新文本
+    private static final long UI_REFRESH_INTERVAL_MS = 100;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private int shownAngle = -1;
+    private int shownSpeed = -1;
+    // 延迟统计每秒刷新一次
+    private static final int LATENCY_REFRESH_TICKS = 10;
+    private int latencyRefreshTick;
+    private final StringBuilder latencyText = new StringBuilder(256);
+    private final Runnable uiRefresher = new Runnable() {
+        @Override
+        public void run() {
+            refreshDisplay();
+            handler.postDelayed(this, UI_REFRESH_INTERVAL_MS);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -36,88 +72,90 @@ public class MainActivity extends AppCompatActivity {
         // 初始化视图组件
         speedTextView = findViewById(R.id.SpeedRatio);
         angleTextView = findViewById(R.id.angle);
-
-        // 启动服务器
-        startServer();
-        // 打开设备节点
-        MyDeviceOpen();
+        latencyTextView = findViewById(R.id.latency);
+        // 长按端口文本导出事件环
+        findViewById(R.id.port).setOnLongClickListener(v -> {
+            if (service != null) {
+                service.dumpTrace();
+            }
+            return true;
+        });
+        // 长按统计文本热重启网络层
+        latencyTextView.setOnLongClickListener(v -> {
+            restartNetwork();
+            return true;
+        });
+
+        // 服务已经在运行时只是重新绑定，端口和设备保持不变
+        ControlService.start(this, getIntent());
+        bindService(new Intent(this, ControlService.class), connection, BIND_AUTO_CREATE);
+        handler.post(uiRefresher);
     }
 
     /**
-     * 启动服务器
-     * 该方法在一个新的线程中启动一个服务器，监听指定端口，并接受客户端连接请求
-     * 选择在新线程中运行是因为服务器通常需要长时间运行，且处理客户端请求时不应阻塞主线程
-     * 使用ServerSocket来监听8888端口，这是服务器与客户端通信的入口
-     * 该方法不接受参数，也无返回值
+     * 在后台线程中热重启控制服务的网络层，结果写入日志，耗时显示在统计中
      */
-    private void startServer() {
+    private void restartNetwork() {
+        ControlService s = service;
+        if (s == null) {
+            return;
+        }
         new Thread(() -> {
             try {
-                // 创建ServerSocket实例，指定监听的端口号为8888
-                ServerSocket serverSocket = new ServerSocket(8888);
-                // 循环等待并接受客户端的连接请求
-                while (!Thread.interrupted()) {
-                    // 接受客户端连接请求，创建Socket对象处理与客户端的通信
-                    Socket client = serverSocket.accept();
-                    // 处理客户端请求，具体逻辑由handleClient方法实现
-                    handleClient(client);
-                }
+                long elapsed = s.restartNetwork();
+                Log.i("Network", "网络层重启耗时 " + TimeUnit.NANOSECONDS.toMicros(elapsed) + "us");
             } catch (IOException e) {
-                // 输出异常信息，以便于调试和日志记录
-                e.printStackTrace();
+                Log.e("Network", "网络层重启失败: " + e.getMessage());
             }
-        }).start();
+        }, "network-restart").start();
     }
 
     /**
-     * 处理客户端连接
-     * 该方法负责读取客户端发送的数据，解析并更新UI及控制设备
-     *
-     * @param client 套接字对象，代表与客户端的连接
+     * 刷新界面显示，在主线程中定时调用
+     * 只读取执行器线程最近执行的指令，数值没有变化时不做格式化和setText
      */
-    private void handleClient(Socket client) {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                Log.d("Network", "收到原始数据: " + line);
-                String[] parts = line.split(": |, ");
-
-                if (parts.length != 4) {
-                    Log.w("Network", "数据格式错误，跳过处理");
-                    continue;
-                }
-
-                try {
-                    final int angle = Integer.parseInt(parts[1].trim());
-                    final int speed = Integer.parseInt(parts[3].trim());
-                    final int finalAngle = (speed == 0) ? 0 : angle;
-
-                    runOnUiThread(() -> {
-                        // 使用安全格式化
-                        String angleText = getString(R.string.angle_text, finalAngle);
-                        String speedText = getString(R.string.speed_text, speed);
-
-                        angleTextView.setText(angleText);
-                        speedTextView.setText(speedText);
-                        controlCar(finalAngle, speed);
-                    });
-                } catch (NumberFormatException e) {
-                    Log.e("Network", "数值解析失败: " + line);
-                }
-            }
-        } catch (IOException e) {
-            Log.e("Network", "连接异常: " + e.getMessage());
-        } finally {
-            try {
-                client.close();
-            } catch (IOException e) {
-                Log.e("Network", "关闭连接失败");
+    private void refreshDisplay() {
+        ControlService s = service;
+        if (s == null) {
+            return;
+        }
+        if (s.isStopped()) {
+            // 通知中停止了控制服务：结束活动并解除绑定，服务随之销毁，再次打开时重新启动
+            if (!isFinishing()) {
+                finish();
             }
+            return;
+        }
+        if (!s.isAccepting()) {
+            // 启动完成前显示启动进度，执行器线程可能尚未启动
+            latencyText.setLength(0);
+            latencyTextView.setText(s.appendStartup(latencyText));
+            return;
+        }
+        if (++latencyRefreshTick >= LATENCY_REFRESH_TICKS) {
+            latencyRefreshTick = 0;
+            latencyText.setLength(0);
+            latencyTextView.setText(s.appendSummary(latencyText));
         }
+        int angle = s.getLastAngle();
+        int speed = s.getLastSpeed();
+        if (angle == shownAngle && speed == shownSpeed) {
+            return;
+        }
+        shownAngle = angle;
+        shownSpeed = speed;
+
+        // 使用安全格式化
+        angleTextView.setText(getString(R.string.angle_text, angle));
+        speedTextView.setText(getString(R.string.speed_text, speed));
     }
 
-    // 添加JNI方法声明
-    public native void controlCar(int angle, int speed);
-    public native int MyDeviceOpen();
-    public native int MyDeviceClose();
+    @Override
+    protected void onDestroy() {
+        // 只解除绑定，控制服务继续运行，端口和设备不释放
+        handler.removeCallbacks(uiRefresher);
+        unbindService(connection);
+        service = null;
+        super.onDestroy();
+    }
 }
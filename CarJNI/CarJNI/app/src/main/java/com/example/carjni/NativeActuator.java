@@ -0,0 +1,152 @@
+package com.example.carjni;
+
+import com.example.carcommon.TraceEvent;
+import com.example.carcommon.TraceRing;
+
+/**
+ * native-lib.cpp中的执行器后端
+ * BACKEND_IOCTL对设备节点调用ioctl；BACKEND_SIMULATED不需要设备，每条指令忙等固定的时间模拟ioctl的耗时，
+ * 并把指令写入内存中的记录环（以及可选的文件或FIFO），用于在Linux主机上测量服务器的吞吐和延迟
+ *
+ * open、control、close返回0或负的errno；controlCar只允许单个线程调用（执行器线程），
+ * 失败时计数并写入事件环，不抛出异常
+ */
+public class NativeActuator implements Actuator {
+    /** 真实设备，ioctl(fd, speed, angle) */
+    public static final int BACKEND_IOCTL = 0;
+    /** 模拟设备 */
+    public static final int BACKEND_SIMULATED = 1;
+
+    private final int backend;
+    private final String devicePath;
+    private final int latencyMicros;
+    // native后端的指针，close后为0
+    private volatile long handle;
+
+    // 失败次数和最近一次的返回值，只有执行器线程写入
+    private volatile long errorCount;
+    private volatile int lastError;
+
+    /**
+     * @param backend       BACKEND_IOCTL或BACKEND_SIMULATED
+     * @param devicePath    设备节点路径；模拟设备的记录文件或FIFO路径，为null时只记录在内存中
+     * @param latencyMicros 模拟设备每条指令的耗时（微秒），ioctl后端忽略
+     */
+    public NativeActuator(int backend, String devicePath, int latencyMicros) {
+        if (backend != BACKEND_IOCTL && backend != BACKEND_SIMULATED) {
+            throw new IllegalArgumentException("backend: " + backend);
+        }
+        if (backend == BACKEND_IOCTL && devicePath == null) {
+            throw new IllegalArgumentException("devicePath");
+        }
+        this.backend = backend;
+        this.devicePath = devicePath;
+        this.latencyMicros = latencyMicros;
+    }
+
+    /**
+     * 创建native后端并打开设备，已经打开时直接返回0
+     *
+     * @return 0表示成功，负数为-errno；native后端创建失败时为-22（EINVAL）
+     */
+    public synchronized int open() {
+        if (handle != 0) {
+            return 0;
+        }
+        long created = nativeCreate(backend, devicePath, latencyMicros);
+        if (created == 0) {
+            return -22;
+        }
+        int result = nativeOpen(created);
+        if (result < 0) {
+            nativeDestroy(created);
+            return result;
+        }
+        handle = created;
+        return 0;
+    }
+
+    /**
+     * 下发一条指令
+     *
+     * @param angle 角度
+     * @param speed 速度
+     * @return 0表示成功，负数为-errno；未打开时为-9（EBADF）
+     */
+    public int control(int angle, int speed) {
+        long h = handle;
+        return h != 0 ? nativeControl(h, angle, speed) : -9;
+    }
+
+    /**
+     * 下发一条指令，失败时计数并记录ACTUATE_FAILED
+     *
+     * @param angle 角度，0-360
+     * @param speed 速度，0-100
+     */
+    @Override
+    public void controlCar(int angle, int speed) {
+        int result = control(angle, speed);
+        if (result < 0) {
+            lastError = result;
+            errorCount++;
+            TraceRing.GLOBAL.record(TraceRing.LEVEL_INFO, TraceEvent.ACTUATE_FAILED, result, speed);
+        }
+    }
+
+    /**
+     * 复制模拟设备最近的指令记录，按时间先后排列，每条记录占两个int：角度、速度
+     * 应在执行器线程停止后调用，否则最旧的几条可能已被覆盖
+     *
+     * @param dst 输出，长度为记录数的两倍
+     * @return 复制的记录数，ioctl后端和未打开时为0
+     */
+    public int readLog(int[] dst) {
+        long h = handle;
+        return h != 0 ? nativeReadLog(h, dst) : 0;
+    }
+
+    /**
+     * 关闭设备并释放native后端，需要在执行器线程停止后调用
+     *
+     * @return 0表示成功，负数为-errno
+     */
+    public synchronized int close() {
+        if (handle == 0) {
+            return 0;
+        }
+        long h = handle;
+        handle = 0;
+        return nativeDestroy(h);
+    }
+
+    /** @return 是否已经打开 */
+    public boolean isOpen() {
+        return handle != 0;
+    }
+
+    /** @return 后端类型 */
+    public int getBackend() {
+        return backend;
+    }
+
+    /** @return controlCar失败的次数 */
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /** @return 最近一次失败的返回值（-errno），没有失败过时为0 */
+    public int getLastError() {
+        return lastError;
+    }
+
+    private static native long nativeCreate(int backend, String devicePath, int latencyMicros);
+
+    private static native int nativeOpen(long handle);
+
+    private static native int nativeControl(long handle, int angle, int speed);
+
+    private static native int nativeReadLog(long handle, int[] dst);
+
+    private static native int nativeDestroy(long handle);
+}
@@ -0,0 +1,126 @@
+package com.example.carjni;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Java与native-lib.cpp之间的共享内存指令环
+ * Java把指令写入一块只注册一次的直接缓冲区，由native工作线程取出最新的一条并调用ioctl，
+ * 每条指令不再需要一次JNI调用
+ *
+ * 内存布局（本机字节序，所有字段均为8字节对齐的int64）：
+ * <pre>
+ *  偏移  字段
+ *   0   writeSeq    Java写入的最新序号
+ *   8   readSeq     native已执行的最新序号
+ *  16   applied     native执行的指令数
+ *  24   coalesced   native跳过的旧指令数（只执行最新的一条）
+ *  32   errors      ioctl/write失败次数
+ *  64   slots[capacity]  每项为 序号(32位) | 角度(16位) | 速度(16位)
+ * </pre>
+ * 每个槽位自带序号，native读到的槽位序号与writeSeq不一致时说明写入尚未可见，稍后重读即可，
+ * 因此Java侧不需要内存屏障，单次8字节对齐写入本身是原子的
+ *
+ * controlCar只允许单个线程调用（执行器线程）；设备只由native工作线程访问，
+ * 需要每条指令一次JNI调用的对比测试使用NativeActuator打开同一个设备
+ */
+public class NativeCommandRing implements Actuator {
+    static final int HEADER_SIZE = 64;
+    static final int WRITE_SEQ_OFFSET = 0;
+    static final int READ_SEQ_OFFSET = 8;
+    static final int APPLIED_OFFSET = 16;
+    static final int COALESCED_OFFSET = 24;
+    static final int ERRORS_OFFSET = 32;
+
+    private final int capacity;
+    private final ByteBuffer ring;
+    private long writeSeq;
+    private boolean started;
+
+    /**
+     * @param capacity 槽位数量
+     */
+    public NativeCommandRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.ring = ByteBuffer.allocateDirect(HEADER_SIZE + capacity * 8)
+                .order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * 打开设备并启动native工作线程
+     * 设备路径可以是FIFO或普通文件，用于在Linux上验证：这类文件上ioctl会失败，native改为写入一条记录
+     *
+     * @param devicePath 设备节点路径，如 /dev/mydevice
+     * @param pollMicros 工作线程没有新指令时的轮询间隔（微秒）
+     * @return 0表示成功，负数为-errno
+     */
+    public synchronized int start(String devicePath, int pollMicros) {
+        if (started) {
+            return 0;
+        }
+        int result = nativeStart(ring, capacity, devicePath, pollMicros);
+        started = result == 0;
+        return result;
+    }
+
+    /**
+     * 停止native工作线程并关闭设备，需要在写入线程停止后调用
+     * 工作线程先执行完最新写入的指令再退出，readSeq随后等于writeSeq
+     */
+    public synchronized void stop() {
+        if (started) {
+            nativeStop();
+            started = false;
+        }
+    }
+
+    /**
+     * 写入一条指令，不经过JNI
+     *
+     * @param angle 角度
+     * @param speed 速度
+     */
+    @Override
+    public void controlCar(int angle, int speed) {
+        long seq = ++writeSeq;
+        ring.putLong(HEADER_SIZE + (int) (seq % capacity) * 8,
+                (seq << 32) | ((angle & 0xFFFFL) << 16) | (speed & 0xFFFFL));
+        ring.putLong(WRITE_SEQ_OFFSET, seq);
+    }
+
+    /** @return 已写入的最新序号 */
+    public long getWriteSequence() {
+        return writeSeq;
+    }
+
+    /** @return native已执行的最新序号 */
+    public long getReadSequence() {
+        return ring.getLong(READ_SEQ_OFFSET);
+    }
+
+    /** @return native执行的指令数 */
+    public long getAppliedCount() {
+        return ring.getLong(APPLIED_OFFSET);
+    }
+
+    /** @return native跳过的旧指令数 */
+    public long getCoalescedCount() {
+        return ring.getLong(COALESCED_OFFSET);
+    }
+
+    /** @return ioctl/write失败次数 */
+    public long getErrorCount() {
+        return ring.getLong(ERRORS_OFFSET);
+    }
+
+    ByteBuffer buffer() {
+        return ring;
+    }
+
+    private static native int nativeStart(ByteBuffer ring, int capacity, String devicePath, int pollMicros);
+
+    private static native void nativeStop();
+}
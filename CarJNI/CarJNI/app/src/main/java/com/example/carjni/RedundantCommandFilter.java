@@ -0,0 +1,132 @@
+package com.example.carjni;
+
+import com.example.carcommon.TraceEvent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 过滤不会改变驱动输出的指令
+ * 用DifferentialDriveMixer计算每条指令对应的左右轮占空比和方向，
+ * 与上一次下发的输出状态相同时不再调用controlCar，例如停车时客户端持续发送的(0, 0)
+ *
+ * 输出不变的指令每隔keepAlive时间仍然下发一次，用来纠正驱动状态与记录不一致的情况
+ * （如驱动重新加载）；超出查找表范围的指令总是下发
+ *
+ * 设置了失败计数时，下游执行器的失败次数增加后清除记录的输出状态，下一条指令无论是否相同都会下发，
+ * 避免一次失败的停车指令之后相同的(0, 0)在保活间隔内都被过滤掉；
+ * 指令环的失败在native线程中异步发生，在下一条指令到来时发现
+ *
+ * 只允许单个线程调用controlCar（执行器线程）
+ */
+public class RedundantCommandFilter implements Actuator {
+    private final Actuator actuator;
+    private final long keepAliveNanos;
+    private final LongSupplier clock;
+    private BlackBox blackBox;
+    private LongSupplier failureCount;
+    private long lastFailureCount;
+
+    private volatile int lastOutput = DifferentialDriveMixer.OUTPUT_UNDEFINED;
+    private long lastIssuedNanos;
+
+    // 统计数据，只由调用线程修改
+    private volatile long issuedCount;
+    private volatile long suppressedCount;
+    private volatile long keepAliveCount;
+
+    /**
+     * @param actuator        实际下发指令的执行器
+     * @param keepAliveMillis 输出不变时重新下发的间隔（毫秒）
+     */
+    public RedundantCommandFilter(Actuator actuator, long keepAliveMillis) {
+        this(actuator, keepAliveMillis, System::nanoTime);
+    }
+
+    RedundantCommandFilter(Actuator actuator, long keepAliveMillis, LongSupplier clock) {
+        if (keepAliveMillis <= 0) {
+            throw new IllegalArgumentException("keepAliveMillis: " + keepAliveMillis);
+        }
+        this.actuator = actuator;
+        this.keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(keepAliveMillis);
+        this.clock = clock;
+    }
+
+    /**
+     * 设置黑匣子，记录每次不下发或保活下发的决定，需要在执行器线程启动之前调用
+     *
+     * @param blackBox 黑匣子，为null时不记录
+     */
+    public void setBlackBox(BlackBox blackBox) {
+        this.blackBox = blackBox;
+    }
+
+    /**
+     * 设置下游执行器的累计失败次数，需要在执行器线程启动之前调用
+     *
+     * @param failureCount 累计失败次数，为null时认为下发总是成功
+     */
+    public void setFailureCount(LongSupplier failureCount) {
+        this.failureCount = failureCount;
+        lastFailureCount = failureCount != null ? failureCount.getAsLong() : 0;
+    }
+
+    @Override
+    public void controlCar(int angle, int speed) {
+        int output = DifferentialDriveMixer.mix(angle, speed);
+        long now = clock.getAsLong();
+        checkFailures();
+        if (output != DifferentialDriveMixer.OUTPUT_UNDEFINED && output == lastOutput) {
+            if (now - lastIssuedNanos < keepAliveNanos) {
+                suppressedCount++;
+                if (blackBox != null) {
+                    blackBox.record(TraceEvent.DECISION, BlackBox.DECISION_SUPPRESS, 0, 0, angle, speed);
+                }
+                return;
+            }
+            keepAliveCount++;
+            if (blackBox != null) {
+                blackBox.record(TraceEvent.DECISION, BlackBox.DECISION_KEEPALIVE, 0, 0, angle, speed);
+            }
+        }
+        actuator.controlCar(angle, speed);
+        lastOutput = output;
+        lastIssuedNanos = now;
+        issuedCount++;
+        checkFailures();
+    }
+
+    /**
+     * 下游失败次数增加时清除记录的输出状态，驱动的实际状态已经未知
+     */
+    private void checkFailures() {
+        if (failureCount == null) {
+            return;
+        }
+        long failures = failureCount.getAsLong();
+        if (failures != lastFailureCount) {
+            lastFailureCount = failures;
+            lastOutput = DifferentialDriveMixer.OUTPUT_UNDEFINED;
+        }
+    }
+
+    /** @return 最近一次下发的输出状态，见DifferentialDriveMixer */
+    public int getLastOutput() {
+        return lastOutput;
+    }
+
+    /** @return 实际下发的指令数，包括保活下发 */
+    public long getIssuedCount() {
+        return issuedCount;
+    }
+
+    /** @return 因输出不变而未下发的指令数 */
+    public long getSuppressedCount() {
+        return suppressedCount;
+    }
+
+    /** @return 输出不变但因保活而下发的指令数 */
+    public long getKeepAliveCount() {
+        return keepAliveCount;
+    }
+}
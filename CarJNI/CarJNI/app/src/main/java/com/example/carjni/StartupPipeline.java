@@ -0,0 +1,249 @@
+package com.example.carjni;
+
+import com.example.carcommon.LatencyHistogram;
+import com.example.carcommon.TraceEvent;
+import com.example.carcommon.TraceRing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分阶段的异步启动流程
+ * 耗时的初始化（加载native库、打开设备、映射黑匣子文件、绑定端口）按顺序在启动线程中执行，不阻塞界面线程的首帧绘制；
+ * 每个阶段完成后就绪状态前进一级，任一阶段失败时停在失败的阶段，后面的阶段不再执行
+ * <pre>
+ *  getCompletedStages()  0 ... n-1 已完成的阶段数
+ *                        n         全部完成，isReady()为true
+ *  isFailed()            某个阶段抛出异常或错误，getFailedStage()为该阶段
+ * </pre>
+ * 每个阶段的耗时和相对于start()的结束时间都会记录，并写入事件环（TraceEvent.STARTUP_STAGE），用于分析冷启动
+ */
+public class StartupPipeline implements Runnable {
+    /**
+     * 一个启动阶段，在启动线程中执行
+     */
+    public interface Stage {
+        /**
+         * 抛出的Error（如加载native库时的UnsatisfiedLinkError）同样记为失败，不会使启动线程退出
+         *
+         * @throws Exception 阶段失败，启动流程停止
+         */
+        void run() throws Exception;
+    }
+
+    /**
+     * 启动事件，都在启动线程中回调
+     */
+    public interface Listener {
+        /**
+         * 一个阶段完成
+         *
+         * @param index 阶段序号
+         */
+        void onStageCompleted(int index);
+
+        /**
+         * 一个阶段失败，之后的阶段不再执行
+         *
+         * @param index 阶段序号
+         * @param cause 失败原因
+         */
+        void onStageFailed(int index, Throwable cause);
+    }
+
+    private final List<String> names = new ArrayList<>();
+    private final List<Stage> stages = new ArrayList<>();
+    private final Listener listener;
+
+    private volatile int completedStages;
+    private volatile int failedStage = -1;
+    private volatile Throwable failure;
+    private volatile boolean cancelled;
+    private long[] stageNanos;
+    private long[] finishedAtNanos;
+    private long startNanos;
+    private Thread thread;
+
+    /**
+     * @param listener 启动事件，可以为null
+     */
+    public StartupPipeline(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 添加一个阶段，需要在start之前调用
+     *
+     * @param name  阶段名称，显示和导出时使用
+     * @param stage 阶段的内容
+     * @return 阶段序号
+     */
+    public synchronized int addStage(String name, Stage stage) {
+        if (thread != null) {
+            throw new IllegalStateException("已经启动");
+        }
+        names.add(name);
+        stages.add(stage);
+        return stages.size() - 1;
+    }
+
+    /**
+     * 启动线程，按添加的顺序执行各个阶段，立即返回
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        stageNanos = new long[stages.size()];
+        finishedAtNanos = new long[stages.size()];
+        startNanos = System.nanoTime();
+        thread = new Thread(this, "startup");
+        thread.start();
+    }
+
+    /**
+     * 取消尚未开始的阶段并等待正在执行的阶段结束，用于在启动完成前销毁
+     * 返回后不会再有阶段开始执行，调用方可以安全地释放各阶段创建的资源
+     */
+    public void cancel() {
+        cancelled = true;
+        Thread t;
+        synchronized (this) {
+            t = thread;
+        }
+        if (t != null) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 等待启动流程结束（全部完成、失败或取消）
+     *
+     * @param timeoutMillis 最长等待时间（毫秒）
+     * @return 全部阶段都已完成返回true
+     * @throws InterruptedException 等待被中断
+     */
+    public boolean await(long timeoutMillis) throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+        }
+        if (t != null) {
+            t.join(timeoutMillis);
+        }
+        return isReady();
+    }
+
+    @Override
+    public void run() {
+        for (int i = 0; i < stages.size() && !cancelled; i++) {
+            long begin = System.nanoTime();
+            try {
+                stages.get(i).run();
+            } catch (Throwable e) {
+                long elapsed = System.nanoTime() - begin;
+                stageNanos[i] = elapsed;
+                finishedAtNanos[i] = begin + elapsed - startNanos;
+                failure = e;
+                failedStage = i;
+                TraceRing.GLOBAL.record(TraceRing.LEVEL_INFO, TraceEvent.STARTUP_STAGE, -1 - i,
+                        (int) TimeUnit.NANOSECONDS.toMicros(elapsed));
+                if (listener != null) {
+                    listener.onStageFailed(i, e);
+                }
+                return;
+            }
+            long end = System.nanoTime();
+            stageNanos[i] = end - begin;
+            finishedAtNanos[i] = end - startNanos;
+            TraceRing.GLOBAL.record(TraceRing.LEVEL_INFO, TraceEvent.STARTUP_STAGE, i,
+                    (int) TimeUnit.NANOSECONDS.toMicros(end - begin));
+            // 耗时先于完成数写入，读到新的完成数时耗时已经可见
+            completedStages = i + 1;
+            if (listener != null) {
+                listener.onStageCompleted(i);
+            }
+        }
+    }
+
+    /** @return 是否所有阶段都已完成 */
+    public boolean isReady() {
+        return completedStages == names.size() && failedStage < 0;
+    }
+
+    /** @return 是否有阶段失败 */
+    public boolean isFailed() {
+        return failedStage >= 0;
+    }
+
+    /** @return 已完成的阶段数 */
+    public int getCompletedStages() {
+        return completedStages;
+    }
+
+    /** @return 失败的阶段序号，没有失败时为-1 */
+    public int getFailedStage() {
+        return failedStage;
+    }
+
+    /** @return 失败原因，没有失败时为null */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * @param index 阶段序号
+     * @return 阶段名称
+     */
+    public String getStageName(int index) {
+        return names.get(index);
+    }
+
+    /** @return 阶段数 */
+    public int getStageCount() {
+        return names.size();
+    }
+
+    /**
+     * @param index 已完成或失败的阶段序号
+     * @return 该阶段的耗时（纳秒）
+     */
+    public long getStageNanos(int index) {
+        return stageNanos[index];
+    }
+
+    /** @return 从start()到最后一个阶段完成的时间（纳秒），尚未全部完成时为0 */
+    public long getTotalNanos() {
+        return isReady() && !names.isEmpty() ? finishedAtNanos[names.size() - 1] : 0;
+    }
+
+    /**
+     * 写入各阶段的状态和耗时，如 “启动 12.30ms：native库 3.10ms 设备 0.52ms 黑匣子 8.00ms 端口 0.60ms 就绪 0.08ms”
+     * 未完成时写入当前阶段，失败时写入失败的阶段和原因
+     *
+     * @param out 输出
+     * @return out
+     */
+    public StringBuilder appendSummary(StringBuilder out) {
+        int completed = completedStages;
+        int failed = failedStage;
+        if (failed >= 0) {
+            out.append("启动失败：").append(names.get(failed)).append(' ').append(failure.getMessage());
+        } else if (completed < names.size()) {
+            out.append("启动中：").append(names.get(completed));
+        } else {
+            LatencyHistogram.appendMillis(out.append("启动 "), getTotalNanos());
+        }
+        int shown = failed >= 0 ? failed + 1 : completed;
+        for (int i = 0; i < shown; i++) {
+            LatencyHistogram.appendMillis(out.append(i == 0 ? '：' : ' ').append(names.get(i)).append(' '),
+                    stageNanos[i]);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,516 @@
+package com.example.carjni;
+
+import android.util.Log;
+
+import com.example.carcommon.ControlFrame;
+import com.example.carcommon.LegacyTextCommand;
+import com.example.carcommon.TraceEvent;
+import com.example.carcommon.TraceRing;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 基于Selector的TCP控制服务器
+ * 单个线程以非阻塞方式同时服务多个连接，一个客户端不会因为另一个连接未关闭而无法接入
+ *
+ * 每个连接根据首字节自动识别二进制控制帧或旧版文本协议
+ * 控制权由DriverArbiter仲裁，只有驾驶者的控制指令会交给CommandListener执行
+ * 驾驶者发生变化时先执行一次停止指令，等新驾驶者的指令到达后再继续
+ *
+ * 任何连接发来的PING都立即回复PONG，客户端据此估计时钟偏差并通过CLOCK帧上报；
+ * 设置了LatencyTracker时，驾驶者的控制帧按上报的偏差统计各阶段延迟
+ *
+ * 二进制连接每次读取后，若有控制帧交给了执行器，回复一个ACK确认其中最后一帧，
+ * 客户端据此计算往返时间和丢帧率并调整发送频率；等待控制权的连接收不到确认
+ */
+public class TcpControlServer implements Runnable {
+    private static final String TAG = "Network";
+    private static final int RX_BUFFER_SIZE = 1024;
+
+    private final int port;
+    private final CommandListener listener;
+    private final DriverArbiter arbiter;
+    private final LatencyTracker tracker;
+    private final List<ClientConnection> connections = new CopyOnWriteArrayList<>();
+    private BlackBox blackBox;
+
+    // 解码用的复用对象，只在服务线程中访问
+    private final ControlFrame frame = new ControlFrame();
+    private final ControlFrame stopFrame = new ControlFrame();
+    private final ByteBuffer txBuffer = ByteBuffer.allocate(ControlFrame.SIZE);
+    private int nextConnectionId;
+
+    private volatile ServerSocketChannel serverChannel;
+    private volatile Selector selector;
+    private volatile boolean running;
+    private Thread thread;
+
+    // 统计计数
+    private volatile long acceptedCount;
+    private volatile long rejectedCount;
+    private volatile long driverChangeCount;
+    // 累计值，连接关闭后不清零，用于长时间运行的统计
+    private volatile long frameCount;
+    private volatile long appliedCount;
+    private volatile long malformedCount;
+
+    /**
+     * @param port       监听端口，0表示由系统分配（用于测试）
+     * @param maxWaiting 等待控制权的连接数上限，超过后拒绝新连接
+     * @param listener   指令监听器，在服务线程中回调
+     */
+    public TcpControlServer(int port, int maxWaiting, CommandListener listener) {
+        this(port, maxWaiting, listener, null);
+    }
+
+    /**
+     * @param port       监听端口，0表示由系统分配（用于测试）
+     * @param maxWaiting 等待控制权的连接数上限，超过后拒绝新连接
+     * @param listener   指令监听器，在服务线程中回调
+     * @param tracker    延迟统计，为null时不统计，帧的接收时间使用System.nanoTime
+     */
+    public TcpControlServer(int port, int maxWaiting, CommandListener listener, LatencyTracker tracker) {
+        this.port = port;
+        this.listener = listener;
+        this.arbiter = new DriverArbiter(maxWaiting);
+        this.tracker = tracker;
+        stopFrame.type = ControlFrame.TYPE_CONTROL;
+    }
+
+    /**
+     * 设置黑匣子，记录每个收到的帧和格式错误，需要在start之前调用
+     *
+     * @param blackBox 黑匣子，为null时不记录
+     */
+    public void setBlackBox(BlackBox blackBox) {
+        this.blackBox = blackBox;
+    }
+
+    /**
+     * 绑定端口并启动服务线程
+     *
+     * @throws IOException 端口绑定失败
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        ServerSocketChannel opened = ServerSocketChannel.open();
+        try {
+            // 热重启网络层时，上一次关闭的连接还处于TIME_WAIT，不设置时重新绑定同一端口会失败
+            opened.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            opened.bind(new InetSocketAddress(port));
+            opened.configureBlocking(false);
+            selector = Selector.open();
+            opened.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException | RuntimeException e) {
+            // 端口被占用等失败时关闭已经打开的通道和Selector，不泄漏文件描述符
+            opened.close();
+            if (selector != null) {
+                selector.close();
+                selector = null;
+            }
+            throw e;
+        }
+        serverChannel = opened;
+
+        running = true;
+        thread = new Thread(this, "tcp-control");
+        thread.start();
+    }
+
+    /**
+     * 停止服务线程，关闭所有连接并释放端口
+     */
+    public synchronized void stop() {
+        running = false;
+        // 先唤醒并等待服务线程退出，再关闭Selector，避免服务线程遍历selectedKeys时被并发修改
+        if (thread != null) {
+            selector.wakeup();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "关闭TCP服务失败", e);
+        }
+        for (ClientConnection connection : connections) {
+            closeQuietly(connection.channel);
+        }
+        connections.clear();
+    }
+
+    /**
+     * 获取实际监听的端口
+     *
+     * @return 本地端口号
+     */
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read((ClientConnection) key.attachment());
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                if (running) {
+                    Log.e(TAG, "TCP服务异常: " + e.getMessage());
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * 接受新连接并交给仲裁器决定其角色
+     */
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        // 依靠TCP保活探测清理客户端掉线后残留的半开连接
+        channel.socket().setKeepAlive(true);
+
+        ClientConnection connection = new ClientConnection(++nextConnectionId, channel,
+                channel.socket().getInetAddress(), RX_BUFFER_SIZE);
+        ClientConnection previous;
+        int result;
+        // UDP服务线程可能同时改变驾驶者，取旧驾驶者和加入需要在同一次加锁中完成
+        synchronized (arbiter) {
+            previous = arbiter.getDriver();
+            result = arbiter.join(connection);
+        }
+        if (result == DriverArbiter.JOIN_REJECTED) {
+            rejectedCount++;
+            closeQuietly(channel);
+            Log.w(TAG, "等待队列已满，拒绝连接: " + connection.host);
+            return;
+        }
+
+        acceptedCount++;
+        connections.add(connection);
+        channel.register(selector, SelectionKey.OP_READ, connection);
+        if (result == DriverArbiter.JOIN_REPLACED) {
+            Log.i(TAG, "同一地址重新连接，替换旧连接: " + connection.host);
+            // 被替换的UDP发送端没有通道，其后的数据报因没有控制权被丢弃
+            if (previous.channel != null) {
+                close(previous);
+            }
+            onDriverChanged();
+        }
+    }
+
+    /**
+     * 读取连接上的数据并处理其中完整的帧
+     *
+     * @param connection 可读的连接
+     */
+    private void read(ClientConnection connection) {
+        ByteBuffer rx = connection.rxBuffer;
+        try {
+            int n = connection.channel.read(rx);
+            if (n < 0) {
+                close(connection);
+                return;
+            }
+            connection.bytesReceived += n;
+        } catch (IOException e) {
+            Log.e(TAG, "连接异常: " + e.getMessage());
+            close(connection);
+            return;
+        }
+
+        rx.flip();
+        if (connection.mode == ClientConnection.MODE_UNKNOWN && rx.hasRemaining()) {
+            connection.mode = ControlFrame.isBinaryFrameStart(rx.get(rx.position()))
+                    ? ClientConnection.MODE_BINARY : ClientConnection.MODE_LEGACY;
+        }
+        boolean open = connection.mode == ClientConnection.MODE_BINARY
+                ? processBinary(connection, rx) : processLegacy(connection, rx);
+        if (open) {
+            rx.compact();
+        }
+    }
+
+    /**
+     * 解码缓冲区中所有完整的二进制帧，不足一帧的数据留到下次读取
+     * 帧校验失败说明数据流已经错位，直接断开连接由客户端重连
+     *
+     * @return 连接仍然打开返回true
+     */
+    private boolean processBinary(ClientConnection connection, ByteBuffer rx) {
+        // 同一次读取到的帧使用同一个接收时间
+        long receivedNanos = now();
+        while (rx.remaining() >= ControlFrame.SIZE) {
+            int result = frame.decode(rx);
+            if (result != ControlFrame.DECODE_OK) {
+                connection.malformedFrames++;
+                malformedCount++;
+                TraceRing.GLOBAL.record(TraceRing.LEVEL_INFO, TraceEvent.MALFORMED, connection.id, result);
+                recordMalformed(connection, result);
+                Log.w(TAG, "控制帧校验失败(" + result + ")，断开连接");
+                close(connection);
+                return false;
+            }
+            TraceRing.GLOBAL.record(TraceRing.LEVEL_DEBUG, TraceEvent.FRAME_RECEIVED,
+                    connection.id, frame.speed);
+            frame.receivedNanos = receivedNanos;
+            if (!handleFrame(connection, frame)) {
+                return false;
+            }
+        }
+        if (connection.ackPending) {
+            connection.ackPending = false;
+            connection.acksSent++;
+            return reply(connection, ControlFrame.TYPE_ACK, connection.ackSequence,
+                    connection.controlFramesReceived, now(), connection.ackEchoNanos);
+        }
+        return true;
+    }
+
+    /**
+     * 按行解析旧版文本协议，不完整的行保存在连接的行缓冲中
+     *
+     * @return 连接仍然打开返回true
+     */
+    private boolean processLegacy(ClientConnection connection, ByteBuffer rx) {
+        StringBuilder line = connection.line;
+        while (rx.hasRemaining()) {
+            char c = (char) (rx.get() & 0xFF);
+            if (c == '\n') {
+                if (LegacyTextCommand.parse(line, frame)) {
+                    TraceRing.GLOBAL.record(TraceRing.LEVEL_DEBUG, TraceEvent.LEGACY_COMMAND,
+                            frame.angle, frame.speed);
+                    frame.receivedNanos = now();
+                    handleFrame(connection, frame);
+                } else {
+                    // 格式错误的行只计数并记录到事件环，不逐行输出日志
+                    connection.malformedFrames++;
+                    malformedCount++;
+                    TraceRing.GLOBAL.record(TraceRing.LEVEL_INFO, TraceEvent.MALFORMED, connection.id, 0);
+                    recordMalformed(connection, 0);
+                }
+                line.setLength(0);
+            } else if (c != '\r') {
+                if (line.length() >= ClientConnection.MAX_LINE_LENGTH) {
+                    connection.malformedFrames++;
+                    malformedCount++;
+                    recordMalformed(connection, 0);
+                    line.setLength(0);
+                }
+                line.append(c);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 处理一条有效的帧
+     *
+     * @param connection 来源连接
+     * @param frame      解码后的帧
+     * @return 连接仍然打开返回true
+     */
+    private boolean handleFrame(ClientConnection connection, ControlFrame frame) {
+        connection.framesReceived++;
+        frameCount++;
+        connection.lastFrameNanos = System.nanoTime();
+        if (blackBox != null) {
+            blackBox.record(TraceEvent.FRAME_RECEIVED, frame.type, connection.id, frame.sequence,
+                    frame.angle, frame.speed);
+        }
+
+        if (frame.type == ControlFrame.TYPE_CLAIM) {
+            if (arbiter.claim(connection, frame.speed)) {
+                Log.i(TAG, "连接" + connection.id + "以优先级" + frame.speed + "接管控制权");
+                onDriverChanged();
+                // 等待队列已满时原驾驶者不再排队，与join拒绝的连接一样关闭；UDP发送端没有通道，之后的数据报被丢弃
+                ClientConnection evicted = arbiter.takeEvicted();
+                if (evicted != null && evicted.channel != null) {
+                    rejectedCount++;
+                    close(evicted);
+                }
+            }
+        } else if (frame.type == ControlFrame.TYPE_CONTROL) {
+            connection.controlFramesReceived++;
+            if (arbiter.isDriver(connection)) {
+                connection.framesApplied++;
+                appliedCount++;
+                connection.ackPending = connection.mode == ClientConnection.MODE_BINARY;
+                connection.ackSequence = frame.sequence;
+                connection.ackEchoNanos = frame.timestamp;
+                if (tracker != null) {
+                    tracker.onFrameReceived(frame, connection.clockSynced, connection.clockOffsetNanos);
+                }
+                listener.onCommand(frame);
+            } else {
+                connection.framesRejected++;
+            }
+        } else if (frame.type == ControlFrame.TYPE_PING) {
+            // PONG的timestamp为收到PING的时间，origin为PING的timestamp
+            return reply(connection, ControlFrame.TYPE_PONG, frame.sequence, 0,
+                    frame.receivedNanos, frame.timestamp);
+        } else if (frame.type == ControlFrame.TYPE_CLOCK) {
+            connection.clockOffsetNanos = frame.timestamp;
+            connection.clockRttNanos = frame.origin;
+            connection.clockSynced = true;
+        }
+        return true;
+    }
+
+    private void recordMalformed(ClientConnection connection, int result) {
+        if (blackBox != null) {
+            blackBox.record(TraceEvent.MALFORMED, 0, connection.id, result, 0, 0);
+        }
+    }
+
+    /**
+     * 向客户端回复一帧（PONG或ACK）
+     * 非阻塞写入：32字节的应答放不进发送缓冲区说明连接已经严重积压，直接丢弃本次应答
+     *
+     * @return 连接仍然打开返回true
+     */
+    private boolean reply(ClientConnection connection, byte type, int sequence, int angle,
+                          long timestamp, long origin) {
+        txBuffer.clear();
+        ControlFrame.encode(txBuffer, type, sequence, angle, 0, timestamp, origin);
+        txBuffer.flip();
+        try {
+            connection.channel.write(txBuffer);
+        } catch (IOException e) {
+            Log.e(TAG, "连接异常: " + e.getMessage());
+            close(connection);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return 用于标记接收时间的当前时间，与延迟统计使用同一个时钟
+     */
+    private long now() {
+        return tracker != null ? tracker.now() : System.nanoTime();
+    }
+
+    /**
+     * 驾驶者变化时让小车先停下
+     */
+    private void onDriverChanged() {
+        driverChangeCount++;
+        ClientConnection driver = arbiter.getDriver();
+        TraceRing.GLOBAL.record(TraceRing.LEVEL_INFO, TraceEvent.DRIVER_CHANGE,
+                driver == null ? 0 : driver.id, 0);
+        listener.onCommand(stopFrame);
+    }
+
+    /**
+     * 关闭连接并通知仲裁器
+     *
+     * @param connection 要关闭的连接
+     */
+    private void close(ClientConnection connection) {
+        SelectionKey key = connection.channel.keyFor(selector);
+        if (key != null) {
+            key.cancel();
+        }
+        closeQuietly(connection.channel);
+        connections.remove(connection);
+        if (arbiter.leave(connection)) {
+            onDriverChanged();
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.e(TAG, "关闭连接失败");
+        }
+    }
+
+    /**
+     * 获取当前所有连接，用于显示各连接的统计数据
+     *
+     * @return 只读的连接列表
+     */
+    public List<ClientConnection> getConnections() {
+        return Collections.unmodifiableList(connections);
+    }
+
+    /** @return 控制权仲裁器，UDP控制服务器与本服务器共用 */
+    DriverArbiter getArbiter() {
+        return arbiter;
+    }
+
+    /** @return 已接受的连接总数 */
+    public long getAcceptedCount() {
+        return acceptedCount;
+    }
+
+    /** @return 因等待队列已满被拒绝的连接数 */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /** @return 驾驶者变化的次数 */
+    public long getDriverChangeCount() {
+        return driverChangeCount;
+    }
+
+    /** @return 所有连接累计收到的有效帧数，包括已关闭的连接 */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /** @return 累计交给执行器的驾驶者控制帧数 */
+    public long getAppliedCount() {
+        return appliedCount;
+    }
+
+    /** @return 所有连接累计的格式错误帧数 */
+    public long getMalformedCount() {
+        return malformedCount;
+    }
+}
@@ -0,0 +1,451 @@
+package com.example.carjni;
+
+import android.util.Log;
+
+import com.example.carcommon.ControlFrame;
+import com.example.carcommon.TraceEvent;
+import com.example.carcommon.TraceRing;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UDP控制服务器
+ * 每个数据报携带一个二进制控制帧。与TCP不同，丢失的数据报不会阻塞后面更新的指令（没有队头阻塞）
+ *
+ * 处理规则：
+ * 1. 序号过滤绑定在一个发送端地址上，其他地址的控制帧一律丢弃，直到该发送端超过senderTimeout没有控制帧；
+ *    之后第一个发来控制帧的地址接替绑定并重新开始计算序号（客户端重连会换一个本地端口，要等旧端口超时）
+ * 2. 按序号丢弃乱序和重复的数据报，只接受比已执行指令更新的帧
+ * 3. 每次唤醒时先把socket缓冲区中积压的数据报全部读完，只执行其中最新的一条（latest-wins）
+ * 4. 绑定的发送端与TCP连接一起由DriverArbiter仲裁控制权，没有控制权时它的控制帧同样被丢弃；
+ *    驾驶者因UDP发送端加入或超时离开而变化时先执行一次停止指令
+ *
+ * PING立即向发送端回复PONG；CLOCK帧上报的时钟偏差只对同一发送端地址有效，
+ * 设置了LatencyTracker时据此统计执行的控制帧的各阶段延迟。这两种帧不参与序号过滤
+ *
+ * 每次执行一帧后向其发送端回复ACK，携带该帧的序号和该发送端累计发来的控制帧数（包括被丢弃和合并的），
+ * 客户端据此计算往返时间和丢帧率并调整发送频率
+ */
+public class UdpControlServer implements Runnable {
+    private static final String TAG = "Network";
+    /** 绑定的发送端超过该时间没有控制帧时解除绑定，大于客户端最低发送频率的周期 */
+    static final long DEFAULT_SENDER_TIMEOUT_MS = 1500;
+
+    private final int port;
+    private final CommandListener listener;
+    private final LatencyTracker tracker;
+
+    private volatile DatagramChannel channel;
+    private volatile Selector selector;
+    private volatile boolean running;
+    private Thread thread;
+    private BlackBox blackBox;
+    private DriverArbiter arbiter = new DriverArbiter(0);
+    private long senderTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SENDER_TIMEOUT_MS);
+    private final ControlFrame stopFrame = new ControlFrame();
+
+    // 绑定的发送端及其序号过滤状态，只在服务线程中访问
+    private SocketAddress lastSender;
+    private ClientConnection boundSender;
+    private long lastSenderNanos;
+    private boolean sequenceStarted;
+    private int lastSequence;
+    private int nextSenderId;
+    // 最近一次上报时钟偏差的发送端及其偏差
+    private SocketAddress clockSender;
+    private long clockOffsetNanos;
+    // 当前发送端累计发来的控制帧数，发送端变化时重新计数
+    private SocketAddress countSender;
+    private int controlFramesReceived;
+
+    // 统计计数
+    private volatile long receivedCount;
+    private volatile long staleCount;
+    private volatile long rejectedCount;
+    private volatile long driverChangeCount;
+    private volatile long malformedCount;
+    private volatile long coalescedCount;
+    private volatile long appliedCount;
+    private volatile long pongCount;
+    private volatile long ackCount;
+
+    /**
+     * @param port     监听端口，0表示由系统分配（用于测试）
+     * @param listener 指令监听器，在服务线程中回调
+     */
+    public UdpControlServer(int port, CommandListener listener) {
+        this(port, listener, null);
+    }
+
+    /**
+     * @param port     监听端口，0表示由系统分配（用于测试）
+     * @param listener 指令监听器，在服务线程中回调
+     * @param tracker  延迟统计，为null时不统计，帧的接收时间使用System.nanoTime
+     */
+    public UdpControlServer(int port, CommandListener listener, LatencyTracker tracker) {
+        this.port = port;
+        this.listener = listener;
+        this.tracker = tracker;
+        stopFrame.type = ControlFrame.TYPE_CONTROL;
+    }
+
+    /**
+     * 与TCP控制服务器共用控制权仲裁器，需要在start之前调用；不设置时UDP发送端独自仲裁
+     *
+     * @param arbiter 仲裁器
+     */
+    public void setArbiter(DriverArbiter arbiter) {
+        this.arbiter = arbiter;
+    }
+
+    /**
+     * 设置绑定的发送端的超时时间，需要在start之前调用，用于测试
+     *
+     * @param millis 超时时间（毫秒）
+     */
+    void setSenderTimeoutMillis(long millis) {
+        senderTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * 设置黑匣子，记录每个收到的数据报，需要在start之前调用
+     *
+     * @param blackBox 黑匣子，为null时不记录
+     */
+    public void setBlackBox(BlackBox blackBox) {
+        this.blackBox = blackBox;
+    }
+
+    /**
+     * 绑定端口并启动服务线程
+     *
+     * @throws IOException 端口绑定失败
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        DatagramChannel opened = DatagramChannel.open();
+        try {
+            opened.bind(new InetSocketAddress(port));
+            opened.configureBlocking(false);
+            selector = Selector.open();
+            opened.register(selector, SelectionKey.OP_READ);
+        } catch (IOException | RuntimeException e) {
+            // 端口被占用等失败时关闭已经打开的通道和Selector，不泄漏文件描述符
+            opened.close();
+            if (selector != null) {
+                selector.close();
+                selector = null;
+            }
+            throw e;
+        }
+        channel = opened;
+
+        running = true;
+        thread = new Thread(this, "udp-control");
+        thread.start();
+    }
+
+    /**
+     * 停止服务线程并释放端口
+     */
+    public synchronized void stop() {
+        running = false;
+        // 先唤醒并等待服务线程退出，再关闭Selector，避免服务线程遍历selectedKeys时被并发修改
+        if (thread != null) {
+            selector.wakeup();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "关闭UDP服务失败", e);
+        }
+    }
+
+    /**
+     * 获取实际监听的端口
+     *
+     * @return 本地端口号
+     */
+    public int getLocalPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer rxBuffer = ByteBuffer.allocateDirect(ControlFrame.SIZE * 2);
+        ControlFrame frame = new ControlFrame();
+        ControlFrame latest = new ControlFrame();
+        ByteBuffer txBuffer = ByteBuffer.allocateDirect(ControlFrame.SIZE);
+
+        while (running) {
+            try {
+                // 有绑定的发送端时定时醒来检查超时，释放控制权
+                if (boundSender != null) {
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(senderTimeoutNanos)));
+                } else {
+                    selector.select();
+                }
+                selector.selectedKeys().clear();
+                if (boundSender != null && System.nanoTime() - lastSenderNanos >= senderTimeoutNanos) {
+                    releaseSender();
+                }
+
+                boolean hasLatest = false;
+                SocketAddress latestSender = null;
+                SocketAddress sender;
+                // 读完所有积压的数据报，只保留最新的一帧
+                while ((sender = channel.receive(rxBuffer)) != null) {
+                    long receivedNanos = now();
+                    rxBuffer.flip();
+                    receivedCount++;
+
+                    int result = rxBuffer.remaining() != ControlFrame.SIZE
+                            ? ControlFrame.DECODE_UNDERFLOW : frame.decode(rxBuffer);
+                    if (blackBox != null) {
+                        if (result == ControlFrame.DECODE_OK) {
+                            blackBox.record(TraceEvent.FRAME_RECEIVED, frame.type, 0, frame.sequence,
+                                    frame.angle, frame.speed);
+                        } else {
+                            blackBox.record(TraceEvent.MALFORMED, 0, 0, result, 0, 0);
+                        }
+                    }
+                    if (result != ControlFrame.DECODE_OK) {
+                        malformedCount++;
+                    } else if (frame.type == ControlFrame.TYPE_PING) {
+                        txBuffer.clear();
+                        ControlFrame.encode(txBuffer, ControlFrame.TYPE_PONG, frame.sequence, 0, 0,
+                                receivedNanos, frame.timestamp);
+                        txBuffer.flip();
+                        // 非阻塞发送，发送缓冲区满时丢弃本次应答
+                        if (channel.send(txBuffer, sender) > 0) {
+                            pongCount++;
+                        }
+                    } else if (frame.type == ControlFrame.TYPE_CLOCK) {
+                        clockSender = sender;
+                        clockOffsetNanos = frame.timestamp;
+                    } else if (frame.type != ControlFrame.TYPE_CONTROL) {
+                        malformedCount++;
+                    } else {
+                        countControlFrame(sender);
+                        if (!bindSender(sender)) {
+                            rejectedCount++;
+                        } else if (!acceptSequence(frame.sequence)) {
+                            staleCount++;
+                        } else if (!arbiter.isDriver(boundSender)) {
+                            rejectedCount++;
+                        } else {
+                            if (hasLatest) {
+                                coalescedCount++;
+                            }
+                            frame.receivedNanos = receivedNanos;
+                            latest.copyFrom(frame);
+                            latestSender = sender;
+                            hasLatest = true;
+                        }
+                    }
+                    rxBuffer.clear();
+                }
+
+                if (hasLatest) {
+                    appliedCount++;
+                    TraceRing.GLOBAL.record(TraceRing.LEVEL_DEBUG, TraceEvent.FRAME_RECEIVED, 0, latest.speed);
+                    if (tracker != null) {
+                        tracker.onFrameReceived(latest, latestSender.equals(clockSender), clockOffsetNanos);
+                    }
+                    listener.onCommand(latest);
+                    if (latestSender.equals(countSender)) {
+                        sendAck(txBuffer, latest, latestSender);
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                if (running) {
+                    Log.e(TAG, "UDP接收异常: " + e.getMessage());
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * 累计发送端发来的控制帧数
+     *
+     * @param sender 发送端地址
+     */
+    private void countControlFrame(SocketAddress sender) {
+        if (!sender.equals(countSender)) {
+            countSender = sender;
+            controlFramesReceived = 0;
+        }
+        controlFramesReceived++;
+    }
+
+    /**
+     * 确认已执行的控制帧，非阻塞发送，发送缓冲区满时丢弃本次确认
+     */
+    private void sendAck(ByteBuffer txBuffer, ControlFrame applied, SocketAddress sender) throws IOException {
+        txBuffer.clear();
+        ControlFrame.encode(txBuffer, ControlFrame.TYPE_ACK, applied.sequence, controlFramesReceived, 0,
+                now(), applied.timestamp);
+        txBuffer.flip();
+        if (channel.send(txBuffer, sender) > 0) {
+            ackCount++;
+        }
+    }
+
+    /**
+     * 把控制帧的发送端与绑定的发送端比较，没有绑定或绑定已超时时由该发送端接替，并加入控制权仲裁
+     *
+     * @param sender 发送端地址
+     * @return 发送端是（或成为）绑定的发送端返回true；其他发送端持有绑定或等待队列已满返回false
+     */
+    private boolean bindSender(SocketAddress sender) {
+        long now = System.nanoTime();
+        if (sender.equals(lastSender)) {
+            lastSenderNanos = now;
+            return true;
+        }
+        if (boundSender != null && now - lastSenderNanos < senderTimeoutNanos) {
+            return false;
+        }
+        releaseSender();
+
+        ClientConnection connection = new ClientConnection(--nextSenderId, null,
+                ((InetSocketAddress) sender).getAddress(), 0);
+        ClientConnection previous;
+        int result;
+        // TCP服务线程可能同时改变驾驶者，取旧驾驶者和加入需要在同一次加锁中完成
+        synchronized (arbiter) {
+            previous = arbiter.getDriver();
+            result = arbiter.join(connection);
+        }
+        if (result == DriverArbiter.JOIN_REJECTED) {
+            return false;
+        }
+        boundSender = connection;
+        lastSender = sender;
+        lastSenderNanos = now;
+        sequenceStarted = false;
+        if (result == DriverArbiter.JOIN_REPLACED) {
+            Log.i(TAG, "UDP发送端接替同一地址的连接" + previous.id + ": " + sender);
+            onDriverChanged();
+        }
+        return true;
+    }
+
+    /**
+     * 解除绑定的发送端并退出控制权仲裁，它是驾驶者时先让小车停下
+     */
+    private void releaseSender() {
+        ClientConnection connection = boundSender;
+        if (connection == null) {
+            return;
+        }
+        boundSender = null;
+        lastSender = null;
+        if (arbiter.leave(connection)) {
+            onDriverChanged();
+        }
+    }
+
+    /**
+     * 驾驶者变化时让小车先停下
+     */
+    private void onDriverChanged() {
+        driverChangeCount++;
+        ClientConnection driver = arbiter.getDriver();
+        TraceRing.GLOBAL.record(TraceRing.LEVEL_INFO, TraceEvent.DRIVER_CHANGE,
+                driver == null ? 0 : driver.id, 0);
+        listener.onCommand(stopFrame);
+    }
+
+    /**
+     * 判断序号是否比绑定的发送端已接受的指令更新，绑定后的第一帧总是接受
+     * 使用序号差值比较，序号回绕后依然正确
+     *
+     * @param sequence 帧序号
+     * @return 更新的帧返回true，乱序或重复的帧返回false
+     */
+    private boolean acceptSequence(int sequence) {
+        if (sequenceStarted && sequence - lastSequence <= 0) {
+            return false;
+        }
+        sequenceStarted = true;
+        lastSequence = sequence;
+        return true;
+    }
+
+    /**
+     * @return 用于标记接收时间的当前时间，与延迟统计使用同一个时钟
+     */
+    private long now() {
+        return tracker != null ? tracker.now() : System.nanoTime();
+    }
+
+    /** @return 收到的数据报总数 */
+    public long getReceivedCount() {
+        return receivedCount;
+    }
+
+    /** @return 因乱序或重复被丢弃的数据报数 */
+    public long getStaleCount() {
+        return staleCount;
+    }
+
+    /** @return 因其他发送端持有绑定或没有控制权被丢弃的控制帧数 */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /** @return UDP发送端加入或离开导致驾驶者变化的次数 */
+    public long getDriverChangeCount() {
+        return driverChangeCount;
+    }
+
+    /** @return 格式错误的数据报数 */
+    public long getMalformedCount() {
+        return malformedCount;
+    }
+
+    /** @return 因有更新的帧而被合并跳过的数据报数 */
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /** @return 实际执行的指令数 */
+    public long getAppliedCount() {
+        return appliedCount;
+    }
+
+    /** @return 已发送的确认数 */
+    public long getAckCount() {
+        return ackCount;
+    }
+
+    /** @return 已回复的PONG数 */
+    public long getPongCount() {
+        return pongCount;
+    }
+}
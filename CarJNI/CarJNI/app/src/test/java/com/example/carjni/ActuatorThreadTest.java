@@ -0,0 +1,75 @@
+package com.example.carjni;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.carjni.TestUtil.waitFor;
+import static org.junit.Assert.*;
+
+public class ActuatorThreadTest {
+    private ActuatorThread actuatorThread;
+
+    @After
+    public void tearDown() {
+        actuatorThread.stop();
+    }
+
+    @Test
+    public void appliesSubmittedCommandOnActuatorThread() throws Exception {
+        List<String> threads = new CopyOnWriteArrayList<>();
+        List<int[]> commands = new CopyOnWriteArrayList<>();
+        actuatorThread = new ActuatorThread((angle, speed) -> {
+            threads.add(Thread.currentThread().getName());
+            commands.add(new int[]{angle, speed});
+        });
+        actuatorThread.start();
+
+        actuatorThread.submit(45, 60);
+        waitFor(() -> commands.size() == 1);
+        assertArrayEquals(new int[]{45, 60}, commands.get(0));
+        assertEquals("actuator", threads.get(0));
+
+        // 速度为0时角度也归零
+        actuatorThread.submit(180, 0);
+        waitFor(() -> commands.size() == 2);
+        assertArrayEquals(new int[]{0, 0}, commands.get(1));
+        assertEquals(0, actuatorThread.getLastSpeed());
+        assertEquals(2, actuatorThread.getAppliedCount());
+    }
+
+    @Test
+    public void busyActuatorOnlyAppliesNewestCommand() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<int[]> commands = new CopyOnWriteArrayList<>();
+        actuatorThread = new ActuatorThread((angle, speed) -> {
+            commands.add(new int[]{angle, speed});
+            entered.countDown();
+            try {
+                release.await(2, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+        });
+        actuatorThread.start();
+
+        actuatorThread.submit(1, 10);
+        assertTrue(entered.await(2, TimeUnit.SECONDS));
+        for (int i = 2; i <= 10; i++) {
+            actuatorThread.submit(i, 10);
+        }
+        release.countDown();
+
+        waitFor(() -> commands.size() == 2);
+        Thread.sleep(50);
+        assertEquals(2, commands.size());
+        assertEquals(10, commands.get(1)[0]);
+        assertEquals(8, actuatorThread.getCoalescedCount());
+        // 第二条指令在信箱中等待了第一条指令的执行时间
+        assertTrue(actuatorThread.getMaxQueueDelayNanos() > 0);
+    }
+}
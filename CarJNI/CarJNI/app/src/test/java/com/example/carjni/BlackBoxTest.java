@@ -0,0 +1,248 @@
+package com.example.carjni;
+
+import com.example.carcommon.ControlFrame;
+import com.example.carcommon.TraceEvent;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.carjni.TestUtil.waitFor;
+import static org.junit.Assert.*;
+
+public class BlackBoxTest {
+    private final List<File> files = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void recordsReadBackInOrder() throws Exception {
+        File file = newFile();
+        BlackBox box = new BlackBox(file, 16);
+        box.record(TraceEvent.FRAME_RECEIVED, ControlFrame.TYPE_CONTROL, 3, 41, 270, 85);
+        box.record(TraceEvent.DECISION, BlackBox.DECISION_APPLY, 2, 0, 270, 85);
+        box.record(TraceEvent.ACTUATE, 0, 0, 0, -1, -100);
+        assertEquals(fileLength(16), file.length());
+
+        List<long[]> entries = readAll(file);
+        assertEquals(3, entries.size());
+        assertArrayEquals(new long[]{1, TraceEvent.FRAME_RECEIVED, ControlFrame.TYPE_CONTROL, 3, 41, 270, 85},
+                entries.get(0));
+        assertArrayEquals(new long[]{2, TraceEvent.DECISION, BlackBox.DECISION_APPLY, 2, 0, 270, 85},
+                entries.get(1));
+        // 角度和速度按16位保存，负数不变
+        assertArrayEquals(new long[]{3, TraceEvent.ACTUATE, 0, 0, 0, -1, -100}, entries.get(2));
+    }
+
+    @Test
+    public void ringKeepsNewestRecords() throws Exception {
+        File file = newFile();
+        BlackBox box = new BlackBox(file, 6);
+        assertEquals(8, box.getCapacity());
+        for (int i = 1; i <= 20; i++) {
+            box.record(TraceEvent.ACTUATE, 0, 0, 0, i, i);
+        }
+        List<long[]> entries = readAll(file);
+        assertEquals(8, entries.size());
+        for (int i = 0; i < 8; i++) {
+            assertEquals(13 + i, entries.get(i)[0]);
+            assertEquals(13 + i, entries.get(i)[5]);
+        }
+    }
+
+    @Test
+    public void reopenContinuesAfterExistingRecords() throws Exception {
+        File file = newFile();
+        BlackBox first = new BlackBox(file, 8);
+        for (int i = 1; i <= 11; i++) {
+            first.record(TraceEvent.ACTUATE, 0, 0, 0, i, 0);
+        }
+
+        // 重新启动的进程接着写，旧记录按序号排在前面
+        BlackBox second = new BlackBox(file, 8);
+        assertEquals(11, second.getRecordedCount());
+        second.record(TraceEvent.ACTUATE, 0, 0, 0, 100, 0);
+        List<long[]> entries = readAll(file);
+        assertEquals(8, entries.size());
+        assertEquals(5, entries.get(0)[0]);
+        assertEquals(12, entries.get(7)[0]);
+        assertEquals(100, entries.get(7)[5]);
+
+        // 容量不同时重新创建
+        BlackBox resized = new BlackBox(file, 4);
+        assertEquals(0, resized.getRecordedCount());
+        assertEquals(fileLength(4), file.length());
+        assertTrue(readAll(file).isEmpty());
+    }
+
+    @Test
+    public void partiallyWrittenRecordIsSkipped() throws Exception {
+        File file = newFile();
+        BlackBox box = new BlackBox(file, 8);
+        for (int i = 1; i <= 3; i++) {
+            box.record(TraceEvent.ACTUATE, 0, 0, 0, i * 10, i);
+        }
+        box.flush();
+        // 模拟写到一半被杀：第2条记录的速度已经是新值，校验不再匹配
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(BlackBox.HEADER_SIZE + 2 * BlackBox.RECORD_SIZE + 30);
+            raf.write(0x7F);
+        }
+        List<long[]> entries = readAll(file);
+        assertEquals(2, entries.size());
+        assertEquals(1, entries.get(0)[0]);
+        assertEquals(3, entries.get(1)[0]);
+    }
+
+    @Test
+    public void readsOnlyRequestedWindow() throws Exception {
+        File file = newFile();
+        BlackBox box = new BlackBox(file, 64);
+        for (int i = 0; i < 5; i++) {
+            box.record(TraceEvent.ACTUATE, 0, 0, 0, i, 0);
+        }
+        Thread.sleep(30);
+        long middle = System.currentTimeMillis();
+        Thread.sleep(30);
+        for (int i = 5; i < 8; i++) {
+            box.record(TraceEvent.ACTUATE, 0, 0, 0, i, 0);
+        }
+
+        BlackBox.Reader reader = new BlackBox.Reader(file);
+        List<Integer> angles = new ArrayList<>();
+        assertEquals(3, reader.read(middle, Long.MAX_VALUE / 1_000_000, entry -> angles.add(entry.angle)));
+        assertEquals(List.of(5, 6, 7), angles);
+        assertTrue(Math.abs(reader.getNewestEpochMillis() - System.currentTimeMillis()) < 1000);
+
+        List<String> lines = new ArrayList<>();
+        assertEquals(5, reader.dump(0, middle, lines::add));
+        assertTrue(lines.get(0), lines.get(0).contains(" ACTUATE d=0 a=0 b=0 angle=0 speed=0"));
+    }
+
+    @Test
+    public void concurrentWritersDoNotLoseRecords() throws Exception {
+        File file = newFile();
+        BlackBox box = new BlackBox(file, 8192);
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            int id = t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    box.record(TraceEvent.FRAME_RECEIVED, ControlFrame.TYPE_CONTROL, id, i, 0, 0);
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        List<long[]> entries = readAll(file);
+        assertEquals(4000, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(i + 1, entries.get(i)[0]);
+        }
+    }
+
+    @Test
+    public void recordsSurviveProcessKill() throws Exception {
+        File file = newFile();
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                Writer.class.getName(), file.getPath())
+                .redirectErrorStream(true)
+                .start();
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(child.getInputStream()))) {
+            assertEquals("ready", out.readLine());
+            // SIGKILL：不执行任何关闭或flush
+            child.destroyForcibly();
+            assertTrue(child.waitFor(5, TimeUnit.SECONDS));
+        }
+
+        List<long[]> entries = readAll(file);
+        assertTrue("entries " + entries.size(), entries.size() >= Writer.READY_AFTER);
+        for (int i = 1; i < entries.size(); i++) {
+            assertEquals(entries.get(i - 1)[0] + 1, entries.get(i)[0]);
+        }
+    }
+
+    @Test
+    public void actuationChainRecordsDecisions() throws Exception {
+        File file = newFile();
+        BlackBox box = new BlackBox(file, 64);
+        // 与ControlService.actuate相同，下发前记录controlCar调用
+        RedundantCommandFilter filter = new RedundantCommandFilter(
+                (angle, speed) -> box.record(TraceEvent.ACTUATE, 0, 0, 0, angle, speed), 10_000);
+        filter.setBlackBox(box);
+        ActuatorThread actuatorThread = new ActuatorThread(filter);
+        actuatorThread.setBlackBox(box);
+        actuatorThread.start();
+        try {
+            actuatorThread.submit(90, 50);
+            waitFor(() -> actuatorThread.getAppliedCount() == 1);
+            actuatorThread.submit(90, 50);
+            waitFor(() -> actuatorThread.getAppliedCount() == 2);
+        } finally {
+            actuatorThread.stop();
+        }
+
+        List<long[]> entries = readAll(file);
+        assertEquals(4, entries.size());
+        assertArrayEquals(new long[]{1, TraceEvent.DECISION, BlackBox.DECISION_APPLY, 0, 0, 90, 50}, entries.get(0));
+        assertArrayEquals(new long[]{2, TraceEvent.ACTUATE, 0, 0, 0, 90, 50}, entries.get(1));
+        assertArrayEquals(new long[]{3, TraceEvent.DECISION, BlackBox.DECISION_APPLY, 0, 0, 90, 50}, entries.get(2));
+        // 输出不变，过滤器不再调用controlCar
+        assertArrayEquals(new long[]{4, TraceEvent.DECISION, BlackBox.DECISION_SUPPRESS, 0, 0, 90, 50},
+                entries.get(3));
+    }
+
+    /**
+     * 在子进程中持续记录，直到被杀
+     */
+    public static final class Writer {
+        static final int READY_AFTER = 1000;
+
+        public static void main(String[] args) throws IOException {
+            BlackBox box = new BlackBox(new File(args[0]), 1 << 16);
+            for (int i = 1; ; i++) {
+                box.record(TraceEvent.FRAME_RECEIVED, ControlFrame.TYPE_CONTROL, 1, i, i % 361, i % 101);
+                if (i == READY_AFTER) {
+                    System.out.println("ready");
+                    System.out.flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 每条记录为 {序号, 事件, 附加类型, a, b, 角度, 速度}
+     */
+    private static List<long[]> readAll(File file) throws IOException {
+        List<long[]> entries = new ArrayList<>();
+        new BlackBox.Reader(file).read(0, Long.MAX_VALUE / 1_000_000, entry -> entries.add(new long[]{
+                entry.sequence, entry.event, entry.detail, entry.a, entry.b, entry.angle, entry.speed}));
+        return entries;
+    }
+
+    private static long fileLength(int records) {
+        return BlackBox.HEADER_SIZE + (long) records * BlackBox.RECORD_SIZE;
+    }
+
+    private File newFile() throws IOException {
+        File file = File.createTempFile("blackbox", ".bin");
+        files.add(file);
+        return file;
+    }
+}
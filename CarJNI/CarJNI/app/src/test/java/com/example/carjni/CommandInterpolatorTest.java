@@ -0,0 +1,203 @@
+package com.example.carjni;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.carjni.TestUtil.waitFor;
+import static org.junit.Assert.*;
+
+public class CommandInterpolatorTest {
+    private final long[] now = {0};
+    private final List<long[]> submitted = new CopyOnWriteArrayList<>();
+    private CommandInterpolator interpolator;
+
+    @After
+    public void tearDown() {
+        if (interpolator != null) {
+            interpolator.stop();
+        }
+    }
+
+    /**
+     * 使用假时钟，只通过tick()计算输出
+     */
+    private CommandInterpolator create(long delayMillis) {
+        return new CommandInterpolator(100, delayMillis, 60, 80,
+                (angle, speed, received) -> submitted.add(new long[]{angle, speed, received}),
+                () -> now[0]);
+    }
+
+    private void at(long millis) {
+        now[0] = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private long[] last() {
+        return submitted.get(submitted.size() - 1);
+    }
+
+    @Test
+    public void extrapolatesTrendThenDecaysToStop() {
+        interpolator = create(0);
+        at(0);
+        interpolator.onSample(90, 40, 1);
+        at(50);
+        interpolator.onSample(100, 50, 2);
+        assertTrue(interpolator.tick());
+        assertArrayEquals(new long[]{100, 50, 2}, last());
+
+        // 20ms相当于采样间隔的0.4倍
+        at(70);
+        assertTrue(interpolator.tick());
+        assertArrayEquals(new long[]{104, 54, 0}, last());
+
+        // 外推到horizon为止
+        at(110);
+        interpolator.tick();
+        assertArrayEquals(new long[]{112, 62, 0}, last());
+        at(120);
+        interpolator.tick();
+        assertArrayEquals(new long[]{112, 54, 0}, last());
+
+        // 衰减了一半
+        at(150);
+        interpolator.tick();
+        assertArrayEquals(new long[]{112, 31, 0}, last());
+        assertEquals(2, interpolator.getDecayedCount());
+
+        at(190);
+        assertFalse(interpolator.tick());
+        assertArrayEquals(new long[]{0, 0, 0}, last());
+        assertEquals(1, interpolator.getTimeoutCount());
+
+        // 已经停车，不再重复下发
+        int count = submitted.size();
+        at(200);
+        assertFalse(interpolator.tick());
+        assertEquals(count, submitted.size());
+        assertEquals(1, interpolator.getTimeoutCount());
+    }
+
+    @Test
+    public void interpolatesWithPlayoutDelayAcrossZeroDegrees() {
+        interpolator = create(50);
+        at(0);
+        interpolator.onSample(350, 20, 0);
+        at(50);
+        interpolator.onSample(10, 60, 0);
+
+        // 渲染时间25ms，位于两个采样中间，角度沿较短的方向经过0度
+        at(75);
+        interpolator.tick();
+        assertArrayEquals(new long[]{0, 40, 0}, last());
+        at(90);
+        interpolator.tick();
+        assertArrayEquals(new long[]{6, 52, 0}, last());
+        at(100);
+        interpolator.tick();
+        assertArrayEquals(new long[]{10, 60, 0}, last());
+        assertEquals(3, interpolator.getInterpolatedCount());
+        assertEquals(0, interpolator.getExtrapolatedCount());
+    }
+
+    @Test
+    public void startingFromStopRampsWithoutTurning() {
+        interpolator = create(50);
+        at(0);
+        interpolator.onSample(0, 0, 0);
+        at(50);
+        interpolator.onSample(270, 80, 0);
+
+        at(75);
+        interpolator.tick();
+        // 停车采样的角度没有意义，直接使用新采样的角度
+        assertArrayEquals(new long[]{270, 40, 0}, last());
+    }
+
+    @Test
+    public void burstOfSamplesDoesNotExaggerateTrend() {
+        interpolator = create(0);
+        at(0);
+        interpolator.onSample(100, 50, 0);
+        at(1);
+        interpolator.onSample(102, 52, 0);
+
+        // 两个采样只相隔1ms，变化率按一个周期（10ms）计算
+        at(11);
+        interpolator.tick();
+        assertArrayEquals(new long[]{104, 54, 0}, last());
+    }
+
+    @Test
+    public void stopSampleStopsImmediately() {
+        interpolator = create(0);
+        at(0);
+        interpolator.onSample(45, 80, 0);
+        at(40);
+        interpolator.onSample(50, 90, 0);
+        at(45);
+        assertTrue(interpolator.tick());
+
+        at(46);
+        interpolator.onSample(123, 0, 7);
+        assertFalse(interpolator.tick());
+        assertArrayEquals(new long[]{0, 0, 7}, last());
+    }
+
+    @Test
+    public void holdsSingleSampleWithoutResubmitting() {
+        interpolator = create(0);
+        assertFalse(interpolator.tick());
+        assertTrue(submitted.isEmpty());
+
+        at(0);
+        interpolator.onSample(200, 30, 5);
+        at(10);
+        interpolator.tick();
+        at(20);
+        interpolator.tick();
+        assertEquals(1, submitted.size());
+        assertArrayEquals(new long[]{200, 30, 5}, last());
+        assertEquals(2, interpolator.getTickCount());
+    }
+
+    @Test
+    public void nextDeadlineSkipsMissedPeriods() {
+        assertEquals(10, CommandInterpolator.nextDeadline(0, 10, 5));
+        assertEquals(20, CommandInterpolator.nextDeadline(0, 10, 10));
+        // 落后三个多周期：跳到当前时间之后的第一个周期，保持原来的相位
+        assertEquals(40, CommandInterpolator.nextDeadline(0, 10, 35));
+    }
+
+    @Test
+    public void threadTicksUntilStoppedThenWaitsForSamples() throws Exception {
+        interpolator = new CommandInterpolator(100, 0, 60, 80,
+                (angle, speed, received) -> submitted.add(new long[]{angle, speed, received}));
+        interpolator.start();
+        interpolator.onSample(90, 50, 0);
+        waitFor(() -> !submitted.isEmpty() && last()[1] == 0);
+        // 约140ms内每10ms计算一次，之后停车并挂起
+        long ticks = interpolator.getTickCount();
+        assertTrue("ticks " + ticks, ticks >= 8 && ticks <= 20);
+        Thread.sleep(100);
+        assertEquals(ticks, interpolator.getTickCount());
+    }
+
+    @Test
+    public void newSampleIsAppliedWithoutWaitingForPeriod() throws Exception {
+        // 1Hz的周期远大于等待时间，输出只能来自收到采样时的立即计算
+        interpolator = new CommandInterpolator(1, 0, 5000, 0,
+                (angle, speed, received) -> submitted.add(new long[]{angle, speed, received}));
+        interpolator.start();
+        interpolator.onSample(10, 20, 0);
+        waitFor(() -> submitted.size() == 1);
+        long start = System.nanoTime();
+        interpolator.onSample(30, 40, 0);
+        waitFor(() -> submitted.size() == 2);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertArrayEquals(new long[]{30, 40, 0}, last());
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.carjni;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.carjni.TestUtil.waitFor;
+import static org.junit.Assert.*;
+
+public class DeadmanWatchdogTest {
+    private static final long DEADLINE_MS = 50;
+
+    // 桩执行器记录每次停车指令及其下发时间
+    private final List<Long> stopTimes = new CopyOnWriteArrayList<>();
+    private DeadmanWatchdog watchdog;
+
+    @Before
+    public void setUp() {
+        watchdog = new DeadmanWatchdog(DEADLINE_MS, (angle, speed) -> {
+            assertEquals(0, angle);
+            assertEquals(0, speed);
+            stopTimes.add(System.nanoTime());
+        });
+        watchdog.start();
+    }
+
+    @After
+    public void tearDown() {
+        watchdog.stop();
+    }
+
+    @Test
+    public void tripsAfterDeadlineWithBoundedLatency() throws Exception {
+        long lastFeed = System.nanoTime();
+        watchdog.feed(60);
+
+        waitFor(() -> watchdog.getStopAppliedCount() == 1);
+        long detection = stopTimes.get(0) - lastFeed;
+        assertTrue("提前停车: " + detection, detection >= TimeUnit.MILLISECONDS.toNanos(DEADLINE_MS));
+        // 停车延迟上限：截止时间之后的线程唤醒延迟，这里给调度抖动留20ms
+        assertTrue("停车过晚: " + detection,
+                detection < TimeUnit.MILLISECONDS.toNanos(DEADLINE_MS + 20));
+        assertTrue(watchdog.getMaxStopLatencyNanos() < TimeUnit.MILLISECONDS.toNanos(20));
+
+        // 触发后不重复停车
+        Thread.sleep(DEADLINE_MS * 2);
+        assertEquals(1, watchdog.getTripCount());
+    }
+
+    @Test
+    public void regularFramesKeepCarRunning() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            watchdog.feed(60);
+            Thread.sleep(DEADLINE_MS / 5);
+        }
+        assertEquals(0, watchdog.getTripCount());
+
+        waitFor(() -> watchdog.getTripCount() == 1);
+    }
+
+    @Test
+    public void stoppedCarIsNotWatched() throws Exception {
+        watchdog.feed(60);
+        watchdog.feed(0);
+        Thread.sleep(DEADLINE_MS * 3);
+        assertEquals(0, watchdog.getTripCount());
+
+        // 再次运动后重新开始看守
+        watchdog.feed(30);
+        waitFor(() -> watchdog.getTripCount() == 1);
+    }
+
+    @Test
+    public void stopLatencyIncludesActuatorThread() throws Exception {
+        // 执行器线程上的ioctl耗时5ms：停车延迟统计到controlCar(0, 0)返回，而不是写入信箱
+        long actuateNanos = TimeUnit.MILLISECONDS.toNanos(5);
+        List<Long> applied = new CopyOnWriteArrayList<>();
+        ActuatorThread actuatorThread = new ActuatorThread((angle, speed) -> {
+            long end = System.nanoTime() + actuateNanos;
+            while (System.nanoTime() < end) {
+                Thread.onSpinWait();
+            }
+            if (speed == 0) {
+                applied.add(System.nanoTime());
+            }
+        });
+        DeadmanWatchdog queued = new DeadmanWatchdog(DEADLINE_MS, actuatorThread);
+        actuatorThread.start();
+        queued.start();
+        try {
+            long lastFeed = System.nanoTime();
+            queued.feed(60);
+            waitFor(() -> queued.getStopAppliedCount() == 1);
+
+            long latency = queued.getLastStopLatencyNanos();
+            assertTrue("停车延迟不包括执行耗时: " + latency, latency >= actuateNanos);
+            // 截止时间到停车完成的上限：唤醒、排队、一次ioctl，给调度抖动留20ms
+            assertTrue("停车过晚: " + latency, latency < actuateNanos + TimeUnit.MILLISECONDS.toNanos(20));
+            long stopped = applied.get(0) - lastFeed;
+            assertTrue(stopped >= TimeUnit.MILLISECONDS.toNanos(DEADLINE_MS) + actuateNanos);
+            assertEquals(1, queued.getTripCount());
+        } finally {
+            queued.stop();
+            actuatorThread.stop();
+        }
+    }
+}
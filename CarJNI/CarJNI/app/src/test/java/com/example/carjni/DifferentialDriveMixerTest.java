@@ -0,0 +1,142 @@
+package com.example.carjni;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DifferentialDriveMixerTest {
+
+    /**
+     * 按笔记中mydriver_ioctl逐行转写的驱动模型，记录PWM使能、方向GPIO和两路PWM的高电平时间
+     */
+    private static class DriverModel {
+        boolean enabled;
+        boolean forward;
+        final int[] highTime = new int[2];
+
+        void ioctl(int speed, int angle) {
+            int rotation;
+            if (speed == 0) {
+                enabled = false;
+            } else if (speed > 0) {
+                enabled = true;
+                if (angle >= 0 && angle <= 90) {
+                    direction(angle);
+                    rotation = (90 - angle) * 1000 / (90 + angle);
+                    speed(speed * rotation / 1000, 0);
+                    speed(speed, 1);
+                }
+                if (angle >= 270 && angle <= 360) {
+                    direction(angle);
+                    rotation = (angle - 270) * 1000 / (450 - angle);
+                    speed(speed, 0);
+                    speed(speed * rotation / 1000, 1);
+                }
+                if (angle > 90 && angle <= 180) {
+                    direction(angle);
+                    rotation = (angle - 90) * 1000 / (270 - angle);
+                    speed(speed * rotation / 1000, 0);
+                    speed(speed, 1);
+                }
+                if (angle > 180 && angle < 270) {
+                    direction(angle);
+                    rotation = (270 - angle) * 1000 / (angle - 90);
+                    speed(speed, 0);
+                    speed(speed * rotation / 1000, 1);
+                }
+            }
+        }
+
+        private void direction(int angle) {
+            if ((angle >= 0 && angle <= 90) || (angle >= 270 && angle <= 360)) {
+                forward = true;
+            } else if (angle > 90 && angle < 270) {
+                forward = false;
+            }
+        }
+
+        private void speed(int speed, int pwm) {
+            // DIV_ROUND_CLOSEST(speed * 20000000, 100)
+            highTime[pwm] = (speed * 20000000 + 50) / 100;
+        }
+
+        /** 车轮上实际可观察到的状态，PWM关闭时方向和占空比没有意义 */
+        String observable() {
+            return enabled ? "run " + forward + " " + highTime[0] + " " + highTime[1] : "stop";
+        }
+    }
+
+    @Test
+    public void tableMatchesDriverForEveryAngleAndSpeed() {
+        for (int angle = 0; angle <= DifferentialDriveMixer.MAX_ANGLE; angle++) {
+            for (int speed = 0; speed <= DifferentialDriveMixer.MAX_SPEED; speed++) {
+                DriverModel driver = new DriverModel();
+                driver.ioctl(speed, angle);
+                int output = DifferentialDriveMixer.mix(angle, speed);
+                String at = "angle=" + angle + " speed=" + speed;
+
+                assertEquals(at, driver.enabled, DifferentialDriveMixer.isEnabled(output));
+                if (!driver.enabled) {
+                    assertEquals(at, DifferentialDriveMixer.OUTPUT_STOPPED, output);
+                    continue;
+                }
+                assertEquals(at, driver.forward, DifferentialDriveMixer.isForward(output));
+                assertEquals(at, driver.highTime[0],
+                        DifferentialDriveMixer.highTimeNanos(DifferentialDriveMixer.leftDuty(output)));
+                assertEquals(at, driver.highTime[1],
+                        DifferentialDriveMixer.highTimeNanos(DifferentialDriveMixer.rightDuty(output)));
+            }
+        }
+    }
+
+    @Test
+    public void knownPoints() {
+        // 正前方两轮同速，正左方左轮停转
+        int straight = DifferentialDriveMixer.mix(0, 100);
+        assertTrue(DifferentialDriveMixer.isForward(straight));
+        assertEquals(100, DifferentialDriveMixer.leftDuty(straight));
+        assertEquals(100, DifferentialDriveMixer.rightDuty(straight));
+
+        int left = DifferentialDriveMixer.mix(90, 60);
+        assertEquals(0, DifferentialDriveMixer.leftDuty(left));
+        assertEquals(60, DifferentialDriveMixer.rightDuty(left));
+
+        // 正后方后退，两轮同速
+        int back = DifferentialDriveMixer.mix(180, 50);
+        assertFalse(DifferentialDriveMixer.isForward(back));
+        assertEquals(50, DifferentialDriveMixer.leftDuty(back));
+        assertEquals(50, DifferentialDriveMixer.rightDuty(back));
+
+        assertEquals(DifferentialDriveMixer.OUTPUT_STOPPED, DifferentialDriveMixer.mix(123, 0));
+        assertEquals(10000000, DifferentialDriveMixer.highTimeNanos(50));
+    }
+
+    @Test
+    public void outOfRangeCommandsAreUndefined() {
+        assertEquals(DifferentialDriveMixer.OUTPUT_UNDEFINED, DifferentialDriveMixer.mix(-1, 50));
+        assertEquals(DifferentialDriveMixer.OUTPUT_UNDEFINED, DifferentialDriveMixer.mix(361, 50));
+        assertEquals(DifferentialDriveMixer.OUTPUT_UNDEFINED, DifferentialDriveMixer.mix(0, 101));
+        assertEquals(DifferentialDriveMixer.OUTPUT_UNDEFINED, DifferentialDriveMixer.mix(0, -1));
+        assertFalse(DifferentialDriveMixer.isEnabled(DifferentialDriveMixer.OUTPUT_UNDEFINED));
+    }
+
+    @Test
+    public void filteringNeverChangesWhatTheWheelsSee() {
+        DriverModel unfiltered = new DriverModel();
+        DriverModel filtered = new DriverModel();
+        RedundantCommandFilter filter = new RedundantCommandFilter(
+                (angle, speed) -> filtered.ioctl(speed, angle), 1000, () -> 0L);
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            // 集中在少数取值上，产生大量输出相同的指令
+            int angle = random.nextInt(8) * 45 + random.nextInt(3);
+            int speed = random.nextInt(4) == 0 ? 0 : random.nextInt(3) * 10;
+            unfiltered.ioctl(speed, angle);
+            filter.controlCar(angle, speed);
+            assertEquals("step " + i, unfiltered.observable(), filtered.observable());
+        }
+        assertTrue(filter.getSuppressedCount() > 0);
+    }
+}
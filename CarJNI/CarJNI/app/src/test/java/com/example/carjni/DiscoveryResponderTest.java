@@ -0,0 +1,107 @@
+package com.example.carjni;
+
+import com.example.carcommon.DiscoveryMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import static com.example.carjni.TestUtil.waitFor;
+import static org.junit.Assert.*;
+
+public class DiscoveryResponderTest {
+    private static final int CAPABILITIES = DiscoveryMessage.CAP_TCP | DiscoveryMessage.CAP_ACK;
+
+    private TcpControlServer server;
+    private DiscoveryResponder responder;
+    private DatagramChannel client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TcpControlServer(0, 4, frame -> { });
+        server.start();
+        responder = new DiscoveryResponder(0, server.getLocalPort(), CAPABILITIES, "bench-1", server);
+        responder.start();
+        client = DatagramChannel.open();
+        client.socket().setSoTimeout(2000);
+        client.bind(new InetSocketAddress("127.0.0.1", 0));
+        client.connect(new InetSocketAddress("127.0.0.1", responder.getLocalPort()));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        responder.stop();
+        server.stop();
+    }
+
+    @Test
+    public void replyCarriesPortCapabilitiesAndEchoedProbe() throws Exception {
+        DiscoveryMessage reply = probe(11, 987_654_321L);
+        assertEquals(DiscoveryMessage.TYPE_REPLY, reply.type);
+        assertEquals(11, reply.nonce);
+        assertEquals(987_654_321L, reply.timestamp);
+        assertEquals(server.getLocalPort(), reply.controlPort);
+        assertEquals(CAPABILITIES, reply.capabilities);
+        assertEquals("bench-1", reply.name);
+        assertEquals(0, reply.clients);
+        assertEquals(0, reply.flags);
+        // 回复发出后才计数，客户端可能先收到回复
+        waitFor(() -> responder.getReplyCount() == 1);
+    }
+
+    @Test
+    public void replyReportsCurrentLoad() throws Exception {
+        // 不同的本地地址，避免第二个连接被当作同一设备的重连
+        try (Socket first = connect("127.0.0.1");
+             Socket second = connect("127.0.0.2")) {
+            assertTrue(first.isConnected() && second.isConnected());
+            waitFor(() -> server.getConnections().size() == 2);
+            DiscoveryMessage reply = probe(1, 1);
+            assertEquals(2, reply.clients);
+            // 第一个连接成为驾驶者
+            assertEquals(DiscoveryMessage.FLAG_DRIVER, reply.flags);
+        }
+    }
+
+    @Test
+    public void foreignDatagramsAreIgnored() throws Exception {
+        client.write(ByteBuffer.wrap("hello".getBytes()));
+        ByteBuffer reply = ByteBuffer.allocate(DiscoveryMessage.SIZE);
+        DiscoveryMessage.encodeReply(reply, new DiscoveryMessage(), 0, 1, 0, 0, "other");
+        reply.flip();
+        client.write(reply);
+        waitFor(() -> responder.getIgnoredCount() == 2);
+
+        // 之后的探测照常回复
+        assertEquals(5, probe(5, 5).nonce);
+        assertEquals(1, responder.getProbeCount());
+    }
+
+    private DiscoveryMessage probe(int nonce, long timestamp) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(DiscoveryMessage.SIZE);
+        DiscoveryMessage.encodeProbe(buffer, nonce, timestamp);
+        buffer.flip();
+        client.write(buffer);
+        buffer.clear();
+        // 阻塞通道的read不受SoTimeout限制，改用socket适配器读取
+        DatagramPacket packet = new DatagramPacket(buffer.array(), buffer.capacity());
+        client.socket().receive(packet);
+        DiscoveryMessage reply = new DiscoveryMessage();
+        assertTrue(reply.decode(ByteBuffer.wrap(packet.getData(), 0, packet.getLength())));
+        return reply;
+    }
+
+    private Socket connect(String localAddress) throws Exception {
+        Socket socket = new Socket();
+        socket.bind(new InetSocketAddress(localAddress, 0));
+        socket.connect(new InetSocketAddress("127.0.0.1", server.getLocalPort()));
+        return socket;
+    }
+}
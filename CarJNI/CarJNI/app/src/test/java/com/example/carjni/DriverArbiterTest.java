@@ -0,0 +1,110 @@
+package com.example.carjni;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.*;
+
+public class DriverArbiterTest {
+    private int nextId;
+
+    private ClientConnection connection(String host) throws Exception {
+        return new ClientConnection(++nextId, null, InetAddress.getByName(host), 16);
+    }
+
+    @Test
+    public void firstConnectionDrivesOthersWait() throws Exception {
+        DriverArbiter arbiter = new DriverArbiter(2);
+        ClientConnection a = connection("10.0.0.1");
+        ClientConnection b = connection("10.0.0.2");
+        ClientConnection c = connection("10.0.0.3");
+        ClientConnection d = connection("10.0.0.4");
+
+        assertEquals(DriverArbiter.JOIN_DRIVER, arbiter.join(a));
+        assertEquals(DriverArbiter.JOIN_QUEUED, arbiter.join(b));
+        assertEquals(DriverArbiter.JOIN_QUEUED, arbiter.join(c));
+        assertEquals(DriverArbiter.JOIN_REJECTED, arbiter.join(d));
+        assertTrue(a.isDriver());
+        assertFalse(b.isDriver());
+        assertEquals(2, arbiter.getWaitingCount());
+    }
+
+    @Test
+    public void nextWaitingConnectionTakesOverWhenDriverLeaves() throws Exception {
+        DriverArbiter arbiter = new DriverArbiter(4);
+        ClientConnection a = connection("10.0.0.1");
+        ClientConnection b = connection("10.0.0.2");
+        ClientConnection c = connection("10.0.0.3");
+        arbiter.join(a);
+        arbiter.join(b);
+        arbiter.join(c);
+
+        assertFalse(arbiter.leave(c));
+        assertTrue(arbiter.leave(a));
+        assertSame(b, arbiter.getDriver());
+        assertTrue(arbiter.leave(b));
+        assertNull(arbiter.getDriver());
+    }
+
+    @Test
+    public void reconnectFromSameHostReplacesDriver() throws Exception {
+        DriverArbiter arbiter = new DriverArbiter(4);
+        ClientConnection stale = connection("10.0.0.1");
+        ClientConnection fresh = connection("10.0.0.1");
+        arbiter.join(stale);
+
+        assertEquals(DriverArbiter.JOIN_REPLACED, arbiter.join(fresh));
+        assertSame(fresh, arbiter.getDriver());
+        assertFalse(stale.isDriver());
+        assertEquals(0, arbiter.getWaitingCount());
+        // 旧连接随后关闭，不影响新的驾驶者
+        assertFalse(arbiter.leave(stale));
+        assertSame(fresh, arbiter.getDriver());
+    }
+
+    @Test
+    public void higherPriorityClaimPreemptsDriver() throws Exception {
+        DriverArbiter arbiter = new DriverArbiter(4);
+        ClientConnection a = connection("10.0.0.1");
+        ClientConnection b = connection("10.0.0.2");
+        ClientConnection c = connection("10.0.0.3");
+        arbiter.join(a);
+        arbiter.join(b);
+        arbiter.join(c);
+
+        // 优先级不高于驾驶者时不抢占
+        assertFalse(arbiter.claim(b, 0));
+        assertTrue(arbiter.claim(c, 5));
+        assertSame(c, arbiter.getDriver());
+
+        // 被抢占的驾驶者回到队列，优先级相同的按先后顺序接任
+        assertTrue(arbiter.leave(c));
+        assertSame(b, arbiter.getDriver());
+        assertTrue(arbiter.leave(b));
+        assertSame(a, arbiter.getDriver());
+    }
+
+    @Test
+    public void preemptedDriverNeverExceedsWaitingLimit() throws Exception {
+        DriverArbiter arbiter = new DriverArbiter(2);
+        ClientConnection a = connection("10.0.0.1");
+        ClientConnection b = connection("10.0.0.2");
+        ClientConnection c = connection("10.0.0.3");
+        arbiter.join(a);
+        arbiter.join(b);
+        arbiter.join(c);
+
+        // 队列已满时依次抢占：申请者离开队列后原驾驶者才回到队列，长度保持在上限内
+        for (int priority = 1; priority <= 4; priority++) {
+            ClientConnection claimant = priority % 2 == 1 ? b : c;
+            if (claimant.isDriver()) {
+                claimant = a;
+            }
+            assertTrue(arbiter.claim(claimant, priority));
+            assertTrue(arbiter.getWaitingCount() <= 2);
+            assertNull(arbiter.takeEvicted());
+        }
+        assertEquals(DriverArbiter.JOIN_REJECTED, arbiter.join(connection("10.0.0.4")));
+    }
+}
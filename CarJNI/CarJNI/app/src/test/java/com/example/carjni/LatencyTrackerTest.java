@@ -0,0 +1,185 @@
+package com.example.carjni;
+
+import com.example.carcommon.ClockSync;
+import com.example.carcommon.ControlFrame;
+import com.example.carcommon.LatencyHistogram;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.example.carjni.TestUtil.waitFor;
+import static org.junit.Assert.*;
+
+/**
+ * 本地回环测试：服务端使用比客户端快5秒的注入时钟，
+ * 客户端通过PING/PONG估计偏差并上报后，各阶段延迟不应包含这5秒
+ */
+public class LatencyTrackerTest {
+    private static final long SERVER_AHEAD_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long TOUCH_TO_SEND_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long ACTUATE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int FRAMES = 20;
+
+    private final LatencyTracker tracker = new LatencyTracker(() -> System.nanoTime() + SERVER_AHEAD_NANOS);
+    // 模拟耗时1毫秒的ioctl
+    private final ActuatorThread actuatorThread = new ActuatorThread(
+            (angle, speed) -> LockSupport.parkNanos(ACTUATE_NANOS), tracker);
+    private final ClockSync clockSync = new ClockSync();
+    private final ByteBuffer tx = ByteBuffer.allocate(ControlFrame.SIZE);
+    private final List<AutoCloseable> resources = new ArrayList<>();
+    private int sequence;
+
+    @After
+    public void tearDown() throws Exception {
+        for (AutoCloseable resource : resources) {
+            resource.close();
+        }
+        actuatorThread.stop();
+    }
+
+    @Test
+    public void tcpStagesExcludeClockOffset() throws Exception {
+        actuatorThread.start();
+        TcpControlServer server = new TcpControlServer(0, 1,
+                frame -> actuatorThread.submit(frame.angle, frame.speed, frame.receivedNanos), tracker);
+        server.start();
+        resources.add(server::stop);
+        Socket socket = new Socket("127.0.0.1", server.getLocalPort());
+        resources.add(socket);
+        socket.setTcpNoDelay(true);
+        OutputStream out = socket.getOutputStream();
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+
+        // 上报偏差之前只统计不需要同步的阶段
+        sendControl(out, 1);
+        waitFor(() -> stage(LatencyTracker.STAGE_RECEIVE_TO_ACTUATE).getCount() == 1);
+        assertEquals(1, stage(LatencyTracker.STAGE_TOUCH_TO_SEND).getCount());
+        assertEquals(0, stage(LatencyTracker.STAGE_SEND_TO_RECEIVE).getCount());
+
+        byte[] rx = new byte[ControlFrame.SIZE];
+        ControlFrame pong = new ControlFrame();
+        for (int i = 0; i < 5; i++) {
+            write(out, ControlFrame.TYPE_PING, 0, 0, System.nanoTime(), 0);
+            long receivedNanos;
+            // 跳过前面控制帧的确认
+            do {
+                in.readFully(rx);
+                receivedNanos = System.nanoTime();
+                assertEquals(ControlFrame.DECODE_OK, pong.decode(ByteBuffer.wrap(rx)));
+            } while (pong.type == ControlFrame.TYPE_ACK);
+            assertEquals(ControlFrame.TYPE_PONG, pong.type);
+            clockSync.onSample(pong.origin, pong.timestamp, receivedNanos);
+        }
+        assertClockEstimate();
+        write(out, ControlFrame.TYPE_CLOCK, 0, 0, clockSync.getOffsetNanos(), clockSync.getRttNanos());
+
+        for (int i = 1; i <= FRAMES; i++) {
+            sendControl(out, 10 + i);
+            int expected = i + 1;
+            waitFor(() -> stage(LatencyTracker.STAGE_RECEIVE_TO_ACTUATE).getCount() == expected);
+        }
+        assertStages(FRAMES + 1, FRAMES);
+    }
+
+    @Test
+    public void udpStagesExcludeClockOffset() throws Exception {
+        actuatorThread.start();
+        UdpControlServer server = new UdpControlServer(0,
+                frame -> actuatorThread.submit(frame.angle, frame.speed, frame.receivedNanos), tracker);
+        server.start();
+        resources.add(server::stop);
+        DatagramChannel channel = DatagramChannel.open();
+        resources.add(channel);
+        channel.connect(new InetSocketAddress("127.0.0.1", server.getLocalPort()));
+
+        ByteBuffer rx = ByteBuffer.allocate(64);
+        ControlFrame pong = new ControlFrame();
+        for (int i = 0; i < 5; i++) {
+            channel.write(encode(ControlFrame.TYPE_PING, 0, 0, System.nanoTime(), 0));
+            rx.clear();
+            channel.read(rx);
+            long receivedNanos = System.nanoTime();
+            rx.flip();
+            assertEquals(ControlFrame.DECODE_OK, pong.decode(rx));
+            assertEquals(ControlFrame.TYPE_PONG, pong.type);
+            clockSync.onSample(pong.origin, pong.timestamp, receivedNanos);
+        }
+        waitFor(() -> server.getPongCount() == 5);
+        assertClockEstimate();
+        channel.write(encode(ControlFrame.TYPE_CLOCK, 0, 0, clockSync.getOffsetNanos(), clockSync.getRttNanos()));
+
+        for (int i = 1; i <= FRAMES; i++) {
+            long now = System.nanoTime();
+            channel.write(encode(ControlFrame.TYPE_CONTROL, 90, 10 + i, now, now - TOUCH_TO_SEND_NANOS));
+            int expected = i;
+            waitFor(() -> stage(LatencyTracker.STAGE_RECEIVE_TO_ACTUATE).getCount() == expected);
+        }
+        assertStages(FRAMES, FRAMES);
+        assertEquals(0, server.getMalformedCount());
+    }
+
+    /**
+     * 回环上的往返时间很短，偏差估计误差不超过往返时间的一半
+     */
+    private void assertClockEstimate() {
+        long error = Math.abs(clockSync.getOffsetNanos() - SERVER_AHEAD_NANOS);
+        assertTrue("error " + error + " rtt " + clockSync.getRttNanos(),
+                error <= clockSync.getRttNanos() / 2 + 1);
+    }
+
+    private void assertStages(long touchToSend, long sendToReceive) {
+        LatencyHistogram touch = stage(LatencyTracker.STAGE_TOUCH_TO_SEND);
+        assertEquals(touchToSend, touch.getCount());
+        assertEquals(TOUCH_TO_SEND_NANOS, touch.percentile(0.5));
+        assertEquals(TOUCH_TO_SEND_NANOS, touch.getMax());
+
+        // 没有扣除偏差时这里会是5秒
+        LatencyHistogram network = stage(LatencyTracker.STAGE_SEND_TO_RECEIVE);
+        assertEquals(sendToReceive, network.getCount());
+        assertTrue("send→receive max " + network.getMax(),
+                network.getMax() < TimeUnit.MILLISECONDS.toNanos(500));
+
+        LatencyHistogram actuate = stage(LatencyTracker.STAGE_RECEIVE_TO_ACTUATE);
+        assertTrue("receive→ioctl p50 " + actuate.percentile(0.5), actuate.percentile(0.5) >= ACTUATE_NANOS);
+        assertTrue(actuate.getMax() < TimeUnit.MILLISECONDS.toNanos(500));
+
+        List<String> lines = new ArrayList<>();
+        tracker.export(lines::add);
+        assertTrue(lines.get(0).startsWith("touch→send n=" + touchToSend + " "));
+        String[] summary = tracker.appendSummary(new StringBuilder()).toString().split("\n");
+        assertEquals(LatencyTracker.STAGE_COUNT, summary.length);
+    }
+
+    private LatencyHistogram stage(int stage) {
+        return tracker.getStage(stage);
+    }
+
+    private void sendControl(OutputStream out, int speed) throws Exception {
+        long now = System.nanoTime();
+        write(out, ControlFrame.TYPE_CONTROL, 90, speed, now, now - TOUCH_TO_SEND_NANOS);
+    }
+
+    private void write(OutputStream out, byte type, int angle, int speed, long timestamp, long origin)
+            throws Exception {
+        ByteBuffer frame = encode(type, angle, speed, timestamp, origin);
+        out.write(frame.array(), 0, frame.remaining());
+    }
+
+    private ByteBuffer encode(byte type, int angle, int speed, long timestamp, long origin) {
+        tx.clear();
+        ControlFrame.encode(tx, type, ++sequence, angle, speed, timestamp, origin);
+        tx.flip();
+        return tx;
+    }
+}
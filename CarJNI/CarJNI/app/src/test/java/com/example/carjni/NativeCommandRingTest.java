@@ -0,0 +1,81 @@
+package com.example.carjni;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * 只验证Java侧写入的内存布局，native工作线程的测试见androidTest中的NativeCommandRingBenchmark
+ */
+public class NativeCommandRingTest {
+
+    @Test
+    public void bufferUsesNativeOrderAndHeaderPlusSlots() {
+        NativeCommandRing ring = new NativeCommandRing(16);
+        ByteBuffer buffer = ring.buffer();
+        assertTrue(buffer.isDirect());
+        assertEquals(ByteOrder.nativeOrder(), buffer.order());
+        assertEquals(NativeCommandRing.HEADER_SIZE + 16 * 8, buffer.capacity());
+    }
+
+    @Test
+    public void commandIsPackedIntoSlotWithItsSequence() {
+        NativeCommandRing ring = new NativeCommandRing(4);
+        ring.controlCar(270, 85);
+
+        ByteBuffer buffer = ring.buffer();
+        assertEquals(1, ring.getWriteSequence());
+        assertEquals(1, buffer.getLong(NativeCommandRing.WRITE_SEQ_OFFSET));
+        long entry = buffer.getLong(NativeCommandRing.HEADER_SIZE + 8);
+        assertEquals(1, entry >>> 32);
+        assertEquals(270, (short) (entry >> 16));
+        assertEquals(85, (short) entry);
+    }
+
+    @Test
+    public void sequenceWrapsAroundSlots() {
+        NativeCommandRing ring = new NativeCommandRing(4);
+        for (int i = 1; i <= 6; i++) {
+            ring.controlCar(i, i * 10);
+        }
+        // 序号6写入槽位6 % 4 = 2，覆盖了序号2
+        ByteBuffer buffer = ring.buffer();
+        long entry = buffer.getLong(NativeCommandRing.HEADER_SIZE + 2 * 8);
+        assertEquals(6, entry >>> 32);
+        assertEquals(6, (short) (entry >> 16));
+        assertEquals(60, (short) entry);
+        assertEquals(6, buffer.getLong(NativeCommandRing.WRITE_SEQ_OFFSET));
+    }
+
+    @Test
+    public void negativeValuesSurviveSixteenBitPacking() {
+        NativeCommandRing ring = new NativeCommandRing(2);
+        ring.controlCar(-1, -100);
+        long entry = ring.buffer().getLong(NativeCommandRing.HEADER_SIZE + 8);
+        assertEquals(1, entry >>> 32);
+        assertEquals(-1, (short) (entry >> 16));
+        assertEquals(-100, (short) entry);
+    }
+
+    @Test
+    public void countersReadFromSharedHeader() {
+        NativeCommandRing ring = new NativeCommandRing(2);
+        ByteBuffer buffer = ring.buffer();
+        buffer.putLong(NativeCommandRing.READ_SEQ_OFFSET, 7);
+        buffer.putLong(NativeCommandRing.APPLIED_OFFSET, 5);
+        buffer.putLong(NativeCommandRing.COALESCED_OFFSET, 2);
+        buffer.putLong(NativeCommandRing.ERRORS_OFFSET, 1);
+        assertEquals(7, ring.getReadSequence());
+        assertEquals(5, ring.getAppliedCount());
+        assertEquals(2, ring.getCoalescedCount());
+        assertEquals(1, ring.getErrorCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyRing() {
+        new NativeCommandRing(0);
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.carjni;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RedundantCommandFilterTest {
+
+    @Test
+    public void suppressesRepeatedStopUntilKeepAlive() {
+        long[] now = {0};
+        List<int[]> issued = new ArrayList<>();
+        RedundantCommandFilter filter = new RedundantCommandFilter(
+                (angle, speed) -> issued.add(new int[]{angle, speed}), 500, () -> now[0]);
+
+        // 停车时客户端以20Hz持续发送(0, 0)
+        for (int i = 0; i < 10; i++) {
+            filter.controlCar(0, 0);
+            now[0] += 50_000_000L;
+        }
+        assertEquals(1, issued.size());
+        assertEquals(9, filter.getSuppressedCount());
+
+        // 超过保活间隔后重新下发一次
+        filter.controlCar(0, 0);
+        assertEquals(2, issued.size());
+        assertEquals(1, filter.getKeepAliveCount());
+        assertEquals(2, filter.getIssuedCount());
+    }
+
+    @Test
+    public void differentCommandsWithSameOutputAreSuppressed() {
+        List<int[]> issued = new ArrayList<>();
+        RedundantCommandFilter filter = new RedundantCommandFilter(
+                (angle, speed) -> issued.add(new int[]{angle, speed}), 500, () -> 0L);
+
+        // 速度为0时角度不影响输出
+        filter.controlCar(0, 0);
+        filter.controlCar(200, 0);
+        assertEquals(1, issued.size());
+
+        filter.controlCar(0, 30);
+        filter.controlCar(360, 30);
+        assertEquals(2, issued.size());
+        assertEquals(DifferentialDriveMixer.mix(0, 30), filter.getLastOutput());
+
+        // 方向改变必须下发
+        filter.controlCar(180, 30);
+        assertEquals(3, issued.size());
+        assertArrayEquals(new int[]{180, 30}, issued.get(2));
+    }
+
+    @Test
+    public void failedActuationIsNotRecordedAsOutput() {
+        long[] now = {0};
+        long[] failures = {0};
+        boolean[] failing = {false};
+        List<int[]> issued = new ArrayList<>();
+        // 与NativeActuator相同，失败时只计数，不抛出异常
+        RedundantCommandFilter filter = new RedundantCommandFilter((angle, speed) -> {
+            issued.add(new int[]{angle, speed});
+            if (failing[0]) {
+                failures[0]++;
+            }
+        }, 500, () -> now[0]);
+        filter.setFailureCount(() -> failures[0]);
+
+        filter.controlCar(0, 60);
+        failing[0] = true;
+        filter.controlCar(0, 0);
+        assertEquals(DifferentialDriveMixer.OUTPUT_UNDEFINED, filter.getLastOutput());
+
+        // 停车失败后客户端继续发送的(0, 0)不在保活间隔内被过滤，直到一次下发成功
+        now[0] += 50_000_000L;
+        filter.controlCar(0, 0);
+        assertEquals(3, issued.size());
+        failing[0] = false;
+        now[0] += 50_000_000L;
+        filter.controlCar(0, 0);
+        now[0] += 50_000_000L;
+        filter.controlCar(0, 0);
+        assertEquals(4, issued.size());
+        assertEquals(1, filter.getSuppressedCount());
+        assertEquals(DifferentialDriveMixer.mix(0, 0), filter.getLastOutput());
+    }
+
+    @Test
+    public void asynchronousFailureClearsOutputBeforeNextCommand() {
+        long[] failures = {0};
+        List<int[]> issued = new ArrayList<>();
+        RedundantCommandFilter filter = new RedundantCommandFilter(
+                (angle, speed) -> issued.add(new int[]{angle, speed}), 500, () -> 0L);
+        filter.setFailureCount(() -> failures[0]);
+
+        filter.controlCar(0, 0);
+        // 指令环的native线程在controlCar返回后才执行失败
+        failures[0]++;
+        filter.controlCar(0, 0);
+        assertEquals(2, issued.size());
+        filter.controlCar(0, 0);
+        assertEquals(2, issued.size());
+    }
+
+    @Test
+    public void outOfRangeCommandsAreAlwaysIssued() {
+        List<int[]> issued = new ArrayList<>();
+        RedundantCommandFilter filter = new RedundantCommandFilter(
+                (angle, speed) -> issued.add(new int[]{angle, speed}), 500, () -> 0L);
+        filter.controlCar(400, 50);
+        filter.controlCar(400, 50);
+        assertEquals(2, issued.size());
+        assertEquals(0, filter.getSuppressedCount());
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.carjni;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StartupPipelineTest {
+
+    @Test
+    public void runsStagesInOrderOffTheCallingThread() throws Exception {
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> completed = Collections.synchronizedList(new ArrayList<>());
+        StartupPipeline pipeline = new StartupPipeline(new RecordingListener(completed, null));
+        Thread caller = Thread.currentThread();
+        pipeline.addStage("a", () -> {
+            assertNotSame(caller, Thread.currentThread());
+            order.add("a");
+        });
+        pipeline.addStage("b", () -> {
+            Thread.sleep(20);
+            order.add("b");
+        });
+        assertEquals(2, pipeline.addStage("c", () -> order.add("c")));
+        assertFalse(pipeline.isReady());
+
+        pipeline.start();
+        assertTrue(pipeline.await(3000));
+        assertEquals(3, pipeline.getCompletedStages());
+        assertEquals(-1, pipeline.getFailedStage());
+        assertEquals(Arrays.asList("a", "b", "c"), order);
+        assertEquals(Arrays.asList(0, 1, 2), completed);
+
+        // 每个阶段的耗时单独记录，总时间不小于各阶段之和
+        assertTrue(pipeline.getStageNanos(1) >= TimeUnit.MILLISECONDS.toNanos(20));
+        long sum = pipeline.getStageNanos(0) + pipeline.getStageNanos(1) + pipeline.getStageNanos(2);
+        assertTrue(pipeline.getTotalNanos() >= sum);
+
+        String summary = pipeline.appendSummary(new StringBuilder()).toString();
+        assertTrue(summary, summary.startsWith("启动 "));
+        assertTrue(summary, summary.contains("：a ") && summary.contains(" b ") && summary.contains(" c "));
+    }
+
+    @Test
+    public void failureStopsLaterStages() throws Exception {
+        List<Integer> failed = Collections.synchronizedList(new ArrayList<>());
+        StartupPipeline pipeline = new StartupPipeline(new RecordingListener(new ArrayList<>(), failed));
+        boolean[] portBound = new boolean[1];
+        pipeline.addStage("native库", () -> {
+        });
+        pipeline.addStage("设备", () -> {
+            throw new IOException("打开/dev/mydevice失败: -2");
+        });
+        pipeline.addStage("端口", () -> portBound[0] = true);
+        pipeline.start();
+
+        assertFalse(pipeline.await(3000));
+        assertTrue(pipeline.isFailed());
+        assertEquals(1, pipeline.getFailedStage());
+        assertEquals(1, pipeline.getCompletedStages());
+        assertEquals(Arrays.asList(1), failed);
+        assertFalse(portBound[0]);
+        assertEquals(0, pipeline.getTotalNanos());
+        String summary = pipeline.appendSummary(new StringBuilder()).toString();
+        assertTrue(summary, summary.startsWith("启动失败：设备 打开/dev/mydevice失败: -2：native库 "));
+    }
+
+    @Test
+    public void errorIsRecordedAsStageFailure() throws Exception {
+        List<Integer> failed = Collections.synchronizedList(new ArrayList<>());
+        StartupPipeline pipeline = new StartupPipeline(new RecordingListener(new ArrayList<>(), failed));
+        boolean[] deviceOpened = new boolean[1];
+        // 与System.loadLibrary找不到库时相同，抛出的是Error而不是Exception
+        pipeline.addStage("native库", () -> {
+            throw new UnsatisfiedLinkError("dlopen failed: library \"libcarjni.so\" not found");
+        });
+        pipeline.addStage("设备", () -> deviceOpened[0] = true);
+        pipeline.start();
+
+        assertFalse(pipeline.await(3000));
+        assertTrue(pipeline.isFailed());
+        assertEquals(0, pipeline.getFailedStage());
+        assertTrue(pipeline.getFailure() instanceof UnsatisfiedLinkError);
+        assertEquals(Arrays.asList(0), failed);
+        assertFalse(deviceOpened[0]);
+        String summary = pipeline.appendSummary(new StringBuilder()).toString();
+        assertTrue(summary, summary.startsWith("启动失败：native库 dlopen failed"));
+    }
+
+    @Test
+    public void cancelWaitsForRunningStageAndSkipsTheRest() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        boolean[] ran = new boolean[1];
+        StartupPipeline pipeline = new StartupPipeline(null);
+        pipeline.addStage("慢", () -> {
+            entered.countDown();
+            release.await();
+        });
+        pipeline.addStage("之后", () -> ran[0] = true);
+        pipeline.start();
+        assertTrue(entered.await(3, TimeUnit.SECONDS));
+        assertEquals("启动中：慢", pipeline.appendSummary(new StringBuilder()).toString());
+
+        Thread canceller = new Thread(pipeline::cancel);
+        canceller.start();
+        canceller.join(50);
+        // 正在执行的阶段结束前cancel不会返回
+        assertTrue(canceller.isAlive());
+        release.countDown();
+        canceller.join(3000);
+        assertFalse(canceller.isAlive());
+        assertFalse(ran[0]);
+        assertFalse(pipeline.isReady());
+        assertFalse(pipeline.isFailed());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void stagesCannotBeAddedAfterStart() throws Exception {
+        StartupPipeline pipeline = new StartupPipeline(null);
+        pipeline.start();
+        pipeline.await(3000);
+        pipeline.addStage("晚", () -> {
+        });
+    }
+
+    private static final class RecordingListener implements StartupPipeline.Listener {
+        private final List<Integer> completed;
+        private final List<Integer> failed;
+
+        RecordingListener(List<Integer> completed, List<Integer> failed) {
+            this.completed = completed;
+            this.failed = failed;
+        }
+
+        @Override
+        public void onStageCompleted(int index) {
+            completed.add(index);
+        }
+
+        @Override
+        public void onStageFailed(int index, Throwable cause) {
+            failed.add(index);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.carjni;
+
+import com.example.carcommon.ControlFrame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.example.carjni.TestUtil.waitFor;
+import static org.junit.Assert.*;
+
+/**
+ * 本地回环测试，模拟多个手机同时连接
+ * 每个客户端绑定不同的127.0.0.x地址，避免被当作同一设备的重连（需要Linux的回环网段）
+ */
+public class TcpControlServerTest {
+    private static final int CLIENTS = 40;
+
+    // 收到的指令：angle字段用来标识发送的客户端
+    private final List<int[]> applied = new CopyOnWriteArrayList<>();
+    private final List<Socket> sockets = new ArrayList<>();
+    private TcpControlServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TcpControlServer(0, CLIENTS, frame -> applied.add(new int[]{frame.angle, frame.speed}));
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        server.stop();
+    }
+
+    @Test
+    public void onlyDriverIsAppliedAmongManyClients() throws Exception {
+        for (int i = 1; i <= CLIENTS; i++) {
+            connect(i);
+        }
+        waitFor(() -> server.getConnections().size() == CLIENTS);
+
+        for (int round = 0; round < 5; round++) {
+            for (int i = 1; i <= CLIENTS; i++) {
+                send(sockets.get(i - 1), ControlFrame.TYPE_CONTROL, round + 1, i, 50);
+            }
+        }
+        waitFor(() -> totalFramesReceived() == CLIENTS * 5);
+
+        assertEquals(5, applied.size());
+        for (int[] command : applied) {
+            assertEquals(1, command[0]);
+        }
+        for (ClientConnection connection : server.getConnections()) {
+            assertEquals(5, connection.getFramesReceived());
+            assertEquals(connection.isDriver() ? 5 : 0, connection.getFramesApplied());
+            assertEquals(connection.isDriver() ? 0 : 5, connection.getFramesRejected());
+            assertEquals(ControlFrame.SIZE * 5, connection.getBytesReceived());
+        }
+    }
+
+    @Test
+    public void driverDisconnectStopsCarAndPromotesNextClient() throws Exception {
+        connect(1);
+        connect(2);
+        waitFor(() -> server.getConnections().size() == 2);
+
+        send(sockets.get(0), ControlFrame.TYPE_CONTROL, 1, 1, 80);
+        waitFor(() -> applied.size() == 1);
+        sockets.get(0).close();
+
+        // 驾驶者断开后先执行停止指令
+        waitFor(() -> applied.size() == 2);
+        assertArrayEquals(new int[]{0, 0}, applied.get(1));
+
+        send(sockets.get(1), ControlFrame.TYPE_CONTROL, 1, 2, 60);
+        waitFor(() -> applied.size() == 3);
+        assertArrayEquals(new int[]{2, 60}, applied.get(2));
+    }
+
+    @Test
+    public void priorityClaimTakesOverControl() throws Exception {
+        connect(1);
+        connect(2);
+        waitFor(() -> server.getConnections().size() == 2);
+
+        send(sockets.get(1), ControlFrame.TYPE_CLAIM, 1, 0, 10);
+        waitFor(() -> server.getDriverChangeCount() == 1);
+        send(sockets.get(0), ControlFrame.TYPE_CONTROL, 1, 1, 80);
+        send(sockets.get(1), ControlFrame.TYPE_CONTROL, 2, 2, 70);
+        waitFor(() -> totalFramesReceived() == 3);
+
+        assertArrayEquals(new int[]{0, 0}, applied.get(0));
+        assertArrayEquals(new int[]{2, 70}, applied.get(1));
+        assertEquals(2, applied.size());
+    }
+
+    @Test
+    public void queueLimitRejectsExtraClients() throws Exception {
+        server.stop();
+        server = new TcpControlServer(0, 1, frame -> applied.add(new int[]{frame.angle, frame.speed}));
+        server.start();
+
+        connect(1);
+        connect(2);
+        connect(3);
+        waitFor(() -> server.getRejectedCount() == 1);
+        assertEquals(2, server.getConnections().size());
+    }
+
+    @Test
+    public void legacyTextClientIsStillServed() throws Exception {
+        Socket socket = connect(1);
+        OutputStream out = socket.getOutputStream();
+        out.write("Angle: 90, Speed: 5".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        Thread.sleep(20);
+        out.write("0\nbad line\n".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+
+        waitFor(() -> applied.size() == 1);
+        assertArrayEquals(new int[]{90, 50}, applied.get(0));
+        waitFor(() -> server.getConnections().get(0).getMalformedFrames() == 1);
+    }
+
+    @Test
+    public void driverFramesAreAcknowledged() throws Exception {
+        Socket driver = connect(1);
+        Socket waiting = connect(2);
+        waitFor(() -> server.getConnections().size() == 2);
+
+        send(waiting, ControlFrame.TYPE_CONTROL, 1, 2, 10);
+        send(driver, ControlFrame.TYPE_CONTROL, 1, 1, 10);
+        send(driver, ControlFrame.TYPE_CONTROL, 2, 1, 20);
+
+        // 确认的是最后交给执行器的帧，angle为累计收到的控制帧数，origin回显该帧的发送时间
+        DataInputStream in = new DataInputStream(driver.getInputStream());
+        byte[] rx = new byte[ControlFrame.SIZE];
+        ControlFrame ack = new ControlFrame();
+        do {
+            in.readFully(rx);
+            assertEquals(ControlFrame.DECODE_OK, ack.decode(ByteBuffer.wrap(rx)));
+            assertEquals(ControlFrame.TYPE_ACK, ack.type);
+        } while (ack.sequence != 2);
+        assertEquals(2, ack.angle);
+        assertTrue(ack.origin > 0 && ack.origin <= System.nanoTime());
+
+        // 等待控制权的连接收不到确认
+        waitFor(() -> totalFramesReceived() == 3);
+        assertEquals(0, waiting.getInputStream().available());
+        for (ClientConnection connection : server.getConnections()) {
+            assertEquals(connection.isDriver(), connection.getAcksSent() > 0);
+        }
+    }
+
+    @Test
+    public void cumulativeCountersSurviveDisconnect() throws Exception {
+        Socket driver = connect(1);
+        connect(2);
+        waitFor(() -> server.getConnections().size() == 2);
+
+        send(driver, ControlFrame.TYPE_CONTROL, 1, 1, 10);
+        send(sockets.get(1), ControlFrame.TYPE_CONTROL, 1, 2, 10);
+        waitFor(() -> server.getFrameCount() == 2);
+
+        // 校验失败的帧使服务器断开驾驶者连接，统计不随连接一起消失
+        ByteBuffer buffer = ByteBuffer.allocate(ControlFrame.SIZE);
+        ControlFrame.encode(buffer, ControlFrame.TYPE_CONTROL, 2, 1, 10, System.nanoTime());
+        buffer.put(10, (byte) (buffer.get(10) ^ 1));
+        driver.getOutputStream().write(buffer.array());
+        waitFor(() -> server.getConnections().size() == 1);
+
+        assertEquals(2, server.getFrameCount());
+        assertEquals(1, server.getAppliedCount());
+        assertEquals(1, server.getMalformedCount());
+    }
+
+    @Test
+    public void restartRebindsPortWhileOldConnectionsLinger() throws Exception {
+        Socket driver = connect(1);
+        waitFor(() -> server.getConnections().size() == 1);
+        send(driver, ControlFrame.TYPE_CONTROL, 1, 1, 10);
+        waitFor(() -> applied.size() == 1);
+
+        // 服务器主动关闭连接，端口上留下TIME_WAIT，与ControlService.restartNetwork相同立即重新绑定
+        int port = server.getLocalPort();
+        server.stop();
+        server = new TcpControlServer(port, CLIENTS, frame -> applied.add(new int[]{frame.angle, frame.speed}));
+        server.start();
+        assertEquals(port, server.getLocalPort());
+
+        send(connect(2), ControlFrame.TYPE_CONTROL, 1, 2, 20);
+        waitFor(() -> applied.size() == 2);
+        assertArrayEquals(new int[]{2, 20}, applied.get(1));
+    }
+
+    @Test
+    public void failedBindLeavesServerStartable() throws Exception {
+        int port = server.getLocalPort();
+        TcpControlServer second =
+                new TcpControlServer(port, CLIENTS, frame -> applied.add(new int[]{frame.angle, frame.speed}));
+        try {
+            second.start();
+            fail("端口已被占用");
+        } catch (IOException e) {
+            // 预期
+        }
+        // 失败后没有保留半开的通道，端口释放后可以再次启动
+        server.stop();
+        server = second;
+        server.start();
+        assertEquals(port, server.getLocalPort());
+        send(connect(1), ControlFrame.TYPE_CONTROL, 1, 1, 10);
+        waitFor(() -> applied.size() == 1);
+    }
+
+    private Socket connect(int index) throws Exception {
+        Socket socket = new Socket();
+        socket.bind(new InetSocketAddress("127.0.0." + index, 0));
+        socket.connect(new InetSocketAddress("127.0.0.1", server.getLocalPort()));
+        sockets.add(socket);
+        return socket;
+    }
+
+    private static void send(Socket socket, byte type, int seq, int angle, int speed) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(ControlFrame.SIZE);
+        ControlFrame.encode(buffer, type, seq, angle, speed, System.nanoTime());
+        socket.getOutputStream().write(buffer.array());
+    }
+
+    private long totalFramesReceived() {
+        long total = 0;
+        for (ClientConnection connection : server.getConnections()) {
+            total += connection.getFramesReceived();
+        }
+        return total;
+    }
+}
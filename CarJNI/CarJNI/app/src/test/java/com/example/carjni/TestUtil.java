@@ -0,0 +1,27 @@
+package com.example.carjni;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 测试辅助方法
+ */
+final class TestUtil {
+
+    interface Condition {
+        boolean met();
+    }
+
+    private TestUtil() {
+    }
+
+    /**
+     * 轮询等待条件成立，超时则测试失败
+     */
+    static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!condition.met()) {
+            assertTrue("等待超时", System.currentTimeMillis() < deadline);
+            Thread.sleep(2);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.carjni;
+
+import com.example.carcommon.ControlFrame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.carjni.TestUtil.waitFor;
+import static org.junit.Assert.*;
+
+public class UdpControlServerTest {
+    private final List<Integer> applied = new CopyOnWriteArrayList<>();
+    private volatile CountDownLatch gate;
+    private volatile CountDownLatch firstApplied;
+    private UdpControlServer server;
+    private DatagramChannel client;
+    private final ByteBuffer tx = ByteBuffer.allocate(ControlFrame.SIZE);
+
+    @Before
+    public void setUp() throws Exception {
+        server = new UdpControlServer(0, frame -> {
+            applied.add(frame.sequence);
+            CountDownLatch first = firstApplied;
+            if (first != null) {
+                first.countDown();
+            }
+            CountDownLatch g = gate;
+            if (g != null) {
+                try {
+                    g.await(2, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        server.start();
+        client = DatagramChannel.open();
+        client.connect(new InetSocketAddress("127.0.0.1", server.getLocalPort()));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        server.stop();
+    }
+
+    @Test
+    public void dropsDuplicateAndOutOfOrderFrames() throws Exception {
+        int[] sequence = {1, 2, 2, 1, 3, 5, 4, 6};
+        for (int seq : sequence) {
+            send(seq);
+            Thread.sleep(5);
+        }
+        waitFor(() -> server.getReceivedCount() == sequence.length);
+
+        for (int i = 1; i < applied.size(); i++) {
+            assertTrue("序号必须严格递增: " + applied, applied.get(i) > applied.get(i - 1));
+        }
+        assertEquals(6, (int) applied.get(applied.size() - 1));
+        assertEquals(3, server.getStaleCount());
+    }
+
+    @Test
+    public void appliesOnlyNewestOfBacklog() throws Exception {
+        // 让第一帧的回调阻塞，期间到达的帧在socket缓冲区中积压
+        gate = new CountDownLatch(1);
+        firstApplied = new CountDownLatch(1);
+        send(1);
+        assertTrue(firstApplied.await(2, TimeUnit.SECONDS));
+        for (int seq = 2; seq <= 10; seq++) {
+            send(seq);
+        }
+        Thread.sleep(100);
+        gate.countDown();
+
+        waitFor(() -> applied.size() == 2);
+        assertEquals(10, (int) applied.get(1));
+        assertEquals(8, server.getCoalescedCount());
+    }
+
+    @Test
+    public void rejectsMalformedDatagrams() throws Exception {
+        client.write(ByteBuffer.wrap(new byte[]{'A', 'n', 'g', 'l', 'e'}));
+        send(1);
+        waitFor(() -> applied.size() == 1);
+        assertEquals(1, server.getMalformedCount());
+    }
+
+    @Test
+    public void acknowledgesAppliedFrameWithReceivedCount() throws Exception {
+        // 序号3丢失，序号1重复到达：被丢弃的帧也计入收到的帧数
+        for (int seq : new int[]{1, 2, 1, 4}) {
+            send(seq);
+            Thread.sleep(5);
+        }
+        waitFor(() -> server.getAckCount() == 3);
+
+        ByteBuffer rx = ByteBuffer.allocate(64);
+        ControlFrame ack = new ControlFrame();
+        int lastSequence = 0;
+        int lastReceived = 0;
+        for (int i = 0; i < 3; i++) {
+            rx.clear();
+            client.read(rx);
+            rx.flip();
+            assertEquals(ControlFrame.DECODE_OK, ack.decode(rx));
+            assertEquals(ControlFrame.TYPE_ACK, ack.type);
+            lastSequence = ack.sequence;
+            lastReceived = ack.angle;
+        }
+        assertEquals(4, lastSequence);
+        assertEquals(4, lastReceived);
+    }
+
+    @Test
+    public void otherSenderCannotInterleaveWithBoundSender() throws Exception {
+        // 两个发送端交替发送，第二个发送端的序号更大，也不能打乱第一个发送端的序号过滤
+        try (DatagramChannel other = open(server)) {
+            send(1);
+            waitFor(() -> applied.size() == 1);
+            int[] own = {2, 1, 3, 3, 4};
+            for (int i = 0; i < own.length; i++) {
+                send(other, 100 + i);
+                Thread.sleep(5);
+                send(own[i]);
+                Thread.sleep(5);
+            }
+            waitFor(() -> server.getReceivedCount() == 1 + own.length * 2);
+        }
+
+        // 同一次唤醒读到的帧可能被合并，只检查执行的都是绑定的发送端的帧且序号严格递增
+        assertEquals(1, (int) applied.get(0));
+        for (int i = 1; i < applied.size(); i++) {
+            assertTrue("序号必须严格递增: " + applied, applied.get(i) > applied.get(i - 1));
+        }
+        assertEquals(4, (int) applied.get(applied.size() - 1));
+        assertEquals(5, server.getRejectedCount());
+        assertEquals(2, server.getStaleCount());
+    }
+
+    @Test
+    public void otherSenderTakesOverAfterTimeout() throws Exception {
+        List<Integer> frames = new CopyOnWriteArrayList<>();
+        UdpControlServer shortLease = new UdpControlServer(0, frame -> frames.add(frame.sequence));
+        shortLease.setSenderTimeoutMillis(50);
+        shortLease.start();
+        try (DatagramChannel first = open(shortLease); DatagramChannel second = open(shortLease)) {
+            send(first, 10);
+            waitFor(() -> frames.size() == 1);
+            send(second, 1);
+            waitFor(() -> shortLease.getRejectedCount() == 1);
+
+            // 第一个发送端沉默超过超时时间后解除绑定，第二个发送端从自己的序号重新开始
+            Thread.sleep(100);
+            send(second, 2);
+            waitFor(() -> frames.contains(2));
+            send(first, 11);
+            waitFor(() -> shortLease.getRejectedCount() == 2);
+        } finally {
+            shortLease.stop();
+        }
+        // 第一个发送端解除绑定时先执行一次停止指令（序号为0）
+        assertEquals(List.of(10, 0, 2), frames);
+    }
+
+    @Test
+    public void udpSenderWaitsForTcpDriver() throws Exception {
+        List<Integer> frames = new CopyOnWriteArrayList<>();
+        DriverArbiter arbiter = new DriverArbiter(4);
+        ClientConnection tcpDriver = new ClientConnection(1, null, InetAddress.getByName("10.0.0.1"), 0);
+        assertEquals(DriverArbiter.JOIN_DRIVER, arbiter.join(tcpDriver));
+        UdpControlServer shared = new UdpControlServer(0, frame -> frames.add(frame.sequence));
+        shared.setArbiter(arbiter);
+        shared.start();
+        try (DatagramChannel sender = open(shared)) {
+            send(sender, 1);
+            waitFor(() -> shared.getRejectedCount() == 1);
+            assertEquals(1, arbiter.getWaitingCount());
+            assertTrue(frames.isEmpty());
+
+            // TCP驾驶者离开后UDP发送端接任
+            assertTrue(arbiter.leave(tcpDriver));
+            send(sender, 2);
+            waitFor(() -> frames.size() == 1);
+        } finally {
+            shared.stop();
+        }
+        assertEquals(List.of(2), frames);
+        assertTrue(arbiter.getDriver().getId() < 0);
+    }
+
+    private static DatagramChannel open(UdpControlServer target) throws Exception {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.connect(new InetSocketAddress("127.0.0.1", target.getLocalPort()));
+        return channel;
+    }
+
+    private void send(int seq) throws Exception {
+        send(client, seq);
+    }
+
+    private void send(DatagramChannel channel, int seq) throws Exception {
+        tx.clear();
+        ControlFrame.encode(tx, ControlFrame.TYPE_CONTROL, seq, 90, 50, System.nanoTime());
+        tx.flip();
+        channel.write(tx);
+    }
+}
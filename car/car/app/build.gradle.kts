@@ -25,6 +25,21 @@ android {
             )
         }
     }
+    sourceSets {
+        getByName("main") {
+            // 客户端与服务端共用的代码，位于仓库根目录的common模块
+            java.srcDir("../../../common/src/main/java")
+            // common中依赖Android的部分，common模块自身不编译
+            java.srcDir("../../../common/src/android/java")
+        }
+        // 单元测试和仪器测试共用的模拟小车和等待方法
+        getByName("test") {
+            java.srcDir("src/testShared/java")
+        }
+        getByName("androidTest") {
+            java.srcDir("src/testShared/java")
+        }
+    }
     compileOptions {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
@@ -0,0 +1,88 @@
+package com.example.car;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.carcommon.ControlFrame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.car.TestUtil.waitFor;
+import static org.junit.Assert.*;
+
+/**
+ * 重建活动（与旋转屏幕、分屏调整大小相同的配置变化）时连接和控制发送循环不中断
+ * 本进程内的模拟小车监听回环地址，确认每一帧，记录收到的所有帧
+ */
+@RunWith(AndroidJUnit4.class)
+public class ActivityRecreateTest {
+    private FakeCar car;
+
+    @Before
+    public void setUp() throws IOException {
+        car = new FakeCar();
+    }
+
+    @After
+    public void tearDown() {
+        car.close();
+    }
+
+    @Test
+    public void recreateKeepsConnectionAndCommandStream() throws Exception {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            DriveSession[] sessions = new DriveSession[2];
+            scenario.onActivity(activity -> sessions[0] = activity.getSession());
+            DriveSession session = sessions[0];
+            session.connect("127.0.0.1", car.getPort(), false);
+            waitFor(() -> session.getConnectionManager().getState() == ConnectionManager.STATE_CONNECTED);
+            waitFor(() -> car.controlFrames() >= 20);
+
+            ConnectionManager manager = session.getConnectionManager();
+            ControlLoop loop = session.getControlLoop();
+            long attempts = manager.getAttemptCount();
+            long dropped = loop.getDroppedCount();
+            int rateBefore = loop.getRateHz();
+            int first = car.controlFrames();
+
+            scenario.recreate();
+            scenario.onActivity(activity -> sessions[1] = activity.getSession());
+            waitFor(() -> car.controlFrames() >= first + 20);
+
+            // 新的活动取回同一个会话，没有重连，也没有因为未连接而丢弃的发送
+            assertSame(session, sessions[1]);
+            assertEquals(1, car.accepted.get());
+            assertEquals(attempts, manager.getAttemptCount());
+            assertEquals(0, manager.getLostCount());
+            assertEquals(dropped, loop.getDroppedCount());
+            assertEquals(ConnectionManager.STATE_CONNECTED, manager.getState());
+
+            // 同一连接上的帧序号连续；从重建前的最后一帧起，相邻两条控制帧的发送间隔不超过两个周期（最多缺一帧）
+            List<ControlFrame> frames = car.frames;
+            for (int i = 1; i < frames.size(); i++) {
+                assertEquals(frames.get(i - 1).sequence + 1, frames.get(i).sequence);
+            }
+            long period = TimeUnit.SECONDS.toNanos(1) / Math.min(rateBefore, loop.getRateHz());
+            long previous = 0;
+            long maxGap = 0;
+            int control = 0;
+            for (ControlFrame frame : frames) {
+                if (frame.type != ControlFrame.TYPE_CONTROL || ++control < first) {
+                    continue;
+                }
+                if (previous != 0) {
+                    maxGap = Math.max(maxGap, frame.timestamp - previous);
+                }
+                previous = frame.timestamp;
+            }
+            assertTrue("最大间隔 " + maxGap + "ns，周期 " + period + "ns", maxGap <= 2 * period);
+        }
+    }
+}
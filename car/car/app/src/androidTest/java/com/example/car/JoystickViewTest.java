@@ -0,0 +1,112 @@
+package com.example.car;
+
+import android.os.SystemClock;
+import android.view.MotionEvent;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 向JoystickView注入合成的MotionEvent序列，统计监听器回调次数
+ * 视图布局为300x300，中心(150, 150)，摇杆半径100
+ */
+@RunWith(AndroidJUnit4.class)
+public class JoystickViewTest {
+    private JoystickView joystick;
+    private final List<Object[]> callbacks = new ArrayList<>();
+    private long downTime;
+
+    @Before
+    public void setUp() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            joystick = new JoystickView(InstrumentationRegistry.getInstrumentation().getTargetContext());
+            joystick.measure(300, 300);
+            joystick.layout(0, 0, 300, 300);
+            joystick.setInputFiltering(0.1f, 0f);
+            joystick.setOnDirectionChangeListener((direction, speedRatio, angle) ->
+                    callbacks.add(new Object[]{direction, speedRatio, angle}));
+        });
+        downTime = SystemClock.uptimeMillis();
+    }
+
+    private void dispatch(MotionEvent event) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> joystick.onTouchEvent(event));
+        event.recycle();
+    }
+
+    private MotionEvent event(int action, long offset, float x, float y) {
+        return MotionEvent.obtain(downTime, downTime + offset, action, x, y, 0);
+    }
+
+    @Test
+    public void moveNotifiesOnceWithQuantizedValues() {
+        dispatch(event(MotionEvent.ACTION_DOWN, 0, 150f, 50f));
+        assertEquals(1, callbacks.size());
+        assertEquals(JoystickView.Direction.UP, callbacks.get(0)[0]);
+        assertEquals(1f, (float) callbacks.get(0)[1], 0f);
+        assertEquals(0.0, (double) callbacks.get(0)[2], 0.0);
+
+        dispatch(event(MotionEvent.ACTION_MOVE, 8, 50f, 150f));
+        assertEquals(2, callbacks.size());
+        assertEquals(JoystickView.Direction.LEFT, callbacks.get(1)[0]);
+        assertEquals(90.0, (double) callbacks.get(1)[2], 0.0);
+    }
+
+    @Test
+    public void batchedHistoricalSamplesProduceSingleCallback() {
+        dispatch(event(MotionEvent.ACTION_DOWN, 0, 150f, 50f));
+        MotionEvent move = event(MotionEvent.ACTION_MOVE, 4, 140f, 60f);
+        move.addBatch(downTime + 8, 120f, 80f, 1f, 1f, 0);
+        move.addBatch(downTime + 12, 100f, 100f, 1f, 1f, 0);
+        move.addBatch(downTime + 16, 50f, 150f, 1f, 1f, 0);
+        assertEquals(3, move.getHistorySize());
+        dispatch(move);
+
+        // 四个采样各自改变了量化结果，但只通知最终状态一次
+        assertEquals(2, callbacks.size());
+        assertEquals(90.0, (double) callbacks.get(1)[2], 0.0);
+    }
+
+    @Test
+    public void unchangedQuantizedValueDoesNotNotify() {
+        dispatch(event(MotionEvent.ACTION_DOWN, 0, 150f, 80f));
+        for (int i = 1; i <= 20; i++) {
+            // 亚像素抖动
+            float jitter = (i % 2 == 0) ? 0.1f : -0.1f;
+            dispatch(event(MotionEvent.ACTION_MOVE, i * 4, 150f + jitter, 80f - jitter));
+        }
+        assertEquals(1, callbacks.size());
+    }
+
+    @Test
+    public void deadzoneAndReleaseNotifyStopOnce() {
+        // 死区内按下不通知
+        dispatch(event(MotionEvent.ACTION_DOWN, 0, 152f, 148f));
+        assertEquals(0, callbacks.size());
+
+        dispatch(event(MotionEvent.ACTION_MOVE, 8, 150f, 50f));
+        assertEquals(1, callbacks.size());
+
+        dispatch(event(MotionEvent.ACTION_UP, 16, 150f, 50f));
+        assertEquals(2, callbacks.size());
+        assertEquals(JoystickView.Direction.NONE, callbacks.get(1)[0]);
+        assertEquals(0f, (float) callbacks.get(1)[1], 0f);
+    }
+
+    @Test
+    public void cancelStopsLikeRelease() {
+        dispatch(event(MotionEvent.ACTION_DOWN, 0, 250f, 150f));
+        dispatch(event(MotionEvent.ACTION_CANCEL, 8, 250f, 150f));
+        assertEquals(2, callbacks.size());
+        assertEquals(JoystickView.Direction.NONE, callbacks.get(1)[0]);
+    }
+}
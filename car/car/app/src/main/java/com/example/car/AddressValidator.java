@@ -0,0 +1,26 @@
+package com.example.car;
+
+import java.util.regex.Pattern;
+
+/**
+ * 服务器地址校验
+ * 正则表达式只在类加载时编译一次，原先每次点击连接都会重新编译
+ */
+public final class AddressValidator {
+    // 匹配IPv4地址的格式，每段为0-255
+    private static final Pattern IPV4 = Pattern.compile(
+            "^((25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)$");
+
+    private AddressValidator() {
+    }
+
+    /**
+     * 验证输入的字符串是否为有效的IPv4地址
+     *
+     * @param ip 要验证的IP地址字符串
+     * @return 如果输入的字符串是有效的IPv4地址，则返回true；否则返回false
+     */
+    public static boolean isValidIp(String ip) {
+        return IPV4.matcher(ip).matches();
+    }
+}
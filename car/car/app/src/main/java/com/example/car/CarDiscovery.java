@@ -0,0 +1,166 @@
+package com.example.car;
+
+import com.example.carcommon.DiscoveryMessage;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 小车发现：广播一次探测，在等待时间内收集各小车服务端的回复，按探测往返时间从小到大排列
+ * 回复带回探测的编号和发送时间，不匹配本次探测的数据报（如上一次探测的迟到回复）直接丢弃；
+ * 同一地址从多个网络接口收到的重复回复只保留最早的一个
+ *
+ * discover会阻塞到等待时间结束，不能在界面线程中调用
+ */
+public class CarDiscovery {
+    /** 默认的等待回复时间（毫秒），同一局域网内的往返时间通常远小于该值 */
+    public static final long DEFAULT_WINDOW_MS = 300;
+
+    /**
+     * 一辆响应了探测的小车
+     */
+    public static final class Result {
+        /** 服务端地址 */
+        public final String host;
+        /** 控制端口 */
+        public final int port;
+        /** 支持的功能，DiscoveryMessage.CAP_*的组合 */
+        public final int capabilities;
+        /** 当前的TCP连接数 */
+        public final int clients;
+        /** 是否已有驾驶者 */
+        public final boolean driven;
+        /** 名称 */
+        public final String name;
+        /** 探测往返时间（纳秒） */
+        public final long rttNanos;
+
+        Result(String host, DiscoveryMessage reply, long rttNanos) {
+            this.host = host;
+            this.port = reply.controlPort;
+            this.capabilities = reply.capabilities;
+            this.clients = reply.clients;
+            this.driven = (reply.flags & DiscoveryMessage.FLAG_DRIVER) != 0;
+            this.name = reply.name;
+            this.rttNanos = rttNanos;
+        }
+
+        /**
+         * @param capability DiscoveryMessage.CAP_*之一
+         * @return 是否支持该功能
+         */
+        public boolean supports(int capability) {
+            return (capabilities & capability) != 0;
+        }
+    }
+
+    private final List<InetSocketAddress> targets;
+
+    /**
+     * 向本网段广播探测
+     */
+    public CarDiscovery() {
+        this(Collections.singletonList(new InetSocketAddress("255.255.255.255", DiscoveryMessage.DEFAULT_PORT)));
+    }
+
+    /**
+     * @param targets 探测的目标地址，可以是广播地址或单个服务端（用于测试）
+     */
+    CarDiscovery(List<InetSocketAddress> targets) {
+        this.targets = targets;
+    }
+
+    /**
+     * 发送一次探测并收集回复
+     *
+     * @param windowMillis 等待回复的时间（毫秒）
+     * @return 响应的小车，按往返时间从小到大排列，没有响应时为空
+     * @throws IOException 无法发送探测
+     */
+    public List<Result> discover(long windowMillis) throws IOException {
+        List<Result> results = new ArrayList<>();
+        try (DatagramChannel channel = DatagramChannel.open();
+             Selector selector = Selector.open()) {
+            channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+            channel.bind(null);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+
+            int nonce = ThreadLocalRandom.current().nextInt();
+            ByteBuffer buffer = ByteBuffer.allocate(DiscoveryMessage.SIZE * 2);
+            for (InetSocketAddress target : targets) {
+                buffer.clear();
+                DiscoveryMessage.encodeProbe(buffer, nonce, System.nanoTime());
+                buffer.flip();
+                channel.send(buffer, target);
+            }
+
+            DiscoveryMessage reply = new DiscoveryMessage();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+                selector.selectedKeys().clear();
+                SocketAddress sender;
+                buffer.clear();
+                while ((sender = channel.receive(buffer)) != null) {
+                    long receivedNanos = System.nanoTime();
+                    buffer.flip();
+                    if (buffer.remaining() == DiscoveryMessage.SIZE && reply.decode(buffer)
+                            && reply.type == DiscoveryMessage.TYPE_REPLY && reply.nonce == nonce) {
+                        String host = ((InetSocketAddress) sender).getAddress().getHostAddress();
+                        if (find(results, host, reply.controlPort) == null) {
+                            results.add(new Result(host, reply, receivedNanos - reply.timestamp));
+                        }
+                    }
+                    buffer.clear();
+                }
+            }
+        }
+        results.sort((a, b) -> Long.compare(a.rttNanos, b.rttNanos));
+        return results;
+    }
+
+    /**
+     * 选择要连接的小车：往返时间最小且没有驾驶者的一辆，都有驾驶者时选往返时间最小的一辆
+     *
+     * @param results    discover的结果
+     * @param capability 必须支持的功能，DiscoveryMessage.CAP_*之一
+     * @return 选中的小车，没有支持该功能的小车时为null
+     */
+    public static Result best(List<Result> results, int capability) {
+        Result fallback = null;
+        for (Result result : results) {
+            if (!result.supports(capability)) {
+                continue;
+            }
+            if (!result.driven) {
+                return result;
+            }
+            if (fallback == null) {
+                fallback = result;
+            }
+        }
+        return fallback;
+    }
+
+    private static Result find(List<Result> results, String host, int port) {
+        for (Result result : results) {
+            if (result.host.equals(host) && result.port == port) {
+                return result;
+            }
+        }
+        return null;
+    }
+}
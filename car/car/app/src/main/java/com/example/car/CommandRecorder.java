@@ -0,0 +1,140 @@
+package com.example.car;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 摇杆会话录制，格式见CommandRecording
+ * 记录写入内存映射的文件区域，每条记录只是几次内存写入，不经过系统调用；
+ * 区域写满后映射文件的下一段，关闭时把文件截断到实际长度
+ *
+ * 摇杆事件在UI线程写入，已发送的控制帧在控制循环线程写入，追加操作加锁
+ * 每条记录最后写入类型字节，进程中途退出时文件尾部未写完的记录读取时会被跳过
+ */
+public class CommandRecorder implements Closeable {
+    private final FileChannel channel;
+    private final long regionBytes;
+    private final long baseNanos;
+    private MappedByteBuffer region;
+    private long regionStart;
+    private int offset;
+    private boolean closed;
+
+    // 统计数据
+    private volatile long recordCount;
+
+    /**
+     * @param file 录制文件，已存在时覆盖
+     * @throws IOException 创建失败
+     */
+    public CommandRecorder(File file) throws IOException {
+        this(file, CommandRecording.DEFAULT_REGION_RECORDS);
+    }
+
+    /**
+     * @param file          录制文件，已存在时覆盖
+     * @param regionRecords 每次映射的记录数，测试时可以设置得很小以覆盖换区
+     */
+    CommandRecorder(File file, int regionRecords) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        regionBytes = (long) regionRecords * CommandRecording.RECORD_SIZE;
+        baseNanos = System.nanoTime();
+        try {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, CommandRecording.HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0, CommandRecording.MAGIC);
+            header.putShort(4, (short) CommandRecording.VERSION);
+            header.putShort(6, (short) CommandRecording.RECORD_SIZE);
+            header.putLong(8, System.currentTimeMillis());
+            mapRegion(CommandRecording.HEADER_SIZE);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 记录一次摇杆事件
+     *
+     * @param direction 方向的序号
+     * @param angle     角度
+     * @param speed     速度
+     */
+    public void recordJoystick(int direction, int angle, int speed) {
+        append(CommandRecording.KIND_JOYSTICK, direction, angle, speed, 0);
+    }
+
+    /**
+     * 记录一条已发送的控制帧
+     *
+     * @param sequence 帧序号
+     * @param angle    角度
+     * @param speed    速度
+     */
+    public void recordSent(int sequence, int angle, int speed) {
+        append(CommandRecording.KIND_SENT, 0, angle, speed, sequence);
+    }
+
+    private synchronized void append(int kind, int direction, int angle, int speed, int sequence) {
+        if (closed) {
+            return;
+        }
+        if (offset == regionBytes) {
+            try {
+                mapRegion(regionStart + regionBytes);
+            } catch (IOException e) {
+                // 存储空间不足等原因无法扩展文件时停止录制，不影响驾驶
+                closed = true;
+                return;
+            }
+        }
+        MappedByteBuffer r = region;
+        r.putLong(offset, System.nanoTime() - baseNanos);
+        r.put(offset + 9, (byte) direction);
+        r.putShort(offset + 10, (short) angle);
+        r.putShort(offset + 12, (short) speed);
+        r.putInt(offset + 16, sequence);
+        r.put(offset + 8, (byte) kind);
+        offset += CommandRecording.RECORD_SIZE;
+        recordCount++;
+    }
+
+    private void mapRegion(long start) throws IOException {
+        // READ_WRITE映射超出文件长度的部分时文件自动扩展
+        region = channel.map(FileChannel.MapMode.READ_WRITE, start, regionBytes);
+        region.order(ByteOrder.LITTLE_ENDIAN);
+        regionStart = start;
+        offset = 0;
+    }
+
+    /** @return 已写入的记录数 */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * 把文件截断到实际写入的长度并关闭
+     *
+     * @throws IOException 截断或关闭失败
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        closed = true;
+        try {
+            region.force();
+            region = null;
+            channel.truncate(regionStart + offset);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.car;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 摇杆会话录制文件的格式和顺序读取
+ * <pre>
+ * 文件头 32字节（小端）：
+ *   0  int    魔数 "CREC"
+ *   4  short  版本
+ *   6  short  记录长度
+ *   8  long   开始录制的系统时间（毫秒）
+ *  16  保留
+ * 之后是定长24字节的记录：
+ *   0  long   相对开始录制的时间（纳秒）
+ *   8  byte   记录类型，KIND_*，0表示尚未写完（录制中断时文件尾部可能出现）
+ *   9  byte   摇杆方向（JoystickView.Direction的序号），发送记录为0
+ *  10  short  角度
+ *  12  short  速度
+ *  14  short  保留
+ *  16  int    控制帧序号，摇杆记录为0
+ *  20  int    保留
+ * </pre>
+ * 录制和读取都按固定大小的区域依次映射文件，几个小时的录制也不需要整体读入内存
+ */
+public final class CommandRecording {
+    /** 魔数 "CREC" */
+    static final int MAGIC = 0x43524543;
+    /** 格式版本 */
+    static final int VERSION = 1;
+    /** 文件头长度 */
+    static final int HEADER_SIZE = 32;
+    /** 记录长度 */
+    static final int RECORD_SIZE = 24;
+    /** 默认每次映射的记录数，约1MB */
+    static final int DEFAULT_REGION_RECORDS = 43690;
+
+    /** 记录类型：摇杆事件（OnDirectionChangeListener回调） */
+    public static final int KIND_JOYSTICK = 1;
+    /** 记录类型：已发送的控制帧 */
+    public static final int KIND_SENT = 2;
+
+    private CommandRecording() {
+    }
+
+    /**
+     * 一条记录，读取时复用
+     */
+    public static final class Record {
+        /** 相对开始录制的时间（纳秒） */
+        public long timeNanos;
+        /** 记录类型，KIND_*常量之一 */
+        public int kind;
+        /** 摇杆方向的序号 */
+        public int direction;
+        public int angle;
+        public int speed;
+        /** 控制帧序号 */
+        public int sequence;
+    }
+
+    /**
+     * 按写入顺序读取录制文件，遇到文件末尾或未写完的记录时结束
+     */
+    public static final class Reader implements Closeable {
+        private final FileChannel channel;
+        private final long regionBytes;
+        private final long end;
+        private final long startEpochMillis;
+        private MappedByteBuffer region;
+        private long regionStart;
+        private long position = HEADER_SIZE;
+
+        /**
+         * @param file 录制文件
+         * @throws IOException 打开失败或不是录制文件
+         */
+        public Reader(File file) throws IOException {
+            this(file, DEFAULT_REGION_RECORDS);
+        }
+
+        Reader(File file, int regionRecords) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                end = channel.size();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                if (end < HEADER_SIZE || channel.read(header, 0) != HEADER_SIZE) {
+                    throw new IOException("文件过短: " + file);
+                }
+                if (header.getInt(0) != MAGIC) {
+                    throw new IOException("不是录制文件: " + file);
+                }
+                if (header.getShort(4) != VERSION || header.getShort(6) != RECORD_SIZE) {
+                    throw new IOException("不支持的录制版本: " + header.getShort(4));
+                }
+                startEpochMillis = header.getLong(8);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            regionBytes = (long) regionRecords * RECORD_SIZE;
+        }
+
+        /**
+         * 读取下一条记录
+         *
+         * @param record 输出
+         * @return 读到记录返回true，已经读完返回false
+         * @throws IOException 映射失败
+         */
+        public boolean next(Record record) throws IOException {
+            if (position + RECORD_SIZE > end) {
+                return false;
+            }
+            if (region == null || position >= regionStart + regionBytes) {
+                regionStart = position;
+                long size = Math.min(regionBytes, end - regionStart);
+                region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, size);
+                region.order(ByteOrder.LITTLE_ENDIAN);
+            }
+            int offset = (int) (position - regionStart);
+            int kind = region.get(offset + 8);
+            if (kind == 0) {
+                return false;
+            }
+            record.timeNanos = region.getLong(offset);
+            record.kind = kind;
+            record.direction = region.get(offset + 9);
+            record.angle = region.getShort(offset + 10);
+            record.speed = region.getShort(offset + 12);
+            record.sequence = region.getInt(offset + 16);
+            position += RECORD_SIZE;
+            return true;
+        }
+
+        /** @return 开始录制的系统时间（毫秒） */
+        public long getStartEpochMillis() {
+            return startEpochMillis;
+        }
+
+        @Override
+        public void close() throws IOException {
+            region = null;
+            channel.close();
+        }
+    }
+}
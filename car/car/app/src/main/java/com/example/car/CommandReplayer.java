@@ -0,0 +1,150 @@
+package com.example.car;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 按原始时间间隔回放录制文件中的一种记录
+ * 每条记录在 开始时间 + (记录时间 - 第一条记录时间) / 倍速 时交给Sink，按绝对时间点等待，误差不会逐条累积；
+ * 回放线程落后时不跳过记录，只统计迟到的时间
+ *
+ * 录制文件边读边回放，不整体读入内存
+ */
+public class CommandReplayer implements Runnable {
+
+    /**
+     * 回放的目标，在回放线程中调用
+     */
+    public interface Sink {
+        /**
+         * @param record 到期的记录，只在回调期间有效
+         */
+        void onRecord(CommandRecording.Record record);
+
+        /**
+         * 回放结束（读完、出错或被停止）
+         */
+        default void onFinished() {
+        }
+    }
+
+    private final File file;
+    private final int kind;
+    private final double speedFactor;
+    private final Sink sink;
+
+    private volatile boolean running;
+    private volatile boolean finished;
+    private Thread thread;
+
+    // 统计数据，只由回放线程修改
+    private volatile long replayedCount;
+    private volatile long maxLatenessNanos;
+    private volatile long totalLatenessNanos;
+
+    /**
+     * @param file        录制文件
+     * @param kind        回放的记录类型，CommandRecording.KIND_*
+     * @param speedFactor 倍速，1为原速，2为两倍速
+     * @param sink        回放目标
+     */
+    public CommandReplayer(File file, int kind, double speedFactor, Sink sink) {
+        if (!(speedFactor > 0)) {
+            throw new IllegalArgumentException("speedFactor: " + speedFactor);
+        }
+        this.file = file;
+        this.kind = kind;
+        this.speedFactor = speedFactor;
+        this.sink = sink;
+    }
+
+    /**
+     * 启动回放线程
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        finished = false;
+        thread = new Thread(this, "command-replay");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * 停止回放
+     */
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        CommandRecording.Record record = new CommandRecording.Record();
+        try (CommandRecording.Reader reader = new CommandRecording.Reader(file)) {
+            long startNanos = 0;
+            long firstRecordNanos = -1;
+            while (running && reader.next(record)) {
+                if (record.kind != kind) {
+                    continue;
+                }
+                if (firstRecordNanos < 0) {
+                    firstRecordNanos = record.timeNanos;
+                    startNanos = System.nanoTime();
+                }
+                long due = startNanos + (long) ((record.timeNanos - firstRecordNanos) / speedFactor);
+                long now;
+                while ((now = System.nanoTime()) - due < 0) {
+                    LockSupport.parkNanos(due - now);
+                    if (!running) {
+                        return;
+                    }
+                }
+                sink.onRecord(record);
+                long lateness = now - due;
+                totalLatenessNanos += lateness;
+                if (lateness > maxLatenessNanos) {
+                    maxLatenessNanos = lateness;
+                }
+                replayedCount++;
+            }
+        } catch (IOException e) {
+            // 文件损坏或被删除时结束回放，已回放的记录仍然有效
+        } finally {
+            finished = true;
+            sink.onFinished();
+        }
+    }
+
+    /** @return 回放是否已经结束（读完、出错或被停止） */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /** @return 已回放的记录数 */
+    public long getReplayedCount() {
+        return replayedCount;
+    }
+
+    /** @return 最大迟到时间（纳秒） */
+    public long getMaxLatenessNanos() {
+        return maxLatenessNanos;
+    }
+
+    /** @return 平均迟到时间（纳秒） */
+    public long getMeanLatenessNanos() {
+        long count = replayedCount;
+        return count == 0 ? 0 : totalLatenessNanos / count;
+    }
+}
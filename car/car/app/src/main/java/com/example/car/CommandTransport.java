@@ -0,0 +1,49 @@
+package com.example.car;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 控制帧传输通道
+ * 客户端可以在可靠的TCP和低延迟的UDP之间选择
+ */
+public interface CommandTransport {
+    /**
+     * 连接到服务器
+     *
+     * @param host 服务器地址
+     * @param port 服务器端口
+     * @throws IOException 连接失败
+     */
+    void open(String host, int port) throws IOException;
+
+    /**
+     * 发送一帧数据，发送缓冲区中position到limit之间的内容
+     *
+     * @param frame 已编码的控制帧
+     * @throws IOException 发送失败
+     */
+    void send(ByteBuffer frame) throws IOException;
+
+    /**
+     * 接收服务端发来的数据（如PONG帧），写入缓冲区position到limit之间
+     * 阻塞直到收到数据、读取超时或通道关闭，由专门的接收线程调用
+     *
+     * @param dst 接收缓冲区
+     * @return 读到的字节数，读取超时返回0，对端关闭返回-1
+     * @throws IOException 接收失败，或通道在阻塞期间被关闭
+     */
+    int receive(ByteBuffer dst) throws IOException;
+
+    /**
+     * @return 通道是否处于可发送状态
+     */
+    boolean isOpen();
+
+    /**
+     * 关闭通道
+     *
+     * @throws IOException 关闭失败
+     */
+    void close() throws IOException;
+}
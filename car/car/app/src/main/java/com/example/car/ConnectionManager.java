@@ -0,0 +1,397 @@
+package com.example.car;
+
+import com.example.carcommon.LatencyHistogram;
+import com.example.carcommon.TraceEvent;
+import com.example.carcommon.TraceRing;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 客户端连接状态机
+ * <pre>
+ *  DISCONNECTED --connect()--> CONNECTING --成功--> CONNECTED
+ *                                  |                    |
+ *                                失败             发送失败/对端关闭
+ *                                  v                    v
+ *                               BACKOFF <--失败-- CONNECTING（立即重试一次）
+ *                                  |
+ *                         等待退避时间后重试，间隔从initialBackoff起每次加倍，不超过maxBackoff
+ * </pre>
+ * 任何状态下调用disconnect()都回到DISCONNECTED
+ *
+ * 建立和关闭连接都在专用的连接线程中进行，connect()、disconnect()和onConnectionLost()只修改状态并唤醒该线程，
+ * 不会阻塞界面线程或控制循环线程；发送方通过getTransport()取得当前连接，未连接时为null，此时直接丢弃本帧
+ *
+ * 每次断线到重新连上的时间记录在直方图中，由连接线程单独写入
+ */
+public class ConnectionManager implements Runnable {
+    /** 状态：未连接，也不尝试连接 */
+    public static final int STATE_DISCONNECTED = 0;
+    /** 状态：正在建立连接 */
+    public static final int STATE_CONNECTING = 1;
+    /** 状态：已连接，可以发送 */
+    public static final int STATE_CONNECTED = 2;
+    /** 状态：连接失败，等待退避时间后重试 */
+    public static final int STATE_BACKOFF = 3;
+
+    /** 默认的首次重试间隔（毫秒） */
+    public static final long DEFAULT_INITIAL_BACKOFF_MS = 100;
+    /** 默认的最长重试间隔（毫秒） */
+    public static final long DEFAULT_MAX_BACKOFF_MS = 5000;
+
+    /**
+     * 按协议创建传输通道
+     */
+    public interface TransportFactory {
+        CommandTransport create(boolean udp);
+    }
+
+    /**
+     * 连接事件，都在连接线程中回调
+     */
+    public interface Listener {
+        /**
+         * 通道已打开，即将进入CONNECTED状态，用于初始化每个连接的状态（如启动反馈接收线程）
+         *
+         * @param transport 新打开的通道
+         * @throws IOException 初始化失败，按连接失败处理
+         */
+        void onConnected(CommandTransport transport) throws IOException;
+
+        /**
+         * 通道即将关闭，此时已不再是当前连接，发送方不会再取到它
+         *
+         * @param transport 即将关闭的通道
+         * @param requested 是否为主动断开（disconnect、切换目标或stop）；为false表示连接已经中断，不应再向它发送
+         */
+        void onClosing(CommandTransport transport, boolean requested);
+
+        /**
+         * 通道已关闭，用于回收每个连接的资源
+         *
+         * @param transport 已关闭的通道
+         */
+        void onClosed(CommandTransport transport);
+
+        /**
+         * 状态变化
+         *
+         * @param state STATE_*常量之一
+         * @param cause 进入BACKOFF状态时为连接失败的原因，其余为null
+         */
+        void onStateChanged(int state, IOException cause);
+    }
+
+    private final TransportFactory factory;
+    private final Listener listener;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+
+    // 以下字段由this保护
+    private boolean wantConnected;
+    private String host;
+    private int port;
+    private boolean udp;
+    private int generation;
+    private boolean lost;
+    private long nextAttemptNanos;
+    private int failedAttempts;
+    private long lostAtNanos;
+
+    // 当前连接及其对应的目标版本，只由连接线程在持有this时修改
+    private volatile CommandTransport transport;
+    private int transportGeneration;
+
+    private volatile int state = STATE_DISCONNECTED;
+    private volatile boolean running;
+    private Thread thread;
+
+    // 统计数据，只由连接线程修改
+    private final LatencyHistogram reconnectTime = new LatencyHistogram("reconnect");
+    private volatile long attemptCount;
+    private volatile long failureCount;
+    private volatile long lostCount;
+    private volatile long lastReconnectNanos;
+
+    /**
+     * @param listener 连接事件
+     */
+    public ConnectionManager(Listener listener) {
+        this(udp -> udp ? new UdpCommandTransport() : new TcpCommandTransport(),
+                DEFAULT_INITIAL_BACKOFF_MS, DEFAULT_MAX_BACKOFF_MS, listener);
+    }
+
+    /**
+     * @param factory              传输通道工厂，测试时可以替换
+     * @param initialBackoffMillis 首次重试间隔（毫秒）
+     * @param maxBackoffMillis     最长重试间隔（毫秒）
+     * @param listener             连接事件
+     */
+    ConnectionManager(TransportFactory factory, long initialBackoffMillis, long maxBackoffMillis,
+                      Listener listener) {
+        if (initialBackoffMillis <= 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("backoff: " + initialBackoffMillis + ", " + maxBackoffMillis);
+        }
+        this.factory = factory;
+        this.listener = listener;
+        this.initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(initialBackoffMillis);
+        this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis);
+    }
+
+    /**
+     * 启动连接线程
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "connection");
+        thread.start();
+    }
+
+    /**
+     * 停止连接线程，当前连接按主动断开处理
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            wantConnected = false;
+            notifyAll();
+            t = thread;
+            thread = null;
+        }
+        if (t != null) {
+            try {
+                t.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 开始连接到指定的服务器，断线后自动重连，直到调用disconnect
+     * 已连接到其他目标时先断开
+     *
+     * @param host 服务器地址
+     * @param port 服务器端口
+     * @param udp  使用UDP，否则使用TCP
+     */
+    public synchronized void connect(String host, int port, boolean udp) {
+        this.host = host;
+        this.port = port;
+        this.udp = udp;
+        generation++;
+        wantConnected = true;
+        lost = false;
+        failedAttempts = 0;
+        lostAtNanos = 0;
+        nextAttemptNanos = System.nanoTime();
+        notifyAll();
+    }
+
+    /**
+     * 断开连接并停止重连
+     */
+    public synchronized void disconnect() {
+        wantConnected = false;
+        notifyAll();
+    }
+
+    /**
+     * 报告连接已经中断（发送失败或对端关闭），可以在任意线程调用，立即返回
+     * 不是当前连接时忽略，如重连后旧连接的接收线程才报告的错误
+     *
+     * @param failed 出错的通道
+     */
+    public synchronized void onConnectionLost(CommandTransport failed) {
+        if (failed != null && failed == transport && !lost) {
+            lost = true;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            CommandTransport closing = null;
+            boolean requested = false;
+            boolean attempt = false;
+            String targetHost = null;
+            int targetPort = 0;
+            boolean targetUdp = false;
+            int targetGeneration = 0;
+            synchronized (this) {
+                while (true) {
+                    CommandTransport current = transport;
+                    if (current != null
+                            && (!running || !wantConnected || lost || transportGeneration != generation)) {
+                        closing = current;
+                        requested = !lost || !wantConnected || !running;
+                        transport = null;
+                        if (lost && wantConnected && running) {
+                            // 断线后立即重试一次，失败后再进入退避
+                            lostAtNanos = System.nanoTime();
+                            nextAttemptNanos = lostAtNanos;
+                            failedAttempts = 0;
+                            lostCount++;
+                        }
+                        lost = false;
+                        break;
+                    }
+                    if (!running) {
+                        break;
+                    }
+                    if (current == null && wantConnected) {
+                        long wait = nextAttemptNanos - System.nanoTime();
+                        if (wait <= 0) {
+                            attempt = true;
+                            targetHost = host;
+                            targetPort = port;
+                            targetUdp = udp;
+                            targetGeneration = generation;
+                            break;
+                        }
+                        setState(failedAttempts > 0 ? STATE_BACKOFF : STATE_CONNECTING, null);
+                        waitNanos(wait);
+                    } else {
+                        setState(current != null ? STATE_CONNECTED : STATE_DISCONNECTED, null);
+                        waitNanos(0);
+                    }
+                }
+            }
+
+            if (closing != null) {
+                close(closing, requested);
+            } else if (attempt) {
+                open(targetHost, targetPort, targetUdp, targetGeneration);
+            } else {
+                break;
+            }
+        }
+        setState(STATE_DISCONNECTED, null);
+    }
+
+    /**
+     * 打开一个新连接，在连接线程中不持有锁调用，open可能阻塞到连接超时
+     */
+    private void open(String host, int port, boolean udp, int targetGeneration) {
+        setState(STATE_CONNECTING, null);
+        attemptCount++;
+        CommandTransport opened = factory.create(udp);
+        try {
+            opened.open(host, port);
+            listener.onConnected(opened);
+        } catch (IOException e) {
+            failureCount++;
+            closeQuietly(opened);
+            synchronized (this) {
+                failedAttempts++;
+                long backoff = Math.min(initialBackoffNanos << Math.min(failedAttempts - 1, 30), maxBackoffNanos);
+                nextAttemptNanos = System.nanoTime() + backoff;
+            }
+            setState(STATE_BACKOFF, e);
+            return;
+        }
+
+        boolean accepted;
+        synchronized (this) {
+            // 打开期间目标改变或已经断开：放弃这个连接
+            accepted = running && wantConnected && targetGeneration == generation;
+            if (accepted) {
+                transport = opened;
+                transportGeneration = targetGeneration;
+                failedAttempts = 0;
+                if (lostAtNanos != 0) {
+                    lastReconnectNanos = System.nanoTime() - lostAtNanos;
+                    reconnectTime.record(lastReconnectNanos);
+                    lostAtNanos = 0;
+                }
+            }
+        }
+        if (accepted) {
+            setState(STATE_CONNECTED, null);
+        } else {
+            close(opened, true);
+        }
+    }
+
+    private void close(CommandTransport closing, boolean requested) {
+        listener.onClosing(closing, requested);
+        closeQuietly(closing);
+        listener.onClosed(closing);
+    }
+
+    private static void closeQuietly(CommandTransport transport) {
+        try {
+            transport.close();
+        } catch (IOException e) {
+            // 关闭失败时通道已不可用，无需处理
+        }
+    }
+
+    private void setState(int newState, IOException cause) {
+        if (state == newState && cause == null) {
+            return;
+        }
+        state = newState;
+        TraceRing.GLOBAL.record(TraceRing.LEVEL_INFO, TraceEvent.CONNECTION, newState, (int) failureCount);
+        listener.onStateChanged(newState, cause);
+    }
+
+    private void waitNanos(long nanos) {
+        try {
+            if (nanos > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, nanos);
+            } else {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    /** @return 当前连接，未连接时为null */
+    public CommandTransport getTransport() {
+        return transport;
+    }
+
+    /** @return 当前状态，STATE_*常量之一 */
+    public int getState() {
+        return state;
+    }
+
+    /** @return 是否处于连接或重连过程中（即调用了connect且还没有disconnect） */
+    public synchronized boolean isActive() {
+        return wantConnected;
+    }
+
+    /** @return 断线到重新连上的时间分布 */
+    public LatencyHistogram getReconnectTime() {
+        return reconnectTime;
+    }
+
+    /** @return 最近一次断线到重新连上的时间（纳秒） */
+    public long getLastReconnectNanos() {
+        return lastReconnectNanos;
+    }
+
+    /** @return 尝试连接的次数 */
+    public long getAttemptCount() {
+        return attemptCount;
+    }
+
+    /** @return 连接失败的次数 */
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /** @return 连接中断的次数 */
+    public long getLostCount() {
+        return lostCount;
+    }
+}
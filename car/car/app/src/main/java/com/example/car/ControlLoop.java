@@ -0,0 +1,214 @@
+package com.example.car;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 固定频率的控制发送循环
+ * 触摸回调只把最新的摇杆状态写入一个无锁的槽位，由一个长期运行的线程按固定频率采样并发送
+ * 这样不会因为节流而丢掉松手前的最后一个位置，也不需要每次松手都新建线程
+ *
+ * 槽位是一个long：高32位为写入版本号，中间16位为角度，低16位为速度
+ * 采样时比较版本号即可知道两次发送之间有多少次写入被合并
+ *
+ * 每次写入还可以带上触摸事件的时间，随状态变化后的第一次发送交给FrameSink，用于统计触摸到发送的延迟；
+ * 该时间与槽位分开写入，采样时可能读到更新一次写入的时间，误差不超过两次触摸事件的间隔
+ */
+public class ControlLoop implements Runnable {
+
+    /**
+     * 控制帧发送接口，在控制循环线程中调用
+     */
+    public interface FrameSink {
+        /**
+         * 发送一条控制指令
+         *
+         * @param angle       角度
+         * @param speed       速度
+         * @param originNanos 状态变化后第一次发送时为触摸事件时间（System.nanoTime时钟），重复发送时为0
+         * @return 实际发送返回true，未连接等原因没有发送返回false
+         */
+        boolean send(int angle, int speed, long originNanos);
+    }
+
+    /** 允许配置的最低频率 */
+    public static final int MIN_RATE_HZ = 1;
+    /** 允许配置的最高频率 */
+    public static final int MAX_RATE_HZ = 1000;
+
+    private final FrameSink sink;
+    private final AtomicLong slot = new AtomicLong();
+    // 写入版本号，只由写入线程（UI线程）修改
+    private int writeVersion;
+    // 上次采样到的版本号，只在控制循环线程中访问
+    private int sampledVersion;
+    // 最新一次写入的触摸事件时间，在写入槽位之前更新
+    private volatile long originNanos;
+
+    private volatile long periodNanos;
+    private volatile boolean running;
+    private Thread thread;
+
+    // 统计计数，只由控制循环线程修改
+    private volatile long sentCount;
+    private volatile long droppedCount;
+    private volatile long coalescedCount;
+    private volatile long lateCount;
+
+    /**
+     * @param rateHz 发送频率（次/秒）
+     * @param sink   控制帧发送接口
+     */
+    public ControlLoop(int rateHz, FrameSink sink) {
+        this.sink = sink;
+        setRateHz(rateHz);
+    }
+
+    /**
+     * 修改发送频率，下一个周期生效
+     *
+     * @param rateHz 发送频率（次/秒），范围MIN_RATE_HZ到MAX_RATE_HZ
+     */
+    public void setRateHz(int rateHz) {
+        if (rateHz < MIN_RATE_HZ || rateHz > MAX_RATE_HZ) {
+            throw new IllegalArgumentException("rateHz: " + rateHz);
+        }
+        periodNanos = TimeUnit.SECONDS.toNanos(1) / rateHz;
+    }
+
+    /**
+     * @return 当前发送频率（次/秒）
+     */
+    public int getRateHz() {
+        return (int) (TimeUnit.SECONDS.toNanos(1) / periodNanos);
+    }
+
+    /**
+     * 写入最新的摇杆状态，只覆盖槽位，不做任何阻塞操作
+     * 只允许单个线程（UI线程）调用
+     *
+     * @param angle 角度，0-360
+     * @param speed 速度，0-100
+     */
+    public void update(int angle, int speed) {
+        update(angle, speed, 0);
+    }
+
+    /**
+     * 写入最新的摇杆状态及其触摸事件时间，只覆盖槽位，不做任何阻塞操作
+     * 只允许单个线程（UI线程）调用
+     *
+     * @param angle       角度，0-360
+     * @param speed       速度，0-100
+     * @param originNanos 触摸事件时间（System.nanoTime时钟），0表示未知
+     */
+    public void update(int angle, int speed, long originNanos) {
+        this.originNanos = originNanos;
+        slot.lazySet(((long) ++writeVersion << 32)
+                | ((angle & 0xFFFFL) << 16)
+                | (speed & 0xFFFFL));
+    }
+
+    /**
+     * 启动控制循环线程
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "control-loop");
+        // 控制指令的发送时机比普通后台任务更重要
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * 停止控制循环线程
+     */
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        long deadline = System.nanoTime();
+        while (running) {
+            long period = periodNanos;
+            deadline += period;
+
+            // 按绝对时间点等待，避免误差逐周期累积
+            long now;
+            while ((now = System.nanoTime()) - deadline < 0) {
+                LockSupport.parkNanos(deadline - now);
+                if (!running) {
+                    return;
+                }
+            }
+
+            // 超过四分之一周期算作迟到；落后超过一整个周期时放弃补发，从当前时间重新对齐
+            long lateness = now - deadline;
+            if (lateness > period / 4) {
+                lateCount++;
+                if (lateness >= period) {
+                    deadline = now;
+                }
+            }
+
+            tick();
+        }
+    }
+
+    /**
+     * 采样一次槽位并发送
+     */
+    void tick() {
+        long value = slot.get();
+        int version = (int) (value >>> 32);
+        int writes = version - sampledVersion;
+        if (writes > 1) {
+            coalescedCount += writes - 1;
+        }
+        sampledVersion = version;
+        long origin = writes != 0 ? originNanos : 0;
+
+        int angle = (short) (value >>> 16);
+        int speed = (short) value;
+        if (sink.send(angle, speed, origin)) {
+            sentCount++;
+        } else {
+            // 未连接时丢弃本次发送，槽位中始终是最新状态，恢复连接后的第一次发送即为最新状态
+            droppedCount++;
+        }
+    }
+
+    /** @return 已发送的帧数 */
+    public long getSentCount() {
+        return sentCount;
+    }
+
+    /** @return 未连接等原因没有发送的周期数 */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /** @return 两次发送之间被新状态覆盖、没有单独发送的更新次数 */
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /** @return 未能按时发送的周期数 */
+    public long getLateCount() {
+        return lateCount;
+    }
+}
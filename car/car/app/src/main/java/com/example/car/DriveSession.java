@@ -0,0 +1,657 @@
+package com.example.car;
+
+import android.content.Intent;
+import android.util.Log;
+
+import androidx.lifecycle.ViewModel;
+
+import com.example.carcommon.AndroidTrace;
+import com.example.carcommon.ClockSync;
+import com.example.carcommon.ControlFrame;
+import com.example.carcommon.DiscoveryMessage;
+import com.example.carcommon.LatencyHistogram;
+import com.example.carcommon.TraceEvent;
+import com.example.carcommon.TraceRing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 驾驶会话：连接状态机、控制发送循环、时钟同步、录制回放和车队模式，与活动的生命周期无关
+ * 旋转屏幕或分屏调整大小时活动重建，会话保持不变：连接不断开，控制循环不停止，新的活动重新绑定界面即可；
+ * 只有活动真正结束（onCleared）时才发送停止指令并关闭连接
+ *
+ * 会话不持有活动及其视图，所有界面更新都经过Ui接口，活动销毁到重建之间的界面事件直接丢弃
+ */
+public class DriveSession extends ViewModel {
+    /**
+     * 会话的界面事件，都在后台线程中回调，实现需要自行切换到主线程
+     */
+    public interface Ui {
+        /**
+         * 显示一条提示
+         *
+         * @param text 提示文本
+         */
+        void showMessage(String text);
+
+        /**
+         * 连接状态变化，绑定时也会回调一次当前状态
+         *
+         * @param state ConnectionManager.STATE_*常量之一
+         */
+        void onConnectionStateChanged(int state);
+
+        /**
+         * 回放了一次摇杆事件，用于更新状态显示
+         *
+         * @param direction 方向
+         * @param speed     速度
+         * @param angle     角度
+         */
+        void onReplayedJoystick(JoystickView.Direction direction, int speed, int angle);
+
+        /**
+         * 发现了要自动连接的小车，用于填入地址栏
+         *
+         * @param car 选中的小车
+         */
+        void onCarSelected(CarDiscovery.Result car);
+    }
+
+    // 当前绑定的界面，活动重建期间为null
+    private volatile Ui ui;
+
+    // 网络连接：连接状态机在自己的线程中建立连接和断线重连，发送方只取当前连接，从不等待
+    private final ConnectionManager connectionManager = new ConnectionManager(new ConnectionEvents());
+    // 只由连接线程访问
+    private FeedbackReceiver feedbackReceiver;
+    private volatile int connectionState = ConnectionManager.STATE_DISCONNECTED;
+
+    // 复用的发送缓冲区和帧序号，在sendLock保护下访问
+    // 控制循环线程逐帧发送，连接线程只在建立连接和主动断开时短暂持有，不会在锁内等待连接
+    private final ByteBuffer txFrame = ByteBuffer.allocate(ControlFrame.SIZE);
+    private int txSequence;
+    private final Object sendLock = new Object();
+
+    // 发现探测和导出等后台任务
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    // 控制发送循环，频率由服务端确认驱动的频率控制在MIN到MAX之间调整，每次连接从CONTROL_RATE_HZ开始；
+    // 最低频率受服务端看门狗约束：拥塞退到最低频率时丢失一帧也不能超过停车期限（150毫秒时为20Hz）
+    private static final int CONTROL_RATE_HZ = 50;
+    private static final int MIN_CONTROL_RATE_HZ = RateController.minRateHzFor(ControlFrame.DEADMAN_DEADLINE_MS);
+    private static final int MAX_CONTROL_RATE_HZ = 100;
+    private static final long RATE_WINDOW_NANOS = 500_000_000L;
+    private final ControlLoop controlLoop = new ControlLoop(CONTROL_RATE_HZ, this::sendData);
+    private final RateController rateController = new RateController(
+            MIN_CONTROL_RATE_HZ, MAX_CONTROL_RATE_HZ, CONTROL_RATE_HZ, RATE_WINDOW_NANOS);
+
+    // 时钟偏差估计：每秒发送一次PING，由反馈接收线程更新估计，估计变化后通过CLOCK帧上报服务端，
+    // 服务端据此统计发送到接收的延迟。以下字段除clockSync外都在sendLock保护下访问
+    private static final long PING_INTERVAL_NANOS = 1_000_000_000L;
+    private final ClockSync clockSync = new ClockSync();
+    private long lastPingNanos;
+    private int reportedClockVersion;
+
+    // 会话录制与回放，由启动Intent的参数打开：
+    // adb shell am start -n com.example.car/.MainActivity --ez record true
+    // adb shell am start -n com.example.car/.MainActivity --es replay <文件> --ef replaySpeed 2
+    // 录制文件位于应用外部存储目录的recordings下；回放在第一次连上服务器后开始，回放期间忽略触摸输入
+    private static final String EXTRA_RECORD = "record";
+    private static final String EXTRA_REPLAY = "replay";
+    private static final String EXTRA_REPLAY_SPEED = "replaySpeed";
+    private volatile CommandRecorder recorder;
+    private CommandReplayer replayer;
+    private volatile boolean replaying;
+
+    // 车队模式，由启动Intent的参数打开，此时摇杆指令分发给选中的小车，不使用上面的单一连接：
+    // adb shell am start -n com.example.car/.MainActivity \
+    //     --es fleet "front1@192.168.1.10:8080/front,front2@192.168.1.11:8080/front,rear@192.168.1.20:8080" \
+    //     --es fleetSelect front
+    private static final String EXTRA_FLEET = "fleet";
+    private static final String EXTRA_FLEET_SELECT = "fleetSelect";
+    private volatile FleetManager fleet;
+
+    // 启动时广播一次发现探测，自动填入并连接往返时间最小的小车；
+    // 启动到第一条控制帧发出的时间（包括发现和建立连接）只由控制循环线程写入
+    private boolean started;
+    private long startupNanos;
+    private volatile long discoveryNanos;
+    private volatile long firstCommandNanos;
+
+    // 本地的触摸到发送延迟，只由控制循环线程记录；完整的各阶段统计在服务端
+    private final LatencyHistogram touchToSend = new LatencyHistogram("touch→send");
+
+    /**
+     * 第一次创建活动时启动会话，活动重建时再次调用直接返回
+     * 在主线程中调用
+     *
+     * @param intent   启动活动的Intent，读取录制、回放和车队模式的参数
+     * @param filesDir 应用外部存储目录，录制文件写入其下的recordings
+     * @param udp      自动连接发现的小车时是否使用UDP模式
+     */
+    public void start(Intent intent, File filesDir, boolean udp) {
+        if (started) {
+            return;
+        }
+        started = true;
+        startupNanos = System.nanoTime();
+        connectionManager.start(); // 启动连接线程，点击连接按钮后才开始连接
+        controlLoop.start(); // 启动控制发送循环
+        setupRecording(intent, filesDir); // 按启动参数打开会话录制或准备回放
+        setupFleet(intent); // 按启动参数打开车队模式
+        discoverCars(udp); // 在后台发现局域网中的小车
+    }
+
+    /**
+     * 绑定界面，立即回调一次当前的连接状态
+     * 在主线程中调用
+     *
+     * @param ui 界面
+     */
+    public void attach(Ui ui) {
+        this.ui = ui;
+        ui.onConnectionStateChanged(connectionState);
+    }
+
+    /**
+     * 解除绑定，之后的界面事件丢弃，在活动销毁时调用
+     *
+     * @param ui 之前绑定的界面
+     */
+    public void detach(Ui ui) {
+        if (this.ui == ui) {
+            this.ui = null;
+        }
+    }
+
+    /**
+     * 开始连接，立即返回
+     *
+     * @param host 服务端地址
+     * @param port 服务端端口
+     * @param udp  是否使用UDP低延迟模式
+     */
+    public void connect(String host, int port, boolean udp) {
+        connectionManager.connect(host, port, udp);
+    }
+
+    /**
+     * 断开连接并停止重连
+     */
+    public void disconnect() {
+        connectionManager.disconnect();
+    }
+
+    /** @return 是否已经连接、正在连接或等待重连 */
+    public boolean isConnectionActive() {
+        return connectionManager.isActive();
+    }
+
+    /**
+     * 写入一次摇杆状态，在主线程中调用
+     * 先记录到录制文件；回放期间忽略触摸输入
+     *
+     * @param direction  方向
+     * @param angle      角度
+     * @param speed      速度
+     * @param touchNanos 触摸事件时间
+     * @return 写入了控制循环返回true，回放期间返回false
+     */
+    public boolean onJoystick(JoystickView.Direction direction, int angle, int speed, long touchNanos) {
+        CommandRecorder r = recorder;
+        if (r != null) {
+            r.recordJoystick(direction.ordinal(), angle, speed);
+        }
+        // 回放期间控制状态只由回放线程写入
+        if (replaying) {
+            return false;
+        }
+        // 停止状态下发送0, 0
+        if (direction == JoystickView.Direction.NONE) {
+            controlLoop.update(0, 0, touchNanos);
+        } else {
+            controlLoop.update(angle, speed, touchNanos);
+        }
+        return true;
+    }
+
+    /**
+     * 按启动Intent的参数打开会话录制，或准备回放录制文件
+     */
+    private void setupRecording(Intent intent, File filesDir) {
+        if (intent.getBooleanExtra(EXTRA_RECORD, false)) {
+            File dir = new File(filesDir, "recordings");
+            File file = new File(dir, "session-" + System.currentTimeMillis() + ".crec");
+            try {
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    throw new IOException("无法创建目录: " + dir);
+                }
+                recorder = new CommandRecorder(file);
+                showMessage("录制到: " + file.getPath());
+            } catch (IOException e) {
+                showMessage("无法录制: " + e.getMessage());
+            }
+        }
+        String replayPath = intent.getStringExtra(EXTRA_REPLAY);
+        if (replayPath != null) {
+            float speedFactor = intent.getFloatExtra(EXTRA_REPLAY_SPEED, 1f);
+            replayer = new CommandReplayer(new File(replayPath), CommandRecording.KIND_JOYSTICK, speedFactor,
+                    new CommandReplayer.Sink() {
+                        @Override
+                        public void onRecord(CommandRecording.Record record) {
+                            replayJoystick(record);
+                        }
+
+                        @Override
+                        public void onFinished() {
+                            // 回放结束后恢复触摸控制
+                            replaying = false;
+                            showMessage("回放结束");
+                        }
+                    });
+        }
+    }
+
+    /**
+     * 按启动Intent的参数打开车队模式，立即开始连接所有小车
+     */
+    private void setupFleet(Intent intent) {
+        String spec = intent.getStringExtra(EXTRA_FLEET);
+        if (spec == null) {
+            return;
+        }
+        FleetManager f = new FleetManager();
+        try {
+            f.addCars(spec);
+            String target = intent.getStringExtra(EXTRA_FLEET_SELECT);
+            if (target != null && f.select(target) == 0) {
+                showMessage("没有匹配的小车: " + target);
+            }
+            f.start();
+        } catch (IllegalArgumentException | IOException e) {
+            f.stop();
+            showMessage("车队模式无法启动: " + e.getMessage());
+            return;
+        }
+        fleet = f;
+        showMessage("车队模式: " + f.getSelectedCount() + "/" + f.getCars().size() + "辆");
+    }
+
+    /**
+     * 在后台线程中广播一次发现探测，立即连接往返时间最小的小车
+     * 用户已经点击连接或处于车队模式时只提示结果，不自动连接
+     *
+     * @param udp 是否使用UDP模式连接
+     */
+    private void discoverCars(boolean udp) {
+        if (fleet != null) {
+            return;
+        }
+        executor.execute(() -> {
+            long start = System.nanoTime();
+            List<CarDiscovery.Result> results;
+            try {
+                results = new CarDiscovery().discover(CarDiscovery.DEFAULT_WINDOW_MS);
+            } catch (IOException e) {
+                Log.w("Network", "发现探测失败: " + e.getMessage());
+                return;
+            }
+            discoveryNanos = System.nanoTime() - start;
+            onCarsDiscovered(results, udp);
+        });
+    }
+
+    /**
+     * 处理发现的结果，在后台线程中调用
+     *
+     * @param results 按往返时间排列的小车
+     * @param udp     是否使用UDP模式连接
+     */
+    private void onCarsDiscovered(List<CarDiscovery.Result> results, boolean udp) {
+        CarDiscovery.Result best = CarDiscovery.best(results,
+                udp ? DiscoveryMessage.CAP_UDP : DiscoveryMessage.CAP_TCP);
+        if (best == null) {
+            showMessage(results.isEmpty() ? "未发现小车，请手动输入IP" : "发现的小车不支持当前模式");
+            return;
+        }
+        StringBuilder text = new StringBuilder("发现").append(results.size()).append("辆小车:");
+        for (CarDiscovery.Result result : results) {
+            LatencyHistogram.appendMillis(text.append('\n').append(result.name).append(' ')
+                    .append(result.host).append(' '), result.rttNanos);
+            if (result.driven) {
+                text.append(" 使用中");
+            }
+        }
+        showMessage(text.toString());
+        if (connectionManager.isActive()) {
+            return;
+        }
+        // 提前建立连接，用户第一次推动摇杆时连接已经就绪
+        Ui u = ui;
+        if (u != null) {
+            u.onCarSelected(best);
+        }
+        connectionManager.connect(best.host, best.port, udp);
+    }
+
+    /**
+     * 回放一次摇杆事件：与触摸时相同，写入控制循环的槽位并更新状态显示，在回放线程中调用
+     *
+     * @param record 录制的摇杆事件
+     */
+    private void replayJoystick(CommandRecording.Record record) {
+        JoystickView.Direction[] directions = JoystickView.Direction.values();
+        if (record.direction < 0 || record.direction >= directions.length) {
+            return;
+        }
+        JoystickView.Direction direction = directions[record.direction];
+        int angle = record.angle;
+        int speed = record.speed;
+        if (direction == JoystickView.Direction.NONE) {
+            controlLoop.update(0, 0, System.nanoTime());
+        } else {
+            controlLoop.update(angle, speed, System.nanoTime());
+        }
+        Ui u = ui;
+        if (u != null) {
+            u.onReplayedJoystick(direction, speed, angle);
+        }
+    }
+
+    /**
+     * 第一次连上服务器后开始回放，在连接线程中调用
+     */
+    private void startReplayIfPending() {
+        CommandReplayer r = replayer;
+        if (r != null && !replaying) {
+            replaying = true;
+            r.start();
+            showMessage("开始回放");
+        }
+    }
+
+    // region 网络连接管理
+    /**
+     * 连接状态机的回调，都在连接线程中执行
+     */
+    private class ConnectionEvents implements ConnectionManager.Listener {
+        @Override
+        public void onConnected(CommandTransport transport) {
+            // 新连接重新估计时钟偏差和发送频率，第一次发送时立即发出PING
+            synchronized (sendLock) {
+                clockSync.reset();
+                lastPingNanos = 0;
+                rateController.reset();
+                controlLoop.setRateHz(CONTROL_RATE_HZ);
+            }
+            // 对端关闭连接时由接收线程报告断线
+            feedbackReceiver = new FeedbackReceiver(transport, clockSync, rateController,
+                    () -> connectionManager.onConnectionLost(transport));
+            feedbackReceiver.start();
+        }
+
+        @Override
+        public void onClosing(CommandTransport transport, boolean requested) {
+            if (requested) {
+                // 主动断开前让小车停下；连接已经中断时不再向它发送
+                sendStop(transport);
+            } else {
+                showMessage("连接中断，正在重连");
+            }
+        }
+
+        @Override
+        public void onClosed(CommandTransport transport) {
+            // 通道已关闭，阻塞在读取中的接收线程随之退出
+            if (feedbackReceiver != null) {
+                feedbackReceiver.stop();
+                feedbackReceiver = null;
+            }
+        }
+
+        @Override
+        public void onStateChanged(int state, IOException cause) {
+            if (state == ConnectionManager.STATE_CONNECTED) {
+                showMessage("连接成功");
+                startReplayIfPending();
+            } else if (cause != null && connectionState != ConnectionManager.STATE_BACKOFF) {
+                // 只提示第一次失败，退避重试期间不重复提示
+                showMessage("连接失败: " + cause.getMessage() + "，稍后重试");
+            }
+            connectionState = state;
+            Ui u = ui;
+            if (u != null) {
+                u.onConnectionStateChanged(state);
+            }
+        }
+    }
+
+    /**
+     * 发送数据到远程服务器
+     * 该方法由控制循环按固定频率调用，将角度和速度信息编码成二进制控制帧（见ControlFrame），并通过网络发送出去
+     *
+     * 需要时先发送时钟探测和偏差上报帧
+     * 未连接时直接丢弃，不等待重连；发送失败时通知连接状态机，由连接线程关闭并重连
+     *
+     * @param angle       角度信息，表示某个方向或位置
+     * @param speed       速度信息，表示移动的快慢
+     * @param originNanos 触摸事件时间，0表示不是新的触摸状态
+     * @return 实际发送返回true，未连接或发送失败返回false
+     */
+    private boolean sendData(int angle, int speed, long originNanos) {
+        FleetManager f = fleet;
+        if (f != null) {
+            // 车队模式：只写入选中小车的槽位，由车队的I/O线程发送
+            return f.send(angle, speed, originNanos);
+        }
+        CommandTransport transport = connectionManager.getTransport();
+        if (transport == null) {
+            return false;
+        }
+
+        TraceRing.GLOBAL.beginSection(TraceEvent.FRAME_SENT);
+        synchronized (sendLock) {
+            try {
+                sendClockFrames(transport);
+                long now = System.nanoTime();
+                txFrame.clear();
+                ControlFrame.encode(txFrame, ControlFrame.TYPE_CONTROL, ++txSequence,
+                        angle, speed, now, originNanos);
+                txFrame.flip();
+                transport.send(txFrame);
+                CommandRecorder r = recorder;
+                if (r != null) {
+                    r.recordSent(txSequence, angle, speed);
+                }
+                if (originNanos != 0) {
+                    touchToSend.record(now - originNanos);
+                }
+                if (firstCommandNanos == 0) {
+                    firstCommandNanos = now - startupNanos;
+                }
+                // 按服务端确认调整下一个周期的发送频率
+                rateController.onSent(txSequence);
+                int rateHz = rateController.evaluate(now);
+                if (rateHz != controlLoop.getRateHz()) {
+                    controlLoop.setRateHz(rateHz);
+                }
+                // 记录到事件环，不再逐帧输出日志
+                TraceRing.GLOBAL.record(TraceRing.LEVEL_DEBUG, TraceEvent.FRAME_SENT, txSequence, speed);
+                return true;
+            } catch (IOException e) {
+                TraceRing.GLOBAL.record(TraceRing.LEVEL_INFO, TraceEvent.SEND_FAILED, txSequence, 0);
+                connectionManager.onConnectionLost(transport);
+                return false;
+            } finally {
+                TraceRing.GLOBAL.endSection();
+            }
+        }
+    }
+
+    /**
+     * 主动断开前发送一条停止指令，在连接线程中调用
+     *
+     * @param transport 即将关闭的通道
+     */
+    private void sendStop(CommandTransport transport) {
+        synchronized (sendLock) {
+            txFrame.clear();
+            ControlFrame.encode(txFrame, ControlFrame.TYPE_CONTROL, ++txSequence, 0, 0, System.nanoTime());
+            txFrame.flip();
+            try {
+                transport.send(txFrame);
+            } catch (IOException e) {
+                Log.w("Network", "发送停止指令失败: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 每隔PING_INTERVAL_NANOS发送一次PING；偏差估计变化后发送一次CLOCK帧
+     * 在sendLock保护下调用
+     *
+     * @param transport 当前连接
+     * @throws IOException 发送失败
+     */
+    private void sendClockFrames(CommandTransport transport) throws IOException {
+        long now = System.nanoTime();
+        if (lastPingNanos == 0 || now - lastPingNanos >= PING_INTERVAL_NANOS) {
+            lastPingNanos = now;
+            txFrame.clear();
+            ControlFrame.encode(txFrame, ControlFrame.TYPE_PING, ++txSequence, 0, 0, now);
+            txFrame.flip();
+            transport.send(txFrame);
+        }
+        int version = clockSync.getVersion();
+        if (version != reportedClockVersion && clockSync.hasEstimate()) {
+            reportedClockVersion = version;
+            txFrame.clear();
+            ControlFrame.encode(txFrame, ControlFrame.TYPE_CLOCK, ++txSequence, 0, 0,
+                    clockSync.getOffsetNanos(), clockSync.getRttNanos());
+            txFrame.flip();
+            transport.send(txFrame);
+        }
+    }
+    // endregion
+
+    /**
+     * 写入链路状态：发送频率、往返时间和丢帧率，本地的触摸到发送延迟，
+     * 断线重连耗时和未连接时丢弃的发送次数，当前的时钟偏差估计，
+     * 启动到第一条控制帧发出的时间，以及车队模式下各小车的状态
+     *
+     * @param out 输出
+     * @return out
+     */
+    public StringBuilder appendSummary(StringBuilder out) {
+        out.append("发送 ").append(controlLoop.getRateHz()).append("Hz RTT ");
+        LatencyHistogram.appendMillis(out, rateController.getSmoothedRttNanos());
+        out.append(" 丢帧 ").append(Math.round(rateController.getLossRatio() * 100)).append("%\n");
+        touchToSend.appendSummary(out);
+        LatencyHistogram reconnect = connectionManager.getReconnectTime();
+        if (reconnect.getCount() > 0 || controlLoop.getDroppedCount() > 0) {
+            reconnect.appendSummary(out.append('\n'))
+                    .append(" 未连接丢弃 ").append(controlLoop.getDroppedCount());
+        }
+        if (clockSync.hasEstimate()) {
+            LatencyHistogram.appendMillis(out.append("\n偏差 "), clockSync.getOffsetNanos());
+            LatencyHistogram.appendMillis(out.append(" 往返 "), clockSync.getRttNanos());
+        }
+        if (firstCommandNanos != 0) {
+            LatencyHistogram.appendMillis(out.append("\n启动→首条指令 "), firstCommandNanos);
+            if (discoveryNanos != 0) {
+                LatencyHistogram.appendMillis(out.append(" 发现 "), discoveryNanos);
+            }
+        }
+        FleetManager f = fleet;
+        if (f != null) {
+            f.appendSummary(out.append('\n'), System.nanoTime());
+        }
+        return out;
+    }
+
+    /**
+     * 把事件环中保留的事件和延迟直方图输出到logcat，
+     * 并分别写入应用外部存储目录下的trace.txt和latency.txt
+     * 文件写入在后台线程中进行
+     *
+     * @param dir 应用外部存储目录
+     */
+    public void dumpTrace(File dir) {
+        int count = AndroidTrace.dumpToLogcat(TraceRing.GLOBAL);
+        touchToSend.export(line -> Log.i(AndroidTrace.TAG, line));
+        connectionManager.getReconnectTime().export(line -> Log.i(AndroidTrace.TAG, line));
+        File file = new File(dir, "trace.txt");
+        executor.execute(() -> {
+            try {
+                AndroidTrace.dumpToFile(TraceRing.GLOBAL, file);
+                AndroidTrace.writeToFile(printer -> {
+                    touchToSend.export(printer);
+                    connectionManager.getReconnectTime().export(printer);
+                }, new File(dir, "latency.txt"));
+                showMessage("已导出" + count + "条事件: " + file.getPath());
+            } catch (IOException e) {
+                showMessage("导出失败: " + e.getMessage());
+            }
+        });
+    }
+
+    /** @return 连接状态机，用于测试 */
+    ConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    /** @return 控制发送循环，用于测试 */
+    ControlLoop getControlLoop() {
+        return controlLoop;
+    }
+
+    /**
+     * 关闭会话录制，之后的事件不再记录
+     */
+    private void closeRecorder() {
+        CommandRecorder r = recorder;
+        recorder = null;
+        if (r != null) {
+            try {
+                r.close();
+            } catch (IOException e) {
+                Log.e("Record", "关闭录制文件失败", e);
+            }
+        }
+    }
+
+    private void showMessage(String text) {
+        Ui u = ui;
+        if (u != null) {
+            u.showMessage(text);
+        }
+    }
+
+    /**
+     * 活动真正结束（不是配置变化引起的重建）时释放所有资源
+     */
+    @Override
+    protected void onCleared() {
+        // 停止回放和控制发送循环
+        if (replayer != null) {
+            replayer.stop();
+        }
+        controlLoop.stop();
+        // 车队模式下向各小车发送停止指令后关闭连接
+        if (fleet != null) {
+            fleet.stop();
+        }
+        // 关闭执行器，确保所有异步任务被优雅地停止
+        executor.shutdown();
+        // 发送停止指令后关闭与服务器的连接，停止连接线程
+        connectionManager.stop();
+        // 截断并关闭录制文件
+        closeRecorder();
+    }
+}
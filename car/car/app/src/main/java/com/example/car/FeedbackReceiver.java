@@ -0,0 +1,136 @@
+package com.example.car;
+
+import com.example.carcommon.ClockSync;
+import com.example.carcommon.ControlFrame;
+
+import java.io.IOException;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+
+/**
+ * 服务端反馈的接收线程
+ * 每个连接一个实例，阻塞读取服务端发来的帧，收到后立即记录接收时间：
+ * PONG交给ClockSync估计时钟偏差，ACK交给RateController调整发送频率
+ * 关闭传输通道会使阻塞的读取返回，线程随之退出；
+ * 不是由stop引起的退出（对端关闭或读取出错）会回调onClosed，由连接状态机安排重连
+ */
+public class FeedbackReceiver implements Runnable {
+    private final CommandTransport transport;
+    private final ClockSync clockSync;
+    private final RateController rateController;
+    private final Runnable onClosed;
+    private final ByteBuffer rxBuffer = ByteBuffer.allocate(ControlFrame.SIZE * 4);
+    private final ControlFrame frame = new ControlFrame();
+
+    private volatile boolean running;
+    private Thread thread;
+
+    // 统计计数，只由接收线程修改
+    private volatile long pongCount;
+    private volatile long ackCount;
+    private volatile long malformedCount;
+
+    /**
+     * @param transport      已打开的传输通道
+     * @param clockSync      时钟偏差估计
+     * @param rateController 发送频率控制
+     */
+    public FeedbackReceiver(CommandTransport transport, ClockSync clockSync, RateController rateController) {
+        this(transport, clockSync, rateController, null);
+    }
+
+    /**
+     * @param transport      已打开的传输通道
+     * @param clockSync      时钟偏差估计
+     * @param rateController 发送频率控制
+     * @param onClosed       连接被对端关闭或读取出错时在接收线程中回调，为null时不回调
+     */
+    public FeedbackReceiver(CommandTransport transport, ClockSync clockSync, RateController rateController,
+                            Runnable onClosed) {
+        this.transport = transport;
+        this.clockSync = clockSync;
+        this.rateController = rateController;
+        this.onClosed = onClosed;
+    }
+
+    /**
+     * 启动接收线程
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "feedback-receiver");
+        thread.start();
+    }
+
+    /**
+     * 停止接收线程，应在关闭传输通道之后调用，否则最多等待一次读取超时
+     */
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            int n;
+            try {
+                n = transport.receive(rxBuffer);
+            } catch (PortUnreachableException e) {
+                // UDP模式下服务端尚未启动，继续等待
+                continue;
+            } catch (IOException e) {
+                break;
+            }
+            if (n < 0) {
+                break;
+            }
+            long receivedNanos = System.nanoTime();
+
+            rxBuffer.flip();
+            while (rxBuffer.remaining() >= ControlFrame.SIZE) {
+                if (frame.decode(rxBuffer) != ControlFrame.DECODE_OK) {
+                    malformedCount++;
+                } else if (frame.type == ControlFrame.TYPE_PONG) {
+                    pongCount++;
+                    clockSync.onSample(frame.origin, frame.timestamp, receivedNanos);
+                } else if (frame.type == ControlFrame.TYPE_ACK) {
+                    ackCount++;
+                    rateController.onAck(frame.sequence, frame.angle, frame.origin, receivedNanos);
+                } else {
+                    malformedCount++;
+                }
+            }
+            rxBuffer.compact();
+        }
+        if (running && onClosed != null) {
+            onClosed.run();
+        }
+        running = false;
+    }
+
+    /** @return 收到的PONG数 */
+    public long getPongCount() {
+        return pongCount;
+    }
+
+    /** @return 收到的ACK数 */
+    public long getAckCount() {
+        return ackCount;
+    }
+
+    /** @return 无法识别的帧数 */
+    public long getMalformedCount() {
+        return malformedCount;
+    }
+}
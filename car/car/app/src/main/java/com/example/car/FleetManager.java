@@ -0,0 +1,813 @@
+package com.example.car;
+
+import com.example.carcommon.ControlFrame;
+import com.example.carcommon.LatencyHistogram;
+import com.example.carcommon.TraceEvent;
+import com.example.carcommon.TraceRing;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 车队模式：一个客户端同时连接多辆小车，把同一路摇杆指令分发到选中的小车或分组
+ *
+ * 所有连接都是非阻塞的SocketChannel，按加入顺序轮流分配给固定数量的I/O线程，每个线程用一个Selector
+ * 负责其中所有小车的建立连接、发送、接收ACK和断线重连，几十辆小车也只需要一两个线程
+ *
+ * 分发（send，作为ControlLoop.FrameSink）只把指令写入每辆选中小车的槽位并唤醒对应的I/O线程，不做任何网络操作；
+ * I/O线程为每辆小车单独编号和发送，套接字缓冲区满时只保留最新的指令，不会拖慢其他小车；
+ * 改变选择时，不再被选中的小车的槽位写入一条停止指令，不会停在最后的速度上
+ *
+ * 每辆小车的健康状态：
+ * <pre>
+ *  HEALTH_DOWN   未连接（连接中、等待重连）
+ *  HEALTH_STALE  已连接，但持续发送超过staleMillis没有收到ACK
+ *  HEALTH_OK     已连接，ACK正常
+ * </pre>
+ * 每辆小车分别统计发送延迟（分发到写入套接字的时间）和往返时间（ACK回显的发送时间戳）
+ */
+public class FleetManager implements ControlLoop.FrameSink {
+    /** 健康状态：未连接 */
+    public static final int HEALTH_DOWN = 0;
+    /** 健康状态：已连接但ACK中断 */
+    public static final int HEALTH_STALE = 1;
+    /** 健康状态：正常 */
+    public static final int HEALTH_OK = 2;
+
+    /** 默认的I/O线程数 */
+    public static final int DEFAULT_IO_THREADS = 2;
+    /** 默认的ACK中断判定时间（毫秒） */
+    public static final long DEFAULT_STALE_MS = 500;
+    /** 选中所有小车 */
+    public static final String SELECT_ALL = "*";
+
+    // 连接超时，与TcpCommandTransport相同
+    private static final long CONNECT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+    // 没有定时任务时Selector的最长等待时间
+    private static final long MAX_SELECT_MILLIS = 100;
+
+    /**
+     * 车队中的一辆小车
+     * 连接和发送状态只由所属的I/O线程访问；槽位由分发线程和select在FleetManager的锁内写入；
+     * 统计数据由I/O线程写入，可以在任意线程读取
+     */
+    public static final class Car {
+        private final String name;
+        private final String group;
+        private final String host;
+        private final int port;
+        private final IoLoop loop;
+
+        // 槽位：高32位为写入版本号，中间16位为角度，低16位为速度，格式与ControlLoop相同
+        private final AtomicLong slot = new AtomicLong();
+        // 写入版本号，只在FleetManager的锁内修改
+        private int writeVersion;
+        // 最新一次写入的分发时间，在写入槽位之前更新
+        private volatile long queuedNanos;
+
+        // 以下字段只在I/O线程中访问
+        private SocketChannel channel;
+        private SelectionKey key;
+        private final ByteBuffer tx = ByteBuffer.allocate(ControlFrame.SIZE);
+        private final ByteBuffer rx = ByteBuffer.allocate(ControlFrame.SIZE * 16);
+        private final ControlFrame frame = new ControlFrame();
+        private volatile int txSequence;
+        private int sentVersion;
+        private long txQueuedNanos;
+        private long connectStartNanos;
+        private volatile long connectedNanos;
+        private long nextAttemptNanos;
+        private int failedAttempts;
+
+        // 统计数据，只由I/O线程修改
+        private final LatencyHistogram sendLatency;
+        private final LatencyHistogram rtt;
+        private volatile int state = ConnectionManager.STATE_DISCONNECTED;
+        private volatile long sentCount;
+        private volatile long droppedCount;
+        private volatile long coalescedCount;
+        private volatile long ackCount;
+        private volatile long lastSentNanos;
+        private volatile long lastAckNanos;
+        private volatile long smoothedRttNanos;
+        private volatile long attemptCount;
+        private volatile long failureCount;
+        private volatile long lostCount;
+
+        Car(String name, String group, String host, int port, IoLoop loop) {
+            this.name = name;
+            this.group = group;
+            this.host = host;
+            this.port = port;
+            this.loop = loop;
+            this.sendLatency = new LatencyHistogram(name + " send");
+            this.rtt = new LatencyHistogram(name + " rtt");
+        }
+
+        /** @return 名称 */
+        public String getName() {
+            return name;
+        }
+
+        /** @return 分组，没有分组时为null */
+        public String getGroup() {
+            return group;
+        }
+
+        /** @return 服务器地址 */
+        public String getHost() {
+            return host;
+        }
+
+        /** @return 服务器端口 */
+        public int getPort() {
+            return port;
+        }
+
+        /** @return 连接状态，ConnectionManager.STATE_*常量之一 */
+        public int getState() {
+            return state;
+        }
+
+        /** @return 最近一帧的发送序号，每辆小车单独编号 */
+        public int getSequence() {
+            return txSequence;
+        }
+
+        /** @return 分发到写入套接字的时间分布 */
+        public LatencyHistogram getSendLatency() {
+            return sendLatency;
+        }
+
+        /** @return ACK往返时间分布 */
+        public LatencyHistogram getRtt() {
+            return rtt;
+        }
+
+        /** @return 平滑后的往返时间（纳秒），没有ACK时为0 */
+        public long getSmoothedRttNanos() {
+            return smoothedRttNanos;
+        }
+
+        /** @return 已发送的控制帧数 */
+        public long getSentCount() {
+            return sentCount;
+        }
+
+        /** @return 未连接时丢弃的指令数 */
+        public long getDroppedCount() {
+            return droppedCount;
+        }
+
+        /** @return 套接字缓冲区满期间被新指令覆盖的指令数 */
+        public long getCoalescedCount() {
+            return coalescedCount;
+        }
+
+        /** @return 收到的ACK数 */
+        public long getAckCount() {
+            return ackCount;
+        }
+
+        /** @return 尝试连接的次数 */
+        public long getAttemptCount() {
+            return attemptCount;
+        }
+
+        /** @return 连接失败的次数 */
+        public long getFailureCount() {
+            return failureCount;
+        }
+
+        /** @return 连接中断的次数 */
+        public long getLostCount() {
+            return lostCount;
+        }
+
+        boolean matches(String target) {
+            return SELECT_ALL.equals(target) || name.equals(target) || target.equals(group);
+        }
+    }
+
+    private final int ioThreads;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final long staleNanos;
+    private final IoLoop[] loops;
+    private final CopyOnWriteArrayList<Car> cars = new CopyOnWriteArrayList<>();
+    private volatile Car[] selected = new Car[0];
+    private volatile String selection = SELECT_ALL;
+    private boolean started;
+
+    /**
+     * 使用默认的线程数和重连间隔
+     */
+    public FleetManager() {
+        this(DEFAULT_IO_THREADS, ConnectionManager.DEFAULT_INITIAL_BACKOFF_MS,
+                ConnectionManager.DEFAULT_MAX_BACKOFF_MS, DEFAULT_STALE_MS);
+    }
+
+    /**
+     * @param ioThreads            I/O线程数
+     * @param initialBackoffMillis 首次重试间隔（毫秒）
+     * @param maxBackoffMillis     最长重试间隔（毫秒）
+     * @param staleMillis          持续发送而没有ACK超过该时间判定为HEALTH_STALE（毫秒）
+     */
+    public FleetManager(int ioThreads, long initialBackoffMillis, long maxBackoffMillis, long staleMillis) {
+        if (ioThreads <= 0) {
+            throw new IllegalArgumentException("ioThreads: " + ioThreads);
+        }
+        if (initialBackoffMillis <= 0 || maxBackoffMillis < initialBackoffMillis || staleMillis <= 0) {
+            throw new IllegalArgumentException("backoff/stale: "
+                    + initialBackoffMillis + ", " + maxBackoffMillis + ", " + staleMillis);
+        }
+        this.ioThreads = ioThreads;
+        this.initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(initialBackoffMillis);
+        this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis);
+        this.staleNanos = TimeUnit.MILLISECONDS.toNanos(staleMillis);
+        this.loops = new IoLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            loops[i] = new IoLoop(i);
+        }
+    }
+
+    /**
+     * 加入一辆小车，启动后立即开始连接，断线后自动重连
+     *
+     * @param name  名称，在车队中唯一
+     * @param group 分组，可以为null
+     * @param host  服务器地址
+     * @param port  服务器端口
+     * @return 新加入的小车
+     */
+    public synchronized Car addCar(String name, String group, String host, int port) {
+        if (name.isEmpty() || SELECT_ALL.equals(name) || find(name) != null) {
+            throw new IllegalArgumentException("名称无效或重复: " + name);
+        }
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException("port: " + port);
+        }
+        Car car = new Car(name, group, host, port, loops[cars.size() % ioThreads]);
+        cars.add(car);
+        car.loop.added.add(car);
+        car.loop.wakeup();
+        select(selection);
+        return car;
+    }
+
+    /**
+     * 按描述加入多辆小车，格式为逗号分隔的 名称@地址:端口[/分组]，如
+     * “front1@192.168.1.10:8080/front,front2@192.168.1.11:8080/front,rear@192.168.1.20:8080”
+     *
+     * @param spec 描述
+     * @return 加入的小车数
+     * @throws IllegalArgumentException 格式错误
+     */
+    public int addCars(String spec) {
+        int count = 0;
+        for (String item : spec.split(",")) {
+            item = item.trim();
+            if (item.isEmpty()) {
+                continue;
+            }
+            int at = item.indexOf('@');
+            int colon = item.lastIndexOf(':');
+            int slash = item.indexOf('/', colon + 1);
+            if (at <= 0 || colon <= at + 1) {
+                throw new IllegalArgumentException("无法识别的小车: " + item);
+            }
+            String host = item.substring(at + 1, colon);
+            if (!AddressValidator.isValidIp(host)) {
+                throw new IllegalArgumentException("IP地址格式错误: " + item);
+            }
+            int port;
+            try {
+                port = Integer.parseInt(item.substring(colon + 1, slash < 0 ? item.length() : slash));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("端口错误: " + item);
+            }
+            String group = slash < 0 ? null : item.substring(slash + 1);
+            addCar(item.substring(0, at), group, host, port);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 选择接收指令的小车，可以在任意线程调用
+     * 不再被选中的小车保持连接，最后一条指令不是停车时槽位写入一条停止指令（与stop时的sendStop相同），之后不再收到新的指令
+     *
+     * @param target 小车名称、分组名称或SELECT_ALL
+     * @return 选中的小车数
+     */
+    public synchronized int select(String target) {
+        List<Car> matched = new ArrayList<>();
+        for (Car car : cars) {
+            if (car.matches(target)) {
+                matched.add(car);
+            }
+        }
+        long now = System.nanoTime();
+        for (Car car : selected) {
+            // 最后一条指令的速度已经为0（或从未收到指令）时不需要再停车
+            if (!matched.contains(car) && (short) car.slot.get() != 0) {
+                write(car, 0L, now);
+                car.loop.wakeup();
+            }
+        }
+        selection = target;
+        selected = matched.toArray(new Car[0]);
+        return matched.size();
+    }
+
+    /** @return 当前的选择 */
+    public String getSelection() {
+        return selection;
+    }
+
+    /**
+     * 启动I/O线程
+     *
+     * @throws IOException 无法打开Selector
+     */
+    public synchronized void start() throws IOException {
+        if (started) {
+            return;
+        }
+        for (IoLoop loop : loops) {
+            loop.selector = Selector.open();
+        }
+        started = true;
+        for (IoLoop loop : loops) {
+            loop.running = true;
+            loop.thread = new Thread(loop, "fleet-io-" + loop.index);
+            loop.thread.setPriority(Thread.MAX_PRIORITY);
+            loop.thread.start();
+        }
+    }
+
+    /**
+     * 停止I/O线程，向已连接的小车发送停止指令后关闭所有连接，停止后不能再次启动
+     */
+    public void stop() {
+        synchronized (this) {
+            if (!started) {
+                return;
+            }
+            started = false;
+        }
+        for (IoLoop loop : loops) {
+            loop.running = false;
+            loop.wakeup();
+        }
+        for (IoLoop loop : loops) {
+            try {
+                loop.thread.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 把一条指令分发给当前选中的小车，只写入槽位并唤醒I/O线程，不做网络操作
+     * 只允许单个线程（控制循环线程）调用；写入槽位时持有锁，与select的停止指令不会交错
+     *
+     * @param angle       角度
+     * @param speed       速度
+     * @param originNanos 未使用，发送延迟从本次调用开始计算
+     * @return 至少有一辆选中的小车已连接时返回true
+     */
+    @Override
+    public boolean send(int angle, int speed, long originNanos) {
+        long now = System.nanoTime();
+        long value = ((angle & 0xFFFFL) << 16) | (speed & 0xFFFFL);
+        boolean connected = false;
+        synchronized (this) {
+            // 在锁内读取选择，select返回后不会再有指令写入不再被选中的小车
+            for (Car car : selected) {
+                write(car, value, now);
+                car.loop.dirty = true;
+                connected |= car.state == ConnectionManager.STATE_CONNECTED;
+            }
+        }
+        for (IoLoop loop : loops) {
+            if (loop.dirty) {
+                loop.dirty = false;
+                loop.wakeup();
+            }
+        }
+        return connected;
+    }
+
+    /**
+     * 写入一辆小车的槽位，需要持有锁
+     *
+     * @param car   小车
+     * @param value 中间16位为角度，低16位为速度
+     * @param now   分发时间（System.nanoTime）
+     */
+    private void write(Car car, long value, long now) {
+        car.queuedNanos = now;
+        car.slot.lazySet(((long) ++car.writeVersion << 32) | value);
+    }
+
+    /**
+     * 计算一辆小车的健康状态
+     *
+     * @param car      小车
+     * @param nowNanos 当前时间（System.nanoTime）
+     * @return HEALTH_*常量之一
+     */
+    public int getHealth(Car car, long nowNanos) {
+        if (car.state != ConnectionManager.STATE_CONNECTED) {
+            return HEALTH_DOWN;
+        }
+        // 最近一次ACK（或连上）之后持续发送超过staleNanos
+        long lastHeard = Math.max(car.lastAckNanos, car.connectedNanos);
+        long lastSent = car.lastSentNanos;
+        if (lastSent != 0 && lastSent - lastHeard > staleNanos) {
+            return HEALTH_STALE;
+        }
+        return HEALTH_OK;
+    }
+
+    /**
+     * 写入每辆小车一行的状态，行之间换行，如 “● front1 seq 1200 发送 0.05ms RTT 1.20ms”
+     *
+     * @param out      输出
+     * @param nowNanos 当前时间（System.nanoTime）
+     * @return out
+     */
+    public StringBuilder appendSummary(StringBuilder out, long nowNanos) {
+        boolean first = true;
+        for (Car car : cars) {
+            if (!first) {
+                out.append('\n');
+            }
+            first = false;
+            int health = getHealth(car, nowNanos);
+            out.append(health == HEALTH_OK ? '●' : health == HEALTH_STALE ? '◐' : '○')
+                    .append(' ').append(car.name)
+                    .append(" seq ").append(car.txSequence);
+            LatencyHistogram.appendMillis(out.append(" 发送 "), car.sendLatency.percentile(0.99));
+            LatencyHistogram.appendMillis(out.append(" RTT "), car.smoothedRttNanos);
+            if (car.droppedCount > 0) {
+                out.append(" 丢弃 ").append(car.droppedCount);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @param name 名称
+     * @return 对应的小车，不存在时为null
+     */
+    public Car find(String name) {
+        for (Car car : cars) {
+            if (car.name.equals(name)) {
+                return car;
+            }
+        }
+        return null;
+    }
+
+    /** @return 所有小车，按加入顺序 */
+    public List<Car> getCars() {
+        return cars;
+    }
+
+    /** @return 当前选中的小车数 */
+    public int getSelectedCount() {
+        return selected.length;
+    }
+
+    /** @return I/O线程数 */
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * 一个I/O线程，负责分配给它的所有小车
+     */
+    private final class IoLoop implements Runnable {
+        final int index;
+        final ConcurrentLinkedQueue<Car> added = new ConcurrentLinkedQueue<>();
+        final List<Car> members = new ArrayList<>();
+        volatile boolean running;
+        // 分发线程写入指令后置位，只由分发线程访问
+        boolean dirty;
+        Selector selector;
+        Thread thread;
+
+        IoLoop(int index) {
+            this.index = index;
+        }
+
+        void wakeup() {
+            Selector s = selector;
+            if (s != null) {
+                s.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    Car car;
+                    while ((car = added.poll()) != null) {
+                        members.add(car);
+                        car.nextAttemptNanos = System.nanoTime();
+                    }
+                    long timeout = runTimers(System.nanoTime());
+                    for (Car member : members) {
+                        if (member.state == ConnectionManager.STATE_CONNECTED) {
+                            pump(member, System.nanoTime());
+                        } else {
+                            discardPending(member);
+                        }
+                    }
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeout)));
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handle((Car) key.attachment(), key);
+                    }
+                }
+            } catch (IOException e) {
+                TraceRing.GLOBAL.record(TraceRing.LEVEL_INFO, TraceEvent.CONNECTION, -1, index);
+            } finally {
+                for (Car member : members) {
+                    if (member.state == ConnectionManager.STATE_CONNECTED) {
+                        sendStop(member);
+                    }
+                    close(member);
+                    member.state = ConnectionManager.STATE_DISCONNECTED;
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // 线程即将退出，无需处理
+                }
+                selector = null;
+            }
+        }
+
+        /**
+         * 发起到期的连接尝试，处理连接超时
+         *
+         * @return 距离下一个定时任务的时间（纳秒）
+         */
+        private long runTimers(long now) {
+            long timeout = TimeUnit.MILLISECONDS.toNanos(MAX_SELECT_MILLIS);
+            for (Car car : members) {
+                if (car.channel == null) {
+                    long wait = car.nextAttemptNanos - now;
+                    if (wait <= 0) {
+                        connect(car, now);
+                        wait = CONNECT_TIMEOUT_NANOS;
+                    }
+                    timeout = Math.min(timeout, wait);
+                } else if (car.state == ConnectionManager.STATE_CONNECTING) {
+                    long wait = car.connectStartNanos + CONNECT_TIMEOUT_NANOS - now;
+                    if (wait <= 0) {
+                        onConnectFailed(car, now);
+                    } else {
+                        timeout = Math.min(timeout, wait);
+                    }
+                }
+            }
+            return timeout;
+        }
+
+        private void connect(Car car, long now) {
+            car.attemptCount++;
+            car.connectStartNanos = now;
+            setState(car, ConnectionManager.STATE_CONNECTING);
+            try {
+                SocketChannel channel = SocketChannel.open();
+                car.channel = channel;
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                if (channel.connect(new InetSocketAddress(car.host, car.port))) {
+                    car.key = channel.register(selector, SelectionKey.OP_READ, car);
+                    onConnected(car, now);
+                } else {
+                    car.key = channel.register(selector, SelectionKey.OP_CONNECT, car);
+                }
+            } catch (IOException e) {
+                onConnectFailed(car, now);
+            }
+        }
+
+        private void handle(Car car, SelectionKey key) {
+            try {
+                if (!key.isValid()) {
+                    return;
+                }
+                if (key.isConnectable()) {
+                    if (car.channel.finishConnect()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                        onConnected(car, System.nanoTime());
+                    }
+                    return;
+                }
+                if (key.isReadable()) {
+                    read(car);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    pump(car, System.nanoTime());
+                }
+            } catch (IOException e) {
+                if (car.state == ConnectionManager.STATE_CONNECTING) {
+                    onConnectFailed(car, System.nanoTime());
+                } else {
+                    onLost(car);
+                }
+            }
+        }
+
+        private void onConnected(Car car, long now) {
+            car.connectedNanos = now;
+            car.failedAttempts = 0;
+            car.lastAckNanos = 0;
+            car.lastSentNanos = 0;
+            car.tx.clear().flip();
+            car.rx.clear();
+            // 连接之前的指令已经过时，从下一条开始发送
+            car.sentVersion = (int) (car.slot.get() >>> 32);
+            setState(car, ConnectionManager.STATE_CONNECTED);
+        }
+
+        private void onConnectFailed(Car car, long now) {
+            car.failureCount++;
+            close(car);
+            car.failedAttempts++;
+            long backoff = Math.min(initialBackoffNanos << Math.min(car.failedAttempts - 1, 30), maxBackoffNanos);
+            car.nextAttemptNanos = now + backoff;
+            setState(car, ConnectionManager.STATE_BACKOFF);
+        }
+
+        /**
+         * 连接中断，与ConnectionManager相同，立即重试一次，失败后再进入退避
+         */
+        private void onLost(Car car) {
+            // 先改变状态再计数，读到新的计数时状态已经不是CONNECTED
+            setState(car, ConnectionManager.STATE_CONNECTING);
+            car.lostCount++;
+            TraceRing.GLOBAL.record(TraceRing.LEVEL_INFO, TraceEvent.SEND_FAILED, car.txSequence, index);
+            close(car);
+            car.failedAttempts = 0;
+            car.nextAttemptNanos = System.nanoTime();
+        }
+
+        private void read(Car car) throws IOException {
+            int n = car.channel.read(car.rx);
+            if (n < 0) {
+                throw new IOException("对端关闭连接");
+            }
+            long now = System.nanoTime();
+            ByteBuffer rx = car.rx;
+            rx.flip();
+            while (rx.remaining() >= ControlFrame.SIZE) {
+                if (car.frame.decode(rx) == ControlFrame.DECODE_OK && car.frame.type == ControlFrame.TYPE_ACK) {
+                    car.ackCount++;
+                    car.lastAckNanos = now;
+                    long origin = car.frame.origin;
+                    if (origin != 0) {
+                        long sample = now - origin;
+                        car.rtt.record(sample);
+                        long smoothed = car.smoothedRttNanos;
+                        car.smoothedRttNanos = smoothed == 0 ? sample : smoothed + (sample - smoothed) / 8;
+                    }
+                }
+            }
+            rx.compact();
+        }
+
+        /**
+         * 写出上一帧剩余的部分，写完后发送槽位中的最新指令；套接字缓冲区满时等待OP_WRITE
+         */
+        private void pump(Car car, long now) {
+            try {
+                if (car.tx.hasRemaining()) {
+                    car.channel.write(car.tx);
+                    if (car.tx.hasRemaining()) {
+                        setWriteInterest(car, true);
+                        return;
+                    }
+                    onFrameWritten(car, now);
+                }
+                long value = car.slot.get();
+                int version = (int) (value >>> 32);
+                if (version == car.sentVersion) {
+                    setWriteInterest(car, false);
+                    return;
+                }
+                int writes = version - car.sentVersion;
+                if (writes > 1) {
+                    car.coalescedCount += writes - 1;
+                }
+                car.sentVersion = version;
+                car.txQueuedNanos = car.queuedNanos;
+                car.tx.clear();
+                ControlFrame.encode(car.tx, ControlFrame.TYPE_CONTROL, ++car.txSequence,
+                        (short) (value >>> 16), (short) value, now);
+                car.tx.flip();
+                car.channel.write(car.tx);
+                if (car.tx.hasRemaining()) {
+                    setWriteInterest(car, true);
+                } else {
+                    onFrameWritten(car, now);
+                    setWriteInterest(car, false);
+                }
+            } catch (IOException e) {
+                onLost(car);
+            }
+        }
+
+        private void onFrameWritten(Car car, long now) {
+            car.sentCount++;
+            car.lastSentNanos = now;
+            car.sendLatency.record(now - car.txQueuedNanos);
+            TraceRing.GLOBAL.record(TraceRing.LEVEL_DEBUG, TraceEvent.FRAME_SENT, car.txSequence, index);
+        }
+
+        private void setWriteInterest(Car car, boolean write) {
+            int ops = write ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+            if (car.key.interestOps() != ops) {
+                car.key.interestOps(ops);
+            }
+        }
+
+        /**
+         * 未连接时丢弃槽位中的指令，不等待重连
+         */
+        private void discardPending(Car car) {
+            int version = (int) (car.slot.get() >>> 32);
+            if (version != car.sentVersion) {
+                car.droppedCount += version - car.sentVersion;
+                car.sentVersion = version;
+            }
+        }
+
+        /**
+         * 关闭前尽量发送一条停止指令，缓冲区满时放弃
+         * 上一帧只写出一部分时先把它写完，写不完就不发送停止指令，避免停止帧插入半帧中间使小车端错位
+         */
+        private void sendStop(Car car) {
+            try {
+                long now = System.nanoTime();
+                if (car.tx.hasRemaining()) {
+                    car.channel.write(car.tx);
+                    if (car.tx.hasRemaining()) {
+                        return;
+                    }
+                    onFrameWritten(car, now);
+                }
+                car.tx.clear();
+                ControlFrame.encode(car.tx, ControlFrame.TYPE_CONTROL, ++car.txSequence, 0, 0, now);
+                car.tx.flip();
+                car.channel.write(car.tx);
+            } catch (IOException e) {
+                // 连接已经不可用，直接关闭
+            }
+        }
+
+        private void close(Car car) {
+            if (car.key != null) {
+                car.key.cancel();
+                car.key = null;
+            }
+            if (car.channel != null) {
+                try {
+                    car.channel.close();
+                } catch (IOException e) {
+                    // 关闭失败时通道已不可用，无需处理
+                }
+                car.channel = null;
+            }
+        }
+
+        private void setState(Car car, int state) {
+            if (car.state != state) {
+                car.state = state;
+                TraceRing.GLOBAL.record(TraceRing.LEVEL_INFO, TraceEvent.CONNECTION, state, index);
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.car;
+
+/**
+ * 摇杆输入处理
+ * 把相对摇杆中心的触摸偏移量依次经过限幅、平滑、死区和量化，得到发送给小车的(角度, 速度)
+ *
+ * 平滑使用按时间计算系数的一阶低通：alpha = 1 - exp(-dt / tau)
+ * 触摸屏一次事件中批量上报的历史采样间隔不均匀，按时间计算系数后结果与采样率无关
+ * 平滑作用在x/y分量上而不是角度上，避免角度在0/360度处跳变
+ * 手指停住后不再有触摸事件，需要定时调用settle让输出继续收敛到手指的位置，否则会停在差一点的地方
+ *
+ * 死区内速度为0；死区外的速度重新线性映射到0-100，推到边缘时仍能达到满速
+ * 速度为0时角度统一为0，与服务端对停止指令的处理一致
+ *
+ * 不依赖Android，只在UI线程中使用，不是线程安全的
+ */
+public class JoystickInputFilter {
+    /** 量化后的最大速度 */
+    public static final int MAX_SPEED = 100;
+    // 没有新采样超过该倍数的时间常数后直接取手指的位置，剩余误差exp(-5)不到1%
+    private static final float SETTLE_TIME_CONSTANTS = 5f;
+
+    private final float deadzone;
+    private final float smoothingMillis;
+
+    private float radius = 1f;
+    private boolean active;
+    private float filteredX;
+    private float filteredY;
+    private float rawX;
+    private float rawY;
+    private long lastSampleMillis;
+
+    private int angle;
+    private int speed;
+
+    /**
+     * @param deadzone        死区半径占摇杆半径的比例，0-1
+     * @param smoothingMillis 平滑时间常数（毫秒），0表示不平滑
+     */
+    public JoystickInputFilter(float deadzone, float smoothingMillis) {
+        if (deadzone < 0f || deadzone >= 1f) {
+            throw new IllegalArgumentException("deadzone: " + deadzone);
+        }
+        if (smoothingMillis < 0f) {
+            throw new IllegalArgumentException("smoothingMillis: " + smoothingMillis);
+        }
+        this.deadzone = deadzone;
+        this.smoothingMillis = smoothingMillis;
+    }
+
+    /**
+     * 设置摇杆半径，偏移量超过半径时限制在半径上
+     *
+     * @param radius 摇杆半径（像素）
+     */
+    public void setRadius(float radius) {
+        if (radius > 0f) {
+            this.radius = radius;
+        }
+    }
+
+    /**
+     * 加入一个触摸采样
+     * 按下后的第一个采样不做平滑，直接作为初始位置
+     *
+     * @param deltaX     相对中心的水平偏移（右为正）
+     * @param deltaY     相对中心的垂直偏移（下为正）
+     * @param timeMillis 采样时间（毫秒），同一次触摸中应单调不减
+     * @return 量化后的(角度, 速度)发生变化返回true
+     */
+    public boolean addSample(float deltaX, float deltaY, long timeMillis) {
+        float distance = (float) Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+        if (distance > radius) {
+            float ratio = radius / distance;
+            deltaX *= ratio;
+            deltaY *= ratio;
+        }
+
+        rawX = deltaX;
+        rawY = deltaY;
+        if (!active || smoothingMillis == 0f) {
+            filteredX = deltaX;
+            filteredY = deltaY;
+            active = true;
+            lastSampleMillis = timeMillis;
+            return quantize();
+        }
+        return advance(timeMillis);
+    }
+
+    /**
+     * 没有新采样时让平滑输出继续向最近一次采样的位置收敛，由界面在手指停住期间定时调用
+     * 与在该时刻再收到一个相同位置的采样等价；超过5倍时间常数后直接取该位置
+     *
+     * @param timeMillis 当前时间（毫秒），与采样时间同一时基
+     * @return 量化后的(角度, 速度)发生变化返回true
+     */
+    public boolean settle(long timeMillis) {
+        if (!active || isSettled() || timeMillis <= lastSampleMillis) {
+            return false;
+        }
+        return advance(timeMillis);
+    }
+
+    /** @return 平滑输出是否已经等于最近一次采样的位置，松手后也为true */
+    public boolean isSettled() {
+        return !active || (filteredX == rawX && filteredY == rawY);
+    }
+
+    private boolean advance(long timeMillis) {
+        long dt = Math.max(0, timeMillis - lastSampleMillis);
+        if (dt >= SETTLE_TIME_CONSTANTS * smoothingMillis) {
+            filteredX = rawX;
+            filteredY = rawY;
+        } else {
+            float alpha = (float) (1 - Math.exp(-dt / smoothingMillis));
+            filteredX += alpha * (rawX - filteredX);
+            filteredY += alpha * (rawY - filteredY);
+        }
+        lastSampleMillis = timeMillis;
+        return quantize();
+    }
+
+    /**
+     * 松手或触摸被取消，回到停止状态
+     *
+     * @return 量化后的(角度, 速度)发生变化返回true
+     */
+    public boolean release() {
+        active = false;
+        filteredX = 0f;
+        filteredY = 0f;
+        return set(0, 0);
+    }
+
+    private boolean quantize() {
+        float ratio = Math.min((float) Math.sqrt(filteredX * filteredX + filteredY * filteredY) / radius, 1f);
+        if (ratio <= deadzone) {
+            return set(0, 0);
+        }
+        int newSpeed = Math.round((ratio - deadzone) / (1f - deadzone) * MAX_SPEED);
+        if (newSpeed == 0) {
+            return set(0, 0);
+        }
+        // 以正前方为0度，逆时针递增，与驱动的角度定义一致
+        double degrees = (Math.toDegrees(Math.atan2(-filteredX, -filteredY)) + 360) % 360;
+        return set((int) Math.round(degrees) % 360, newSpeed);
+    }
+
+    private boolean set(int newAngle, int newSpeed) {
+        if (newAngle == angle && newSpeed == speed) {
+            return false;
+        }
+        angle = newAngle;
+        speed = newSpeed;
+        return true;
+    }
+
+    /**
+     * 计算角度所在的八方向扇区，每个扇区以方向为中心、宽45度，
+     * 编号以正前方为0，逆时针递增：前、左前、左、左后、后、右后、右、右前
+     * 一次除法代替逐个区间比较的if链
+     *
+     * @param angle 角度，0-360
+     * @return 扇区编号，0-7
+     */
+    public static int sectorOf(double angle) {
+        return (int) ((angle + 22.5) / 45) & 7;
+    }
+
+    /** @return 量化后的角度，0-359 */
+    public int getAngle() {
+        return angle;
+    }
+
+    /** @return 量化后的速度，0-100 */
+    public int getSpeed() {
+        return speed;
+    }
+
+    /** @return 平滑后的水平偏移 */
+    public float getFilteredX() {
+        return filteredX;
+    }
+
+    /** @return 平滑后的垂直偏移 */
+    public float getFilteredY() {
+        return filteredY;
+    }
+}
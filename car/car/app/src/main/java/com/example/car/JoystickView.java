@@ -4,6 +4,7 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
@@ -18,11 +19,40 @@ public class JoystickView extends View {
     private Direction currentDirection = Direction.NONE;
     private float currentSpeedRatio = 0f;
     private double currentAngle;
+    // 最近一次量化结果变化的触摸事件时间（纳秒）
+    private long lastChangeTimeNanos;
+
+    // 默认死区为半径的10%，平滑时间常数16毫秒（约一帧）
+    private static final float DEFAULT_DEADZONE = 0.1f;
+    private static final float DEFAULT_SMOOTHING_MS = 16f;
+    private JoystickInputFilter inputFilter =
+            new JoystickInputFilter(DEFAULT_DEADZONE, DEFAULT_SMOOTHING_MS);
+
+    // 手指停住后没有触摸事件，按约一帧的间隔让平滑输出继续收敛到手指的位置
+    private static final long SETTLE_INTERVAL_MS = 16;
+    private final Runnable settler = new Runnable() {
+        @Override
+        public void run() {
+            long now = SystemClock.uptimeMillis();
+            if (inputFilter.settle(now)) {
+                notifyChanged(now);
+            }
+            if (!inputFilter.isSettled()) {
+                postDelayed(this, SETTLE_INTERVAL_MS);
+            }
+        }
+    };
 
     public enum Direction {
         NONE, UP, DOWN, LEFT, RIGHT, UP_LEFT, UP_RIGHT, DOWN_LEFT, DOWN_RIGHT
     }
 
+    // 按JoystickInputFilter.sectorOf的扇区编号排列的方向
+    private static final Direction[] SECTOR_DIRECTIONS = {
+            Direction.UP, Direction.UP_LEFT, Direction.LEFT, Direction.DOWN_LEFT,
+            Direction.DOWN, Direction.DOWN_RIGHT, Direction.RIGHT, Direction.UP_RIGHT
+    };
+
     public interface OnDirectionChangeListener {
         void onDirectionChanged(Direction direction, float speedRatio, double angle);
     }
@@ -58,6 +88,7 @@ public class JoystickView extends View {
         handleY = centerY;
         backgroundRadius = Math.min(w, h) / 3f;
         handleRadius = backgroundRadius / 3f;
+        inputFilter.setRadius(backgroundRadius);
     }
 
     @Override
@@ -69,100 +100,119 @@ public class JoystickView extends View {
     /**
      * 处理触摸屏事件的方法
      * 该方法主要用于处理用户对虚拟摇杆的触摸操作，包括按下、移动和释放等动作
+     * 一次MOVE事件中可能批量带有多个历史采样，全部按时间顺序交给输入处理，
+     * 处理完整个事件后，只有量化后的(角度, 速度)变化时才通知监听器一次
      *
      * @param event 触摸事件，包含触摸的位置信息和动作类型
      * @return 始终返回true，表示所有事件都已消费
      */
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        // 获取触摸位置的X坐标
-        float touchX = event.getX();
-        // 获取触摸位置的Y坐标
-        float touchY = event.getY();
+        boolean changed = false;
+        // 第一个引起变化的采样的时间，作为本次通知的触摸时间
+        long changeTimeMillis = 0;
 
         // 根据触摸事件的动作类型，执行相应的逻辑
-        switch (event.getAction()) {
+        switch (event.getActionMasked()) {
             case MotionEvent.ACTION_DOWN:
+                // 请求不经过VSYNC批处理、收到即分发的触摸事件，降低触摸到发送的延迟
+                requestUnbufferedDispatch(event);
+                // fall through
             case MotionEvent.ACTION_MOVE:
-                // 计算触摸位置相对于摇杆中心的偏移量
-                float deltaX = touchX - centerX;
-                float deltaY = touchY - centerY;
-                // 计算触摸位置到摇杆中心的距离
-                float distance = (float) Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+                // 先处理批量上报的历史采样，再处理当前采样
+                for (int i = 0; i < event.getHistorySize(); i++) {
+                    if (inputFilter.addSample(event.getHistoricalX(i) - centerX,
+                            event.getHistoricalY(i) - centerY, event.getHistoricalEventTime(i))
+                            && !changed) {
+                        changed = true;
+                        changeTimeMillis = event.getHistoricalEventTime(i);
+                    }
+                }
+                if (inputFilter.addSample(event.getX() - centerX, event.getY() - centerY,
+                        event.getEventTime()) && !changed) {
+                    changed = true;
+                    changeTimeMillis = event.getEventTime();
+                }
 
-                // 如果距离超过背景圆的半径，将触摸位置限制在背景圆内
+                // 手柄跟随手指的最新位置，限制在背景圆内
+                float deltaX = event.getX() - centerX;
+                float deltaY = event.getY() - centerY;
+                float distance = (float) Math.sqrt(deltaX * deltaX + deltaY * deltaY);
                 if (distance > backgroundRadius) {
                     float ratio = backgroundRadius / distance;
                     deltaX *= ratio;
                     deltaY *= ratio;
                 }
-
-                // 更新摇杆手柄的位置
                 handleX = centerX + deltaX;
                 handleY = centerY + deltaY;
-                // 根据触摸位置计算摇杆的移动方向
-                calculateDirection(deltaX, deltaY);
-
-                // 如果有监听器，通知监听器摇杆方向变化
-                if (listener != null) {
-                    listener.onDirectionChanged(currentDirection, currentSpeedRatio, currentAngle);
-                }
-
                 // 重绘界面以反映摇杆位置的变化
                 invalidate();
+                // 从最后一个采样起重新计时，平滑输出尚未到达手指位置时继续收敛
+                removeCallbacks(settler);
+                if (!inputFilter.isSettled()) {
+                    postDelayed(settler, SETTLE_INTERVAL_MS);
+                }
                 break;
             case MotionEvent.ACTION_UP:
-                // 当触摸释放时，重置摇杆状态
+            case MotionEvent.ACTION_CANCEL:
+                // 当触摸释放或被系统取消时，重置摇杆状态
+                removeCallbacks(settler);
+                changed = inputFilter.release();
+                changeTimeMillis = event.getEventTime();
                 handleX = centerX;
                 handleY = centerY;
-                currentDirection = Direction.NONE;
-                currentSpeedRatio = 0f;
-                currentAngle = 0;
-                // 如果有监听器，通知监听器摇杆已静止
-                if (listener != null) {
-                    listener.onDirectionChanged(Direction.NONE, 0f, currentAngle);
-                }
                 // 重绘界面以反映摇杆状态的重置
                 invalidate();
                 break;
         }
+
+        // 所有采样处理完后，量化结果有变化时才通知一次
+        if (changed) {
+            notifyChanged(changeTimeMillis);
+        }
         // 表示所有事件都已消费
         return true;
     }
 
     /**
-     * 计算触摸移动的方向（0度指向正前方）
+     * 量化结果变化后重新计算方向并通知监听器
      *
-     * @param deltaX 水平偏移量（右为正）
-     * @param deltaY 垂直偏移量（下为正）
+     * @param changeTimeMillis 引起变化的触摸事件或收敛的时间（uptimeMillis）
      */
-    private void calculateDirection(float deltaX, float deltaY) {
-        // 计算移动距离和速度比率
-        float distance = (float) Math.sqrt(deltaX * deltaX + deltaY * deltaY);
-        currentSpeedRatio = Math.min(distance / backgroundRadius, 1.0f);
-
-        // 计算以正前方为0度的角度（顺时针0-360）
-        currentAngle = (Math.toDegrees(Math.atan2(-deltaX, -deltaY)) + 360) % 360;
-
-        // 根据新角度划分方向区间
-        Direction newDirection = Direction.NONE;
-        if (currentAngle >= 337.5 || currentAngle < 22.5) {    // 正前方
-            newDirection = Direction.UP;
-        } else if (currentAngle >= 22.5 && currentAngle < 67.5) {  // 左前方
-            newDirection = Direction.UP_LEFT;
-        } else if (currentAngle >= 67.5 && currentAngle < 112.5) { // 正左方
-            newDirection = Direction.LEFT;
-        } else if (currentAngle >= 112.5 && currentAngle < 157.5) { // 左后方
-            newDirection = Direction.DOWN_LEFT;
-        } else if (currentAngle >= 157.5 && currentAngle < 202.5) { // 正后方
-            newDirection = Direction.DOWN;
-        } else if (currentAngle >= 202.5 && currentAngle < 247.5) { // 右后方
-            newDirection = Direction.DOWN_RIGHT;
-        } else if (currentAngle >= 247.5 && currentAngle < 292.5) { // 正右方
-            newDirection = Direction.RIGHT;
-        } else { // 292.5-337.5 右前方
-            newDirection = Direction.UP_RIGHT;
+    private void notifyChanged(long changeTimeMillis) {
+        // 事件时间是uptimeMillis，与System.nanoTime同为CLOCK_MONOTONIC，精度为毫秒
+        lastChangeTimeNanos = changeTimeMillis * 1_000_000L;
+        calculateDirection();
+        if (listener != null) {
+            listener.onDirectionChanged(currentDirection, currentSpeedRatio, currentAngle);
         }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        removeCallbacks(settler);
+        super.onDetachedFromWindow();
+    }
+
+    /**
+     * 根据输入处理的量化结果计算摇杆的方向（0度指向正前方）
+     * 速度为0时方向为NONE
+     */
+    private void calculateDirection() {
+        int speed = inputFilter.getSpeed();
+        currentSpeedRatio = speed / (float) JoystickInputFilter.MAX_SPEED;
+        currentAngle = inputFilter.getAngle();
+        if (speed == 0) {
+            currentDirection = Direction.NONE;
+            return;
+        }
+
+        // 平滑后的偏移量
+        float deltaX = inputFilter.getFilteredX();
+        float deltaY = inputFilter.getFilteredY();
+
+        // 根据角度所在的45度扇区确定方向（正前方为337.5-22.5度，逆时针依次为左前、左、左后……）
+        Direction newDirection = SECTOR_DIRECTIONS[JoystickInputFilter.sectorOf(currentAngle)];
 
         // 调整对角线方向灵敏度
         if (Math.abs(deltaX) > backgroundRadius * 0.4 &&
@@ -174,14 +224,19 @@ public class JoystickView extends View {
             }
         }
 
-        triggerDirectionChange(newDirection, currentAngle);
+        currentDirection = newDirection;
     }
 
-    private void triggerDirectionChange(Direction newDirection, double angle) {
-        currentDirection = newDirection;
-        if (listener != null) {
-            listener.onDirectionChanged(currentDirection, currentSpeedRatio, angle);
-        }
+    /**
+     * 配置输入处理参数
+     *
+     * @param deadzone        死区半径占摇杆半径的比例，0-1
+     * @param smoothingMillis 平滑时间常数（毫秒），0表示不平滑
+     */
+    public void setInputFiltering(float deadzone, float smoothingMillis) {
+        removeCallbacks(settler);
+        inputFilter = new JoystickInputFilter(deadzone, smoothingMillis);
+        inputFilter.setRadius(backgroundRadius);
     }
 
     public void setOnDirectionChangeListener(OnDirectionChangeListener listener) {
@@ -189,7 +244,7 @@ public class JoystickView extends View {
     }
 
     /**
-    * 获取当前摇杆的速度比例（0.0-1.0）
+    * 获取当前摇杆量化后的速度比例（0.0-1.0，步长0.01）
     * 当摇杆处于中心时为0，推到最大半径时为1.0
     *
     * @return 当前速度比例值（浮点数）
@@ -199,7 +254,7 @@ public class JoystickView extends View {
     }
 
     /**
-    * 获取当前摇杆的实时角度（0-360度）
+    * 获取当前摇杆量化后的角度（0-359度）
     * 角度以正前方为0度，顺时针方向递增
     *
     * @return 当前角度值（双精度浮点数）
@@ -208,6 +263,16 @@ public class JoystickView extends View {
         return currentAngle;
     }
 
+    /**
+     * 获取最近一次通知对应的触摸事件时间，在监听器回调中读取即为本次变化的时间
+     * 与System.nanoTime同一时钟，精度为毫秒
+     *
+     * @return 触摸事件时间（纳秒），尚未变化过为0
+     */
+    public long getLastChangeTimeNanos() {
+        return lastChangeTimeNanos;
+    }
+
     // 获取当前摇杆的方向
     public Direction getCurrentDirection() {
         return currentDirection;
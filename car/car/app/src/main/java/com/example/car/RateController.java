@@ -0,0 +1,233 @@
+package com.example.car;
+
+import java.util.Arrays;
+
+/**
+ * 根据服务端确认（ACK）调整控制帧的发送频率
+ *
+ * 每个ACK带回被确认帧的发送时间和服务端累计收到的控制帧数：
+ * <pre>
+ *  往返时间 = 收到ACK的时间 - 被确认帧的发送时间（都是客户端时钟，不需要时钟同步）
+ *  丢帧率   = 1 - 服务端新收到的帧数 / 截至被确认帧客户端新发送的帧数
+ * </pre>
+ * 丢帧率按被确认帧对齐计算，仍在路上的帧不会被算作丢失
+ *
+ * 每个评估窗口结束时判断一次链路状态（加性增、乘性减）：
+ * 丢帧率超过LOSS_THRESHOLD、平滑往返时间比最小往返时间高出排队阈值，或整个窗口没有收到任何ACK，
+ * 视为拥塞，频率乘以DECREASE_FACTOR；否则视为通畅，频率增加INCREASE_STEP_HZ
+ *
+ * 发送线程调用onSent/evaluate，接收线程调用onAck，方法均为同步方法
+ */
+public class RateController {
+    /** 丢帧率超过该值视为拥塞 */
+    static final double LOSS_THRESHOLD = 0.05;
+    /** 排队延迟（平滑往返时间减最小往返时间）的下限阈值 */
+    static final long MIN_QUEUE_DELAY_NANOS = 20_000_000L;
+    /** 拥塞时频率的乘数 */
+    static final double DECREASE_FACTOR = 0.7;
+    /** 通畅时每个窗口增加的频率 */
+    static final int INCREASE_STEP_HZ = 5;
+    /** 窗口内发送的帧数少于该值时不做判断 */
+    static final int MIN_WINDOW_FRAMES = 5;
+    /**
+     * 服务端看门狗期限内至少容纳的发送周期数：丢失一帧时两帧的间隔为两个周期，
+     * 再留一个周期给网络和调度的抖动，看门狗仍然不会停车
+     */
+    static final int PERIODS_PER_DEADLINE = 3;
+
+    // 按序号记录发送时的累计发送帧数，确认帧据此找到对应的发送计数
+    private static final int HISTORY = 1024;
+
+    private final int minHz;
+    private final int maxHz;
+    private final int initialHz;
+    private final long windowNanos;
+    private final int[] sentCountBySequence = new int[HISTORY];
+    private final int[] sequenceBySlot = new int[HISTORY];
+
+    private int rateHz;
+    private int sentCount;
+    private long windowStartNanos;
+    private int windowStartSent;
+
+    // 最近一个ACK的确认位置，以及窗口开始时的确认位置
+    private boolean hasAck;
+    private int ackedSent;
+    private int ackedReceived;
+    private int windowAckedSent;
+    private int windowAckedReceived;
+    private int windowAcks;
+
+    private long smoothedRttNanos;
+    private long minRttNanos;
+    private double lossRatio;
+    private int decreaseCount;
+    private int increaseCount;
+
+    /**
+     * 按服务端看门狗的期限计算最低发送频率，降到该频率时偶尔丢失一帧不会触发停车
+     *
+     * @param deadlineMillis 看门狗期限（毫秒）
+     * @return 最低频率
+     */
+    public static int minRateHzFor(long deadlineMillis) {
+        return (int) ((PERIODS_PER_DEADLINE * 1000L + deadlineMillis - 1) / deadlineMillis);
+    }
+
+    /**
+     * @param minHz       最低频率
+     * @param maxHz       最高频率
+     * @param initialHz   初始频率，每次reset后恢复
+     * @param windowNanos 评估窗口长度（纳秒）
+     */
+    public RateController(int minHz, int maxHz, int initialHz, long windowNanos) {
+        if (minHz < ControlLoop.MIN_RATE_HZ || maxHz > ControlLoop.MAX_RATE_HZ
+                || initialHz < minHz || initialHz > maxHz) {
+            throw new IllegalArgumentException("rate: " + minHz + "-" + maxHz + ", " + initialHz);
+        }
+        this.minHz = minHz;
+        this.maxHz = maxHz;
+        this.initialHz = initialHz;
+        this.windowNanos = windowNanos;
+        this.rateHz = initialHz;
+    }
+
+    /**
+     * 恢复初始状态，建立新连接时调用
+     */
+    public synchronized void reset() {
+        rateHz = initialHz;
+        Arrays.fill(sequenceBySlot, 0);
+        sentCount = 0;
+        windowStartNanos = 0;
+        windowStartSent = 0;
+        hasAck = false;
+        windowAcks = 0;
+        smoothedRttNanos = 0;
+        minRttNanos = 0;
+        lossRatio = 0;
+    }
+
+    /**
+     * 记录发送了一个控制帧
+     *
+     * @param sequence 帧序号
+     */
+    public synchronized void onSent(int sequence) {
+        sentCount++;
+        int slot = sequence & (HISTORY - 1);
+        sequenceBySlot[slot] = sequence;
+        sentCountBySequence[slot] = sentCount;
+    }
+
+    /**
+     * 处理一个ACK
+     *
+     * @param sequence           被确认的帧序号
+     * @param receivedCount      服务端累计收到的控制帧数（无符号16位）
+     * @param echoedSentNanos    被确认帧的发送时间
+     * @param receivedNanos      收到ACK的时间
+     */
+    public synchronized void onAck(int sequence, int receivedCount, long echoedSentNanos, long receivedNanos) {
+        int slot = sequence & (HISTORY - 1);
+        if (sequenceBySlot[slot] != sequence || sentCount == 0) {
+            // 太旧或属于上一个连接的确认
+            return;
+        }
+        long rtt = receivedNanos - echoedSentNanos;
+        if (rtt >= 0) {
+            // 与TCP相同的1/8指数平滑
+            smoothedRttNanos = smoothedRttNanos == 0 ? rtt : smoothedRttNanos + (rtt - smoothedRttNanos) / 8;
+            if (minRttNanos == 0 || rtt < minRttNanos) {
+                minRttNanos = rtt;
+            }
+        }
+        ackedSent = sentCountBySequence[slot];
+        ackedReceived = receivedCount & 0xFFFF;
+        if (!hasAck) {
+            // 第一个ACK只作为计数的起点
+            hasAck = true;
+            windowAckedSent = ackedSent;
+            windowAckedReceived = ackedReceived;
+        }
+        windowAcks++;
+    }
+
+    /**
+     * 在每次发送后调用，窗口结束时调整频率
+     *
+     * @param nowNanos 当前时间
+     * @return 当前应使用的频率
+     */
+    public synchronized int evaluate(long nowNanos) {
+        if (windowStartNanos == 0) {
+            windowStartNanos = nowNanos;
+            windowStartSent = sentCount;
+            return rateHz;
+        }
+        if (nowNanos - windowStartNanos < windowNanos) {
+            return rateHz;
+        }
+
+        int sentInWindow = sentCount - windowStartSent;
+        if (sentInWindow >= MIN_WINDOW_FRAMES) {
+            boolean congested;
+            if (windowAcks == 0) {
+                // 整个窗口没有任何确认：链路中断或严重拥塞
+                lossRatio = 1;
+                congested = true;
+            } else {
+                int sent = ackedSent - windowAckedSent;
+                int received = (ackedReceived - windowAckedReceived) & 0xFFFF;
+                lossRatio = sent <= 0 ? 0 : Math.max(0, 1 - (double) received / sent);
+                long queueDelay = smoothedRttNanos - minRttNanos;
+                congested = lossRatio > LOSS_THRESHOLD
+                        || queueDelay > Math.max(MIN_QUEUE_DELAY_NANOS, minRttNanos);
+            }
+            if (congested) {
+                decreaseCount++;
+                rateHz = Math.max(minHz, (int) (rateHz * DECREASE_FACTOR));
+            } else {
+                increaseCount++;
+                rateHz = Math.min(maxHz, rateHz + INCREASE_STEP_HZ);
+            }
+        }
+
+        windowStartNanos = nowNanos;
+        windowStartSent = sentCount;
+        windowAckedSent = ackedSent;
+        windowAckedReceived = ackedReceived;
+        windowAcks = 0;
+        return rateHz;
+    }
+
+    /** @return 当前频率（次/秒） */
+    public synchronized int getRateHz() {
+        return rateHz;
+    }
+
+    /** @return 平滑往返时间（纳秒），没有样本时为0 */
+    public synchronized long getSmoothedRttNanos() {
+        return smoothedRttNanos;
+    }
+
+    /** @return 最小往返时间（纳秒），没有样本时为0 */
+    public synchronized long getMinRttNanos() {
+        return minRttNanos;
+    }
+
+    /** @return 最近一个窗口的丢帧率，0-1 */
+    public synchronized double getLossRatio() {
+        return lossRatio;
+    }
+
+    /** @return 降低频率的次数 */
+    public synchronized int getDecreaseCount() {
+        return decreaseCount;
+    }
+
+    /** @return 提高频率的次数 */
+    public synchronized int getIncreaseCount() {
+        return increaseCount;
+    }
+}
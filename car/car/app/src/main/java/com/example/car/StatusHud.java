@@ -0,0 +1,269 @@
+package com.example.car;
+
+import android.graphics.Color;
+import android.view.Choreographer;
+import android.widget.TextView;
+
+/**
+ * 状态显示（方向、速度、角度）
+ * 摇杆回调只记录最新状态并申请一次Choreographer帧回调，每帧最多刷新一次界面，
+ * 一帧内的多次摇杆事件只绘制最后的状态；数值没有变化的文本不会重新setText
+ *
+ * 刷新过程不分配对象：方向文本预先生成，速度颜色按0-100预先计算，
+ * 数字直接写入预分配的字符缓冲区。TextView.setText(char[], int, int)会持有传入的数组，
+ * 因此每个文本使用两个缓冲区交替写入，不修改TextView正在显示的数组
+ *
+ * 每秒统计一次收到的状态更新数、实际刷新次数和单帧最长耗时，显示在统计文本中
+ *
+ * 只能在UI线程中使用
+ */
+public class StatusHud implements Choreographer.FrameCallback {
+    private static final String SPEED_PREFIX = "当前速度: ";
+    private static final String ANGLE_PREFIX = "当前角度: ";
+    private static final long STATS_WINDOW_NANOS = 1_000_000_000L;
+
+    private final TextView directionView;
+    private final TextView speedView;
+    private final TextView angleView;
+    private final TextView statsView;
+    private final Choreographer choreographer = Choreographer.getInstance();
+
+    private final String[] directionTexts;
+    private final int[] speedColors = new int[JoystickInputFilter.MAX_SPEED + 1];
+
+    // 双缓冲的字符缓冲区
+    private final char[][] speedBuffers = new char[2][32];
+    private final char[][] angleBuffers = new char[2][32];
+    private final char[][] statsBuffers = new char[2][64];
+    private int speedBufferIndex;
+    private int angleBufferIndex;
+    private int statsBufferIndex;
+
+    // 最新状态，由摇杆回调写入
+    private JoystickView.Direction direction = JoystickView.Direction.NONE;
+    private int speed;
+    private int angle;
+    private boolean frameScheduled;
+
+    // 已显示的状态，-1表示尚未显示
+    private JoystickView.Direction shownDirection;
+    private int shownSpeed = -1;
+    private int shownAngle = -1;
+
+    // 统计窗口
+    private long windowStartNanos;
+    private int windowUpdates;
+    private int windowRenders;
+    private long windowMaxFrameNanos;
+    private volatile int updatesPerSecond;
+    private volatile int rendersPerSecond;
+    private volatile long maxFrameNanos;
+
+    /**
+     * @param directionView 方向文本
+     * @param speedView     速度文本
+     * @param angleView     角度文本
+     * @param statsView     刷新统计文本，可以为null
+     */
+    public StatusHud(TextView directionView, TextView speedView, TextView angleView, TextView statsView) {
+        this.directionView = directionView;
+        this.speedView = speedView;
+        this.angleView = angleView;
+        this.statsView = statsView;
+
+        JoystickView.Direction[] directions = JoystickView.Direction.values();
+        directionTexts = new String[directions.length];
+        for (JoystickView.Direction d : directions) {
+            directionTexts[d.ordinal()] = getDirectionText(d);
+        }
+        float[] hsv = {0f, 1f, 1f};
+        for (int i = 0; i < speedColors.length; i++) {
+            // 比例乘以120f是为了在HSV颜色轮盘上从红色过渡到绿色
+            hsv[0] = i * 120f / JoystickInputFilter.MAX_SPEED;
+            speedColors[i] = Color.HSVToColor(hsv);
+        }
+        directionView.setAlpha(0.8f);
+        angleView.setAlpha(0.8f);
+    }
+
+    /**
+     * 记录最新状态，在下一帧刷新
+     *
+     * @param direction 方向
+     * @param speed     速度，0-100
+     * @param angle     角度，0-359
+     */
+    public void update(JoystickView.Direction direction, int speed, int angle) {
+        this.direction = direction;
+        this.speed = Math.max(0, Math.min(speed, JoystickInputFilter.MAX_SPEED));
+        this.angle = angle;
+        windowUpdates++;
+        if (!frameScheduled) {
+            frameScheduled = true;
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    /**
+     * 取消尚未执行的帧回调，界面销毁时调用
+     */
+    public void stop() {
+        if (frameScheduled) {
+            choreographer.removeFrameCallback(this);
+            frameScheduled = false;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled = false;
+        long start = System.nanoTime();
+        render();
+        long elapsed = System.nanoTime() - start;
+
+        windowRenders++;
+        if (elapsed > windowMaxFrameNanos) {
+            windowMaxFrameNanos = elapsed;
+        }
+        if (windowStartNanos == 0) {
+            windowStartNanos = frameTimeNanos;
+        } else if (frameTimeNanos - windowStartNanos >= STATS_WINDOW_NANOS) {
+            publishStats(frameTimeNanos - windowStartNanos);
+            windowStartNanos = frameTimeNanos;
+        }
+    }
+
+    private void render() {
+        if (direction != shownDirection) {
+            shownDirection = direction;
+            directionView.setText(directionTexts[direction.ordinal()]);
+        }
+        if (speed != shownSpeed) {
+            shownSpeed = speed;
+            char[] buffer = speedBuffers[speedBufferIndex ^= 1];
+            int length = formatWithSuffix(buffer, SPEED_PREFIX, speed, '%');
+            speedView.setText(buffer, 0, length);
+            speedView.setTextColor(speedColors[speed]);
+        }
+        if (angle != shownAngle) {
+            shownAngle = angle;
+            char[] buffer = angleBuffers[angleBufferIndex ^= 1];
+            int length = formatWithSuffix(buffer, ANGLE_PREFIX, angle, '°');
+            angleView.setText(buffer, 0, length);
+        }
+    }
+
+    /**
+     * 结束一个统计窗口，换算为每秒的数值
+     *
+     * @param windowNanos 窗口长度
+     */
+    private void publishStats(long windowNanos) {
+        updatesPerSecond = (int) (windowUpdates * STATS_WINDOW_NANOS / windowNanos);
+        rendersPerSecond = (int) (windowRenders * STATS_WINDOW_NANOS / windowNanos);
+        maxFrameNanos = windowMaxFrameNanos;
+        windowUpdates = 0;
+        windowRenders = 0;
+        windowMaxFrameNanos = 0;
+
+        if (statsView != null) {
+            char[] buffer = statsBuffers[statsBufferIndex ^= 1];
+            int length = formatStats(buffer, updatesPerSecond, rendersPerSecond, maxFrameNanos);
+            statsView.setText(buffer, 0, length);
+        }
+    }
+
+    /**
+     * 写入“前缀+数字+后缀”
+     *
+     * @return 写入的字符数
+     */
+    static int formatWithSuffix(char[] dst, String prefix, int value, char suffix) {
+        prefix.getChars(0, prefix.length(), dst, 0);
+        int pos = appendInt(dst, prefix.length(), value);
+        dst[pos++] = suffix;
+        return pos;
+    }
+
+    /**
+     * 写入统计文本，如 “输入 120/s 刷新 60/s 最长 0.35ms”
+     *
+     * @return 写入的字符数
+     */
+    static int formatStats(char[] dst, int updates, int renders, long maxFrameNanos) {
+        int pos = appendString(dst, 0, "输入 ");
+        pos = appendInt(dst, pos, updates);
+        pos = appendString(dst, pos, "/s 刷新 ");
+        pos = appendInt(dst, pos, renders);
+        pos = appendString(dst, pos, "/s 最长 ");
+        // 以0.01毫秒为单位，保留两位小数
+        int hundredths = (int) Math.min(maxFrameNanos / 10_000, Integer.MAX_VALUE);
+        pos = appendInt(dst, pos, hundredths / 100);
+        dst[pos++] = '.';
+        dst[pos++] = (char) ('0' + hundredths / 10 % 10);
+        dst[pos++] = (char) ('0' + hundredths % 10);
+        return appendString(dst, pos, "ms");
+    }
+
+    private static int appendString(char[] dst, int pos, String s) {
+        s.getChars(0, s.length(), dst, pos);
+        return pos + s.length();
+    }
+
+    /**
+     * 把整数的十进制表示写入缓冲区
+     *
+     * @return 写入后的位置
+     */
+    static int appendInt(char[] dst, int pos, int value) {
+        if (value < 0) {
+            dst[pos++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (int v = value / 10; v != 0; v /= 10) {
+            digits++;
+        }
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            dst[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + digits;
+    }
+
+    /**
+     * 根据方向获取对应的文本描述
+     *
+     * @param direction 摇杆的方向
+     * @return 对应方向的文本描述
+     */
+    static String getDirectionText(JoystickView.Direction direction) {
+        switch (direction) {
+            case UP: return "↑ 正前方";
+            case RIGHT: return "→ 正右方";
+            case DOWN: return "↓ 正后方";
+            case LEFT: return "← 正左方";
+            case UP_RIGHT: return "↗ 右前方";
+            case DOWN_RIGHT: return "↘ 右后方";
+            case DOWN_LEFT: return "↙ 左后方";
+            case UP_LEFT: return "↖ 左前方";
+            case NONE: return "○ 停止状态";
+            default: return "未知方向";
+        }
+    }
+
+    /** @return 最近一个统计窗口内每秒收到的状态更新数 */
+    public int getUpdatesPerSecond() {
+        return updatesPerSecond;
+    }
+
+    /** @return 最近一个统计窗口内每秒实际刷新的次数 */
+    public int getRendersPerSecond() {
+        return rendersPerSecond;
+    }
+
+    /** @return 最近一个统计窗口内单帧刷新的最长耗时（纳秒） */
+    public long getMaxFrameNanos() {
+        return maxFrameNanos;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.car;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+/**
+ * 基于TCP的控制帧传输通道
+ * 数据可靠有序，但丢包重传时后面的指令都要排队等待（队头阻塞）
+ * 关闭Nagle算法，每帧32字节的控制帧立即发出，不等待与后续数据合并
+ */
+public class TcpCommandTransport implements CommandTransport {
+    // 连接超时，服务器不可达时连接线程尽快进入退避，而不是等待系统默认的数十秒
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+
+    // 关闭后不清空：发送线程可能已经取得本通道并等待发送，关闭的流抛出IOException，而不是空指针
+    private volatile Socket socket;
+    private volatile OutputStream output;
+    private volatile InputStream input;
+
+    @Override
+    public void open(String host, int port) throws IOException {
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+        // 设置Socket读取超时时间为3秒
+        socket.setSoTimeout(3000);
+        output = socket.getOutputStream();
+        input = socket.getInputStream();
+    }
+
+    @Override
+    public void send(ByteBuffer frame) throws IOException {
+        OutputStream out = output;
+        if (out == null) {
+            throw new IOException("未连接");
+        }
+        out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        frame.position(frame.limit());
+    }
+
+    @Override
+    public int receive(ByteBuffer dst) throws IOException {
+        InputStream in = input;
+        if (in == null) {
+            throw new IOException("未连接");
+        }
+        int n;
+        try {
+            n = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+        } catch (SocketTimeoutException e) {
+            return 0;
+        }
+        if (n > 0) {
+            dst.position(dst.position() + n);
+        }
+        return n;
+    }
+
+    /** @return 是否已关闭Nagle算法，用于测试 */
+    boolean isTcpNoDelay() throws IOException {
+        return socket.getTcpNoDelay();
+    }
+
+    @Override
+    public boolean isOpen() {
+        Socket s = socket;
+        return s != null
+                && s.isConnected()
+                && !s.isClosed()
+                && !s.isInputShutdown()
+                && !s.isOutputShutdown();
+    }
+
+    @Override
+    public void close() throws IOException {
+        OutputStream out = output;
+        if (out != null) {
+            out.close();
+        }
+        Socket s = socket;
+        if (s != null) {
+            s.close();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.car;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * 基于UDP的控制帧传输通道
+ * 每帧一个数据报，丢失的帧不会阻塞后续指令，服务端按序号只执行最新的指令
+ */
+public class UdpCommandTransport implements CommandTransport {
+    // 关闭后不清空：发送线程可能已经取得本通道并等待发送，关闭的通道抛出ClosedChannelException，而不是空指针
+    private volatile DatagramChannel channel;
+
+    @Override
+    public void open(String host, int port) throws IOException {
+        channel = DatagramChannel.open();
+        // connect只是固定目标地址，UDP没有握手过程
+        channel.connect(new InetSocketAddress(host, port));
+    }
+
+    @Override
+    public void send(ByteBuffer frame) throws IOException {
+        openChannel().write(frame);
+    }
+
+    @Override
+    public int receive(ByteBuffer dst) throws IOException {
+        // 通道为阻塞模式，每次读取一个完整的数据报；close会使阻塞的读取抛出AsynchronousCloseException
+        return openChannel().read(dst);
+    }
+
+    @Override
+    public boolean isOpen() {
+        DatagramChannel c = channel;
+        return c != null && c.isOpen() && c.isConnected();
+    }
+
+    @Override
+    public void close() throws IOException {
+        DatagramChannel c = channel;
+        if (c != null) {
+            c.close();
+        }
+    }
+
+    private DatagramChannel openChannel() throws IOException {
+        DatagramChannel c = channel;
+        if (c == null) {
+            throw new IOException("未连接");
+        }
+        return c;
+    }
+}
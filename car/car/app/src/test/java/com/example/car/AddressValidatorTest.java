@@ -0,0 +1,25 @@
+package com.example.car;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AddressValidatorTest {
+
+    @Test
+    public void acceptsDottedQuad() {
+        assertTrue(AddressValidator.isValidIp("192.168.1.10"));
+        assertTrue(AddressValidator.isValidIp("0.0.0.0"));
+        assertTrue(AddressValidator.isValidIp("255.255.255.255"));
+    }
+
+    @Test
+    public void rejectsMalformedAddresses() {
+        assertFalse(AddressValidator.isValidIp(""));
+        assertFalse(AddressValidator.isValidIp("256.1.1.1"));
+        assertFalse(AddressValidator.isValidIp("1.2.3"));
+        assertFalse(AddressValidator.isValidIp("1.2.3.4.5"));
+        assertFalse(AddressValidator.isValidIp("a.b.c.d"));
+        assertFalse(AddressValidator.isValidIp(" 1.2.3.4"));
+    }
+}
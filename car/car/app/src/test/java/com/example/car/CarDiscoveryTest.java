@@ -0,0 +1,203 @@
+package com.example.car;
+
+import com.example.carcommon.DiscoveryMessage;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.car.TestUtil.waitFor;
+import static org.junit.Assert.*;
+
+public class CarDiscoveryTest {
+    private final List<FakeResponder> responders = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (FakeResponder responder : responders) {
+            responder.close();
+        }
+    }
+
+    @Test
+    public void listsCarsRankedByRtt() throws Exception {
+        FakeResponder slow = newResponder("127.0.0.1", "slow", 9001, 40, 0);
+        FakeResponder fast = newResponder("127.0.0.2", "fast", 9002, 0, 2);
+        FakeResponder driven = newResponder("127.0.0.3", "driven", 9003, 10, 1);
+        List<CarDiscovery.Result> results = discover(200, slow, fast, driven);
+
+        assertEquals(3, results.size());
+        assertEquals("fast", results.get(0).name);
+        assertEquals("driven", results.get(1).name);
+        assertEquals("slow", results.get(2).name);
+        CarDiscovery.Result first = results.get(0);
+        assertEquals("127.0.0.2", first.host);
+        assertEquals(9002, first.port);
+        assertEquals(2, first.clients);
+        assertTrue(first.supports(DiscoveryMessage.CAP_TCP));
+        assertFalse(first.supports(DiscoveryMessage.CAP_CLAIM));
+        assertTrue(results.get(2).rttNanos >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertTrue(results.get(1).driven);
+
+        // 已有驾驶者的小车排在没有驾驶者的小车之后选择
+        assertSame(first, CarDiscovery.best(results, DiscoveryMessage.CAP_TCP));
+        assertEquals("slow", CarDiscovery.best(results.subList(1, 3), DiscoveryMessage.CAP_TCP).name);
+        assertEquals("driven", CarDiscovery.best(results.subList(1, 2), DiscoveryMessage.CAP_TCP).name);
+        assertNull(CarDiscovery.best(results, DiscoveryMessage.CAP_CLAIM));
+    }
+
+    @Test
+    public void ignoresLateAndForeignReplies() throws Exception {
+        FakeResponder ok = newResponder("127.0.0.1", "ok", 9001, 0, 0);
+        FakeResponder late = newResponder("127.0.0.2", "late", 9002, 300, 0);
+        FakeResponder wrongNonce = newResponder("127.0.0.3", "wrong", 9003, 0, 0);
+        wrongNonce.nonceOffset = 1;
+        FakeResponder twice = newResponder("127.0.0.4", "twice", 9004, 0, 0);
+        twice.copies = 2;
+
+        List<CarDiscovery.Result> results = discover(100, ok, late, wrongNonce, twice);
+        assertEquals(2, results.size());
+        for (CarDiscovery.Result result : results) {
+            assertTrue(result.name, result.name.equals("ok") || result.name.equals("twice"));
+        }
+    }
+
+    @Test
+    public void emptyWhenNobodyAnswers() throws Exception {
+        List<CarDiscovery.Result> results = new CarDiscovery(Arrays.asList(
+                new InetSocketAddress("127.0.0.1", unusedPort()))).discover(50);
+        assertTrue(results.isEmpty());
+    }
+
+    @Test
+    public void discoveredCarIsConnectedThroughConnectionManager() throws Exception {
+        try (ServerSocket control = new ServerSocket(0)) {
+            FakeResponder car = newResponder("127.0.0.1", "car", control.getLocalPort(), 0, 0);
+            CarDiscovery.Result best = CarDiscovery.best(discover(100, car), DiscoveryMessage.CAP_TCP);
+            assertNotNull(best);
+
+            // 与MainActivity相同：发现后立即开始连接，不等用户点击
+            int[] state = {ConnectionManager.STATE_DISCONNECTED};
+            ConnectionManager manager = new ConnectionManager(new ConnectionManager.Listener() {
+                @Override
+                public void onConnected(CommandTransport transport) {
+                }
+
+                @Override
+                public void onClosing(CommandTransport transport, boolean requested) {
+                }
+
+                @Override
+                public void onClosed(CommandTransport transport) {
+                }
+
+                @Override
+                public void onStateChanged(int newState, IOException cause) {
+                    state[0] = newState;
+                }
+            });
+            manager.start();
+            try {
+                manager.connect(best.host, best.port, false);
+                waitFor(() -> manager.getState() == ConnectionManager.STATE_CONNECTED);
+            } finally {
+                manager.stop();
+            }
+            assertEquals(ConnectionManager.STATE_DISCONNECTED, state[0]);
+        }
+    }
+
+    private List<CarDiscovery.Result> discover(long windowMillis, FakeResponder... targets) throws IOException {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (FakeResponder responder : targets) {
+            addresses.add(responder.address);
+        }
+        return new CarDiscovery(addresses).discover(windowMillis);
+    }
+
+    private FakeResponder newResponder(String host, String name, int controlPort, long delayMillis, int clients)
+            throws IOException {
+        FakeResponder responder = new FakeResponder(host, name, controlPort, delayMillis, clients);
+        responders.add(responder);
+        return responder;
+    }
+
+    private static int unusedPort() throws IOException {
+        try (DatagramChannel probe = DatagramChannel.open()) {
+            probe.bind(new InetSocketAddress("127.0.0.1", 0));
+            return ((InetSocketAddress) probe.getLocalAddress()).getPort();
+        }
+    }
+
+    /**
+     * 模拟小车的发现服务：延迟delayMillis后回复，clients为1时报告已有驾驶者
+     */
+    private static final class FakeResponder implements Runnable {
+        final String name;
+        final InetSocketAddress address;
+        private final DatagramChannel channel;
+        private final int controlPort;
+        private final long delayMillis;
+        private final int clients;
+        volatile int nonceOffset;
+        volatile int copies = 1;
+
+        FakeResponder(String host, String name, int controlPort, long delayMillis, int clients) throws IOException {
+            this.name = name;
+            this.controlPort = controlPort;
+            this.delayMillis = delayMillis;
+            this.clients = clients;
+            channel = DatagramChannel.open();
+            channel.bind(new InetSocketAddress(host, 0));
+            address = (InetSocketAddress) channel.getLocalAddress();
+            Thread thread = new Thread(this, "fake-discovery");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocate(DiscoveryMessage.SIZE);
+            DiscoveryMessage probe = new DiscoveryMessage();
+            try {
+                while (true) {
+                    buffer.clear();
+                    SocketAddress sender = channel.receive(buffer);
+                    buffer.flip();
+                    if (!probe.decode(buffer)) {
+                        continue;
+                    }
+                    Thread.sleep(delayMillis);
+                    probe.nonce += nonceOffset;
+                    for (int i = 0; i < copies; i++) {
+                        buffer.clear();
+                        DiscoveryMessage.encodeReply(buffer, probe, DiscoveryMessage.CAP_TCP, controlPort, clients,
+                                clients == 1 ? DiscoveryMessage.FLAG_DRIVER : 0, name);
+                        buffer.flip();
+                        channel.send(buffer, sender);
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // 测试结束时关闭
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // 测试结束
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.car;
+
+import com.example.carcommon.ControlFrame;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CommandRecorderTest {
+    private final List<File> files = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void roundTripAcrossManyRegions() throws Exception {
+        File file = newFile();
+        int count = 1000;
+        try (CommandRecorder recorder = new CommandRecorder(file, 4)) {
+            for (int i = 0; i < count; i++) {
+                if (i % 2 == 0) {
+                    recorder.recordJoystick(i % 9, i % 360, i % 101);
+                } else {
+                    recorder.recordSent(i, i % 360, i % 101);
+                }
+            }
+            assertEquals(count, recorder.getRecordCount());
+        }
+        // 关闭时截断到实际长度，不保留最后一个区域的空白部分
+        assertEquals(CommandRecording.HEADER_SIZE + (long) count * CommandRecording.RECORD_SIZE, file.length());
+
+        CommandRecording.Record record = new CommandRecording.Record();
+        try (CommandRecording.Reader reader = new CommandRecording.Reader(file, 3)) {
+            assertTrue(Math.abs(reader.getStartEpochMillis() - System.currentTimeMillis()) < 60_000);
+            long lastTime = -1;
+            for (int i = 0; i < count; i++) {
+                assertTrue(reader.next(record));
+                assertTrue(record.timeNanos >= lastTime);
+                lastTime = record.timeNanos;
+                assertEquals(i % 360, record.angle);
+                assertEquals(i % 101, record.speed);
+                if (i % 2 == 0) {
+                    assertEquals(CommandRecording.KIND_JOYSTICK, record.kind);
+                    assertEquals(i % 9, record.direction);
+                } else {
+                    assertEquals(CommandRecording.KIND_SENT, record.kind);
+                    assertEquals(i, record.sequence);
+                }
+            }
+            assertFalse(reader.next(record));
+        }
+    }
+
+    @Test
+    public void readerStopsAtUnfinishedRecord() throws Exception {
+        File file = newFile();
+        CommandRecorder recorder = new CommandRecorder(file, 16);
+        recorder.recordJoystick(0, 90, 50);
+        recorder.recordJoystick(0, 180, 60);
+
+        // 录制没有正常关闭时，文件尾部是映射区域中尚未写入的零
+        assertTrue(file.length() > CommandRecording.HEADER_SIZE + 2L * CommandRecording.RECORD_SIZE);
+        CommandRecording.Record record = new CommandRecording.Record();
+        try (CommandRecording.Reader reader = new CommandRecording.Reader(file)) {
+            assertTrue(reader.next(record));
+            assertTrue(reader.next(record));
+            assertEquals(180, record.angle);
+            assertFalse(reader.next(record));
+        }
+        recorder.close();
+        recorder.recordJoystick(0, 0, 0);
+        assertEquals(2, recorder.getRecordCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void readerRejectsForeignFile() throws Exception {
+        File file = newFile();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(new byte[CommandRecording.HEADER_SIZE + CommandRecording.RECORD_SIZE]);
+        }
+        new CommandRecording.Reader(file).close();
+    }
+
+    @Test
+    public void replayKeepsRecordedTimingAtEachSpeed() throws Exception {
+        File file = newFile();
+        long[] recorded = recordSession(file, 10, 20);
+        long span = recorded[recorded.length - 1] - recorded[0];
+
+        for (double speed : new double[]{1.0, 2.0}) {
+            List<Long> replayed = new ArrayList<>();
+            CountDownLatch done = new CountDownLatch(1);
+            CommandReplayer replayer = new CommandReplayer(file, CommandRecording.KIND_JOYSTICK, speed,
+                    new CommandReplayer.Sink() {
+                        @Override
+                        public void onRecord(CommandRecording.Record record) {
+                            replayed.add(System.nanoTime());
+                        }
+
+                        @Override
+                        public void onFinished() {
+                            done.countDown();
+                        }
+                    });
+            replayer.start();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            replayer.stop();
+
+            assertTrue(replayer.isFinished());
+            assertEquals(recorded.length, replayer.getReplayedCount());
+            // 按绝对时间点等待，总时长不随记录数累积误差
+            long replayedSpan = replayed.get(replayed.size() - 1) - replayed.get(0);
+            assertEquals(span / speed, replayedSpan, TimeUnit.MILLISECONDS.toNanos(15));
+            assertTrue(replayer.getMeanLatenessNanos() < TimeUnit.MILLISECONDS.toNanos(5));
+        }
+    }
+
+    @Test
+    public void replayGoesThroughControlLoopToTransport() throws Exception {
+        File file = newFile();
+        recordSession(file, 8, 30);
+
+        try (ServerSocket server = new ServerSocket(0)) {
+            TcpCommandTransport transport = new TcpCommandTransport();
+            transport.open("127.0.0.1", server.getLocalPort());
+            try (Socket accepted = server.accept()) {
+                ByteBuffer tx = ByteBuffer.allocate(ControlFrame.SIZE);
+                int[] sequence = {0};
+                ControlLoop loop = new ControlLoop(200, (angle, speed, origin) -> {
+                    tx.clear();
+                    ControlFrame.encode(tx, ControlFrame.TYPE_CONTROL, ++sequence[0], angle, speed, origin);
+                    tx.flip();
+                    try {
+                        transport.send(tx);
+                        return true;
+                    } catch (IOException e) {
+                        return false;
+                    }
+                });
+                CommandReplayer replayer = new CommandReplayer(file, CommandRecording.KIND_JOYSTICK, 1.0,
+                        record -> loop.update(record.angle, record.speed, System.nanoTime()));
+                loop.start();
+                replayer.start();
+
+                // 控制周期5ms小于记录间隔30ms，录制的每个状态都至少发送一次且保持顺序
+                DataInputStream in = new DataInputStream(accepted.getInputStream());
+                byte[] rx = new byte[ControlFrame.SIZE];
+                ControlFrame frame = new ControlFrame();
+                List<Integer> angles = new ArrayList<>();
+                accepted.setSoTimeout(5000);
+                while (angles.size() < 8) {
+                    in.readFully(rx);
+                    assertEquals(ControlFrame.DECODE_OK, frame.decode(ByteBuffer.wrap(rx)));
+                    if (angles.isEmpty() || angles.get(angles.size() - 1) != frame.angle) {
+                        angles.add(frame.angle);
+                        assertEquals(angles.size() * 10, frame.speed);
+                    }
+                }
+                replayer.stop();
+                loop.stop();
+                for (int i = 0; i < angles.size(); i++) {
+                    assertEquals(i * 45, (int) angles.get(i));
+                }
+            } finally {
+                transport.close();
+            }
+        }
+    }
+
+    /**
+     * 按固定间隔录制摇杆事件，角度依次为0、45、90……，速度依次为10、20、30……
+     *
+     * @return 每条记录的时间
+     */
+    private static long[] recordSession(File file, int count, long intervalMs) throws Exception {
+        try (CommandRecorder recorder = new CommandRecorder(file)) {
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    Thread.sleep(intervalMs);
+                }
+                recorder.recordJoystick(0, i * 45, (i + 1) * 10);
+                // 穿插发送记录，回放时应被跳过
+                recorder.recordSent(i, i * 45, (i + 1) * 10);
+            }
+        }
+        long[] times = new long[count];
+        CommandRecording.Record record = new CommandRecording.Record();
+        try (CommandRecording.Reader reader = new CommandRecording.Reader(file)) {
+            int n = 0;
+            while (reader.next(record)) {
+                if (record.kind == CommandRecording.KIND_JOYSTICK) {
+                    times[n++] = record.timeNanos;
+                }
+            }
+            assertEquals(count, n);
+        }
+        return times;
+    }
+
+    private File newFile() throws IOException {
+        File file = File.createTempFile("session", ".crec");
+        files.add(file);
+        return file;
+    }
+}
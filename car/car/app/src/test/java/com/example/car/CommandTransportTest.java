@@ -0,0 +1,130 @@
+package com.example.car;
+
+import com.example.carcommon.ControlFrame;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.example.car.TestUtil.waitFor;
+import static org.junit.Assert.*;
+
+public class CommandTransportTest {
+
+    @Test
+    public void tcpTransport_deliversFramesInOrder() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            CommandTransport transport = new TcpCommandTransport();
+            transport.open("127.0.0.1", server.getLocalPort());
+            try (Socket accepted = server.accept()) {
+                assertTrue(transport.isOpen());
+                assertTrue(((TcpCommandTransport) transport).isTcpNoDelay());
+                for (int seq = 1; seq <= 3; seq++) {
+                    transport.send(encode(seq));
+                }
+
+                DataInputStream in = new DataInputStream(accepted.getInputStream());
+                byte[] rx = new byte[ControlFrame.SIZE];
+                ControlFrame frame = new ControlFrame();
+                for (int seq = 1; seq <= 3; seq++) {
+                    in.readFully(rx);
+                    assertEquals(ControlFrame.DECODE_OK, frame.decode(ByteBuffer.wrap(rx)));
+                    assertEquals(seq, frame.sequence);
+                }
+            } finally {
+                transport.close();
+            }
+            assertFalse(transport.isOpen());
+        }
+    }
+
+    @Test
+    public void udpTransport_sendsOneFramePerDatagram() throws Exception {
+        try (DatagramChannel server = DatagramChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+
+            CommandTransport transport = new UdpCommandTransport();
+            transport.open("127.0.0.1", port);
+            assertTrue(transport.isOpen());
+            transport.send(encode(7));
+
+            ByteBuffer rx = ByteBuffer.allocate(64);
+            server.receive(rx);
+            rx.flip();
+            assertEquals(ControlFrame.SIZE, rx.remaining());
+            ControlFrame frame = new ControlFrame();
+            assertEquals(ControlFrame.DECODE_OK, frame.decode(rx));
+            assertEquals(7, frame.sequence);
+
+            transport.close();
+            assertFalse(transport.isOpen());
+        }
+    }
+
+    @Test
+    public void closeDuringSend_failsWithIOException() throws Exception {
+        // 服务端不读取，发送缓冲区写满后发送线程阻塞在write中
+        try (ServerSocket server = new ServerSocket(0)) {
+            CommandTransport tcp = new TcpCommandTransport();
+            tcp.open("127.0.0.1", server.getLocalPort());
+            try (Socket accepted = server.accept()) {
+                assertTrue(accepted.isConnected());
+                assertCloseInterruptsSend(tcp);
+            }
+        }
+        try (DatagramChannel server = DatagramChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            CommandTransport udp = new UdpCommandTransport();
+            udp.open("127.0.0.1", ((InetSocketAddress) server.getLocalAddress()).getPort());
+            assertCloseInterruptsSend(udp);
+        }
+    }
+
+    /**
+     * 与ConnectionManager关闭连接时相同，另一个线程正在发送时关闭通道：
+     * 发送线程和关闭之后的发送都只得到IOException，不会因为空指针而退出
+     */
+    private static void assertCloseInterruptsSend(CommandTransport transport) throws Exception {
+        AtomicLong sent = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread sender = new Thread(() -> {
+            try {
+                while (true) {
+                    transport.send(encode(1));
+                    sent.incrementAndGet();
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        }, "sender");
+        sender.start();
+        waitFor(() -> sent.get() > 0);
+        transport.close();
+        sender.join(3000);
+        assertFalse(sender.isAlive());
+        assertTrue(String.valueOf(failure.get()), failure.get() instanceof IOException);
+        assertFalse(transport.isOpen());
+        try {
+            transport.send(encode(2));
+            fail("关闭后发送成功");
+        } catch (IOException e) {
+            // 预期
+        }
+    }
+
+    private static ByteBuffer encode(int seq) {
+        ByteBuffer buffer = ByteBuffer.allocate(ControlFrame.SIZE);
+        ControlFrame.encode(buffer, ControlFrame.TYPE_CONTROL, seq, 45, 80, 0L);
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.car;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.car.TestUtil.waitFor;
+import static org.junit.Assert.*;
+
+public class ConnectionManagerTest {
+    // 记录的事件：状态变化为数字，其余为事件名
+    private final List<String> events = new CopyOnWriteArrayList<>();
+    private final ConnectionManager.Listener listener = new ConnectionManager.Listener() {
+        @Override
+        public void onConnected(CommandTransport transport) {
+            events.add("connected");
+        }
+
+        @Override
+        public void onClosing(CommandTransport transport, boolean requested) {
+            events.add(requested ? "closing-requested" : "closing-lost");
+        }
+
+        @Override
+        public void onClosed(CommandTransport transport) {
+            events.add("closed");
+        }
+
+        @Override
+        public void onStateChanged(int state, IOException cause) {
+            events.add(String.valueOf(state));
+        }
+    };
+    private ConnectionManager manager;
+
+    @After
+    public void tearDown() {
+        if (manager != null) {
+            manager.stop();
+        }
+    }
+
+    @Test
+    public void connectsAndDisconnectsWithStopOnRequestedClose() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            manager = new ConnectionManager(listener);
+            manager.start();
+            assertNull(manager.getTransport());
+
+            manager.connect("127.0.0.1", server.getLocalPort(), false);
+            waitFor(() -> manager.getState() == ConnectionManager.STATE_CONNECTED);
+            assertNotNull(manager.getTransport());
+            assertTrue(events.indexOf("connected") < events.indexOf("2"));
+
+            manager.disconnect();
+            waitFor(() -> manager.getState() == ConnectionManager.STATE_DISCONNECTED);
+            assertNull(manager.getTransport());
+            assertTrue(events.contains("closing-requested"));
+            assertTrue(events.contains("closed"));
+            assertEquals(0, manager.getReconnectTime().getCount());
+        }
+    }
+
+    @Test
+    public void backsOffUntilServerAppears() throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        manager = new ConnectionManager(udp -> new TcpCommandTransport(), 20, 80, listener);
+        manager.start();
+        manager.connect("127.0.0.1", port, false);
+        waitFor(() -> manager.getFailureCount() >= 3);
+        assertEquals(ConnectionManager.STATE_BACKOFF, manager.getState());
+
+        try (ServerSocket server = new ServerSocket(port)) {
+            waitFor(() -> manager.getState() == ConnectionManager.STATE_CONNECTED);
+            assertTrue(manager.getAttemptCount() > manager.getFailureCount());
+            server.accept().close();
+        }
+    }
+
+    @Test
+    public void lostConnectionReconnectsAndRecordsTime() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            manager = new ConnectionManager(udp -> new TcpCommandTransport(), 20, 80, listener);
+            manager.start();
+            manager.connect("127.0.0.1", server.getLocalPort(), false);
+            waitFor(() -> manager.getState() == ConnectionManager.STATE_CONNECTED);
+            CommandTransport first = manager.getTransport();
+
+            // 发送线程报告断线后立即返回，连接线程在后台关闭并重连
+            long start = System.nanoTime();
+            manager.onConnectionLost(first);
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+            waitFor(() -> manager.getReconnectTime().getCount() == 1);
+
+            assertEquals(ConnectionManager.STATE_CONNECTED, manager.getState());
+            assertNotSame(first, manager.getTransport());
+            assertFalse(first.isOpen());
+            assertEquals(1, manager.getLostCount());
+            assertTrue(events.contains("closing-lost"));
+            assertFalse(events.contains("closing-requested"));
+            assertEquals(manager.getLastReconnectNanos(), manager.getReconnectTime().getMax());
+
+            // 旧连接迟到的断线报告被忽略
+            manager.onConnectionLost(first);
+            Thread.sleep(50);
+            assertEquals(1, manager.getLostCount());
+        }
+    }
+
+    @Test
+    public void callersNeverWaitForSlowConnect() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        manager = new ConnectionManager(udp -> new BlockingTransport(release), 20, 80, listener);
+        manager.start();
+
+        long start = System.nanoTime();
+        manager.connect("127.0.0.1", 1, false);
+        waitFor(() -> manager.getState() == ConnectionManager.STATE_CONNECTING);
+        manager.disconnect();
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+        assertNull(manager.getTransport());
+
+        // 连接期间已经取消：打开完成后直接关闭，不进入CONNECTED
+        release.countDown();
+        waitFor(() -> manager.getState() == ConnectionManager.STATE_DISCONNECTED);
+        assertTrue(events.contains("closing-requested"));
+        assertFalse(events.contains("2"));
+    }
+
+    /**
+     * open一直阻塞到被释放的传输通道，模拟不可达的服务器
+     */
+    private static final class BlockingTransport extends TcpCommandTransport {
+        private final CountDownLatch release;
+
+        BlockingTransport(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void open(String host, int port) throws IOException {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.car;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ControlLoopTest {
+
+    @Test
+    public void tick_sendsLatestValueAndCountsCoalescedUpdates() {
+        List<int[]> sent = new ArrayList<>();
+        ControlLoop loop = new ControlLoop(50, (angle, speed, origin) -> sent.add(new int[]{angle, speed}));
+
+        loop.update(10, 20);
+        loop.update(30, 40);
+        loop.update(350, 100);
+        loop.tick();
+        assertArrayEquals(new int[]{350, 100}, sent.get(0));
+        assertEquals(2, loop.getCoalescedCount());
+
+        // 没有新的写入时重复发送最后的状态
+        loop.tick();
+        assertArrayEquals(new int[]{350, 100}, sent.get(1));
+        assertEquals(2, loop.getCoalescedCount());
+
+        loop.update(0, 0);
+        loop.tick();
+        assertArrayEquals(new int[]{0, 0}, sent.get(2));
+        assertEquals(3, loop.getSentCount());
+    }
+
+    @Test
+    public void tick_passesOriginOnlyWithNewState() {
+        List<Long> origins = new ArrayList<>();
+        ControlLoop loop = new ControlLoop(50, (angle, speed, origin) -> origins.add(origin));
+
+        loop.update(10, 20, 1_000L);
+        loop.update(30, 40, 2_000L);
+        loop.tick();
+        // 重复发送的状态不再携带触摸时间，避免把等待时间计入触摸到发送的延迟
+        loop.tick();
+        loop.update(0, 0);
+        loop.tick();
+        assertEquals(Arrays.asList(2_000L, 0L, 0L), origins);
+    }
+
+    @Test
+    public void tick_doesNotCountUnsentFrames() {
+        ControlLoop loop = new ControlLoop(50, (angle, speed, origin) -> false);
+        loop.update(90, 50);
+        loop.tick();
+        loop.tick();
+        assertEquals(0, loop.getSentCount());
+        assertEquals(2, loop.getDroppedCount());
+    }
+
+    @Test
+    public void run_sendsAtConfiguredRate() throws Exception {
+        List<Long> times = new ArrayList<>();
+        ControlLoop loop = new ControlLoop(100, (angle, speed, origin) -> {
+            synchronized (times) {
+                times.add(System.nanoTime());
+            }
+            return true;
+        });
+        loop.start();
+        Thread.sleep(500);
+        loop.stop();
+
+        synchronized (times) {
+            // 100Hz运行500ms约50帧，给调度抖动留出余量
+            assertTrue("sent " + times.size(), times.size() >= 40 && times.size() <= 55);
+            long first = times.get(0);
+            long last = times.get(times.size() - 1);
+            double averagePeriodMs = (last - first) / 1e6 / (times.size() - 1);
+            assertEquals(10.0, averagePeriodMs, 1.0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setRateHz_rejectsOutOfRange() {
+        new ControlLoop(0, (angle, speed, origin) -> true);
+    }
+}
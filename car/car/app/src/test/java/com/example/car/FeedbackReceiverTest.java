@@ -0,0 +1,131 @@
+package com.example.car;
+
+import com.example.carcommon.ClockSync;
+import com.example.carcommon.ControlFrame;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import static com.example.car.TestUtil.waitFor;
+import static org.junit.Assert.*;
+
+public class FeedbackReceiverTest {
+    private static final long SERVER_AHEAD_NANOS = 3_000_000_000L;
+
+    @Test
+    public void tcpPongUpdatesClockEstimate() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            CommandTransport transport = new TcpCommandTransport();
+            transport.open("127.0.0.1", server.getLocalPort());
+            ClockSync clockSync = new ClockSync();
+            FeedbackReceiver receiver = new FeedbackReceiver(transport, clockSync, newRateController());
+            receiver.start();
+            try (Socket accepted = server.accept()) {
+                DataInputStream in = new DataInputStream(accepted.getInputStream());
+                OutputStream out = accepted.getOutputStream();
+                byte[] rx = new byte[ControlFrame.SIZE];
+                for (int i = 1; i <= 3; i++) {
+                    transport.send(encode(ControlFrame.TYPE_PING, i, System.nanoTime(), 0));
+                    in.readFully(rx);
+                    ByteBuffer pong = pongFor(rx);
+                    out.write(pong.array(), 0, pong.remaining());
+                }
+                waitFor(() -> clockSync.getSampleCount() >= 3);
+            } finally {
+                transport.close();
+                receiver.stop();
+            }
+            assertEquals(3, receiver.getPongCount());
+            assertEstimate(clockSync);
+        }
+    }
+
+    @Test
+    public void udpPongUpdatesClockEstimateAndStopsOnClose() throws Exception {
+        try (DatagramChannel server = DatagramChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+            CommandTransport transport = new UdpCommandTransport();
+            transport.open("127.0.0.1", port);
+            ClockSync clockSync = new ClockSync();
+            FeedbackReceiver receiver = new FeedbackReceiver(transport, clockSync, newRateController());
+            receiver.start();
+
+            transport.send(encode(ControlFrame.TYPE_PING, 1, System.nanoTime(), 0));
+            ByteBuffer rx = ByteBuffer.allocate(64);
+            SocketAddress client = server.receive(rx);
+            server.send(pongFor(rx.array()), client);
+            waitFor(() -> clockSync.getSampleCount() >= 1);
+            assertEstimate(clockSync);
+
+            // 关闭通道使阻塞的读取返回，接收线程退出
+            transport.close();
+            long start = System.nanoTime();
+            receiver.stop();
+            assertTrue(System.nanoTime() - start < 500_000_000L);
+        }
+    }
+
+    @Test
+    public void ackUpdatesRoundTripTime() throws Exception {
+        try (DatagramChannel server = DatagramChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+            CommandTransport transport = new UdpCommandTransport();
+            transport.open("127.0.0.1", port);
+            RateController rateController = newRateController();
+            FeedbackReceiver receiver = new FeedbackReceiver(transport, new ClockSync(), rateController);
+            receiver.start();
+            try {
+                long sentNanos = System.nanoTime();
+                rateController.onSent(7);
+                transport.send(encode(ControlFrame.TYPE_CONTROL, 7, sentNanos, 0));
+                ByteBuffer rx = ByteBuffer.allocate(64);
+                SocketAddress client = server.receive(rx);
+                ByteBuffer ack = ByteBuffer.allocate(ControlFrame.SIZE);
+                ControlFrame.encode(ack, ControlFrame.TYPE_ACK, 7, 1, 0, 0L, sentNanos);
+                ack.flip();
+                server.send(ack, client);
+
+                waitFor(() -> receiver.getAckCount() > 0);
+                long rtt = rateController.getSmoothedRttNanos();
+                assertTrue("rtt " + rtt, rtt > 0 && rtt <= System.nanoTime() - sentNanos);
+            } finally {
+                transport.close();
+                receiver.stop();
+            }
+        }
+    }
+
+    private static RateController newRateController() {
+        return new RateController(10, 100, 50, 500_000_000L);
+    }
+
+    private static ByteBuffer pongFor(byte[] pingBytes) {
+        ControlFrame ping = new ControlFrame();
+        assertEquals(ControlFrame.DECODE_OK, ping.decode(ByteBuffer.wrap(pingBytes, 0, ControlFrame.SIZE)));
+        assertEquals(ControlFrame.TYPE_PING, ping.type);
+        return encode(ControlFrame.TYPE_PONG, ping.sequence,
+                System.nanoTime() + SERVER_AHEAD_NANOS, ping.timestamp);
+    }
+
+    private static void assertEstimate(ClockSync clockSync) {
+        long error = Math.abs(clockSync.getOffsetNanos() - SERVER_AHEAD_NANOS);
+        assertTrue("error " + error, error <= clockSync.getRttNanos() / 2 + 1);
+    }
+
+    private static ByteBuffer encode(byte type, int seq, long timestamp, long origin) {
+        ByteBuffer buffer = ByteBuffer.allocate(ControlFrame.SIZE);
+        ControlFrame.encode(buffer, type, seq, 0, 0, timestamp, origin);
+        buffer.flip();
+        return buffer;
+    }
+}
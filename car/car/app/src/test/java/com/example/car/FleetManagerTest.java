@@ -0,0 +1,245 @@
+package com.example.car;
+
+import com.example.carcommon.ControlFrame;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.car.TestUtil.waitFor;
+import static org.junit.Assert.*;
+
+public class FleetManagerTest {
+    private final List<FakeCar> servers = new ArrayList<>();
+    private FleetManager fleet;
+
+    @After
+    public void tearDown() {
+        if (fleet != null) {
+            fleet.stop();
+        }
+        for (FakeCar server : servers) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void fansOutToSelectedGroupWithOwnSequences() throws Exception {
+        fleet = new FleetManager(2, 50, 200, 500);
+        FleetManager.Car front1 = fleet.addCar("front1", "front", "127.0.0.1", newServer(1).getPort());
+        FleetManager.Car front2 = fleet.addCar("front2", "front", "127.0.0.2", newServer(2).getPort());
+        FleetManager.Car rear = fleet.addCar("rear", null, "127.0.0.3", newServer(3).getPort());
+        fleet.start();
+        waitFor(() -> allConnected(fleet));
+
+        assertEquals(2, fleet.select("front"));
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(fleet.send(i * 10, i, 0));
+            int sent = i;
+            waitFor(() -> front1.getSentCount() == sent && front2.getSentCount() == sent);
+        }
+        waitFor(() -> servers.get(0).frames.size() == 5 && servers.get(1).frames.size() == 5);
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(new int[]{i + 1, (i + 1) * 10, i + 1}, command(servers.get(0).frames.get(i)));
+            assertArrayEquals(new int[]{i + 1, (i + 1) * 10, i + 1}, command(servers.get(1).frames.get(i)));
+        }
+        assertTrue(servers.get(2).frames.isEmpty());
+
+        // 切换到另一辆小车，它的序号从1开始；不再选中的小车收到一条停止指令
+        assertEquals(1, fleet.select("rear"));
+        assertTrue(fleet.send(180, 30, 0));
+        waitFor(() -> servers.get(2).frames.size() == 1);
+        assertArrayEquals(new int[]{1, 180, 30}, command(servers.get(2).frames.get(0)));
+        assertEquals(1, rear.getSequence());
+        waitFor(() -> servers.get(0).frames.size() == 6);
+        assertArrayEquals(new int[]{6, 0, 0}, command(servers.get(0).frames.get(5)));
+        assertEquals(6, front1.getSequence());
+
+        assertEquals(3, fleet.select(FleetManager.SELECT_ALL));
+    }
+
+    @Test
+    public void deselectedCarReceivesStop() throws Exception {
+        fleet = new FleetManager(1, 50, 200, 500);
+        FleetManager.Car a = fleet.addCar("a", null, "127.0.0.1", newServer(1).getPort());
+        FleetManager.Car b = fleet.addCar("b", null, "127.0.0.2", newServer(2).getPort());
+        fleet.start();
+        waitFor(() -> allConnected(fleet));
+
+        fleet.send(90, 50, 0);
+        waitFor(() -> a.getSentCount() == 1 && b.getSentCount() == 1);
+
+        // 只选中a后，b收到一条停止指令，不会停在最后的速度上
+        assertEquals(1, fleet.select("a"));
+        List<ControlFrame> frames = servers.get(1).frames;
+        waitFor(() -> frames.size() == 2);
+        assertArrayEquals(new int[]{2, 0, 0}, command(frames.get(1)));
+
+        fleet.send(90, 60, 0);
+        waitFor(() -> servers.get(0).frames.size() == 2);
+        assertEquals(2, frames.size());
+        assertEquals(2, b.getSentCount());
+    }
+
+    @Test
+    public void recordsPerCarLatencyFromAcks() throws Exception {
+        fleet = new FleetManager(1, 50, 200, 500);
+        FleetManager.Car car = fleet.addCar("a", null, "127.0.0.1", newServer(1).getPort());
+        fleet.start();
+        waitFor(() -> car.getState() == ConnectionManager.STATE_CONNECTED);
+        for (int i = 1; i <= 20; i++) {
+            fleet.send(90, 50, 0);
+            int sent = i;
+            waitFor(() -> car.getSentCount() == sent);
+        }
+        waitFor(() -> car.getAckCount() >= 20);
+        assertEquals(20, car.getSentCount());
+        assertEquals(20, car.getSendLatency().getCount());
+        assertTrue(car.getRtt().getCount() >= 20);
+        assertTrue(car.getSmoothedRttNanos() > 0);
+        assertTrue(car.getSmoothedRttNanos() < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(FleetManager.HEALTH_OK, fleet.getHealth(car, System.nanoTime()));
+
+        String summary = fleet.appendSummary(new StringBuilder(), System.nanoTime()).toString();
+        assertTrue(summary, summary.startsWith("● a seq 20 发送 "));
+        assertTrue(summary, summary.contains(" RTT "));
+    }
+
+    @Test
+    public void lostCarReconnectsWhileOthersKeepReceiving() throws Exception {
+        fleet = new FleetManager(1, 50, 200, 500);
+        FleetManager.Car a = fleet.addCar("a", null, "127.0.0.1", newServer(1).getPort());
+        FleetManager.Car b = fleet.addCar("b", null, "127.0.0.2", newServer(2).getPort());
+        fleet.start();
+        waitFor(() -> allConnected(fleet));
+
+        // a的服务器断开当前连接，重新接受后a自动重连
+        servers.get(0).dropConnection();
+        waitFor(() -> a.getLostCount() == 1 && a.getState() == ConnectionManager.STATE_CONNECTED);
+        fleet.send(45, 20, 0);
+        waitFor(() -> a.getSentCount() == 1 && b.getSentCount() == 1);
+        assertEquals(0, b.getLostCount());
+        waitFor(() -> servers.get(0).frames.size() == 1);
+        assertEquals(1, servers.get(0).frames.get(0).sequence);
+    }
+
+    @Test
+    public void carWithoutAcksBecomesStaleAndDownCarDropsCommands() throws Exception {
+        fleet = new FleetManager(1, 50, 200, 100);
+        FakeCar silent = newServer(1);
+        silent.acks = false;
+        FleetManager.Car car = fleet.addCar("silent", null, "127.0.0.1", silent.getPort());
+        // 没有服务器监听的端口
+        int closedPort;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            closedPort = probe.getLocalPort();
+        }
+        FleetManager.Car down = fleet.addCar("down", null, "127.0.0.1", closedPort);
+        fleet.start();
+        waitFor(() -> car.getState() == ConnectionManager.STATE_CONNECTED && down.getFailureCount() >= 2);
+        assertEquals(FleetManager.HEALTH_OK, fleet.getHealth(car, System.nanoTime()));
+        assertEquals(FleetManager.HEALTH_DOWN, fleet.getHealth(down, System.nanoTime()));
+
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(250)) {
+            fleet.send(0, 10, 0);
+            Thread.sleep(10);
+        }
+        waitFor(() -> fleet.getHealth(car, System.nanoTime()) == FleetManager.HEALTH_STALE);
+        assertEquals(0, car.getAckCount());
+        assertTrue(down.getDroppedCount() > 0);
+        assertEquals(0, down.getSentCount());
+    }
+
+    @Test
+    public void dozensOfCarsShareFixedIoThreads() throws Exception {
+        fleet = new FleetManager(2, 50, 200, 500);
+        for (int i = 0; i < 24; i++) {
+            fleet.addCar("car" + i, i % 2 == 0 ? "even" : "odd", "127.0.0." + (i + 1), newServer(i + 1).getPort());
+        }
+        fleet.start();
+        waitFor(() -> allConnected(fleet));
+        assertEquals(2, countThreads("fleet-io-"));
+
+        assertEquals(12, fleet.select("even"));
+        fleet.send(270, 60, 0);
+        waitFor(() -> {
+            for (int i = 0; i < 24; i += 2) {
+                if (servers.get(i).frames.size() != 1) {
+                    return false;
+                }
+            }
+            return true;
+        });
+        for (int i = 1; i < 24; i += 2) {
+            assertTrue(servers.get(i).frames.isEmpty());
+        }
+
+        fleet.stop();
+        assertEquals(0, countThreads("fleet-io-"));
+        // 停止前向已连接的小车发送停止指令
+        waitFor(() -> {
+            List<ControlFrame> frames = servers.get(1).frames;
+            return frames.size() == 1 && frames.get(0).speed == 0;
+        });
+        assertEquals(0, servers.get(1).badFrames.get());
+    }
+
+    @Test
+    public void parsesFleetSpec() {
+        fleet = new FleetManager();
+        assertEquals(3, fleet.addCars("f1@192.168.1.10:8080/front, f2@192.168.1.11:8080/front,r@192.168.1.20:9000"));
+        FleetManager.Car f2 = fleet.find("f2");
+        assertEquals("192.168.1.11", f2.getHost());
+        assertEquals(8080, f2.getPort());
+        assertEquals("front", f2.getGroup());
+        assertNull(fleet.find("r").getGroup());
+        assertEquals(3, fleet.getSelectedCount());
+        assertEquals(2, fleet.select("front"));
+
+        for (String bad : new String[]{"x192.168.1.1:80", "x@192.168.1:80", "x@192.168.1.1:port", "f1@192.168.1.1:80"}) {
+            try {
+                fleet.addCars(bad);
+                fail(bad);
+            } catch (IllegalArgumentException e) {
+                // 预期
+            }
+        }
+    }
+
+    private FakeCar newServer(int host) throws IOException {
+        FakeCar server = new FakeCar(InetAddress.getByName("127.0.0." + host));
+        servers.add(server);
+        return server;
+    }
+
+    private static boolean allConnected(FleetManager fleet) {
+        for (FleetManager.Car car : fleet.getCars()) {
+            if (car.getState() != ConnectionManager.STATE_CONNECTED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int countThreads(String prefix) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(prefix) && thread.isAlive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** @return 控制帧的 {序号, 角度, 速度} */
+    private static int[] command(ControlFrame frame) {
+        return new int[]{frame.sequence, frame.angle, frame.speed};
+    }
+}
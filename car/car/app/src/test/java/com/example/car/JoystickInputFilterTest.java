@@ -0,0 +1,163 @@
+package com.example.car;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JoystickInputFilterTest {
+
+    private static JoystickInputFilter filter(float deadzone, float smoothingMillis) {
+        JoystickInputFilter filter = new JoystickInputFilter(deadzone, smoothingMillis);
+        filter.setRadius(100f);
+        return filter;
+    }
+
+    @Test
+    public void quantizesAngleAndSpeed() {
+        JoystickInputFilter filter = filter(0f, 0f);
+
+        // 正前方（屏幕上方）推到底
+        assertTrue(filter.addSample(0f, -100f, 0));
+        assertEquals(0, filter.getAngle());
+        assertEquals(100, filter.getSpeed());
+
+        // 正左方，半径一半
+        assertTrue(filter.addSample(-50f, 0f, 10));
+        assertEquals(90, filter.getAngle());
+        assertEquals(50, filter.getSpeed());
+
+        // 正右方，超出半径被限幅
+        assertTrue(filter.addSample(300f, 0f, 20));
+        assertEquals(270, filter.getAngle());
+        assertEquals(100, filter.getSpeed());
+    }
+
+    @Test
+    public void reportsChangeOnlyWhenQuantizedValueChanges() {
+        JoystickInputFilter filter = filter(0f, 0f);
+        assertTrue(filter.addSample(0f, -50f, 0));
+        // 亚像素抖动不改变量化结果
+        assertFalse(filter.addSample(0.1f, -50.1f, 5));
+        assertFalse(filter.addSample(-0.1f, -49.9f, 10));
+        assertTrue(filter.addSample(0f, -60f, 15));
+    }
+
+    @Test
+    public void deadzoneStopsAndRescalesSpeed() {
+        JoystickInputFilter filter = filter(0.2f, 0f);
+        assertFalse(filter.addSample(0f, -15f, 0));
+        assertEquals(0, filter.getSpeed());
+        assertEquals(0, filter.getAngle());
+
+        // 死区外重新映射：60%半径 -> (0.6 - 0.2) / 0.8 = 50%
+        assertTrue(filter.addSample(0f, -60f, 10));
+        assertEquals(50, filter.getSpeed());
+
+        assertTrue(filter.addSample(0f, -100f, 20));
+        assertEquals(100, filter.getSpeed());
+    }
+
+    @Test
+    public void smoothingFollowsTimeNotSampleCount() {
+        // 同样经过32毫秒，2个采样和8个采样得到的结果应当接近
+        JoystickInputFilter coarse = filter(0f, 16f);
+        JoystickInputFilter fine = filter(0f, 16f);
+        coarse.addSample(0f, 0f, 0);
+        fine.addSample(0f, 0f, 0);
+        for (int t = 16; t <= 32; t += 16) {
+            coarse.addSample(0f, -100f, t);
+        }
+        for (int t = 4; t <= 32; t += 4) {
+            fine.addSample(0f, -100f, t);
+        }
+        // 1 - e^-2 ≈ 86%
+        assertEquals(86, coarse.getSpeed());
+        assertEquals(coarse.getSpeed(), fine.getSpeed());
+    }
+
+    @Test
+    public void settleConvergesAfterFingerStops() {
+        JoystickInputFilter filter = filter(0f, 16f);
+        filter.addSample(0f, 0f, 0);
+        filter.addSample(0f, -100f, 16);
+        filter.addSample(0f, -100f, 32);
+        // 手指停在边缘，之后没有新的触摸事件
+        assertEquals(86, filter.getSpeed());
+        assertFalse(filter.isSettled());
+
+        // 同一时刻再次调用不改变结果；之后随时间继续收敛，与收到相同位置的采样一致
+        assertFalse(filter.settle(32));
+        assertTrue(filter.settle(48));
+        assertEquals(95, filter.getSpeed());
+        // 超过5倍时间常数后等于手指的位置
+        assertTrue(filter.settle(48 + 80));
+        assertEquals(100, filter.getSpeed());
+        assertEquals(0, filter.getAngle());
+        assertTrue(filter.isSettled());
+        assertFalse(filter.settle(1000));
+
+        // 松手后不再收敛
+        filter.release();
+        assertTrue(filter.isSettled());
+        assertFalse(filter.settle(2000));
+        assertEquals(0, filter.getSpeed());
+    }
+
+    @Test
+    public void firstSampleAfterReleaseIsNotSmoothed() {
+        JoystickInputFilter filter = filter(0f, 1000f);
+        filter.addSample(0f, -100f, 0);
+        assertEquals(100, filter.getSpeed());
+
+        assertTrue(filter.release());
+        assertEquals(0, filter.getSpeed());
+        assertFalse(filter.release());
+
+        filter.addSample(-100f, 0f, 5000);
+        assertEquals(90, filter.getAngle());
+        assertEquals(100, filter.getSpeed());
+    }
+
+    @Test
+    public void angleWrapsToZeroInsteadOf360() {
+        JoystickInputFilter filter = filter(0f, 0f);
+        // 略偏右的正前方，atan2得到359.8度，四舍五入后应为0而不是360
+        filter.addSample(0.3f, -100f, 0);
+        assertEquals(0, filter.getAngle());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFullDeadzone() {
+        new JoystickInputFilter(1f, 0f);
+    }
+
+    @Test
+    public void sectorOfMatchesOriginalIntervalChain() {
+        for (int tenths = 0; tenths < 3600; tenths++) {
+            double angle = tenths / 10.0;
+            assertEquals("angle " + angle, sectorByIntervals(angle), JoystickInputFilter.sectorOf(angle));
+        }
+    }
+
+    /**
+     * JoystickView原先逐个区间比较的实现，扇区编号与sectorOf相同
+     */
+    private static int sectorByIntervals(double angle) {
+        if (angle >= 337.5 || angle < 22.5) {
+            return 0;
+        } else if (angle < 67.5) {
+            return 1;
+        } else if (angle < 112.5) {
+            return 2;
+        } else if (angle < 157.5) {
+            return 3;
+        } else if (angle < 202.5) {
+            return 4;
+        } else if (angle < 247.5) {
+            return 5;
+        } else if (angle < 292.5) {
+            return 6;
+        }
+        return 7;
+    }
+}
@@ -0,0 +1,255 @@
+package com.example.car;
+
+import com.example.carcommon.ClockSync;
+import com.example.carcommon.ControlFrame;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RateControllerTest {
+    private static final long MS = 1_000_000L;
+    private static final long WINDOW = 500 * MS;
+
+    /**
+     * 用模拟时钟驱动的链路：按当前频率发送，lossEvery帧丢一帧，ACK在rtt后到达
+     */
+    private static class SimulatedLink {
+        final RateController controller;
+        long now = 1_000 * MS;
+        int sequence;
+        int received;
+        // 服务端相邻两次收到帧的最大间隔
+        long lastReceivedNanos;
+        long maxReceiveGapNanos;
+
+        SimulatedLink() {
+            this(10);
+        }
+
+        SimulatedLink(int minHz) {
+            controller = new RateController(minHz, 100, 50, WINDOW);
+        }
+
+        void run(long durationNanos, int lossEvery, long rttNanos) {
+            long end = now + durationNanos;
+            while (now < end) {
+                sequence++;
+                controller.onSent(sequence);
+                if (lossEvery == 0 || sequence % lossEvery != 0) {
+                    if (lastReceivedNanos != 0) {
+                        maxReceiveGapNanos = Math.max(maxReceiveGapNanos, now - lastReceivedNanos);
+                    }
+                    lastReceivedNanos = now;
+                    received++;
+                    controller.onAck(sequence, received, now, now + rttNanos);
+                }
+                controller.evaluate(now);
+                now += 1_000_000_000L / controller.getRateHz();
+            }
+        }
+    }
+
+    @Test
+    public void cleanLinkSpeedsUpToMaximum() {
+        SimulatedLink link = new SimulatedLink();
+        link.run(10_000 * MS, 0, 5 * MS);
+        assertEquals(100, link.controller.getRateHz());
+        assertEquals(0, link.controller.getDecreaseCount());
+        assertEquals(5 * MS, link.controller.getSmoothedRttNanos());
+        assertEquals(0.0, link.controller.getLossRatio(), 0.0);
+    }
+
+    @Test
+    public void lossBacksOffToMinimum() {
+        SimulatedLink link = new SimulatedLink();
+        link.run(10_000 * MS, 5, 5 * MS);
+        assertEquals(10, link.controller.getRateHz());
+        assertEquals(0.2, link.controller.getLossRatio(), 0.05);
+    }
+
+    @Test
+    public void minimumRateKeepsServerWatchdogFedThroughSingleLosses() {
+        int minHz = RateController.minRateHzFor(ControlFrame.DEADMAN_DEADLINE_MS);
+        assertEquals(20, minHz);
+        assertTrue(RateController.PERIODS_PER_DEADLINE * 1000 / minHz <= ControlFrame.DEADMAN_DEADLINE_MS);
+
+        // 持续丢帧使频率退到最低，每5帧丢1帧时服务端两次收到帧的间隔仍在看门狗期限之内
+        SimulatedLink link = new SimulatedLink(minHz);
+        link.run(10_000 * MS, 5, 5 * MS);
+        assertEquals(minHz, link.controller.getRateHz());
+        assertTrue("gap " + link.maxReceiveGapNanos / MS + "ms",
+                link.maxReceiveGapNanos < ControlFrame.DEADMAN_DEADLINE_MS * MS);
+    }
+
+    @Test
+    public void queueBuildUpBacksOff() {
+        SimulatedLink link = new SimulatedLink();
+        link.run(2_000 * MS, 0, 5 * MS);
+        int before = link.controller.getRateHz();
+        // 没有丢帧，但往返时间从5毫秒涨到80毫秒：发送队列在积压
+        link.run(2_000 * MS, 0, 80 * MS);
+        assertTrue(link.controller.getRateHz() < before);
+        assertTrue(link.controller.getDecreaseCount() > 0);
+    }
+
+    @Test
+    public void steadyHighLatencyIsNotCongestion() {
+        SimulatedLink link = new SimulatedLink();
+        link.run(10_000 * MS, 0, 150 * MS);
+        assertEquals(100, link.controller.getRateHz());
+    }
+
+    @Test
+    public void missingAcksBackOff() {
+        RateController controller = new RateController(10, 100, 50, WINDOW);
+        long now = 0;
+        controller.evaluate(now);
+        for (int seq = 1; seq <= 30; seq++) {
+            controller.onSent(seq);
+            now += 20 * MS;
+            controller.evaluate(now);
+        }
+        assertEquals(35, controller.getRateHz());
+        assertEquals(1.0, controller.getLossRatio(), 0.0);
+    }
+
+    @Test
+    public void resetRestoresInitialRateAndIgnoresStaleAcks() {
+        SimulatedLink link = new SimulatedLink();
+        link.run(10_000 * MS, 5, 5 * MS);
+        link.controller.reset();
+        assertEquals(50, link.controller.getRateHz());
+        assertEquals(0, link.controller.getSmoothedRttNanos());
+
+        // 上一个连接的确认不再计入
+        link.controller.onAck(link.sequence, link.received, link.now, link.now + MS);
+        assertEquals(0, link.controller.getSmoothedRttNanos());
+    }
+
+    /**
+     * 本地回环：真实的UDP通道、反馈接收线程和控制循环，
+     * 对端是一个可以注入丢帧和延迟的确认服务器替身
+     */
+    @Test
+    public void loopbackAdaptsToInjectedLoss() throws Exception {
+        try (LossyAckServer server = new LossyAckServer(5 * MS)) {
+            CommandTransport transport = new UdpCommandTransport();
+            transport.open("127.0.0.1", server.getPort());
+            RateController controller = new RateController(10, 100, 50, 100 * MS);
+            FeedbackReceiver receiver = new FeedbackReceiver(transport, new ClockSync(), controller);
+            ByteBuffer tx = ByteBuffer.allocate(ControlFrame.SIZE);
+            int[] sequence = {0};
+            ControlLoop[] loop = new ControlLoop[1];
+            loop[0] = new ControlLoop(50, (angle, speed, origin) -> {
+                long now = System.nanoTime();
+                tx.clear();
+                ControlFrame.encode(tx, ControlFrame.TYPE_CONTROL, ++sequence[0], angle, speed, now);
+                tx.flip();
+                try {
+                    transport.send(tx);
+                } catch (Exception e) {
+                    return false;
+                }
+                controller.onSent(sequence[0]);
+                loop[0].setRateHz(controller.evaluate(now));
+                return true;
+            });
+            receiver.start();
+            loop[0].start();
+            try {
+                Thread.sleep(1000);
+                int cleanRate = controller.getRateHz();
+                assertTrue("clean rate " + cleanRate, cleanRate > 50);
+                assertEquals(0, controller.getDecreaseCount());
+
+                server.dropEvery = 4;
+                Thread.sleep(1000);
+                assertTrue("lossy rate " + controller.getRateHz(), controller.getRateHz() < cleanRate);
+                assertTrue(controller.getDecreaseCount() > 0);
+                assertTrue(receiver.getAckCount() > 0);
+            } finally {
+                loop[0].stop();
+                transport.close();
+                receiver.stop();
+            }
+        }
+    }
+
+    /**
+     * 确认服务器替身：每dropEvery帧丢弃一帧，其余帧在delay后回复ACK
+     */
+    private static class LossyAckServer implements AutoCloseable, Runnable {
+        private final DatagramChannel channel = DatagramChannel.open();
+        private final ScheduledExecutorService delayer = Executors.newSingleThreadScheduledExecutor();
+        private final long delayNanos;
+        private final Thread thread = new Thread(this, "lossy-ack-server");
+        volatile int dropEvery;
+
+        LossyAckServer(long delayNanos) throws Exception {
+            this.delayNanos = delayNanos;
+            channel.bind(new InetSocketAddress("127.0.0.1", 0));
+            thread.start();
+        }
+
+        int getPort() throws Exception {
+            return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer rx = ByteBuffer.allocate(64);
+            ControlFrame frame = new ControlFrame();
+            int arrived = 0;
+            int received = 0;
+            try {
+                while (true) {
+                    rx.clear();
+                    SocketAddress sender = channel.receive(rx);
+                    rx.flip();
+                    if (frame.decode(rx) != ControlFrame.DECODE_OK) {
+                        continue;
+                    }
+                    int drop = dropEvery;
+                    if (drop > 0 && ++arrived % drop == 0) {
+                        continue;
+                    }
+                    received++;
+                    ByteBuffer ack = ByteBuffer.allocate(ControlFrame.SIZE);
+                    ControlFrame.encode(ack, ControlFrame.TYPE_ACK, frame.sequence, received, 0, 0L,
+                            frame.timestamp);
+                    ack.flip();
+                    delayer.schedule(() -> {
+                        try {
+                            channel.send(ack, sender);
+                        } catch (Exception ignored) {
+                        }
+                    }, delayNanos, TimeUnit.NANOSECONDS);
+                }
+            } catch (Exception ignored) {
+                // 通道关闭
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                delayer.shutdownNow();
+            }
+        }
+    }
+}
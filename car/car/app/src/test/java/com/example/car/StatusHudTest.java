@@ -0,0 +1,52 @@
+package com.example.car;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StatusHudTest {
+
+    @Test
+    public void appendInt_writesDecimalDigits() {
+        char[] buffer = new char[16];
+        assertEquals(1, StatusHud.appendInt(buffer, 0, 0));
+        assertEquals("0", new String(buffer, 0, 1));
+
+        int end = StatusHud.appendInt(buffer, 2, 359);
+        assertEquals(5, end);
+        assertEquals("359", new String(buffer, 2, 3));
+
+        end = StatusHud.appendInt(buffer, 0, -42);
+        assertEquals("-42", new String(buffer, 0, end));
+
+        end = StatusHud.appendInt(buffer, 0, Integer.MAX_VALUE);
+        assertEquals(String.valueOf(Integer.MAX_VALUE), new String(buffer, 0, end));
+    }
+
+    @Test
+    public void formatWithSuffix_matchesPreviousTextLayout() {
+        char[] buffer = new char[32];
+        int length = StatusHud.formatWithSuffix(buffer, "当前速度: ", 100, '%');
+        assertEquals("当前速度: 100%", new String(buffer, 0, length));
+
+        length = StatusHud.formatWithSuffix(buffer, "当前角度: ", 7, '°');
+        assertEquals("当前角度: 7°", new String(buffer, 0, length));
+    }
+
+    @Test
+    public void formatStats_roundsFrameTimeToHundredthsOfMillis() {
+        char[] buffer = new char[64];
+        int length = StatusHud.formatStats(buffer, 120, 60, 354_000);
+        assertEquals("输入 120/s 刷新 60/s 最长 0.35ms", new String(buffer, 0, length));
+
+        length = StatusHud.formatStats(buffer, 0, 0, 12_050_000);
+        assertEquals("输入 0/s 刷新 0/s 最长 12.05ms", new String(buffer, 0, length));
+    }
+
+    @Test
+    public void everyDirectionHasText() {
+        for (JoystickView.Direction direction : JoystickView.Direction.values()) {
+            assertNotEquals("未知方向", StatusHud.getDirectionText(direction));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.car;
+
+import com.example.carcommon.ControlFrame;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.example.car.TestUtil.waitFor;
+
+/**
+ * 模拟一辆小车的服务端：逐个接受连接，记录收到的每一帧，并确认每一条控制帧
+ */
+final class FakeCar implements Runnable {
+    /** 收到的帧，按到达顺序 */
+    final List<ControlFrame> frames = new CopyOnWriteArrayList<>();
+    final AtomicInteger accepted = new AtomicInteger();
+    /** 校验失败的帧数，帧边界错位时增加 */
+    final AtomicInteger badFrames = new AtomicInteger();
+    volatile boolean acks = true;
+    private final ServerSocket server;
+    private volatile Socket current;
+
+    FakeCar() throws IOException {
+        this(InetAddress.getByName("127.0.0.1"));
+    }
+
+    /**
+     * @param address 监听的本地地址，多辆小车使用不同的回环地址，避免被当作同一设备
+     */
+    FakeCar(InetAddress address) throws IOException {
+        server = new ServerSocket(0, 50, address);
+        Thread thread = new Thread(this, "fake-car");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    /** @return 收到的控制帧数 */
+    int controlFrames() {
+        int count = 0;
+        for (ControlFrame frame : frames) {
+            if (frame.type == ControlFrame.TYPE_CONTROL) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void run() {
+        byte[] rx = new byte[ControlFrame.SIZE];
+        ByteBuffer ack = ByteBuffer.allocate(ControlFrame.SIZE);
+        int received = 0;
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                current = socket;
+                accepted.incrementAndGet();
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                while (true) {
+                    in.readFully(rx);
+                    ControlFrame frame = new ControlFrame();
+                    if (frame.decode(ByteBuffer.wrap(rx)) != ControlFrame.DECODE_OK) {
+                        badFrames.incrementAndGet();
+                        continue;
+                    }
+                    frames.add(frame);
+                    if (frame.type != ControlFrame.TYPE_CONTROL) {
+                        continue;
+                    }
+                    received++;
+                    if (acks) {
+                        ack.clear();
+                        ControlFrame.encode(ack, ControlFrame.TYPE_ACK, frame.sequence, received, 0,
+                                System.nanoTime(), frame.timestamp);
+                        out.write(ack.array(), 0, ControlFrame.SIZE);
+                    }
+                }
+            } catch (IOException e) {
+                // 连接断开，等待下一个连接
+            }
+        }
+    }
+
+    /**
+     * 断开当前连接，之后继续接受新的连接
+     */
+    void dropConnection() throws Exception {
+        // 客户端连上时服务端可能还没有取出这个连接
+        waitFor(() -> current != null);
+        current.close();
+    }
+
+    void close() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            // 测试结束
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.car;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 单元测试和仪器测试共用的辅助方法
+ */
+final class TestUtil {
+
+    private TestUtil() {
+    }
+
+    /**
+     * 轮询等待条件成立，超时则测试失败
+     */
+    static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue("timeout", System.nanoTime() < deadline);
+            Thread.sleep(2);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+// 两个App共用的纯Java代码（通信协议等），可脱离Android环境单独编译和测试
+plugins {
+    `java-library`
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+tasks.withType<JavaCompile>().configureEach {
+    options.encoding = "UTF-8"
+}
+
+dependencies {
+    testImplementation("junit:junit:4.13.2")
+}
+
+tasks.test {
+    // 吞吐量对比测试会打印结果，方便在命令行直接查看
+    testLogging {
+        showStandardStreams = true
+    }
+}
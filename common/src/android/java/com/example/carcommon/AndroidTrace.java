@@ -0,0 +1,96 @@
+package com.example.carcommon;
+
+import android.os.Trace;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.function.Consumer;
+
+/**
+ * TraceRing在Android上的接入：跟踪区间转发到android.os.Trace，事件导出到logcat或文件
+ * 依赖Android，不参与common模块的纯Java编译，由两个App分别加入源码目录
+ *
+ * 记录级别由系统属性控制，默认只记录LEVEL_INFO事件，打开每帧事件：
+ * adb shell setprop log.tag.CarTrace DEBUG
+ */
+public final class AndroidTrace implements TraceRing.SectionHook {
+    /** logcat标签，同时用于读取记录级别 */
+    public static final String TAG = "CarTrace";
+
+    private AndroidTrace() {
+    }
+
+    /**
+     * 按系统属性设置记录级别，并在系统跟踪开启时把跟踪区间转发到android.os.Trace
+     *
+     * @param ring 事件环
+     */
+    public static void install(TraceRing ring) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            ring.setLevel(TraceRing.LEVEL_DEBUG);
+        } else if (Log.isLoggable(TAG, Log.INFO)) {
+            ring.setLevel(TraceRing.LEVEL_INFO);
+        } else {
+            ring.setLevel(TraceRing.LEVEL_OFF);
+        }
+        // Trace.beginSection在没有开始跟踪时只检查一次标志位，开销可以忽略
+        ring.setSectionHook(new AndroidTrace());
+    }
+
+    @Override
+    public void beginSection(String name) {
+        Trace.beginSection(name);
+    }
+
+    @Override
+    public void endSection() {
+        Trace.endSection();
+    }
+
+    /**
+     * 把事件环中保留的事件输出到logcat
+     *
+     * @param ring 事件环
+     * @return 输出的事件数
+     */
+    public static int dumpToLogcat(TraceRing ring) {
+        return ring.dump(line -> Log.i(TAG, line));
+    }
+
+    /**
+     * 把事件环中保留的事件写入文件
+     *
+     * @param ring 事件环
+     * @param file 目标文件，已存在时覆盖
+     * @return 输出的事件数
+     * @throws IOException 写入失败
+     */
+    public static int dumpToFile(TraceRing ring, File file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+            int count = ring.dump(writer::println);
+            if (writer.checkError()) {
+                throw new IOException("写入失败: " + file);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 把任意按行输出的内容写入文件，如LatencyHistogram的导出
+     *
+     * @param source 输出内容的来源，向传入的Printer逐行输出
+     * @param file   目标文件，已存在时覆盖
+     * @throws IOException 写入失败
+     */
+    public static void writeToFile(Consumer<TraceRing.Printer> source, File file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+            source.accept(writer::println);
+            if (writer.checkError()) {
+                throw new IOException("写入失败: " + file);
+            }
+        }
+    }
+}
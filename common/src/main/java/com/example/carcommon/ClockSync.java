@@ -0,0 +1,94 @@
+package com.example.carcommon;
+
+/**
+ * 客户端与服务端的时钟偏差估计
+ * 客户端在t0发送PING，服务端在t1（服务端时钟）收到后立即回复PONG，客户端在t3收到：
+ * <pre>
+ *  往返时间 rtt    = t3 - t0
+ *  时钟偏差 offset = t1 - (t0 + t3) / 2     （服务端时间 = 客户端时间 + offset）
+ * </pre>
+ * 假设两个方向的单程延迟相同，误差不超过rtt/2；
+ * 因此只采用最近WINDOW个样本中往返时间最短的一个，排队和重传造成的慢样本不会影响估计
+ *
+ * 样本由接收线程写入，发送线程读取，方法均为同步方法（每秒只有几次调用）
+ */
+public class ClockSync {
+    /** 参与估计的最近样本数 */
+    public static final int WINDOW = 8;
+
+    private final long[] offsets = new long[WINDOW];
+    private final long[] rtts = new long[WINDOW];
+    private int samples;
+    private long offsetNanos;
+    private long rttNanos;
+    private int version;
+
+    /**
+     * 加入一次PING/PONG的结果
+     *
+     * @param clientSendNanos    PING的发送时间（客户端时钟）
+     * @param serverNanos        服务端收到PING的时间（服务端时钟）
+     * @param clientReceiveNanos PONG的接收时间（客户端时钟）
+     * @return 估计值发生变化返回true
+     */
+    public synchronized boolean onSample(long clientSendNanos, long serverNanos, long clientReceiveNanos) {
+        long rtt = clientReceiveNanos - clientSendNanos;
+        if (rtt < 0) {
+            return false;
+        }
+        int slot = samples % WINDOW;
+        rtts[slot] = rtt;
+        offsets[slot] = serverNanos - (clientSendNanos + rtt / 2);
+        samples++;
+
+        int best = 0;
+        int valid = Math.min(samples, WINDOW);
+        for (int i = 1; i < valid; i++) {
+            if (rtts[i] < rtts[best]) {
+                best = i;
+            }
+        }
+        if (samples > 1 && offsets[best] == offsetNanos && rtts[best] == rttNanos) {
+            return false;
+        }
+        offsetNanos = offsets[best];
+        rttNanos = rtts[best];
+        version++;
+        return true;
+    }
+
+    /** @return 是否已有估计值 */
+    public synchronized boolean hasEstimate() {
+        return samples > 0;
+    }
+
+    /** @return 时钟偏差（纳秒），服务端时间减客户端时间 */
+    public synchronized long getOffsetNanos() {
+        return offsetNanos;
+    }
+
+    /** @return 估计所用样本的往返时间（纳秒），偏差的误差不超过它的一半 */
+    public synchronized long getRttNanos() {
+        return rttNanos;
+    }
+
+    /** @return 估计值的版本，每次变化加1，用于判断是否需要重新上报 */
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    /** @return 收到的样本总数 */
+    public synchronized int getSampleCount() {
+        return samples;
+    }
+
+    /**
+     * 清除所有样本，重新连接时调用
+     */
+    public synchronized void reset() {
+        samples = 0;
+        offsetNanos = 0;
+        rttNanos = 0;
+        version++;
+    }
+}
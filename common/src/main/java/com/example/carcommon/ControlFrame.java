@@ -0,0 +1,200 @@
+package com.example.carcommon;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 二进制控制帧编解码器
+ * 替代原先的 "Angle: %.0f, Speed: %.0f" 文本协议，帧长固定，网络字节序（大端），布局如下：
+ * <pre>
+ *  偏移  字段       类型  说明
+ *   0   magic      u16  固定为0xCA7E，首字节0xCA不是ASCII字符，服务端据此区分新旧协议
+ *   2   version    u8   协议版本
+ *   3   type       u8   帧类型
+ *   4   sequence   i32  发送序号，每帧递增
+ *   8   angle      i16  角度，0-360
+ *  10   speed      i16  速度，0-100
+ *  12   timestamp  i64  发送端时间戳（纳秒）
+ *  20   origin     i64  指令的源头时间戳（纳秒），控制帧为触摸事件时间，0表示未知
+ *  28   checksum   i32  前28字节的Fletcher-32校验和
+ * </pre>
+ * 版本2增加了origin字段，用于统计从触摸到执行的各阶段延迟；
+ * PING/PONG/CLOCK帧用于估计客户端与服务端的时钟偏差，见ClockSync；ACK帧用于客户端调整发送频率
+ * 编码为静态方法，解码结果写入可复用的实例字段，两者都不分配任何对象
+ */
+public final class ControlFrame {
+    /** 帧长度（字节） */
+    public static final int SIZE = 32;
+    /** 帧头魔数 */
+    public static final short MAGIC = (short) 0xCA7E;
+    /** 魔数的第一个字节，用于从数据流首字节识别二进制协议 */
+    public static final byte MAGIC_FIRST_BYTE = (byte) 0xCA;
+    /** 当前协议版本 */
+    public static final byte VERSION = 2;
+
+    /**
+     * 服务端失联停车的期限（毫秒）：超过该时间没有收到驾驶者的控制帧就停车
+     * 客户端的最低发送频率据此确定，见RateController.minRateHzFor
+     */
+    public static final long DEADMAN_DEADLINE_MS = 150;
+
+    /** 帧类型：控制指令 */
+    public static final byte TYPE_CONTROL = 1;
+    /** 帧类型：申请控制权，speed字段为优先级，优先级更高的连接可以抢占当前的驾驶者 */
+    public static final byte TYPE_CLAIM = 2;
+    /** 帧类型：时钟探测，timestamp为客户端发送时间 */
+    public static final byte TYPE_PING = 3;
+    /** 帧类型：时钟探测应答，origin为PING的timestamp，timestamp为服务端收到PING的时间 */
+    public static final byte TYPE_PONG = 4;
+    /** 帧类型：客户端上报时钟偏差估计，timestamp为偏差（服务端时间减客户端时间），origin为往返时间 */
+    public static final byte TYPE_CLOCK = 5;
+    /**
+     * 帧类型：服务端确认，sequence为最后交给执行器的控制帧序号，angle为累计收到的控制帧数（按无符号16位回绕），
+     * timestamp为交给执行器的时间（服务端时钟），origin为该控制帧的timestamp，客户端据此计算往返时间
+     */
+    public static final byte TYPE_ACK = 6;
+
+    /** 解码结果：成功 */
+    public static final int DECODE_OK = 0;
+    /** 解码结果：可读数据不足一帧 */
+    public static final int DECODE_UNDERFLOW = 1;
+    /** 解码结果：魔数不匹配 */
+    public static final int DECODE_BAD_MAGIC = 2;
+    /** 解码结果：协议版本不支持 */
+    public static final int DECODE_BAD_VERSION = 3;
+    /** 解码结果：校验和错误 */
+    public static final int DECODE_BAD_CHECKSUM = 4;
+
+    private static final int CHECKSUM_OFFSET = SIZE - 4;
+
+    // 最近一次解码的结果
+    public byte type;
+    public int sequence;
+    public int angle;
+    public int speed;
+    public long timestamp;
+    public long origin;
+
+    /** 本地接收时间（纳秒），不参与编解码，由服务器收到帧时填写 */
+    public long receivedNanos;
+
+    /**
+     * 将一帧数据写入缓冲区当前位置，写入后position前移SIZE个字节
+     *
+     * @param dst       目标缓冲区，剩余空间至少为SIZE
+     * @param type      帧类型
+     * @param sequence  发送序号
+     * @param angle     角度
+     * @param speed     速度
+     * @param timestamp 发送端时间戳（纳秒）
+     */
+    public static void encode(ByteBuffer dst, byte type, int sequence,
+                              int angle, int speed, long timestamp) {
+        encode(dst, type, sequence, angle, speed, timestamp, 0L);
+    }
+
+    /**
+     * 将一帧数据写入缓冲区当前位置，写入后position前移SIZE个字节
+     *
+     * @param dst       目标缓冲区，剩余空间至少为SIZE
+     * @param type      帧类型
+     * @param sequence  发送序号
+     * @param angle     角度
+     * @param speed     速度
+     * @param timestamp 发送端时间戳（纳秒）
+     * @param origin    源头时间戳（纳秒），0表示未知
+     */
+    public static void encode(ByteBuffer dst, byte type, int sequence,
+                              int angle, int speed, long timestamp, long origin) {
+        int start = dst.position();
+        dst.putShort(MAGIC)
+                .put(VERSION)
+                .put(type)
+                .putInt(sequence)
+                .putShort((short) angle)
+                .putShort((short) speed)
+                .putLong(timestamp)
+                .putLong(origin)
+                .putInt(checksum(dst, start));
+    }
+
+    /**
+     * 从缓冲区当前位置解码一帧数据，结果保存在本实例的字段中
+     * 只要可读数据足够一帧，无论成功与否position都会前移SIZE个字节
+     *
+     * @param src 源缓冲区
+     * @return 解码结果，DECODE_OK表示成功，其余为错误码
+     */
+    public int decode(ByteBuffer src) {
+        if (src.remaining() < SIZE) {
+            return DECODE_UNDERFLOW;
+        }
+        int start = src.position();
+        src.position(start + SIZE);
+
+        if (src.getShort(start) != MAGIC) {
+            return DECODE_BAD_MAGIC;
+        }
+        if (src.get(start + 2) != VERSION) {
+            return DECODE_BAD_VERSION;
+        }
+        if (src.getInt(start + CHECKSUM_OFFSET) != checksum(src, start)) {
+            return DECODE_BAD_CHECKSUM;
+        }
+
+        type = src.get(start + 3);
+        sequence = src.getInt(start + 4);
+        angle = src.getShort(start + 8);
+        speed = src.getShort(start + 10);
+        timestamp = src.getLong(start + 12);
+        origin = src.getLong(start + 20);
+        return DECODE_OK;
+    }
+
+    /**
+     * 复制另一帧的解码结果
+     *
+     * @param other 源帧
+     */
+    public void copyFrom(ControlFrame other) {
+        type = other.type;
+        sequence = other.sequence;
+        angle = other.angle;
+        speed = other.speed;
+        timestamp = other.timestamp;
+        origin = other.origin;
+        receivedNanos = other.receivedNanos;
+    }
+
+    /**
+     * 判断数据流的首字节是否为二进制控制帧
+     * 旧版文本协议以 "Angle" 开头，首字节为ASCII字符
+     *
+     * @param first 数据流的第一个字节
+     * @return 是二进制帧返回true，否则按旧版文本协议处理
+     */
+    public static boolean isBinaryFrameStart(int first) {
+        return (byte) first == MAGIC_FIRST_BYTE;
+    }
+
+    /**
+     * 计算帧内校验字段之前所有字节的Fletcher-32校验和
+     * 使用绝对位置读取，不影响缓冲区的position
+     *
+     * @param buf   缓冲区
+     * @param start 帧起始位置
+     * @return 校验和
+     */
+    private static int checksum(ByteBuffer buf, int start) {
+        int sum1 = 0xFFFF;
+        int sum2 = 0xFFFF;
+        for (int i = start; i < start + CHECKSUM_OFFSET; i += 2) {
+            sum1 += buf.getShort(i) & 0xFFFF;
+            sum2 += sum1;
+            sum1 = (sum1 & 0xFFFF) + (sum1 >>> 16);
+            sum2 = (sum2 & 0xFFFF) + (sum2 >>> 16);
+        }
+        sum1 = (sum1 & 0xFFFF) + (sum1 >>> 16);
+        sum2 = (sum2 & 0xFFFF) + (sum2 >>> 16);
+        return (sum2 << 16) | sum1;
+    }
+}
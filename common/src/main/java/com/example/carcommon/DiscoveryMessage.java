@@ -0,0 +1,161 @@
+package com.example.carcommon;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 小车发现协议的UDP消息编解码器
+ * 客户端向DEFAULT_PORT广播PROBE，每个小车的服务端向探测的发送端单播回复REPLY，
+ * 回复原样带回探测的nonce和timestamp，客户端据此匹配本次探测并计算往返时间
+ *
+ * 消息长度固定，网络字节序（大端），布局如下：
+ * <pre>
+ *  偏移  字段          类型  说明
+ *   0   magic         u32  固定为0x43445343（"CDSC"）
+ *   4   version       u8   协议版本
+ *   5   type          u8   消息类型
+ *   6   capabilities  u16  服务端支持的功能，CAP_*的组合，PROBE中为0
+ *   8   nonce         i32  探测编号，回复中原样带回
+ *  12   controlPort   u16  控制端口（TCP和UDP相同）
+ *  14   clients       u16  当前的TCP连接数（驾驶者和等待者）
+ *  16   timestamp     i64  探测发送时间（纳秒，客户端时钟），回复中原样带回
+ *  24   flags         u8   FLAG_*的组合
+ *  25   frameVersion  u8   服务端的控制帧协议版本（ControlFrame.VERSION）
+ *  26   nameLength    u8   名称的字节数
+ *  27   保留          5字节
+ *  32   name          16字节 UTF-8编码的名称，超出部分截断
+ * </pre>
+ * 编码为静态方法，解码结果写入可复用的实例字段
+ */
+public final class DiscoveryMessage {
+    /** 消息长度（字节） */
+    public static final int SIZE = 48;
+    /** 发现协议的默认UDP端口 */
+    public static final int DEFAULT_PORT = 8889;
+    /** 魔数 "CDSC" */
+    public static final int MAGIC = 0x43445343;
+    /** 协议版本 */
+    public static final byte VERSION = 1;
+
+    /** 消息类型：客户端的探测 */
+    public static final byte TYPE_PROBE = 1;
+    /** 消息类型：服务端的回复 */
+    public static final byte TYPE_REPLY = 2;
+
+    /** 功能：TCP控制 */
+    public static final int CAP_TCP = 1;
+    /** 功能：UDP控制 */
+    public static final int CAP_UDP = 1 << 1;
+    /** 功能：回复ACK帧，客户端可以据此调整发送频率 */
+    public static final int CAP_ACK = 1 << 2;
+    /** 功能：TYPE_CLAIM申请控制权 */
+    public static final int CAP_CLAIM = 1 << 3;
+    /** 功能：兼容旧版文本协议 */
+    public static final int CAP_LEGACY_TEXT = 1 << 4;
+
+    /** 标志：已有驾驶者 */
+    public static final int FLAG_DRIVER = 1;
+
+    /** 名称的最大字节数 */
+    public static final int MAX_NAME_BYTES = 16;
+
+    private static final int NAME_OFFSET = 32;
+
+    // 最近一次解码的结果
+    public byte type;
+    public int capabilities;
+    public int nonce;
+    public int controlPort;
+    public int clients;
+    public long timestamp;
+    public int flags;
+    public int frameVersion;
+    public String name;
+
+    /**
+     * 写入一个探测，写入后position前移SIZE个字节
+     *
+     * @param dst       目标缓冲区，剩余空间至少为SIZE
+     * @param nonce     探测编号
+     * @param timestamp 发送时间（纳秒）
+     */
+    public static void encodeProbe(ByteBuffer dst, int nonce, long timestamp) {
+        encode(dst, TYPE_PROBE, 0, nonce, 0, 0, timestamp, 0, "");
+    }
+
+    /**
+     * 写入对一个探测的回复，写入后position前移SIZE个字节
+     *
+     * @param dst          目标缓冲区，剩余空间至少为SIZE
+     * @param probe        已解码的探测
+     * @param capabilities CAP_*的组合
+     * @param controlPort  控制端口
+     * @param clients      当前的TCP连接数
+     * @param flags        FLAG_*的组合
+     * @param name         名称
+     */
+    public static void encodeReply(ByteBuffer dst, DiscoveryMessage probe, int capabilities,
+                                   int controlPort, int clients, int flags, String name) {
+        encode(dst, TYPE_REPLY, capabilities, probe.nonce, controlPort, clients, probe.timestamp, flags, name);
+    }
+
+    private static void encode(ByteBuffer dst, byte type, int capabilities, int nonce, int controlPort,
+                               int clients, long timestamp, int flags, String name) {
+        int start = dst.position();
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int nameLength = Math.min(nameBytes.length, MAX_NAME_BYTES);
+        dst.putInt(MAGIC)
+                .put(VERSION)
+                .put(type)
+                .putShort((short) capabilities)
+                .putInt(nonce)
+                .putShort((short) controlPort)
+                .putShort((short) Math.min(clients, 0xFFFF))
+                .putLong(timestamp)
+                .put((byte) flags)
+                .put(ControlFrame.VERSION)
+                .put((byte) nameLength);
+        for (int i = dst.position(); i < start + SIZE; i++) {
+            dst.put((byte) 0);
+        }
+        for (int i = 0; i < nameLength; i++) {
+            dst.put(start + NAME_OFFSET + i, nameBytes[i]);
+        }
+    }
+
+    /**
+     * 从缓冲区当前位置解码一条消息，结果保存在本实例的字段中
+     * 只要可读数据足够一条消息，无论成功与否position都会前移SIZE个字节
+     *
+     * @param src 源缓冲区
+     * @return 成功返回true；长度不足、魔数或版本不符时返回false
+     */
+    public boolean decode(ByteBuffer src) {
+        if (src.remaining() < SIZE) {
+            return false;
+        }
+        int start = src.position();
+        src.position(start + SIZE);
+        if (src.getInt(start) != MAGIC || src.get(start + 4) != VERSION) {
+            return false;
+        }
+        int nameLength = src.get(start + 26) & 0xFF;
+        if (nameLength > MAX_NAME_BYTES) {
+            return false;
+        }
+        type = src.get(start + 5);
+        capabilities = src.getShort(start + 6) & 0xFFFF;
+        nonce = src.getInt(start + 8);
+        controlPort = src.getShort(start + 12) & 0xFFFF;
+        clients = src.getShort(start + 14) & 0xFFFF;
+        timestamp = src.getLong(start + 16);
+        flags = src.get(start + 24) & 0xFF;
+        frameVersion = src.get(start + 25) & 0xFF;
+        byte[] nameBytes = new byte[nameLength];
+        for (int i = 0; i < nameLength; i++) {
+            nameBytes[i] = src.get(start + NAME_OFFSET + i);
+        }
+        name = new String(nameBytes, StandardCharsets.UTF_8);
+        return true;
+    }
+}
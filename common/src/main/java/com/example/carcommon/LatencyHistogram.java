@@ -0,0 +1,185 @@
+package com.example.carcommon;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 对数分桶的延迟直方图
+ * 每个2的幂区间再等分为16个子桶，任意取值的相对误差不超过1/16（约6%），
+ * 以纳秒记录，覆盖0到约68秒，更大的值计入最后一个桶
+ *
+ * 记录只有一次数组写入，不分配对象；只允许单个线程记录，其他线程可以随时读取分位数
+ * 负值（通常是时钟偏差估计误差造成的）按0记录，并单独计数
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private volatile long count;
+    private volatile long max;
+    private volatile long negativeCount;
+
+    /**
+     * @param name 名称，导出时使用
+     */
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 记录一个延迟值
+     *
+     * @param nanos 延迟（纳秒）
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            negativeCount++;
+            nanos = 0;
+        }
+        int index = bucketIndex(nanos);
+        counts.lazySet(index, counts.get(index) + 1);
+        if (nanos > max) {
+            max = nanos;
+        }
+        count++;
+    }
+
+    /**
+     * 计算取值所在的桶
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return 桶的下界（包含）
+     */
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = index % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * @return 桶的上界（不包含）
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index + 1;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return bucketLowerBound(index) + (1L << (exponent - SUB_BUCKET_BITS));
+    }
+
+    /**
+     * 计算分位数，返回所在桶的上界（不超过最大值），即实际分位数不会大于返回值
+     *
+     * @param quantile 分位，0-1，如0.99
+     * @return 分位数（纳秒），没有数据时返回0
+     */
+    public long percentile(double quantile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i) - 1, max);
+            }
+        }
+        return max;
+    }
+
+    /** @return 名称 */
+    public String getName() {
+        return name;
+    }
+
+    /** @return 记录的数量 */
+    public long getCount() {
+        return count;
+    }
+
+    /** @return 最大值（纳秒） */
+    public long getMax() {
+        return max;
+    }
+
+    /** @return 记录时为负值的数量 */
+    public long getNegativeCount() {
+        return negativeCount;
+    }
+
+    /**
+     * 写入摘要，如 “touch→send n=120 p50=1.20ms p99=4.10ms p999=6.00ms max=6.02ms”
+     *
+     * @param out 输出
+     * @return out
+     */
+    public StringBuilder appendSummary(StringBuilder out) {
+        out.append(name).append(" n=").append(count);
+        appendMillis(out.append(" p50="), percentile(0.5));
+        appendMillis(out.append(" p99="), percentile(0.99));
+        appendMillis(out.append(" p999="), percentile(0.999));
+        appendMillis(out.append(" max="), max);
+        if (negativeCount > 0) {
+            out.append(" neg=").append(negativeCount);
+        }
+        return out;
+    }
+
+    /**
+     * 导出摘要和所有非空桶，每个桶一行：[下界, 上界) 数量，单位纳秒
+     *
+     * @param printer 输出
+     */
+    public void export(TraceRing.Printer printer) {
+        printer.println(appendSummary(new StringBuilder()).toString());
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = counts.get(i);
+            if (n > 0) {
+                printer.println("  [" + bucketLowerBound(i) + ", " + bucketUpperBound(i) + ") " + n);
+            }
+        }
+    }
+
+    /**
+     * 以毫秒为单位写入，保留两位小数，如 “1.05ms”
+     *
+     * @param out   输出
+     * @param nanos 时间（纳秒），可以为负
+     */
+    public static void appendMillis(StringBuilder out, long nanos) {
+        if (nanos < 0) {
+            out.append('-');
+            nanos = -nanos;
+        }
+        long hundredths = nanos / 10_000;
+        out.append(hundredths / 100).append('.');
+        long fraction = hundredths % 100;
+        if (fraction < 10) {
+            out.append('0');
+        }
+        out.append(fraction).append("ms");
+    }
+}
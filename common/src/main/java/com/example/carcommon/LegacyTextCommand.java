@@ -0,0 +1,137 @@
+package com.example.carcommon;
+
+/**
+ * 旧版文本协议解析器
+ * 旧客户端每行发送一条 "Angle: 90, Speed: 50" 格式的指令
+ * 这里逐字符解析，代替原先的 split(": |, ") + Integer.parseInt，不使用正则也不产生中间字符串
+ */
+public final class LegacyTextCommand {
+
+    private LegacyTextCommand() {
+    }
+
+    /**
+     * 解析一行旧版文本指令，结果写入out的angle和speed字段
+     * 文本协议不携带时间戳，timestamp和origin置为0
+     * 与原实现保持一致：必须恰好包含 "标签: 数值, 标签: 数值" 四段，末尾可以跟随多余的分隔符
+     *
+     * @param line 一行文本（不含换行符）
+     * @param out  解析结果容器
+     * @return 解析成功返回true；格式或数值错误返回false，此时out内容不确定
+     */
+    public static boolean parse(CharSequence line, ControlFrame out) {
+        int angleStart = indexOf(line, ':', ' ', 0);
+        if (angleStart < 0) {
+            return false;
+        }
+        int angleEnd = indexOf(line, ',', ' ', angleStart + 2);
+        if (angleEnd < 0) {
+            return false;
+        }
+        int speedStart = indexOf(line, ':', ' ', angleEnd + 2);
+        if (speedStart < 0) {
+            return false;
+        }
+        // 速度之后还有分隔符时，其后只能是连续的分隔符（如部分旧客户端发送的结尾", "）：
+        // split会丢弃末尾的空段，旧实现接受这种写法；分隔符之间还有内容则段数多于4，视为格式错误
+        int speedEnd = separatorAt(line, speedStart + 2);
+        if (speedEnd < line.length() && !onlySeparators(line, speedEnd)) {
+            return false;
+        }
+
+        long angle = parseInt(line, angleStart + 2, angleEnd);
+        long speed = parseInt(line, speedStart + 2, speedEnd);
+        if (angle == Long.MIN_VALUE || speed == Long.MIN_VALUE) {
+            return false;
+        }
+        out.type = ControlFrame.TYPE_CONTROL;
+        out.angle = (int) angle;
+        out.speed = (int) speed;
+        out.timestamp = 0;
+        out.origin = 0;
+        return true;
+    }
+
+    /**
+     * 查找两个字符组成的分隔符
+     *
+     * @return 分隔符第一个字符的位置，找不到返回-1
+     */
+    private static int indexOf(CharSequence s, char first, char second, int from) {
+        for (int i = from; i < s.length() - 1; i++) {
+            if (s.charAt(i) == first && s.charAt(i + 1) == second) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 查找from之后的第一个分隔符（": "或", "）
+     *
+     * @return 分隔符第一个字符的位置，找不到返回s.length()
+     */
+    private static int separatorAt(CharSequence s, int from) {
+        int colon = indexOf(s, ':', ' ', from);
+        int comma = indexOf(s, ',', ' ', from);
+        if (colon < 0) {
+            return comma < 0 ? s.length() : comma;
+        }
+        return comma < 0 ? colon : Math.min(colon, comma);
+    }
+
+    /**
+     * @return 从from开始到结尾是否只由分隔符": "和", "组成
+     */
+    private static boolean onlySeparators(CharSequence s, int from) {
+        for (int i = from; i < s.length(); i += 2) {
+            if (i + 1 >= s.length() || (s.charAt(i) != ':' && s.charAt(i) != ',') || s.charAt(i + 1) != ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 解析[start, end)区间内的十进制整数，允许首尾空白和正负号
+     *
+     * @return 解析出的数值；格式错误或超出int范围时返回Long.MIN_VALUE
+     */
+    private static long parseInt(CharSequence s, int start, int end) {
+        while (start < end && s.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            return Long.MIN_VALUE;
+        }
+
+        boolean negative = false;
+        char c = s.charAt(start);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            if (++start == end) {
+                return Long.MIN_VALUE;
+            }
+        }
+
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 + (c - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return Long.MIN_VALUE;
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            return Long.MIN_VALUE;
+        }
+        return value;
+    }
+}
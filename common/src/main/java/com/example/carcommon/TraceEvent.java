@@ -0,0 +1,66 @@
+package com.example.carcommon;
+
+/**
+ * TraceRing的事件类型，两个App共用一套编号，导出的记录可以直接对照
+ * 每个事件的两个参数含义见各常量的注释
+ */
+public final class TraceEvent {
+    // 客户端
+    /** 摇杆输入变化：a=角度，b=速度 */
+    public static final int JOYSTICK = 1;
+    /** 发送控制帧：a=帧序号，b=速度 */
+    public static final int FRAME_SENT = 2;
+    /** 发送失败：a=帧序号，b=0 */
+    public static final int SEND_FAILED = 3;
+    /** 连接状态变化：a=新状态（ConnectionManager.STATE_*，0未连接/1连接中/2已连接/3退避），b=累计连接失败次数 */
+    public static final int CONNECTION = 4;
+
+    // 服务端
+    /** 收到控制帧：a=连接编号（UDP为0），b=速度 */
+    public static final int FRAME_RECEIVED = 20;
+    /** 收到旧版文本指令：a=角度，b=速度 */
+    public static final int LEGACY_COMMAND = 21;
+    /** 格式错误的帧或文本：a=连接编号，b=解码结果 */
+    public static final int MALFORMED = 22;
+    /** 下发指令到驱动：a=角度，b=速度 */
+    public static final int ACTUATE = 23;
+    /** 驾驶者变化：a=新驾驶者连接编号（没有为0），b=0 */
+    public static final int DRIVER_CHANGE = 24;
+    /** 看门狗停车：a=停车延迟（微秒），b=0 */
+    public static final int WATCHDOG_TRIP = 25;
+    /** 执行决定，只记录在CarJNI的黑匣子中，参数见BlackBox */
+    public static final int DECISION = 26;
+    /** 启动阶段结束：a=阶段序号（失败时为-1-序号），b=该阶段耗时（微秒） */
+    public static final int STARTUP_STAGE = 27;
+    /** 网络层热重启完成：a=累计重启次数（失败时为-1），b=重启耗时（微秒） */
+    public static final int NETWORK_RESTART = 28;
+    /** 下发指令失败：a=返回值（-errno），b=速度 */
+    public static final int ACTUATE_FAILED = 29;
+
+    private TraceEvent() {
+    }
+
+    /**
+     * @param type 事件类型
+     * @return 事件名称，未知类型返回 EVENT_编号
+     */
+    public static String name(int type) {
+        switch (type) {
+            case JOYSTICK: return "JOYSTICK";
+            case FRAME_SENT: return "FRAME_SENT";
+            case SEND_FAILED: return "SEND_FAILED";
+            case CONNECTION: return "CONNECTION";
+            case FRAME_RECEIVED: return "FRAME_RECEIVED";
+            case LEGACY_COMMAND: return "LEGACY_COMMAND";
+            case MALFORMED: return "MALFORMED";
+            case ACTUATE: return "ACTUATE";
+            case DRIVER_CHANGE: return "DRIVER_CHANGE";
+            case WATCHDOG_TRIP: return "WATCHDOG_TRIP";
+            case DECISION: return "DECISION";
+            case STARTUP_STAGE: return "STARTUP_STAGE";
+            case NETWORK_RESTART: return "NETWORK_RESTART";
+            case ACTUATE_FAILED: return "ACTUATE_FAILED";
+            default: return "EVENT_" + type;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.carcommon;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 预分配的二进制事件环，替代热路径上逐条格式化的日志
+ * 每个事件只有事件类型、System.nanoTime和两个int，记录时不格式化字符串、不分配对象、不加锁，
+ * 需要时再把最近的事件格式化输出到logcat或文件
+ *
+ * 事件按级别过滤：级别低于当前设置的事件直接返回，关闭时只有一次volatile读
+ * 多个线程可以同时记录，环满后覆盖最旧的事件
+ *
+ * 每个槽位占3个long：[序号+1 | 类型]、时间、[a | b]
+ * 写入时先把第一个long置为-1再写其余字段，最后写回序号；
+ * 读取时前后两次读到相同的序号才认为该事件完整，否则跳过（正在被覆盖）
+ */
+public class TraceRing {
+    /** 级别：不记录 */
+    public static final int LEVEL_OFF = 0;
+    /** 级别：低频事件，如连接、驾驶者切换、看门狗停车 */
+    public static final int LEVEL_INFO = 1;
+    /** 级别：每帧事件，如摇杆输入、发送和接收控制帧 */
+    public static final int LEVEL_DEBUG = 2;
+
+    /** 进程内共用的事件环 */
+    public static final TraceRing GLOBAL = new TraceRing(4096);
+
+    /**
+     * 跟踪区间的输出，Android上由AndroidTrace转发到android.os.Trace
+     */
+    public interface SectionHook {
+        void beginSection(String name);
+
+        void endSection();
+    }
+
+    /**
+     * 格式化后的事件输出
+     */
+    public interface Printer {
+        void println(String line);
+    }
+
+    private static final int SLOT_WORDS = 3;
+    private static final long BUSY = -1L;
+
+    private final int mask;
+    private final AtomicLongArray slots;
+    private final AtomicLong cursor = new AtomicLong();
+    private volatile int level = LEVEL_INFO;
+    private volatile SectionHook sectionHook;
+
+    /**
+     * @param capacity 事件数量，向上取整为2的幂
+     */
+    public TraceRing(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 24)) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.slots = new AtomicLongArray(size * SLOT_WORDS);
+    }
+
+    /**
+     * 设置记录级别，LEVEL_OFF关闭记录
+     *
+     * @param level LEVEL_*常量之一
+     */
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    /** @return 当前记录级别 */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @param level 事件级别
+     * @return 该级别的事件是否会被记录，用于在记录前跳过参数计算
+     */
+    public boolean isEnabled(int level) {
+        return level <= this.level;
+    }
+
+    /**
+     * 记录一个事件
+     *
+     * @param level 事件级别
+     * @param type  事件类型，见TraceEvent
+     * @param a     参数a
+     * @param b     参数b
+     */
+    public void record(int level, int type, int a, int b) {
+        if (level > this.level) {
+            return;
+        }
+        long seq = cursor.getAndIncrement();
+        int base = (int) (seq & mask) * SLOT_WORDS;
+        slots.lazySet(base, BUSY);
+        slots.lazySet(base + 1, System.nanoTime());
+        slots.lazySet(base + 2, ((long) a << 32) | (b & 0xFFFFFFFFL));
+        slots.lazySet(base, ((seq + 1) << 16) | (type & 0xFFFF));
+    }
+
+    /**
+     * 设置跟踪区间的输出，为null时beginSection/endSection不做任何事
+     *
+     * @param hook 跟踪区间的输出
+     */
+    public void setSectionHook(SectionHook hook) {
+        this.sectionHook = hook;
+    }
+
+    /**
+     * 开始一个跟踪区间，必须与endSection在同一线程中成对调用
+     *
+     * @param type 事件类型，作为区间名称
+     */
+    public void beginSection(int type) {
+        SectionHook hook = sectionHook;
+        if (hook != null) {
+            hook.beginSection(TraceEvent.name(type));
+        }
+    }
+
+    /**
+     * 结束当前线程最近一个跟踪区间
+     */
+    public void endSection() {
+        SectionHook hook = sectionHook;
+        if (hook != null) {
+            hook.endSection();
+        }
+    }
+
+    /** @return 记录过的事件总数，包括已被覆盖的 */
+    public long getRecordedCount() {
+        return cursor.get();
+    }
+
+    /** @return 能够保留的事件数 */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * 按时间顺序输出环中保留的事件，时间相对于输出的第一个事件
+     * 可以在记录的同时调用，正在被覆盖的事件会被跳过
+     *
+     * @param printer 输出
+     * @return 输出的事件数
+     */
+    public int dump(Printer printer) {
+        long end = cursor.get();
+        long start = Math.max(0, end - getCapacity());
+        long firstNanos = 0;
+        int printed = 0;
+        StringBuilder line = new StringBuilder(64);
+        for (long seq = start; seq < end; seq++) {
+            int base = (int) (seq & mask) * SLOT_WORDS;
+            long header = slots.get(base);
+            long nanos = slots.get(base + 1);
+            long args = slots.get(base + 2);
+            if (header != slots.get(base) || header >>> 16 != seq + 1) {
+                continue;
+            }
+            if (printed == 0) {
+                firstNanos = nanos;
+            }
+            line.setLength(0);
+            line.append('+').append((nanos - firstNanos) / 1000).append("us ")
+                    .append(TraceEvent.name((int) (header & 0xFFFF)))
+                    .append(" a=").append((int) (args >> 32))
+                    .append(" b=").append((int) args);
+            printer.println(line.toString());
+            printed++;
+        }
+        return printed;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.carcommon;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClockSyncTest {
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void symmetricDelayGivesExactOffset() {
+        ClockSync sync = new ClockSync();
+        assertFalse(sync.hasEstimate());
+        // 服务端时钟比客户端快5秒，单程延迟2毫秒
+        long offset = 5_000 * MS;
+        assertTrue(sync.onSample(100 * MS, 102 * MS + offset, 104 * MS));
+        assertTrue(sync.hasEstimate());
+        assertEquals(offset, sync.getOffsetNanos());
+        assertEquals(4 * MS, sync.getRttNanos());
+    }
+
+    @Test
+    public void keepsFastestSampleInWindow() {
+        ClockSync sync = new ClockSync();
+        long offset = -3 * MS;
+        sync.onSample(0, 1 * MS + offset, 2 * MS);
+        int version = sync.getVersion();
+
+        // 慢样本：请求方向排队了20毫秒，单独使用会把偏差估计错10毫秒
+        assertFalse(sync.onSample(10 * MS, 31 * MS + offset, 32 * MS));
+        assertEquals(offset, sync.getOffsetNanos());
+        assertEquals(version, sync.getVersion());
+
+        // 更快的样本替换原来的估计
+        assertTrue(sync.onSample(40 * MS, 40 * MS + MS / 2 + offset, 41 * MS));
+        assertEquals(MS, sync.getRttNanos());
+        assertEquals(offset, sync.getOffsetNanos());
+    }
+
+    @Test
+    public void fastSampleAgesOutOfWindow() {
+        ClockSync sync = new ClockSync();
+        sync.onSample(0, 0, MS);
+        for (int i = 1; i <= ClockSync.WINDOW; i++) {
+            long t0 = i * 100 * MS;
+            sync.onSample(t0, t0 + 2 * MS + 7 * MS, t0 + 4 * MS);
+        }
+        assertEquals(4 * MS, sync.getRttNanos());
+        assertEquals(7 * MS, sync.getOffsetNanos());
+    }
+
+    @Test
+    public void rejectsNegativeRoundTrip() {
+        ClockSync sync = new ClockSync();
+        assertFalse(sync.onSample(10, 0, 5));
+        assertFalse(sync.hasEstimate());
+    }
+
+    @Test
+    public void resetClearsEstimate() {
+        ClockSync sync = new ClockSync();
+        sync.onSample(0, 0, MS);
+        int version = sync.getVersion();
+        sync.reset();
+        assertFalse(sync.hasEstimate());
+        assertNotEquals(version, sync.getVersion());
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.carcommon;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ControlFrameTest {
+
+    @Test
+    public void encodeDecode_roundTrip() {
+        ByteBuffer buffer = ByteBuffer.allocate(ControlFrame.SIZE);
+        ControlFrame.encode(buffer, ControlFrame.TYPE_CONTROL, 42, 315, 87, 123456789L);
+        assertEquals(ControlFrame.SIZE, buffer.position());
+
+        buffer.flip();
+        ControlFrame frame = new ControlFrame();
+        assertEquals(ControlFrame.DECODE_OK, frame.decode(buffer));
+        assertEquals(ControlFrame.TYPE_CONTROL, frame.type);
+        assertEquals(42, frame.sequence);
+        assertEquals(315, frame.angle);
+        assertEquals(87, frame.speed);
+        assertEquals(123456789L, frame.timestamp);
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    public void encodeDecode_originAndTimingTypes() {
+        ByteBuffer buffer = ByteBuffer.allocate(ControlFrame.SIZE * 2);
+        ControlFrame.encode(buffer, ControlFrame.TYPE_CONTROL, 1, 90, 50, 2_000_000L, 1_500_000L);
+        ControlFrame.encode(buffer, ControlFrame.TYPE_PONG, 2, 0, 0, Long.MAX_VALUE, -1L);
+        buffer.flip();
+
+        ControlFrame frame = new ControlFrame();
+        assertEquals(ControlFrame.DECODE_OK, frame.decode(buffer));
+        assertEquals(1_500_000L, frame.origin);
+        assertEquals(ControlFrame.DECODE_OK, frame.decode(buffer));
+        assertEquals(ControlFrame.TYPE_PONG, frame.type);
+        assertEquals(Long.MAX_VALUE, frame.timestamp);
+        assertEquals(-1L, frame.origin);
+
+        // 6参数的编码方法不携带源头时间
+        buffer.clear();
+        ControlFrame.encode(buffer, ControlFrame.TYPE_CONTROL, 3, 0, 0, 5L);
+        buffer.flip();
+        assertEquals(ControlFrame.DECODE_OK, frame.decode(buffer));
+        assertEquals(0L, frame.origin);
+    }
+
+    @Test
+    public void copyFrom_includesLocalReceiveTime() {
+        ControlFrame source = new ControlFrame();
+        source.origin = 7;
+        source.receivedNanos = 9;
+        ControlFrame copy = new ControlFrame();
+        copy.copyFrom(source);
+        assertEquals(7, copy.origin);
+        assertEquals(9, copy.receivedNanos);
+    }
+
+    @Test
+    public void decode_consecutiveFramesInOneBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(ControlFrame.SIZE * 3);
+        for (int i = 0; i < 3; i++) {
+            ControlFrame.encode(buffer, ControlFrame.TYPE_CONTROL, i, i * 10, i * 20, i);
+        }
+        buffer.flip();
+
+        ControlFrame frame = new ControlFrame();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(ControlFrame.DECODE_OK, frame.decode(buffer));
+            assertEquals(i, frame.sequence);
+            assertEquals(i * 20, frame.speed);
+        }
+        assertEquals(ControlFrame.DECODE_UNDERFLOW, frame.decode(buffer));
+    }
+
+    @Test
+    public void decode_detectsCorruption() {
+        ByteBuffer buffer = ByteBuffer.allocate(ControlFrame.SIZE);
+        ControlFrame frame = new ControlFrame();
+
+        for (int offset = 4; offset < ControlFrame.SIZE; offset++) {
+            buffer.clear();
+            ControlFrame.encode(buffer, ControlFrame.TYPE_CONTROL, 7, 90, 50, 99L);
+            buffer.put(offset, (byte) (buffer.get(offset) ^ 0x10));
+            buffer.flip();
+            assertEquals("offset " + offset, ControlFrame.DECODE_BAD_CHECKSUM, frame.decode(buffer));
+        }
+    }
+
+    @Test
+    public void decode_rejectsBadMagicAndVersion() {
+        ByteBuffer buffer = ByteBuffer.allocate(ControlFrame.SIZE);
+        ControlFrame frame = new ControlFrame();
+
+        ControlFrame.encode(buffer, ControlFrame.TYPE_CONTROL, 1, 0, 0, 0L);
+        buffer.put(1, (byte) 0);
+        buffer.flip();
+        assertEquals(ControlFrame.DECODE_BAD_MAGIC, frame.decode(buffer));
+
+        buffer.clear();
+        ControlFrame.encode(buffer, ControlFrame.TYPE_CONTROL, 1, 0, 0, 0L);
+        buffer.put(2, (byte) 99);
+        buffer.flip();
+        assertEquals(ControlFrame.DECODE_BAD_VERSION, frame.decode(buffer));
+    }
+
+    @Test
+    public void isBinaryFrameStart_distinguishesLegacyText() {
+        assertTrue(ControlFrame.isBinaryFrameStart(0xCA));
+        assertFalse(ControlFrame.isBinaryFrameStart('A'));
+    }
+
+    @Test
+    public void legacyText_parsesOldClientFormat() {
+        ControlFrame frame = new ControlFrame();
+        assertTrue(LegacyTextCommand.parse("Angle: 270, Speed: 100", frame));
+        assertEquals(270, frame.angle);
+        assertEquals(100, frame.speed);
+
+        assertTrue(LegacyTextCommand.parse("Angle: 0, Speed: 0", frame));
+        assertEquals(0, frame.angle);
+        assertEquals(0, frame.speed);
+
+        // 复用的帧对象不能残留上一条二进制帧的时间戳
+        frame.timestamp = 5;
+        frame.origin = 3;
+        assertTrue(LegacyTextCommand.parse("Angle: 10, Speed: 20", frame));
+        assertEquals(0, frame.timestamp);
+        assertEquals(0, frame.origin);
+    }
+
+    @Test
+    public void legacyText_acceptsTrailingSeparator() {
+        // 旧实现split(": |, ")丢弃末尾的空段，结尾带", "的旧客户端照常工作
+        ControlFrame frame = new ControlFrame();
+        assertTrue(LegacyTextCommand.parse("角度: 10, 速度: 20, ", frame));
+        assertEquals(10, frame.angle);
+        assertEquals(20, frame.speed);
+        assertTrue(LegacyTextCommand.parse("Angle: 30, Speed: 40, , ", frame));
+        assertEquals(30, frame.angle);
+        assertEquals(40, frame.speed);
+
+        assertFalse(LegacyTextCommand.parse("Angle: 30, Speed: 40, x", frame));
+        assertFalse(LegacyTextCommand.parse("Angle: 30, Speed: 40,  ", frame));
+        assertFalse(LegacyTextCommand.parse("Angle: 30, Speed: , ", frame));
+    }
+
+    @Test
+    public void legacyText_rejectsMalformedLines() {
+        ControlFrame frame = new ControlFrame();
+        assertFalse(LegacyTextCommand.parse("", frame));
+        assertFalse(LegacyTextCommand.parse("Angle: 90", frame));
+        assertFalse(LegacyTextCommand.parse("Angle: x, Speed: 5", frame));
+        assertFalse(LegacyTextCommand.parse("Angle: 90, Speed: ", frame));
+        assertFalse(LegacyTextCommand.parse("Angle: 90, Speed: 5, Extra: 1", frame));
+        assertFalse(LegacyTextCommand.parse("Angle: 99999999999, Speed: 5", frame));
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.carcommon;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * 新旧协议的吞吐量对比
+ * 旧路径：String.format 组帧 + split/parseInt 解析（原 sendData / handleClient 的实现）
+ * 新路径：ControlFrame 在复用的 ByteBuffer 上编解码
+ * 只打印结果不做耗时断言，避免测试机负载波动导致误报
+ */
+public class ControlFrameThroughputTest {
+    private static final int WARMUP = 50_000;
+    private static final int ITERATIONS = 500_000;
+
+    @Test
+    public void compareTextAndBinaryPaths() {
+        long checksum = 0;
+        checksum += runText(WARMUP);
+        checksum += runBinary(WARMUP);
+
+        long start = System.nanoTime();
+        checksum += runText(ITERATIONS);
+        long textNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        checksum += runBinary(ITERATIONS);
+        long binaryNanos = System.nanoTime() - start;
+
+        System.out.printf(Locale.US, "text   : %,.0f frames/s%n", ITERATIONS * 1e9 / textNanos);
+        System.out.printf(Locale.US, "binary : %,.0f frames/s%n", ITERATIONS * 1e9 / binaryNanos);
+        assertTrue(checksum != 0);
+    }
+
+    private static long runText(int iterations) {
+        long sum = 0;
+        for (int i = 0; i < iterations; i++) {
+            double angle = i % 361;
+            float speed = i % 101;
+            String line = String.format(Locale.US, "Angle: %.0f, Speed: %.0f", angle, speed);
+            String[] parts = line.split(": |, ");
+            sum += Integer.parseInt(parts[1].trim()) + Integer.parseInt(parts[3].trim());
+        }
+        return sum;
+    }
+
+    private static long runBinary(int iterations) {
+        ByteBuffer buffer = ByteBuffer.allocate(ControlFrame.SIZE);
+        ControlFrame frame = new ControlFrame();
+        long sum = 0;
+        for (int i = 0; i < iterations; i++) {
+            buffer.clear();
+            ControlFrame.encode(buffer, ControlFrame.TYPE_CONTROL, i, i % 361, i % 101, i);
+            buffer.flip();
+            if (frame.decode(buffer) == ControlFrame.DECODE_OK) {
+                sum += frame.angle + frame.speed;
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.carcommon;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class DiscoveryMessageTest {
+
+    @Test
+    public void replyEchoesProbe() {
+        ByteBuffer buffer = ByteBuffer.allocate(DiscoveryMessage.SIZE * 2);
+        DiscoveryMessage.encodeProbe(buffer, 7, 123_456_789L);
+        assertEquals(DiscoveryMessage.SIZE, buffer.position());
+        buffer.flip();
+        DiscoveryMessage probe = new DiscoveryMessage();
+        assertTrue(probe.decode(buffer));
+        assertEquals(DiscoveryMessage.TYPE_PROBE, probe.type);
+        assertEquals("", probe.name);
+
+        buffer.clear();
+        DiscoveryMessage.encodeReply(buffer, probe, DiscoveryMessage.CAP_TCP | DiscoveryMessage.CAP_UDP,
+                50_000, 3, DiscoveryMessage.FLAG_DRIVER, "小车-1");
+        assertEquals(DiscoveryMessage.SIZE, buffer.position());
+        buffer.flip();
+        DiscoveryMessage reply = new DiscoveryMessage();
+        assertTrue(reply.decode(buffer));
+        assertEquals(DiscoveryMessage.TYPE_REPLY, reply.type);
+        assertEquals(7, reply.nonce);
+        assertEquals(123_456_789L, reply.timestamp);
+        // 端口按无符号数解码
+        assertEquals(50_000, reply.controlPort);
+        assertEquals(3, reply.clients);
+        assertEquals(DiscoveryMessage.CAP_TCP | DiscoveryMessage.CAP_UDP, reply.capabilities);
+        assertEquals(DiscoveryMessage.FLAG_DRIVER, reply.flags);
+        assertEquals(ControlFrame.VERSION, reply.frameVersion);
+        assertEquals("小车-1", reply.name);
+    }
+
+    @Test
+    public void longNameIsTruncated() {
+        ByteBuffer buffer = ByteBuffer.allocate(DiscoveryMessage.SIZE);
+        DiscoveryMessage probe = new DiscoveryMessage();
+        DiscoveryMessage.encodeReply(buffer, probe, 0, 8888, 0, 0, "rk3568-test-bench-car-07");
+        buffer.flip();
+        DiscoveryMessage reply = new DiscoveryMessage();
+        assertTrue(reply.decode(buffer));
+        assertEquals("rk3568-test-benc", reply.name);
+    }
+
+    @Test
+    public void rejectsForeignDatagrams() {
+        ByteBuffer buffer = ByteBuffer.allocate(DiscoveryMessage.SIZE);
+        DiscoveryMessage.encodeProbe(buffer, 1, 1);
+        buffer.put(4, (byte) 99);
+        buffer.flip();
+        DiscoveryMessage message = new DiscoveryMessage();
+        assertFalse(message.decode(buffer));
+        assertEquals(0, buffer.remaining());
+
+        // 控制帧比发现消息短
+        ByteBuffer frame = ByteBuffer.allocate(ControlFrame.SIZE);
+        ControlFrame.encode(frame, ControlFrame.TYPE_PING, 1, 0, 0, 1);
+        frame.flip();
+        assertFalse(message.decode(frame));
+    }
+}
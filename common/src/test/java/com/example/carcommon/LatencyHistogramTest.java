@@ -0,0 +1,85 @@
+package com.example.carcommon;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValueWithBoundedError() {
+        long[] values = {0, 1, 15, 16, 17, 31, 32, 1000, 123_456, 1_000_000, 999_999_999L, 1L << 36};
+        for (long value : values) {
+            int index = LatencyHistogram.bucketIndex(value);
+            long lower = LatencyHistogram.bucketLowerBound(index);
+            long upper = LatencyHistogram.bucketUpperBound(index);
+            assertTrue(value + " >= " + lower, value >= lower);
+            assertTrue(value + " < " + upper, value < upper);
+            assertTrue("relative error for " + value, (upper - lower) * 16 <= Math.max(16, lower));
+        }
+        // 相邻的桶首尾相接
+        for (int i = 1; i < 500; i++) {
+            assertEquals(LatencyHistogram.bucketUpperBound(i - 1), LatencyHistogram.bucketLowerBound(i));
+        }
+    }
+
+    @Test
+    public void percentilesOfUniformMillis() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1_000_000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000_000L, histogram.getMax());
+        assertEquals(500_000_000L, histogram.percentile(0.5), 500_000_000L / 16.0);
+        assertEquals(990_000_000L, histogram.percentile(0.99), 990_000_000L / 16.0);
+        assertEquals(1_000_000_000L, histogram.percentile(0.999), 1_000_000_000L / 16.0);
+        // 返回值不超过最大值
+        assertTrue(histogram.percentile(1.0) <= histogram.getMax());
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram("empty");
+        assertEquals(0, histogram.percentile(0.99));
+        assertEquals("empty n=0 p50=0.00ms p99=0.00ms p999=0.00ms max=0.00ms",
+                histogram.appendSummary(new StringBuilder()).toString());
+    }
+
+    @Test
+    public void negativeValuesAreClampedAndCounted() {
+        LatencyHistogram histogram = new LatencyHistogram("skew");
+        histogram.record(-5_000);
+        histogram.record(2_000_000);
+        assertEquals(1, histogram.getNegativeCount());
+        assertEquals(0, histogram.percentile(0.5));
+        assertTrue(histogram.appendSummary(new StringBuilder()).toString().endsWith(" neg=1"));
+    }
+
+    @Test
+    public void exportListsNonEmptyBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram("stage");
+        histogram.record(5);
+        histogram.record(5);
+        histogram.record(1_050_000);
+        List<String> lines = new ArrayList<>();
+        histogram.export(lines::add);
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(0).startsWith("stage n=3 "));
+        assertEquals("  [5, 6) 2", lines.get(1));
+        assertTrue(lines.get(2), lines.get(2).endsWith(" 1"));
+    }
+
+    @Test
+    public void appendMillisPadsFraction() {
+        StringBuilder out = new StringBuilder();
+        LatencyHistogram.appendMillis(out, 1_050_000);
+        assertEquals("1.05ms", out.toString());
+        out.setLength(0);
+        LatencyHistogram.appendMillis(out, -20_000_000);
+        assertEquals("-20.00ms", out.toString());
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.carcommon;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * 事件环与逐条格式化日志的开销对比
+ * 日志路径模拟原来的 Log.d(TAG, String.format(...))：格式化字符串后交给一个不做事的输出，
+ * 不包含真正写logd的系统调用，实际差距只会更大
+ * 只打印结果不做耗时断言，避免测试机负载波动导致误报
+ */
+public class TraceRingBenchmarkTest {
+    private static final int WARMUP = 200_000;
+    private static final int ITERATIONS = 2_000_000;
+
+    private static volatile Object sink;
+
+    @Test
+    public void compareDisabledEnabledAndFormattedLogging() {
+        TraceRing disabled = new TraceRing(4096);
+        disabled.setLevel(TraceRing.LEVEL_INFO);
+        TraceRing enabled = new TraceRing(4096);
+        enabled.setLevel(TraceRing.LEVEL_DEBUG);
+
+        runRing(disabled, WARMUP);
+        runRing(enabled, WARMUP);
+        runFormat(WARMUP / 10);
+
+        long start = System.nanoTime();
+        runRing(disabled, ITERATIONS);
+        long disabledNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        runRing(enabled, ITERATIONS);
+        long enabledNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long clockSum = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            clockSum += System.nanoTime();
+        }
+        long clockNanos = System.nanoTime() - start;
+        sink = clockSum;
+
+        start = System.nanoTime();
+        runFormat(ITERATIONS / 10);
+        long formatNanos = (System.nanoTime() - start) * 10;
+
+        System.out.printf(Locale.US, "trace disabled : %6.1f ns/event%n", (double) disabledNanos / ITERATIONS);
+        System.out.printf(Locale.US, "trace enabled  : %6.1f ns/event%n", (double) enabledNanos / ITERATIONS);
+        System.out.printf(Locale.US, "String.format  : %6.1f ns/event%n", (double) formatNanos / ITERATIONS);
+        // 记录事件本身要调用一次nanoTime，没有vDSO时钟的虚拟机上这一项占了大部分耗时
+        System.out.printf(Locale.US, "nanoTime       : %6.1f ns/call%n", (double) clockNanos / ITERATIONS);
+        assertEquals(0, disabled.getRecordedCount());
+        assertEquals(WARMUP + ITERATIONS, enabled.getRecordedCount());
+    }
+
+    private static void runRing(TraceRing ring, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            ring.record(TraceRing.LEVEL_DEBUG, TraceEvent.JOYSTICK, i % 360, i % 101);
+        }
+    }
+
+    private static void runFormat(int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            sink = String.format(Locale.US, "方向: %s 速度: %.2f 角度: %.1f°",
+                    "UP", (i % 101) / 100f, (double) (i % 360));
+        }
+    }
+}
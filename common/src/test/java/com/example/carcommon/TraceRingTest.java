@@ -0,0 +1,138 @@
+package com.example.carcommon;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class TraceRingTest {
+    private static final Pattern LINE = Pattern.compile("\\+(\\d+)us (\\w+) a=(-?\\d+) b=(-?\\d+)");
+
+    private static List<String> dump(TraceRing ring) {
+        List<String> lines = new ArrayList<>();
+        ring.dump(lines::add);
+        return lines;
+    }
+
+    @Test
+    public void recordsAndDumpsInOrder() {
+        TraceRing ring = new TraceRing(8);
+        ring.setLevel(TraceRing.LEVEL_DEBUG);
+        ring.record(TraceRing.LEVEL_DEBUG, TraceEvent.JOYSTICK, 90, 50);
+        ring.record(TraceRing.LEVEL_INFO, TraceEvent.CONNECTION, 1, 0);
+        ring.record(TraceRing.LEVEL_DEBUG, TraceEvent.FRAME_SENT, -1, Integer.MIN_VALUE);
+
+        List<String> lines = dump(ring);
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(0), lines.get(0).startsWith("+0us JOYSTICK a=90 b=50"));
+        assertTrue(lines.get(1), lines.get(1).endsWith("CONNECTION a=1 b=0"));
+        assertTrue(lines.get(2), lines.get(2).endsWith("FRAME_SENT a=-1 b=" + Integer.MIN_VALUE));
+    }
+
+    @Test
+    public void levelFiltersEvents() {
+        TraceRing ring = new TraceRing(8);
+        ring.setLevel(TraceRing.LEVEL_INFO);
+        ring.record(TraceRing.LEVEL_DEBUG, TraceEvent.JOYSTICK, 1, 2);
+        ring.record(TraceRing.LEVEL_INFO, TraceEvent.DRIVER_CHANGE, 3, 0);
+        assertEquals(1, ring.getRecordedCount());
+        assertFalse(ring.isEnabled(TraceRing.LEVEL_DEBUG));
+
+        ring.setLevel(TraceRing.LEVEL_OFF);
+        ring.record(TraceRing.LEVEL_INFO, TraceEvent.DRIVER_CHANGE, 4, 0);
+        assertEquals(1, ring.getRecordedCount());
+        assertEquals(1, dump(ring).size());
+    }
+
+    @Test
+    public void keepsNewestEventsWhenFull() {
+        TraceRing ring = new TraceRing(5);
+        assertEquals(8, ring.getCapacity());
+        for (int i = 0; i < 20; i++) {
+            ring.record(TraceRing.LEVEL_INFO, TraceEvent.ACTUATE, i, 0);
+        }
+        List<String> lines = dump(ring);
+        assertEquals(8, lines.size());
+        assertTrue(lines.get(0), lines.get(0).contains("a=12 "));
+        assertTrue(lines.get(7), lines.get(7).contains("a=19 "));
+    }
+
+    @Test
+    public void unknownTypeIsNamedByNumber() {
+        TraceRing ring = new TraceRing(2);
+        ring.record(TraceRing.LEVEL_INFO, 999, 0, 0);
+        assertTrue(dump(ring).get(0).contains("EVENT_999"));
+    }
+
+    @Test
+    public void concurrentWritersNeverProduceTornEvents() throws Exception {
+        TraceRing ring = new TraceRing(256);
+        int threads = 4;
+        int perThread = 200_000;
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int id = t + 1;
+            writers[t] = new Thread(() -> {
+                // 两个参数始终满足 b == a * 7，读到的事件不满足说明混入了其他写入
+                for (int i = 0; i < perThread; i++) {
+                    int a = id * 1_000_000 + i;
+                    ring.record(TraceRing.LEVEL_INFO, TraceEvent.FRAME_RECEIVED, a, a * 7);
+                }
+            });
+            writers[t].start();
+        }
+
+        int checked = 0;
+        while (anyAlive(writers)) {
+            for (String line : dump(ring)) {
+                Matcher m = LINE.matcher(line);
+                assertTrue(line, m.matches());
+                assertEquals(line, "FRAME_RECEIVED", m.group(2));
+                assertEquals(line, Integer.parseInt(m.group(3)) * 7, Integer.parseInt(m.group(4)));
+                checked++;
+            }
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertEquals((long) threads * perThread, ring.getRecordedCount());
+        assertEquals(256, dump(ring).size());
+        assertTrue(checked > 0);
+    }
+
+    private static boolean anyAlive(Thread[] threads) {
+        for (Thread thread : threads) {
+            if (thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void sectionsGoToHookOnlyWhenInstalled() {
+        TraceRing ring = new TraceRing(2);
+        ring.beginSection(TraceEvent.ACTUATE);
+        ring.endSection();
+
+        List<String> calls = new ArrayList<>();
+        ring.setSectionHook(new TraceRing.SectionHook() {
+            @Override
+            public void beginSection(String name) {
+                calls.add("begin " + name);
+            }
+
+            @Override
+            public void endSection() {
+                calls.add("end");
+            }
+        });
+        ring.beginSection(TraceEvent.ACTUATE);
+        ring.endSection();
+        assertEquals(List.of("begin ACTUATE", "end"), calls);
+    }
+}
@@ -0,0 +1,88 @@
+// 每帧热路径的JMH基准测试和服务器压测，纯JVM运行，不依赖Android
+// 基准测试：cd perf && ./gradlew jmh，结果输出到控制台和build/results/jmh/results.txt
+// 压测：cd perf && ./gradlew soak --args="--clients=8 --duration=3600"，参数见SoakOptions
+// 使用native模拟设备压测：先在主机上构建libcarjni（见CarJNI/CarJNI/app/src/main/cpp/CMakeLists.txt），
+// 再 ./gradlew soak --args="--actuator=sim --actuate-us=200"
+plugins {
+    java
+    id("me.champeau.jmh") version "0.7.3"
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+tasks.withType<JavaCompile>().configureEach {
+    options.encoding = "UTF-8"
+}
+
+// 被测代码直接取自各模块的源码目录，只包含不依赖Android的类
+sourceSets {
+    named("jmh") {
+        java {
+            srcDir("../common/src/main/java")
+            srcDir("../car/car/app/src/main/java")
+            srcDir("../CarJNI/CarJNI/app/src/main/java")
+            include(
+                "com/example/perf/**",
+                "com/example/carcommon/**",
+                "com/example/car/JoystickInputFilter.java",
+                "com/example/car/AddressValidator.java",
+                "com/example/carjni/BlackBox.java",
+            )
+        }
+    }
+    // 服务器网络层和执行链路取自CarJNI，android.util.Log由本目录的替代实现提供；
+    // 客户端的录制文件格式用于回放真实的驾驶会话
+    create("soak") {
+        java {
+            srcDir("../common/src/main/java")
+            srcDir("../CarJNI/CarJNI/app/src/main/java")
+            srcDir("../car/car/app/src/main/java")
+            include(
+                "android/util/**",
+                "com/example/perf/**",
+                "com/example/carcommon/**",
+                "com/example/carjni/**",
+                "com/example/car/CommandRecording.java",
+            )
+            exclude("com/example/carjni/MainActivity.java", "com/example/carjni/ControlService.java")
+        }
+    }
+}
+
+tasks.register<JavaExec>("soak") {
+    group = "verification"
+    description = "CarJNI控制服务器的回环负载与稳定性测试"
+    classpath = sourceSets["soak"].runtimeClasspath
+    mainClass.set("com.example.perf.SoakHarness")
+    // 固定堆上限，内存泄漏更早表现为GC后堆占用增长
+    maxHeapSize = "256m"
+    jvmArgs("-Dfile.encoding=UTF-8", "-Dstdout.encoding=UTF-8", "-Dstderr.encoding=UTF-8",
+        "-Djava.library.path=" + file("../CarJNI/CarJNI/build/host").path)
+}
+
+tasks.register<JavaExec>("blackbox") {
+    group = "application"
+    description = "从黑匣子文件中导出一个时间段的记录"
+    classpath = sourceSets["soak"].runtimeClasspath
+    mainClass.set("com.example.perf.BlackBoxDump")
+    jvmArgs("-Dfile.encoding=UTF-8", "-Dstdout.encoding=UTF-8", "-Dstderr.encoding=UTF-8")
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    fork.set(1)
+    warmupIterations.set(3)
+    warmup.set("1s")
+    iterations.set(5)
+    timeOnIteration.set("1s")
+    // gc分析器报告每次操作的分配字节数（gc.alloc.rate.norm）
+    profilers.set(listOf("gc"))
+    resultFormat.set("TEXT")
+    // 只运行部分基准：./gradlew jmh -Pjmh.includes=Joystick
+    if (project.hasProperty("jmh.includes")) {
+        includes.set(listOf(project.property("jmh.includes").toString()))
+    }
+}
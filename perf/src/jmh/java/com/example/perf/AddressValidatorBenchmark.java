@@ -0,0 +1,33 @@
+package com.example.perf;
+
+import com.example.car.AddressValidator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IP地址校验：每次编译正则与预编译的Pattern
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AddressValidatorBenchmark {
+    private final String[] addresses = {"192.168.1.10", "10.0.0.255", "256.1.1.1", "172.16.0.1"};
+    private int index;
+
+    @Benchmark
+    public boolean legacyCompileEachCall() {
+        return Legacy.isValidIp(addresses[index++ & 3]);
+    }
+
+    @Benchmark
+    public boolean precompiledPattern() {
+        return AddressValidator.isValidIp(addresses[index++ & 3]);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.perf;
+
+import com.example.carcommon.TraceEvent;
+import com.example.carcommon.TraceRing;
+import com.example.carjni.BlackBox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 服务端热路径上每条记录的开销：黑匣子写入映射文件，与只在内存中的TraceRing对比
+ * 多线程的用例对应网络线程和执行器线程同时记录
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BlackBoxBenchmark {
+    private final TraceRing traceRing = new TraceRing(4096);
+    private File file;
+    private BlackBox blackBox;
+    private int sequence;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        file = File.createTempFile("blackbox", ".bin");
+        blackBox = new BlackBox(file, BlackBox.DEFAULT_CAPACITY);
+        traceRing.setLevel(TraceRing.LEVEL_DEBUG);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        file.delete();
+    }
+
+    @Benchmark
+    public void blackBoxRecord() {
+        int i = sequence++;
+        blackBox.record(TraceEvent.FRAME_RECEIVED, 1, 3, i, i % 361, i % 101);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void blackBoxRecordTwoThreads() {
+        int i = sequence;
+        blackBox.record(TraceEvent.FRAME_RECEIVED, 1, 3, i, i % 361, i % 101);
+    }
+
+    @Benchmark
+    public void traceRingRecord() {
+        int i = sequence++;
+        traceRing.record(TraceRing.LEVEL_DEBUG, TraceEvent.FRAME_RECEIVED, 3, i % 101);
+    }
+}
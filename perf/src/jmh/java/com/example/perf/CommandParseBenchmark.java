@@ -0,0 +1,59 @@
+package com.example.perf;
+
+import com.example.carcommon.ControlFrame;
+import com.example.carcommon.LegacyTextCommand;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 服务端每帧的解析：
+ * legacySplit       原handleClient的split(": |, ") + parseInt
+ * legacyTextParse   LegacyTextCommand逐字符解析，旧客户端仍走这条路径
+ * binaryDecode      ControlFrame解码，包括校验和
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CommandParseBenchmark {
+    private static final int LINES = 256;
+
+    private final String[] lines = new String[LINES];
+    private final ByteBuffer frames = ByteBuffer.allocate(ControlFrame.SIZE * LINES);
+    private final ControlFrame frame = new ControlFrame();
+    private int index;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < LINES; i++) {
+            lines[i] = "Angle: " + (i * 7 % 361) + ", Speed: " + (i % 101);
+            ControlFrame.encode(frames, ControlFrame.TYPE_CONTROL, i, i * 7 % 361, i % 101, i, i);
+        }
+    }
+
+    @Benchmark
+    public long legacySplit() {
+        return Legacy.parseCommand(lines[index++ & (LINES - 1)]);
+    }
+
+    @Benchmark
+    public int legacyTextParse() {
+        LegacyTextCommand.parse(lines[index++ & (LINES - 1)], frame);
+        return frame.angle ^ frame.speed;
+    }
+
+    @Benchmark
+    public int binaryDecode() {
+        frames.position((index++ & (LINES - 1)) * ControlFrame.SIZE);
+        frame.decode(frames);
+        return frame.angle ^ frame.speed;
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.perf;
+
+import com.example.carcommon.ControlFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 客户端每帧的组帧：原String.format文本协议与ControlFrame二进制编码
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FrameEncodeBenchmark {
+    private final ByteBuffer buffer = ByteBuffer.allocate(ControlFrame.SIZE);
+    private int sequence;
+
+    @Benchmark
+    public byte[] legacyFormat() {
+        int i = sequence++;
+        return Legacy.formatCommand(i % 361, i % 101);
+    }
+
+    @Benchmark
+    public ByteBuffer binaryEncode() {
+        int i = sequence++;
+        buffer.clear();
+        ControlFrame.encode(buffer, ControlFrame.TYPE_CONTROL, i, i % 361, i % 101, i, i);
+        return buffer;
+    }
+}
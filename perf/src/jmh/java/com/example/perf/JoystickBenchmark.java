@@ -0,0 +1,66 @@
+package com.example.perf;
+
+import com.example.car.JoystickInputFilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 摇杆每个触摸采样的计算：
+ * legacy   原calculateDirection，sqrt/atan2/toDegrees加8段if链
+ * filter   JoystickInputFilter.addSample，限幅、平滑、死区和量化
+ * sector   sectorOf，一次除法代替if链
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class JoystickBenchmark {
+    private static final int SAMPLES = 1024;
+    private static final float RADIUS = 300f;
+
+    private final float[] xs = new float[SAMPLES];
+    private final float[] ys = new float[SAMPLES];
+    private final double[] angles = new double[SAMPLES];
+    private final JoystickInputFilter filter = new JoystickInputFilter(0.1f, 16f);
+    private int index;
+    private long time;
+
+    @Setup
+    public void setUp() {
+        // 固定种子，手指在摇杆范围内随机移动，包括超出边缘的采样
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            xs[i] = (random.nextFloat() * 2 - 1) * RADIUS * 1.2f;
+            ys[i] = (random.nextFloat() * 2 - 1) * RADIUS * 1.2f;
+            angles[i] = random.nextDouble() * 360;
+        }
+        filter.setRadius(RADIUS);
+    }
+
+    @Benchmark
+    public long legacyCalculateDirection() {
+        int i = index++ & (SAMPLES - 1);
+        return Legacy.calculateDirection(xs[i], ys[i], RADIUS);
+    }
+
+    @Benchmark
+    public int filterAddSample() {
+        int i = index++ & (SAMPLES - 1);
+        time += 4;
+        filter.addSample(xs[i], ys[i], time);
+        return filter.getAngle() ^ filter.getSpeed();
+    }
+
+    @Benchmark
+    public int sectorOf() {
+        return JoystickInputFilter.sectorOf(angles[index++ & (SAMPLES - 1)]);
+    }
+}
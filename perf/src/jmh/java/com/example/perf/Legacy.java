@@ -0,0 +1,99 @@
+package com.example.perf;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * 优化前的实现，原样保留作为基准测试的对照组
+ */
+final class Legacy {
+    // 与JoystickInputFilter.sectorOf相同的扇区编号：前、左前、左、左后、后、右后、右、右前
+    static final int UP = 0;
+    static final int UP_LEFT = 1;
+    static final int LEFT = 2;
+    static final int DOWN_LEFT = 3;
+    static final int DOWN = 4;
+    static final int DOWN_RIGHT = 5;
+    static final int RIGHT = 6;
+    static final int UP_RIGHT = 7;
+
+    private Legacy() {
+    }
+
+    /**
+     * 原JoystickView.calculateDirection：每个触摸采样都计算距离、角度，并逐个区间比较划分方向
+     *
+     * @return 方向扇区编号，速度比例和角度合并进返回值的高位，避免被JIT消除
+     */
+    static long calculateDirection(float deltaX, float deltaY, float backgroundRadius) {
+        float distance = (float) Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+        float currentSpeedRatio = Math.min(distance / backgroundRadius, 1.0f);
+        double currentAngle = (Math.toDegrees(Math.atan2(-deltaX, -deltaY)) + 360) % 360;
+
+        int newDirection;
+        if (currentAngle >= 337.5 || currentAngle < 22.5) {
+            newDirection = UP;
+        } else if (currentAngle >= 22.5 && currentAngle < 67.5) {
+            newDirection = UP_LEFT;
+        } else if (currentAngle >= 67.5 && currentAngle < 112.5) {
+            newDirection = LEFT;
+        } else if (currentAngle >= 112.5 && currentAngle < 157.5) {
+            newDirection = DOWN_LEFT;
+        } else if (currentAngle >= 157.5 && currentAngle < 202.5) {
+            newDirection = DOWN;
+        } else if (currentAngle >= 202.5 && currentAngle < 247.5) {
+            newDirection = DOWN_RIGHT;
+        } else if (currentAngle >= 247.5 && currentAngle < 292.5) {
+            newDirection = RIGHT;
+        } else {
+            newDirection = UP_RIGHT;
+        }
+
+        if (Math.abs(deltaX) > backgroundRadius * 0.4 &&
+            Math.abs(deltaY) > backgroundRadius * 0.4) {
+            if (newDirection == UP) {
+                newDirection = (deltaX > 0) ? UP_RIGHT : UP_LEFT;
+            } else if (newDirection == DOWN) {
+                newDirection = (deltaX > 0) ? DOWN_RIGHT : DOWN_LEFT;
+            }
+        }
+        return ((long) Float.floatToIntBits(currentSpeedRatio) << 32)
+                ^ ((long) currentAngle << 8) ^ newDirection;
+    }
+
+    /**
+     * 原客户端sendData的组帧：String.format后由PrintWriter.println按默认编码写出
+     */
+    static byte[] formatCommand(double angle, double speed) {
+        String message = String.format(Locale.US, "Angle: %.0f, Speed: %.0f", angle, speed);
+        return (message + "\n").getBytes();
+    }
+
+    /**
+     * 原服务端handleClient的解析：正则split后parseInt
+     *
+     * @return 角度和速度合并为一个long，格式错误返回-1
+     */
+    static long parseCommand(String line) {
+        String[] parts = line.split(": |, ");
+        if (parts.length == 4) {
+            try {
+                int angle = Integer.parseInt(parts[1].trim());
+                int speed = Integer.parseInt(parts[3].trim());
+                return ((long) angle << 32) | (speed & 0xFFFFFFFFL);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 原客户端isValidIp：每次调用都重新编译正则表达式
+     */
+    static boolean isValidIp(String ip) {
+        Pattern pattern = Pattern.compile(
+                "^((25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)$");
+        return pattern.matcher(ip).matches();
+    }
+}
@@ -0,0 +1,40 @@
+package android.util;
+
+/**
+ * 在宿主JVM上运行服务器网络层时替代android.util.Log，只实现服务器用到的方法
+ * 压测中断线重连和注入的错误帧会产生大量日志，默认丢弃；
+ * 以-Dsoak.log=true运行时警告和错误输出到标准错误
+ */
+public final class Log {
+    private static final boolean ENABLED = Boolean.getBoolean("soak.log");
+
+    private Log() {
+    }
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+
+    public static int i(String tag, String msg) {
+        return 0;
+    }
+
+    public static int w(String tag, String msg) {
+        return print("W/", tag, msg);
+    }
+
+    public static int e(String tag, String msg) {
+        return print("E/", tag, msg);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return print("E/", tag, msg + ": " + tr);
+    }
+
+    private static int print(String level, String tag, String msg) {
+        if (ENABLED) {
+            System.err.println(level + tag + ": " + msg);
+        }
+        return 0;
+    }
+}
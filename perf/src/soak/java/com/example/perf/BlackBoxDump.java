@@ -0,0 +1,63 @@
+package com.example.perf;
+
+import com.example.carjni.BlackBox;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 从设备上取回的黑匣子文件中导出一个时间段的记录
+ * <pre>
+ * adb exec-out run-as com.example.carjni cat files/blackbox.bin &gt; blackbox.bin
+ * ./gradlew blackbox --args="blackbox.bin --minutes=2 --end=2026-10-18T09:46:00"
+ * </pre>
+ */
+final class BlackBoxDump {
+    private static final String USAGE = String.join("\n",
+            "用法: blackbox FILE [--minutes=N] [--end=yyyy-MM-ddTHH:mm:ss]",
+            "  --minutes=N   导出的分钟数，默认5",
+            "  --end=TIME    时间段的结束时间（本地时间），默认为文件中最新一条记录");
+
+    private BlackBoxDump() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        File file = null;
+        long minutes = 5;
+        long end = 0;
+        try {
+            for (String arg : args) {
+                if (arg.startsWith("--minutes=")) {
+                    minutes = Long.parseLong(arg.substring("--minutes=".length()));
+                } else if (arg.startsWith("--end=")) {
+                    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.ROOT);
+                    end = format.parse(arg.substring("--end=".length())).getTime();
+                } else if (!arg.startsWith("--") && file == null) {
+                    file = new File(arg);
+                } else {
+                    throw new IllegalArgumentException("无法识别的参数: " + arg);
+                }
+            }
+            if (file == null || minutes <= 0) {
+                throw new IllegalArgumentException("需要黑匣子文件和正数的分钟数");
+            }
+        } catch (IllegalArgumentException | ParseException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        BlackBox.Reader reader = new BlackBox.Reader(file);
+        if (end == 0) {
+            // 包含最新的一条记录
+            end = reader.getNewestEpochMillis() + 1;
+        }
+        int count = reader.dump(end - TimeUnit.MINUTES.toMillis(minutes), end, System.out::println);
+        System.err.println("导出" + count + "条记录");
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.perf;
+
+import com.example.car.CommandRecording;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 摇杆轨迹：按时间排列的(时间, 角度, 速度)采样，压测客户端循环回放
+ *
+ * 文本格式每行一个采样 “毫秒 角度 速度”，时间从0开始递增，#开头的行为注释；
+ * 也可以直接使用客户端录制的.crec文件，取其中的摇杆事件；
+ * 没有指定文件时按固定种子生成，包括停车、起步、转向和急停
+ */
+final class JoystickTrace {
+    private final long[] millis;
+    private final int[] angles;
+    private final int[] speeds;
+    private final long durationMillis;
+
+    private JoystickTrace(long[] millis, int[] angles, int[] speeds, int count) {
+        if (count == 0) {
+            throw new IllegalArgumentException("轨迹为空");
+        }
+        this.millis = Arrays.copyOf(millis, count);
+        this.angles = Arrays.copyOf(angles, count);
+        this.speeds = Arrays.copyOf(speeds, count);
+        // 最后一个采样保持一个平均采样间隔后再从头回放
+        this.durationMillis = this.millis[count - 1] + Math.max(1, this.millis[count - 1] / count);
+    }
+
+    /**
+     * 读取轨迹文件
+     *
+     * @param file 轨迹文件
+     * @return 轨迹
+     * @throws IOException 读取失败或格式错误
+     */
+    static JoystickTrace load(File file) throws IOException {
+        if (file.getName().endsWith(".crec")) {
+            return loadRecording(file);
+        }
+        long[] millis = new long[1024];
+        int[] angles = new int[1024];
+        int[] speeds = new int[1024];
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                try {
+                    if (fields.length != 3) {
+                        throw new NumberFormatException("需要3列");
+                    }
+                    long time = Long.parseLong(fields[0]);
+                    if (count > 0 && time < millis[count - 1]) {
+                        throw new NumberFormatException("时间倒退");
+                    }
+                    if (count == millis.length) {
+                        millis = Arrays.copyOf(millis, count * 2);
+                        angles = Arrays.copyOf(angles, count * 2);
+                        speeds = Arrays.copyOf(speeds, count * 2);
+                    }
+                    millis[count] = time;
+                    angles[count] = Integer.parseInt(fields[1]);
+                    speeds[count] = Integer.parseInt(fields[2]);
+                    count++;
+                } catch (NumberFormatException e) {
+                    throw new IOException(file + ":" + lineNumber + " 格式错误: " + e.getMessage());
+                }
+            }
+        }
+        return new JoystickTrace(millis, angles, speeds, count);
+    }
+
+    private static JoystickTrace loadRecording(File file) throws IOException {
+        long[] millis = new long[1024];
+        int[] angles = new int[1024];
+        int[] speeds = new int[1024];
+        int count = 0;
+        long firstNanos = -1;
+        CommandRecording.Record record = new CommandRecording.Record();
+        try (CommandRecording.Reader reader = new CommandRecording.Reader(file)) {
+            while (reader.next(record)) {
+                if (record.kind != CommandRecording.KIND_JOYSTICK) {
+                    continue;
+                }
+                if (firstNanos < 0) {
+                    firstNanos = record.timeNanos;
+                }
+                if (count == millis.length) {
+                    millis = Arrays.copyOf(millis, count * 2);
+                    angles = Arrays.copyOf(angles, count * 2);
+                    speeds = Arrays.copyOf(speeds, count * 2);
+                }
+                millis[count] = (record.timeNanos - firstNanos) / 1_000_000;
+                angles[count] = record.angle;
+                speeds[count] = record.speed;
+                count++;
+            }
+        }
+        return new JoystickTrace(millis, angles, speeds, count);
+    }
+
+    /**
+     * 生成一段轨迹，每个片段随机选择停车或以某个目标速度行驶，行驶中方向随机游走
+     *
+     * @param seed           随机种子，不同客户端使用不同种子
+     * @param durationMillis 轨迹长度（毫秒）
+     * @param stepMillis     采样间隔（毫秒）
+     * @return 轨迹
+     */
+    static JoystickTrace generate(long seed, long durationMillis, int stepMillis) {
+        Random random = new Random(seed);
+        int count = (int) (durationMillis / stepMillis);
+        long[] millis = new long[count];
+        int[] angles = new int[count];
+        int[] speeds = new int[count];
+
+        double angle = random.nextInt(360);
+        double speed = 0;
+        double targetSpeed = 0;
+        long segmentEnd = 0;
+        for (int i = 0; i < count; i++) {
+            long time = (long) i * stepMillis;
+            if (time >= segmentEnd) {
+                segmentEnd = time + 500 + random.nextInt(2500);
+                // 四分之一的片段停车，其余以随机速度行驶
+                targetSpeed = random.nextInt(4) == 0 ? 0 : 20 + random.nextInt(81);
+            }
+            // 速度一阶逼近目标，方向每个采样随机偏转几度
+            speed += (targetSpeed - speed) * 0.2;
+            angle = (angle + random.nextGaussian() * 4 + 360) % 360;
+            millis[i] = time;
+            speeds[i] = (int) Math.round(speed);
+            angles[i] = speeds[i] == 0 ? 0 : (int) angle;
+        }
+        return new JoystickTrace(millis, angles, speeds, count);
+    }
+
+    /**
+     * 查找回放到某一时刻时生效的采样，超出轨迹长度后从头循环
+     *
+     * @param elapsedMillis 回放开始后经过的时间（毫秒）
+     * @return 采样下标
+     */
+    int indexAt(long elapsedMillis) {
+        long t = elapsedMillis % durationMillis;
+        int index = Arrays.binarySearch(millis, t);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        return Math.max(index, 0);
+    }
+
+    int angle(int index) {
+        return angles[index];
+    }
+
+    int speed(int index) {
+        return speeds[index];
+    }
+
+    int size() {
+        return millis.length;
+    }
+}
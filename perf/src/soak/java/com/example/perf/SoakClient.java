@@ -0,0 +1,283 @@
+package com.example.perf;
+
+import com.example.carcommon.ControlFrame;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 压测用的模拟手机客户端，每个实例一个线程
+ * 按固定频率回放摇杆轨迹，发送与手机相同的二进制控制帧，并读取服务器的ACK
+ *
+ * 每个客户端绑定不同的127.0.0.x地址，服务器把它们当作不同的手机，而不是同一手机的重连
+ * 连接后先发送偏差为0的CLOCK帧（与服务器在同一JVM中，时钟相同），服务器据此统计发送→接收延迟
+ *
+ * 可选地每隔若干帧发送一个校验和错误的帧（TCP服务器会断开连接），或定期主动断开重连
+ * 统计数据只由客户端线程写入
+ */
+final class SoakClient implements Runnable {
+    private static final long RECONNECT_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long WRITE_RETRY_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final int index;
+    private final boolean udp;
+    private final InetSocketAddress server;
+    private final InetAddress localAddress;
+    private final JoystickTrace trace;
+    private final long periodNanos;
+    private final int malformedEvery;
+    private final long reconnectEveryNanos;
+
+    private final ByteBuffer txBuffer = ByteBuffer.allocate(ControlFrame.SIZE);
+    private final ByteBuffer rxBuffer = ByteBuffer.allocate(ControlFrame.SIZE * 64);
+    private final ControlFrame reply = new ControlFrame();
+
+    private ByteChannel channel;
+    private long connectedAtNanos;
+    private int sequence;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    // 统计数据
+    private volatile long framesSent;
+    private volatile long controlFramesSent;
+    private volatile long malformedSent;
+    private volatile long acksReceived;
+    private volatile long connectCount;
+    private volatile long disconnectCount;
+    private volatile long blockedWrites;
+    private volatile long lateTicks;
+
+    /**
+     * @param index               客户端编号，从0开始，决定本地地址和轨迹种子
+     * @param udp                 使用UDP，否则使用TCP
+     * @param server              服务器地址
+     * @param trace               回放的轨迹
+     * @param rateHz              发送频率
+     * @param malformedEvery      每隔多少帧发送一个错误帧，0表示不发送
+     * @param reconnectEveryNanos 主动重连的间隔（纳秒），0表示不重连
+     */
+    SoakClient(int index, boolean udp, InetSocketAddress server, JoystickTrace trace,
+               int rateHz, int malformedEvery, long reconnectEveryNanos) throws IOException {
+        if (index < 0 || index >= 250 * 256) {
+            throw new IllegalArgumentException("index: " + index);
+        }
+        this.index = index;
+        this.udp = udp;
+        this.server = server;
+        this.trace = trace;
+        this.periodNanos = TimeUnit.SECONDS.toNanos(1) / rateHz;
+        this.malformedEvery = malformedEvery;
+        this.reconnectEveryNanos = reconnectEveryNanos;
+        // 127.0.0.1留给服务器，客户端从127.0.0.2开始，超过253个时使用127.0.x.y
+        int host = index + 2;
+        this.localAddress = InetAddress.getByAddress(new byte[]{127, 0, (byte) (host >> 8), (byte) host});
+    }
+
+    synchronized void start() {
+        running = true;
+        thread = new Thread(this, "soak-client-" + index);
+        thread.start();
+    }
+
+    synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        long next = start;
+        while (running) {
+            long now = System.nanoTime();
+            if (channel == null) {
+                if (!connect()) {
+                    LockSupport.parkNanos(RECONNECT_DELAY_NANOS);
+                    continue;
+                }
+                now = System.nanoTime();
+            }
+            if (now < next) {
+                LockSupport.parkNanos(next - now);
+                continue;
+            }
+            long scheduled = next;
+            next += periodNanos;
+            if (now - next > periodNanos) {
+                // 线程被调度延迟超过一个周期：不补发积压的帧，从现在重新计时
+                lateTicks++;
+                next = now + periodNanos;
+            }
+
+            int sample = trace.indexAt(TimeUnit.NANOSECONDS.toMillis(scheduled - start));
+            txBuffer.clear();
+            // origin为计划发送时间，服务器统计的触摸→发送即为客户端的调度抖动
+            ControlFrame.encode(txBuffer, ControlFrame.TYPE_CONTROL, ++sequence,
+                    trace.angle(sample), trace.speed(sample), System.nanoTime(), scheduled);
+            if (malformedEvery > 0 && sequence % malformedEvery == 0) {
+                txBuffer.put(ControlFrame.SIZE - 1, (byte) (txBuffer.get(ControlFrame.SIZE - 1) ^ 0x55));
+                malformedSent++;
+            } else {
+                controlFramesSent++;
+            }
+            txBuffer.flip();
+            if (!write() || !drainReplies()) {
+                disconnect();
+                continue;
+            }
+            if (reconnectEveryNanos > 0 && now - connectedAtNanos >= reconnectEveryNanos) {
+                disconnect();
+            }
+        }
+        if (channel != null) {
+            disconnect();
+        }
+    }
+
+    private boolean connect() {
+        try {
+            if (udp) {
+                DatagramChannel datagram = DatagramChannel.open();
+                datagram.bind(new InetSocketAddress(localAddress, 0));
+                datagram.connect(server);
+                datagram.configureBlocking(false);
+                channel = datagram;
+            } else {
+                SocketChannel socket = SocketChannel.open();
+                socket.bind(new InetSocketAddress(localAddress, 0));
+                socket.socket().setTcpNoDelay(true);
+                socket.connect(server);
+                socket.configureBlocking(false);
+                channel = socket;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        connectCount++;
+        connectedAtNanos = System.nanoTime();
+        rxBuffer.clear();
+        txBuffer.clear();
+        ControlFrame.encode(txBuffer, ControlFrame.TYPE_CLOCK, ++sequence, 0, 0, 0, 0);
+        txBuffer.flip();
+        if (!write()) {
+            disconnect();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 非阻塞写入整帧，发送缓冲区满时稍后重试，不丢弃半帧以免TCP数据流错位
+     *
+     * @return 连接仍然可用返回true
+     */
+    private boolean write() {
+        try {
+            while (txBuffer.hasRemaining()) {
+                if (channel.write(txBuffer) == 0) {
+                    blockedWrites++;
+                    if (!running) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(WRITE_RETRY_NANOS);
+                }
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        framesSent++;
+        return true;
+    }
+
+    /**
+     * 读取服务器已经发来的应答，只统计ACK的数量
+     *
+     * @return 连接仍然可用返回true
+     */
+    private boolean drainReplies() {
+        try {
+            int n;
+            while ((n = channel.read(rxBuffer)) > 0) {
+                rxBuffer.flip();
+                while (rxBuffer.remaining() >= ControlFrame.SIZE) {
+                    if (reply.decode(rxBuffer) == ControlFrame.DECODE_OK
+                            && reply.type == ControlFrame.TYPE_ACK) {
+                        acksReceived++;
+                    }
+                }
+                rxBuffer.compact();
+            }
+            return n >= 0;
+        } catch (IOException e) {
+            // UDP在服务器端口不可达时会收到PortUnreachableException
+            return false;
+        }
+    }
+
+    private void disconnect() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 已经断开
+        }
+        channel = null;
+        disconnectCount++;
+    }
+
+    /** @return 发送的帧总数，包括CLOCK帧和错误帧 */
+    long getFramesSent() {
+        return framesSent;
+    }
+
+    /** @return 发送的有效控制帧数 */
+    long getControlFramesSent() {
+        return controlFramesSent;
+    }
+
+    /** @return 故意发送的错误帧数 */
+    long getMalformedSent() {
+        return malformedSent;
+    }
+
+    /** @return 收到的ACK数 */
+    long getAcksReceived() {
+        return acksReceived;
+    }
+
+    /** @return 建立连接的次数 */
+    long getConnectCount() {
+        return connectCount;
+    }
+
+    /** @return 断开连接的次数，包括主动重连和服务器断开 */
+    long getDisconnectCount() {
+        return disconnectCount;
+    }
+
+    /** @return 发送缓冲区满导致写入重试的次数 */
+    long getBlockedWrites() {
+        return blockedWrites;
+    }
+
+    /** @return 调度延迟超过一个周期的次数 */
+    long getLateTicks() {
+        return lateTicks;
+    }
+}
@@ -0,0 +1,421 @@
+package com.example.perf;
+
+import com.example.carcommon.LatencyHistogram;
+import com.example.carcommon.TraceEvent;
+import com.example.carjni.Actuator;
+import com.example.carjni.ActuatorThread;
+import com.example.carjni.BlackBox;
+import com.example.carjni.CommandInterpolator;
+import com.example.carjni.CommandListener;
+import com.example.carjni.DeadmanWatchdog;
+import com.example.carjni.LatencyTracker;
+import com.example.carjni.NativeActuator;
+import com.example.carjni.RedundantCommandFilter;
+import com.example.carjni.TcpControlServer;
+import com.example.carjni.UdpControlServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CarJNI控制服务器的回环负载与长时间稳定性测试，在普通Linux主机上运行，不需要Android设备
+ *
+ * 在同一JVM中启动与ControlService相同的服务端链路（网络服务器、看门狗、执行器线程、冗余指令过滤），
+ * controlCar替换为可设置耗时的桩实现，由N个模拟客户端按固定频率回放摇杆轨迹；
+ * --actuator=sim时桩实现改为调用native-lib.cpp的模拟设备，JNI调用和native执行器后端也计入延迟，
+ * 需要先在主机上构建libcarjni（见CarJNI/CarJNI/app/src/main/cpp/CMakeLists.txt）
+ *
+ * 每个报告周期输出一行：吞吐量、丢帧、错误帧、重连次数、各阶段延迟分位数、线程数、堆和文件描述符，
+ * 结束时输出总结和延迟直方图；长时间运行时线程数、GC后的堆占用和文件描述符不应持续增长
+ *
+ * 运行：cd perf && ./gradlew soak --args="--clients=8 --rate=50 --duration=3600"
+ */
+public final class SoakHarness {
+    private static final long DEADMAN_DEADLINE_MS = 150;
+    private static final long COMMAND_KEEPALIVE_MS = 500;
+    // 与ControlService相同的插值参数，频率由--interpolate-hz指定
+    private static final long INTERPOLATION_DELAY_MS = 0;
+    private static final long EXTRAPOLATION_HORIZON_MS = 60;
+    private static final long EXTRAPOLATION_DECAY_MS = 80;
+    private static final long GENERATED_TRACE_MS = 60_000;
+    private static final int GENERATED_TRACE_STEP_MS = 16;
+
+    private final SoakOptions options;
+    private final LatencyTracker tracker = new LatencyTracker();
+    private final StubActuator stub;
+    private final RedundantCommandFilter filter;
+    private final ActuatorThread actuatorThread;
+    private final DeadmanWatchdog watchdog;
+    private final List<SoakClient> clients = new ArrayList<>();
+    private TcpControlServer tcpServer;
+    private UdpControlServer udpServer;
+    private BlackBox blackBox;
+    private CommandInterpolator interpolator;
+
+    private final long startNanos = System.nanoTime();
+    private long lastReportNanos = startNanos;
+    private long lastSent;
+    private long lastArrived;
+    private Sample firstSample;
+    private Sample lastSample;
+
+    /**
+     * 服务端资源占用的一次采样
+     */
+    private static final class Sample {
+        final int threads;
+        final long heapUsed;
+        final long heapAfterGc;
+        final int openFiles;
+
+        Sample(int threads, long heapUsed, long heapAfterGc, int openFiles) {
+            this.threads = threads;
+            this.heapUsed = heapUsed;
+            this.heapAfterGc = heapAfterGc;
+            this.openFiles = openFiles;
+        }
+    }
+
+    /**
+     * 桩执行器：只计数，并按设置的时间忙等，模拟ioctl的耗时；
+     * 设置了native模拟设备时改为调用它，由native按同样的时间忙等
+     */
+    private static final class StubActuator implements Actuator {
+        private final long busyNanos;
+        private volatile long callCount;
+        private BlackBox blackBox;
+        private NativeActuator device;
+
+        StubActuator(long busyNanos) {
+            this.busyNanos = busyNanos;
+        }
+
+        @Override
+        public void controlCar(int angle, int speed) {
+            if (blackBox != null) {
+                blackBox.record(TraceEvent.ACTUATE, 0, 0, 0, angle, speed);
+            }
+            if (device != null) {
+                device.controlCar(angle, speed);
+            } else if (busyNanos > 0) {
+                long end = System.nanoTime() + busyNanos;
+                while (System.nanoTime() < end) {
+                    Thread.onSpinWait();
+                }
+            }
+            callCount++;
+        }
+    }
+
+    private SoakHarness(SoakOptions options) {
+        this.options = options;
+        this.stub = new StubActuator(TimeUnit.MICROSECONDS.toNanos(options.actuateMicros));
+        this.filter = new RedundantCommandFilter(stub, COMMAND_KEEPALIVE_MS);
+        this.actuatorThread = new ActuatorThread(filter, tracker);
+        this.watchdog = new DeadmanWatchdog(DEADMAN_DEADLINE_MS, actuatorThread);
+    }
+
+    public static void main(String[] args) throws Exception {
+        SoakOptions options;
+        try {
+            options = SoakOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(SoakOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        new SoakHarness(options).run();
+    }
+
+    private void run() throws IOException, InterruptedException {
+        // 与ControlService.onCommand相同：喂看门狗后交给执行器线程，插值模式下交给插值线程
+        if (options.interpolateHz > 0) {
+            interpolator = new CommandInterpolator(options.interpolateHz, INTERPOLATION_DELAY_MS,
+                    EXTRAPOLATION_HORIZON_MS, EXTRAPOLATION_DECAY_MS, actuatorThread::submit);
+        }
+        CommandListener listener = frame -> {
+            watchdog.feed(frame.speed);
+            if (interpolator != null) {
+                interpolator.onSample(frame.angle, frame.speed, frame.receivedNanos);
+            } else {
+                actuatorThread.submit(frame.angle, frame.speed, frame.receivedNanos);
+            }
+        };
+        // 与ControlService.openBlackBox相同的记录点
+        if (options.blackBox != null) {
+            blackBox = new BlackBox(options.blackBox, BlackBox.DEFAULT_CAPACITY);
+            stub.blackBox = blackBox;
+            filter.setBlackBox(blackBox);
+            actuatorThread.setBlackBox(blackBox);
+            watchdog.setBlackBox(blackBox);
+        }
+        if (options.nativeActuator) {
+            openNativeActuator();
+        }
+        actuatorThread.start();
+        if (interpolator != null) {
+            interpolator.start();
+        }
+        watchdog.start();
+        int port;
+        if (options.udp) {
+            udpServer = new UdpControlServer(options.port, listener, tracker);
+            udpServer.setBlackBox(blackBox);
+            udpServer.start();
+            port = udpServer.getLocalPort();
+        } else {
+            tcpServer = new TcpControlServer(options.port, options.clients, listener, tracker);
+            tcpServer.setBlackBox(blackBox);
+            tcpServer.start();
+            port = tcpServer.getLocalPort();
+        }
+
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+        JoystickTrace recorded = options.trace == null ? null : JoystickTrace.load(options.trace);
+        for (int i = 0; i < options.clients; i++) {
+            JoystickTrace trace = recorded != null ? recorded
+                    : JoystickTrace.generate(i, GENERATED_TRACE_MS, GENERATED_TRACE_STEP_MS);
+            clients.add(new SoakClient(i, options.udp, address, trace, options.rateHz,
+                    options.malformedEvery, TimeUnit.SECONDS.toNanos(options.reconnectSeconds)));
+        }
+
+        PrintWriter csv = options.csv == null ? null : new PrintWriter(options.csv, "UTF-8");
+        System.out.println("soak: " + (options.udp ? "UDP" : "TCP") + " port=" + port
+                + " clients=" + options.clients + " rate=" + options.rateHz + "Hz"
+                + " duration=" + options.durationSeconds + "s"
+                + " trace=" + (recorded != null ? options.trace + " (" + recorded.size() + " samples)" : "generated"));
+        firstSample = sample();
+        printHeader(csv);
+        for (SoakClient client : clients) {
+            client.start();
+        }
+
+        long endNanos = startNanos + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        long intervalNanos = TimeUnit.SECONDS.toNanos(options.reportSeconds);
+        long nextReport = startNanos + intervalNanos;
+        while (System.nanoTime() < endNanos) {
+            long wait = Math.min(nextReport, endNanos) - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            if (System.nanoTime() >= nextReport) {
+                report(csv);
+                nextReport += intervalNanos;
+            }
+        }
+
+        for (SoakClient client : clients) {
+            client.stop();
+        }
+        // 等待已发出的帧到达并执行完，再做最终统计
+        TimeUnit.MILLISECONDS.sleep(200);
+        lastSample = sample();
+        if (csv != null) {
+            csv.close();
+        }
+        printSummary();
+
+        if (tcpServer != null) {
+            tcpServer.stop();
+        }
+        if (udpServer != null) {
+            udpServer.stop();
+        }
+        watchdog.stop();
+        if (interpolator != null) {
+            interpolator.stop();
+        }
+        actuatorThread.stop();
+        if (stub.device != null) {
+            stub.device.close();
+        }
+    }
+
+    /**
+     * 加载主机构建的libcarjni并打开模拟设备，每条指令的耗时取--actuate-us
+     *
+     * @throws IOException 模拟设备的记录文件打开失败
+     */
+    private void openNativeActuator() throws IOException {
+        System.loadLibrary("carjni");
+        NativeActuator device = new NativeActuator(NativeActuator.BACKEND_SIMULATED,
+                options.actuatorLog == null ? null : options.actuatorLog.getPath(), (int) options.actuateMicros);
+        int result = device.open();
+        if (result < 0) {
+            throw new IOException("模拟设备打开失败: " + result);
+        }
+        stub.device = device;
+    }
+
+    private static final String HEADER = "elapsed_s,sent_per_s,recv_per_s,sent,received,applied,actuated,"
+            + "dropped,malformed,reconnects,send_recv_p50_ms,send_recv_p99_ms,"
+            + "recv_ioctl_p50_ms,recv_ioctl_p99_ms,recv_ioctl_p999_ms,threads,heap_mb,heap_after_gc_mb,fds";
+
+    private static void printHeader(PrintWriter csv) {
+        System.out.println(HEADER);
+        if (csv != null) {
+            csv.println(HEADER);
+            csv.flush();
+        }
+    }
+
+    /**
+     * 输出一个报告周期的统计，每列含义见HEADER
+     */
+    private void report(PrintWriter csv) {
+        long now = System.nanoTime();
+        double seconds = (now - lastReportNanos) / 1e9;
+        lastReportNanos = now;
+
+        long sent = 0;
+        long reconnects = 0;
+        for (SoakClient client : clients) {
+            sent += client.getFramesSent();
+            reconnects += Math.max(0, client.getConnectCount() - 1);
+        }
+        long arrived = arrivedCount();
+        LatencyHistogram network = tracker.getStage(LatencyTracker.STAGE_SEND_TO_RECEIVE);
+        LatencyHistogram processing = tracker.getStage(LatencyTracker.STAGE_RECEIVE_TO_ACTUATE);
+        lastSample = sample();
+
+        StringBuilder line = new StringBuilder(160);
+        line.append((now - startNanos) / 1_000_000_000L)
+                .append(',').append(Math.round((sent - lastSent) / seconds))
+                .append(',').append(Math.round((arrived - lastArrived) / seconds))
+                .append(',').append(sent)
+                .append(',').append(arrived)
+                .append(',').append(serverAppliedCount())
+                .append(',').append(stub.callCount)
+                .append(',').append(Math.max(0, sent - arrived))
+                .append(',').append(serverMalformedCount())
+                .append(',').append(reconnects);
+        appendMillis(line, network.percentile(0.5));
+        appendMillis(line, network.percentile(0.99));
+        appendMillis(line, processing.percentile(0.5));
+        appendMillis(line, processing.percentile(0.99));
+        appendMillis(line, processing.percentile(0.999));
+        line.append(',').append(lastSample.threads)
+                .append(',').append(lastSample.heapUsed >> 20)
+                .append(',').append(lastSample.heapAfterGc >> 20)
+                .append(',').append(lastSample.openFiles);
+        lastSent = sent;
+        lastArrived = arrived;
+
+        System.out.println(line);
+        if (csv != null) {
+            csv.println(line);
+            csv.flush();
+        }
+    }
+
+    private void printSummary() {
+        long framesSent = 0;
+        long malformedSent = 0;
+        long acks = 0;
+        long disconnects = 0;
+        long blocked = 0;
+        long late = 0;
+        for (SoakClient client : clients) {
+            framesSent += client.getFramesSent();
+            malformedSent += client.getMalformedSent();
+            acks += client.getAcksReceived();
+            disconnects += client.getDisconnectCount();
+            blocked += client.getBlockedWrites();
+            late += client.getLateTicks();
+        }
+        System.out.println();
+        System.out.println("== 客户端 ==");
+        System.out.println("发送帧 " + framesSent + "（其中错误帧 " + malformedSent + "），ACK " + acks
+                + "，断开 " + disconnects + "，写入阻塞 " + blocked + "，调度延迟 " + late);
+        System.out.println("== 服务端 ==");
+        System.out.println("有效帧 " + serverFrameCount() + "，错误帧 " + serverMalformedCount()
+                + "，丢失 " + droppedCount() + "，交给执行器 " + serverAppliedCount());
+        if (tcpServer != null) {
+            System.out.println("TCP 接受连接 " + tcpServer.getAcceptedCount() + "，拒绝 " + tcpServer.getRejectedCount()
+                    + "，驾驶者变化 " + tcpServer.getDriverChangeCount());
+        } else {
+            System.out.println("UDP 过期 " + udpServer.getStaleCount() + "，合并 " + udpServer.getCoalescedCount()
+                    + "，ACK " + udpServer.getAckCount());
+        }
+        System.out.println("执行器 执行 " + actuatorThread.getAppliedCount() + "，合并 " + actuatorThread.getCoalescedCount()
+                + "，controlCar " + stub.callCount + "（过滤 " + filter.getSuppressedCount() + "）"
+                + "，看门狗停车 " + watchdog.getTripCount());
+        if (stub.device != null) {
+            System.out.println("模拟设备 下发失败 " + stub.device.getErrorCount() + "（最近 " + stub.device.getLastError()
+                    + "）" + (options.actuatorLog != null ? "，记录: " + options.actuatorLog : ""));
+        }
+        if (interpolator != null) {
+            System.out.println("插值 计算 " + interpolator.getTickCount() + "，下发 " + interpolator.getSubmittedCount()
+                    + "，插值 " + interpolator.getInterpolatedCount() + "，外推 " + interpolator.getExtrapolatedCount()
+                    + "，衰减 " + interpolator.getDecayedCount() + "，超时停车 " + interpolator.getTimeoutCount());
+        }
+        if (blackBox != null) {
+            System.out.println("黑匣子 累计记录 " + blackBox.getRecordedCount() + "（容量 " + blackBox.getCapacity()
+                    + "）: " + options.blackBox);
+        }
+        System.out.println("== 资源（开始 → 结束） ==");
+        System.out.println("线程 " + firstSample.threads + " → " + lastSample.threads
+                + "，GC后堆 " + (firstSample.heapAfterGc >> 20) + "MB → " + (lastSample.heapAfterGc >> 20) + "MB"
+                + "，文件描述符 " + firstSample.openFiles + " → " + lastSample.openFiles);
+        System.out.println("== 延迟 ==");
+        System.out.println(tracker.appendSummary(new StringBuilder()));
+    }
+
+    /**
+     * @return 到达服务器的帧数，包括错误帧；与客户端发送的帧数之差即为丢失的帧：
+     * TCP为断开时还在缓冲区中的帧，UDP为丢失的数据报，报告周期内仍在传输中的帧也会暂时计入
+     */
+    private long arrivedCount() {
+        return udpServer != null ? udpServer.getReceivedCount()
+                : tcpServer.getFrameCount() + tcpServer.getMalformedCount();
+    }
+
+    private long droppedCount() {
+        long sent = 0;
+        for (SoakClient client : clients) {
+            sent += client.getFramesSent();
+        }
+        return Math.max(0, sent - arrivedCount());
+    }
+
+    private long serverFrameCount() {
+        return udpServer != null ? udpServer.getReceivedCount() - udpServer.getMalformedCount()
+                : tcpServer.getFrameCount();
+    }
+
+    private long serverAppliedCount() {
+        return udpServer != null ? udpServer.getAppliedCount() : tcpServer.getAppliedCount();
+    }
+
+    private long serverMalformedCount() {
+        return udpServer != null ? udpServer.getMalformedCount() : tcpServer.getMalformedCount();
+    }
+
+    private static void appendMillis(StringBuilder out, long nanos) {
+        out.append(',').append(nanos / 1000 / 1000.0);
+    }
+
+    private static Sample sample() {
+        long heapAfterGc = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (pool.getType() == MemoryType.HEAP && usage != null) {
+                heapAfterGc += usage.getUsed();
+            }
+        }
+        String[] fds = new File("/proc/self/fd").list();
+        return new Sample(ManagementFactory.getThreadMXBean().getThreadCount(),
+                ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(),
+                heapAfterGc, fds == null ? -1 : fds.length);
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.perf;
+
+import com.example.carjni.CommandInterpolator;
+
+import java.io.File;
+
+/**
+ * 压测参数，命令行格式为 --名称=值
+ */
+final class SoakOptions {
+    static final String USAGE = String.join("\n",
+            "参数:",
+            "  --transport=tcp|udp   协议，默认tcp",
+            "  --port=N              服务器端口，默认0（由系统分配）",
+            "  --clients=N           模拟客户端数，默认4",
+            "  --rate=HZ             每个客户端的发送频率，默认50",
+            "  --duration=S          运行时间（秒），默认60",
+            "  --report=S            报告间隔（秒），默认5",
+            "  --reconnect=S         每个客户端主动重连的间隔（秒），默认0（不重连）",
+            "  --malformed-every=N   每N帧发送一个校验和错误的帧，默认0（不发送）",
+            "  --actuate-us=US       桩controlCar每次调用的耗时（微秒），默认200",
+            "  --actuator=stub|sim   stub为Java桩；sim加载主机构建的libcarjni，使用native模拟设备，默认stub",
+            "  --actuator-log=FILE   sim模式下模拟设备同时把指令写入该文件或FIFO",
+            "  --trace=FILE          回放的轨迹文件（每行：毫秒 角度 速度，或客户端录制的.crec），默认随机生成",
+            "  --csv=FILE            同时把报告写入CSV文件",
+            "  --blackbox=FILE       同时把帧、执行决定和controlCar调用写入黑匣子文件",
+            "  --interpolate-hz=HZ   开启插值执行，按该频率下发插值/外推的指令，默认0（关闭）");
+
+    boolean udp;
+    int port;
+    int clients = 4;
+    int rateHz = 50;
+    long durationSeconds = 60;
+    long reportSeconds = 5;
+    long reconnectSeconds;
+    int malformedEvery;
+    long actuateMicros = 200;
+    boolean nativeActuator;
+    File actuatorLog;
+    File trace;
+    File csv;
+    File blackBox;
+    int interpolateHz;
+
+    private SoakOptions() {
+    }
+
+    /**
+     * @param args 命令行参数
+     * @return 解析结果
+     * @throws IllegalArgumentException 参数无法识别或取值超出范围
+     */
+    static SoakOptions parse(String[] args) {
+        SoakOptions options = new SoakOptions();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("无法识别的参数: " + arg);
+            }
+            String name = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "transport":
+                    if (!value.equals("tcp") && !value.equals("udp")) {
+                        throw new IllegalArgumentException("transport只能是tcp或udp: " + value);
+                    }
+                    options.udp = value.equals("udp");
+                    break;
+                case "port":
+                    options.port = (int) number(name, value, 0, 65535);
+                    break;
+                case "clients":
+                    options.clients = (int) number(name, value, 1, 250 * 256);
+                    break;
+                case "rate":
+                    options.rateHz = (int) number(name, value, 1, 10_000);
+                    break;
+                case "duration":
+                    options.durationSeconds = number(name, value, 1, Long.MAX_VALUE / 1_000_000_000L);
+                    break;
+                case "report":
+                    options.reportSeconds = number(name, value, 1, 86_400);
+                    break;
+                case "reconnect":
+                    options.reconnectSeconds = number(name, value, 0, 86_400);
+                    break;
+                case "malformed-every":
+                    options.malformedEvery = (int) number(name, value, 0, Integer.MAX_VALUE);
+                    break;
+                case "actuate-us":
+                    options.actuateMicros = number(name, value, 0, 1_000_000);
+                    break;
+                case "actuator":
+                    if (!value.equals("stub") && !value.equals("sim")) {
+                        throw new IllegalArgumentException("actuator只能是stub或sim: " + value);
+                    }
+                    options.nativeActuator = value.equals("sim");
+                    break;
+                case "actuator-log":
+                    options.actuatorLog = new File(value);
+                    break;
+                case "trace":
+                    options.trace = new File(value);
+                    break;
+                case "csv":
+                    options.csv = new File(value);
+                    break;
+                case "blackbox":
+                    options.blackBox = new File(value);
+                    break;
+                case "interpolate-hz":
+                    options.interpolateHz = (int) number(name, value, 0, CommandInterpolator.MAX_RATE_HZ);
+                    break;
+                default:
+                    throw new IllegalArgumentException("无法识别的参数: " + arg);
+            }
+        }
+        return options;
+    }
+
+    private static long number(String name, String value, long min, long max) {
+        long result;
+        try {
+            result = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + "不是整数: " + value);
+        }
+        if (result < min || result > max) {
+            throw new IllegalArgumentException(name + "超出范围[" + min + ", " + max + "]: " + value);
+        }
+        return result;
+    }
+}